@@ -0,0 +1,74 @@
+package org.ormfux.common.benchmarks.db;
+
+import java.util.Date;
+
+import org.ormfux.common.db.annotation.Column;
+import org.ormfux.common.db.annotation.Entity;
+import org.ormfux.common.db.annotation.Id;
+import org.ormfux.common.db.annotation.Version;
+import org.ormfux.common.db.generators.RandomIdGenerator;
+
+/**
+ * Simple entity for the benchmarks.
+ */
+@Entity(table = "bench_item")
+public class BenchItem {
+    
+    @Column(columnName = "id", columnLabel = "id")
+    @Id(RandomIdGenerator.class)
+    private String id;
+    
+    @Column(columnName = "version", columnLabel = "version")
+    @Version
+    private long version;
+    
+    @Column(columnName = "name", columnLabel = "name")
+    private String name;
+    
+    @Column(columnName = "amount", columnLabel = "amount")
+    private Long amount;
+    
+    @Column(columnName = "created", columnLabel = "created")
+    private Date created;
+    
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(final String id) {
+        this.id = id;
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    public void setVersion(final long version) {
+        this.version = version;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public void setName(final String name) {
+        this.name = name;
+    }
+    
+    public Long getAmount() {
+        return amount;
+    }
+    
+    public void setAmount(final Long amount) {
+        this.amount = amount;
+    }
+    
+    public Date getCreated() {
+        return created;
+    }
+    
+    public void setCreated(final Date created) {
+        this.created = created;
+    }
+    
+}
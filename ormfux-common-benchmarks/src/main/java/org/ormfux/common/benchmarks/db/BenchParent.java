@@ -0,0 +1,77 @@
+package org.ormfux.common.benchmarks.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ormfux.common.db.annotation.CollectionOfEntities;
+import org.ormfux.common.db.annotation.Column;
+import org.ormfux.common.db.annotation.Entity;
+import org.ormfux.common.db.annotation.Id;
+import org.ormfux.common.db.annotation.Version;
+import org.ormfux.common.db.generators.RandomIdGenerator;
+
+/**
+ * Entity with collections for the benchmarks. One collection is mapped with a join column, the 
+ * other with a join table.
+ */
+@Entity(table = "bench_parent")
+public class BenchParent {
+    
+    @Column(columnName = "id", columnLabel = "id")
+    @Id(RandomIdGenerator.class)
+    private String id;
+    
+    @Column(columnName = "version", columnLabel = "version")
+    @Version
+    private long version;
+    
+    @Column(columnName = "name", columnLabel = "name")
+    private String name;
+    
+    @CollectionOfEntities(joinColumn = "parent")
+    private List<BenchItem> items = new ArrayList<>();
+    
+    @CollectionOfEntities(joinTable = "bench_parent_tag", joinColumn = "parent_id", inverseJoinColumn = "item_id")
+    private List<BenchItem> tags = new ArrayList<>();
+    
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(final String id) {
+        this.id = id;
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    public void setVersion(final long version) {
+        this.version = version;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public void setName(final String name) {
+        this.name = name;
+    }
+    
+    public List<BenchItem> getItems() {
+        return items;
+    }
+    
+    public void setItems(final List<BenchItem> items) {
+        this.items = items;
+    }
+    
+    public List<BenchItem> getTags() {
+        return tags;
+    }
+    
+    public void setTags(final List<BenchItem> tags) {
+        this.tags = tags;
+    }
+    
+}
@@ -0,0 +1,190 @@
+package org.ormfux.common.benchmarks.db;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.ormfux.common.db.query.QueryManager;
+import org.ormfux.common.db.query.connection.H2DbConnectionProvider;
+
+/**
+ * Database for the benchmarks. Creates an in-memory or file-backed H2 database with a fixed 
+ * data set of items and parents, which each own {@link #CHILDREN_PER_PARENT} items and 
+ * reference {@link #TAGS_PER_PARENT} items via a join table.
+ */
+@State(Scope.Benchmark)
+public class DbBenchmarkState {
+    
+    /**
+     * The number of items in the join column collection of each parent.
+     */
+    public static final int CHILDREN_PER_PARENT = 10;
+    
+    /**
+     * The number of items in the join table collection of each parent.
+     */
+    public static final int TAGS_PER_PARENT = 5;
+    
+    /**
+     * The kind of database: {@code mem} or {@code file}.
+     */
+    @Param({"mem", "file"})
+    public String storage;
+    
+    /**
+     * The number of items in the database.
+     */
+    @Param({"1000"})
+    public int itemCount;
+    
+    /**
+     * The manager for the benchmark queries.
+     */
+    public QueryManager queryManager;
+    
+    /**
+     * The ids of the items.
+     */
+    public List<String> itemIds;
+    
+    /**
+     * The ids of the parents.
+     */
+    public List<String> parentIds;
+    
+    /**
+     * The directory of the file database.
+     */
+    private Path dbDirectory;
+    
+    /**
+     * The JDBC URL of the database.
+     */
+    private String dbUrl;
+    
+    /**
+     * Creates the database and the data set.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if ("file".equals(storage)) {
+            dbDirectory = Files.createTempDirectory("ormfux-benchmark");
+            dbUrl = "jdbc:h2:file:" + dbDirectory.resolve("benchdb").toAbsolutePath();
+        } else {
+            dbUrl = "jdbc:h2:mem:benchdb";
+        }
+        
+        queryManager = new QueryManager();
+        queryManager.setDatabase(H2DbConnectionProvider.class, 
+                                 dbUrl, 
+                                 "DB_CLOSE_DELAY=-1", 
+                                 "MODE=MYSQL", 
+                                 "DATABASE_TO_UPPER=false", 
+                                 "AUTOCOMMIT=false");
+        
+        queryManager.createQuery("DROP ALL OBJECTS").executeUpdate();
+        queryManager.createQuery("create table bench_item (id varchar(255) not null primary key, version bigint, name varchar(255), "
+                                                       + "amount bigint, created timestamp, parent varchar(255))").executeUpdate();
+        queryManager.createQuery("create index idx_bench_item_parent on bench_item (parent)").executeUpdate();
+        queryManager.createQuery("create table bench_parent (id varchar(255) not null primary key, version bigint, name varchar(255))").executeUpdate();
+        queryManager.createQuery("create table bench_parent_tag (parent_id varchar(255), item_id varchar(255))").executeUpdate();
+        queryManager.createQuery("create index idx_bench_parent_tag on bench_parent_tag (parent_id)").executeUpdate();
+        
+        insertData();
+    }
+    
+    /**
+     * Inserts the data set with plain JDBC batches.
+     */
+    private void insertData() throws Exception {
+        itemIds = new ArrayList<>(itemCount);
+        parentIds = new ArrayList<>(itemCount / CHILDREN_PER_PARENT);
+        
+        try (Connection connection = openConnection();
+             PreparedStatement itemInsert = connection.prepareStatement("insert into bench_item (id, version, name, amount, created, parent) values (?, 0, ?, ?, ?, ?)");
+             PreparedStatement parentInsert = connection.prepareStatement("insert into bench_parent (id, version, name) values (?, 0, ?)");
+             PreparedStatement tagInsert = connection.prepareStatement("insert into bench_parent_tag (parent_id, item_id) values (?, ?)")) {
+            
+            for (int itemIdx = 0; itemIdx < itemCount; itemIdx++) {
+                final String parentId = "parent" + (itemIdx / CHILDREN_PER_PARENT);
+                
+                if (itemIdx % CHILDREN_PER_PARENT == 0) {
+                    parentIds.add(parentId);
+                    parentInsert.setString(1, parentId);
+                    parentInsert.setString(2, "name of " + parentId);
+                    parentInsert.addBatch();
+                }
+                
+                final String itemId = "item" + itemIdx;
+                itemIds.add(itemId);
+                
+                itemInsert.setString(1, itemId);
+                itemInsert.setString(2, "name of " + itemId);
+                itemInsert.setLong(3, itemIdx);
+                itemInsert.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+                itemInsert.setString(5, parentId);
+                itemInsert.addBatch();
+                
+                if (itemIdx % CHILDREN_PER_PARENT < TAGS_PER_PARENT) {
+                    tagInsert.setString(1, parentId);
+                    tagInsert.setString(2, "item" + ((itemIdx * 7) % itemCount));
+                    tagInsert.addBatch();
+                }
+            }
+            
+            parentInsert.executeBatch();
+            itemInsert.executeBatch();
+            tagInsert.executeBatch();
+            connection.commit();
+        }
+    }
+    
+    /**
+     * Shuts the database down and removes the database files.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        try (Connection connection = openConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+        
+        if (dbDirectory != null) {
+            deleteDirectory(dbDirectory);
+        }
+    }
+    
+    /**
+     * Opens a plain JDBC connection to the benchmark database.
+     */
+    public Connection openConnection() throws java.sql.SQLException {
+        final Connection connection = DriverManager.getConnection(dbUrl + ";DB_CLOSE_DELAY=-1;MODE=MYSQL;DATABASE_TO_UPPER=false");
+        connection.setAutoCommit(false);
+        
+        return connection;
+    }
+    
+    /**
+     * Deletes the directory with all its content.
+     */
+    private void deleteDirectory(final Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+    
+}
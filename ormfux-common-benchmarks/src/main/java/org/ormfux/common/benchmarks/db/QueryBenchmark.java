@@ -0,0 +1,160 @@
+package org.ormfux.common.benchmarks.db;
+
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.ormfux.common.db.query.Query;
+import org.ormfux.common.db.query.QueryResult;
+import org.ormfux.common.db.query.QueryResult.QueryResultRow;
+import org.ormfux.common.db.query.ResultExporter;
+import org.ormfux.common.db.query.ResultExporter.Format;
+
+/**
+ * Benchmarks for native queries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+    
+    /**
+     * The number of scalar parameters in the parameter-heavy query.
+     */
+    private static final int SCALAR_PARAM_COUNT = 20;
+    
+    /**
+     * The number of ids in the collection parameter of the parameter-heavy query.
+     */
+    private static final int COLLECTION_PARAM_SIZE = 200;
+    
+    /**
+     * Discards everything written to it.
+     */
+    private static final OutputStream DISCARDING_STREAM = new OutputStream() {
+        
+        @Override
+        public void write(final int b) {
+        }
+        
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+        }
+    };
+    
+    /**
+     * A result for the iteration benchmark.
+     */
+    private QueryResult queryResult;
+    
+    /**
+     * The parameter-heavy query with named parameters.
+     */
+    private String parameterHeavyQuery;
+    
+    /**
+     * The parameter values for the parameter-heavy query.
+     */
+    private Map<String, Object> parameterHeavyValues;
+    
+    /**
+     * The exporter for the export benchmark.
+     */
+    private ResultExporter csvExporter;
+    
+    /**
+     * Index of the next item to update.
+     */
+    private int nextItemIdx;
+    
+    /**
+     * Prepares the per-thread data.
+     */
+    @Setup(Level.Trial)
+    public void setUp(final DbBenchmarkState db) {
+        queryResult = db.queryManager.createQuery("select id, name, amount, created from bench_item").getResultList();
+        
+        final StringBuilder queryString = new StringBuilder("select id, amount from bench_item where id in :ids and (");
+        parameterHeavyValues = new HashMap<>();
+        
+        for (int paramIdx = 0; paramIdx < SCALAR_PARAM_COUNT; paramIdx++) {
+            queryString.append(paramIdx > 0 ? " or " : "").append("amount = :amount").append(paramIdx);
+            parameterHeavyValues.put("amount" + paramIdx, (long) paramIdx);
+        }
+        
+        parameterHeavyQuery = queryString.append(')').toString();
+        csvExporter = new ResultExporter(Format.CSV);
+        parameterHeavyValues.put("ids", db.itemIds.subList(0, Math.min(COLLECTION_PARAM_SIZE, db.itemIds.size())));
+    }
+    
+    /**
+     * Selects all items.
+     */
+    @Benchmark
+    public QueryResult getResultList(final DbBenchmarkState db) {
+        return db.queryManager.createQuery("select id, name, amount, created from bench_item").getResultList();
+    }
+    
+    /**
+     * Selects with many scalar parameters and a collection parameter.
+     */
+    @Benchmark
+    public QueryResult getResultListManyParameters(final DbBenchmarkState db) {
+        final Query query = db.queryManager.createQuery(parameterHeavyQuery);
+        query.addParameters(parameterHeavyValues);
+        
+        return query.getResultList();
+    }
+    
+    /**
+     * Iterates an already loaded result reading the values by name.
+     */
+    @Benchmark
+    public void iterateQueryResult(final Blackhole blackhole) {
+        for (final QueryResultRow row : queryResult) {
+            blackhole.consume(row.getValue("id"));
+            blackhole.consume(row.getValue("name"));
+            blackhole.consume(row.getValue("amount"));
+            blackhole.consume(row.getValue("created"));
+        }
+    }
+    
+    /**
+     * Exports all items as CSV, discarding the output.
+     */
+    @Benchmark
+    public long exportCsv(final DbBenchmarkState db) {
+        return csvExporter.export(db.queryManager.createQuery("select id, name, amount, created from bench_item"), 
+                                  DISCARDING_STREAM);
+    }
+    
+    /**
+     * Updates a single row.
+     */
+    @Benchmark
+    public int executeUpdate(final DbBenchmarkState db) {
+        final List<String> itemIds = db.itemIds;
+        final Query query = db.queryManager.createQuery("update bench_item set amount = amount + 1 where id = :id");
+        query.addParameter("id", itemIds.get(nextItemIdx++ % itemIds.size()));
+        
+        return query.executeUpdate();
+    }
+    
+}
@@ -0,0 +1,116 @@
+package org.ormfux.common.benchmarks.db;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ormfux.common.db.query.TypedQuery;
+import org.ormfux.common.utils.DateUtils;
+
+/**
+ * Benchmarks for entity queries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypedQueryBenchmark {
+    
+    /**
+     * The number of items selected by the list benchmark.
+     */
+    private static final long ITEM_LIST_SIZE = 100;
+    
+    /**
+     * The number of parents selected by the collection benchmark.
+     */
+    private static final int PARENT_LIST_SIZE = 10;
+    
+    /**
+     * The item, which is updated repeatedly.
+     */
+    private BenchItem updateItem;
+    
+    /**
+     * Index of the next item to load.
+     */
+    private int nextItemIdx;
+    
+    /**
+     * Loads the item to update.
+     */
+    @Setup(Level.Trial)
+    public void setUp(final DbBenchmarkState db) {
+        updateItem = db.queryManager.createQuery(BenchItem.class).load(db.itemIds.get(0));
+    }
+    
+    /**
+     * Loads a single item by id.
+     */
+    @Benchmark
+    public BenchItem load(final DbBenchmarkState db) {
+        return db.queryManager.createQuery(BenchItem.class).load(db.itemIds.get(nextItemIdx++ % db.itemIds.size()));
+    }
+    
+    /**
+     * Selects a list of items without collections.
+     */
+    @Benchmark
+    public List<BenchItem> getResultList(final DbBenchmarkState db) {
+        final TypedQuery<BenchItem> query = db.queryManager.createQuery(BenchItem.class, "where bench_item.amount < :limit");
+        query.addParameter("limit", ITEM_LIST_SIZE);
+        
+        return query.getResultList();
+    }
+    
+    /**
+     * Selects a list of parents with their item collections.
+     */
+    @Benchmark
+    public List<BenchParent> getResultListWithCollections(final DbBenchmarkState db) {
+        final TypedQuery<BenchParent> query = db.queryManager.createQuery(BenchParent.class, "where bench_parent.id in :ids");
+        query.addParameter("ids", db.parentIds.subList(0, Math.min(PARENT_LIST_SIZE, db.parentIds.size())));
+        
+        return query.getResultList();
+    }
+    
+    /**
+     * Updates an existing item (including the version check).
+     */
+    @Benchmark
+    public Object update(final DbBenchmarkState db) {
+        updateItem.setAmount(updateItem.getAmount() + 1);
+        
+        return db.queryManager.createQuery(BenchItem.class).update(updateItem);
+    }
+    
+    /**
+     * Creates a new item and deletes it again.
+     */
+    @Benchmark
+    public int createAndDelete(final DbBenchmarkState db) {
+        final TypedQuery<BenchItem> query = db.queryManager.createQuery(BenchItem.class);
+        
+        final BenchItem item = new BenchItem();
+        item.setName("transient item");
+        item.setAmount(-1L);
+        item.setCreated(DateUtils.now());
+        
+        query.update(item);
+        
+        return query.delete(item);
+    }
+    
+}
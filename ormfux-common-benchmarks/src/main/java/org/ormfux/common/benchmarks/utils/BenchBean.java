@@ -0,0 +1,51 @@
+package org.ormfux.common.benchmarks.utils;
+
+/**
+ * Bean for the reflection benchmarks. Has properties with accessors for String, primitive and 
+ * boxed values, a nested bean, and a public field without accessors.
+ */
+public class BenchBean {
+    
+    public String publicField;
+    
+    private String name;
+    
+    private int count;
+    
+    private Long amount;
+    
+    private BenchBean child;
+    
+    public String getName() {
+        return name;
+    }
+    
+    public void setName(final String name) {
+        this.name = name;
+    }
+    
+    public int getCount() {
+        return count;
+    }
+    
+    public void setCount(final int count) {
+        this.count = count;
+    }
+    
+    public Long getAmount() {
+        return amount;
+    }
+    
+    public void setAmount(final Long amount) {
+        this.amount = amount;
+    }
+    
+    public BenchBean getChild() {
+        return child;
+    }
+    
+    public void setChild(final BenchBean child) {
+        this.child = child;
+    }
+    
+}
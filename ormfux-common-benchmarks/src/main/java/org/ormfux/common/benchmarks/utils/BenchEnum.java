@@ -0,0 +1,24 @@
+package org.ormfux.common.benchmarks.utils;
+
+/**
+ * Enum for the reflection benchmarks. One value has a body, which makes it a sub-class of the enum.
+ */
+public enum BenchEnum {
+    
+    PLAIN,
+    
+    WITH_BODY {
+        @Override
+        public String describe() {
+            return "with body";
+        }
+    };
+    
+    /**
+     * Some behavior that can be overridden.
+     */
+    public String describe() {
+        return name();
+    }
+    
+}
@@ -0,0 +1,99 @@
+package org.ormfux.common.benchmarks.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ormfux.common.utils.object.EqualsBuilder;
+
+/**
+ * Benchmarks for the {@link EqualsBuilder}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EqualsBuilderBenchmark {
+    
+    /**
+     * The first compared bean.
+     */
+    private BenchBean bean1;
+    
+    /**
+     * A bean equal to the first one.
+     */
+    private BenchBean equalBean;
+    
+    /**
+     * A bean differing from the first one in the first compared property.
+     */
+    private BenchBean differentBean;
+    
+    /**
+     * Creates the beans.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        bean1 = createBean("name");
+        equalBean = createBean("name");
+        differentBean = createBean("other name");
+    }
+    
+    /**
+     * Creates a bean with the name.
+     */
+    private BenchBean createBean(final String name) {
+        final BenchBean bean = new BenchBean();
+        bean.setName(name);
+        bean.setCount(5);
+        bean.setAmount(5000L);
+        
+        return bean;
+    }
+    
+    /**
+     * Compares equal beans by all properties.
+     */
+    @Benchmark
+    public boolean equalValues() {
+        return new EqualsBuilder<>(bean1, equalBean).append(BenchBean::getName)
+                                                    .append(BenchBean::getCount)
+                                                    .append(BenchBean::getAmount)
+                                                    .isEquals();
+    }
+    
+    /**
+     * Compares beans, which differ in the first property.
+     */
+    @Benchmark
+    public boolean differentValues() {
+        return new EqualsBuilder<>(bean1, differentBean).append(BenchBean::getName)
+                                                        .append(BenchBean::getCount)
+                                                        .append(BenchBean::getAmount)
+                                                        .isEquals();
+    }
+    
+    /**
+     * Compares a bean with itself.
+     */
+    @Benchmark
+    public boolean sameInstance() {
+        return new EqualsBuilder<>(bean1, bean1).append(BenchBean::getName)
+                                                .append(BenchBean::getCount)
+                                                .append(BenchBean::getAmount)
+                                                .isEquals();
+    }
+    
+}
@@ -0,0 +1,193 @@
+package org.ormfux.common.benchmarks.utils;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ormfux.common.utils.reflection.ClassUtils;
+import org.ormfux.common.utils.reflection.MethodUtils;
+import org.ormfux.common.utils.reflection.PropertyUtils;
+
+/**
+ * Benchmarks for the reflection utilities used on the entity hot paths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReflectionBenchmark {
+    
+    /**
+     * The bean to read from and write to.
+     */
+    private BenchBean bean;
+    
+    /**
+     * Boxed value for the setters; kept in a field to avoid constant folding.
+     */
+    private Integer countValue;
+    
+    /**
+     * Boxed value for the setters; kept in a field to avoid constant folding.
+     */
+    private Long amountValue;
+    
+    /**
+     * Creates the bean with a nested bean.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        bean = new BenchBean();
+        bean.setName("name");
+        bean.setCount(1);
+        bean.setAmount(1L);
+        bean.publicField = "field value";
+        
+        final BenchBean child = new BenchBean();
+        child.setName("child name");
+        bean.setChild(child);
+        
+        countValue = 42;
+        amountValue = 42L;
+    }
+    
+    /**
+     * Reads a property through its getter.
+     */
+    @Benchmark
+    public Object readSimple() {
+        return PropertyUtils.read(bean, "name");
+    }
+    
+    /**
+     * Reads a public field, which has no getter.
+     */
+    @Benchmark
+    public Object readFieldFallback() {
+        return PropertyUtils.read(bean, "publicField");
+    }
+    
+    /**
+     * Writes a property with a setter for a primitive value.
+     */
+    @Benchmark
+    public BenchBean writePrimitive() {
+        PropertyUtils.write(bean, "count", countValue);
+        
+        return bean;
+    }
+    
+    /**
+     * Writes a property with a setter for a boxed value.
+     */
+    @Benchmark
+    public BenchBean writeBoxed() {
+        PropertyUtils.write(bean, "amount", amountValue);
+        
+        return bean;
+    }
+    
+    /**
+     * Writes a public field, which has no setter.
+     */
+    @Benchmark
+    public BenchBean writeFieldFallback() {
+        PropertyUtils.write(bean, "publicField", "field value");
+        
+        return bean;
+    }
+    
+    /**
+     * Reads a simple property via a getter path.
+     */
+    @Benchmark
+    public Object invokeGetterPathSimple() throws Exception {
+        return MethodUtils.invokePropertyGetterPath(bean, "name", false);
+    }
+    
+    /**
+     * Reads a nested property via a getter path.
+     */
+    @Benchmark
+    public Object invokeGetterPathNested() throws Exception {
+        return MethodUtils.invokePropertyGetterPath(bean, "child.name", false);
+    }
+    
+    /**
+     * Writes a simple property via a setter path.
+     */
+    @Benchmark
+    public Object invokeSetterPathSimple() throws Exception {
+        return MethodUtils.invokePropertySetterPath(bean, "name", "name", false);
+    }
+    
+    /**
+     * Writes a nested property via a setter path.
+     */
+    @Benchmark
+    public Object invokeSetterPathNested() throws Exception {
+        return MethodUtils.invokePropertySetterPath(bean, "child.name", "child name", false);
+    }
+    
+    /**
+     * Writes a nested primitive property via a setter path.
+     */
+    @Benchmark
+    public Object invokeSetterPathNestedPrimitive() throws Exception {
+        return MethodUtils.invokePropertySetterPath(bean, "child.count", countValue, false);
+    }
+    
+    /**
+     * Collects all fields of the class hierarchy.
+     */
+    @Benchmark
+    public List<Field> getAllFields() {
+        return ClassUtils.getAllFields(BenchBean.class);
+    }
+    
+    /**
+     * Creates an instance with the no-argument constructor.
+     */
+    @Benchmark
+    public BenchBean createObject() {
+        return ClassUtils.createObject(BenchBean.class);
+    }
+    
+    /**
+     * Checks writeability including the value type check.
+     */
+    @Benchmark
+    public boolean isWriteable() {
+        return ClassUtils.isWriteable(BenchBean.class, "amount", amountValue);
+    }
+    
+    /**
+     * Determines the class of a plain enum value.
+     */
+    @Benchmark
+    public Class<?> getClassPlainEnum() {
+        return ClassUtils.getClass(BenchEnum.PLAIN);
+    }
+    
+    /**
+     * Determines the class of an enum value with a body (i.e. an enum sub-class).
+     */
+    @Benchmark
+    public Class<?> getClassEnumSubclass() {
+        return ClassUtils.getClass(BenchEnum.WITH_BODY);
+    }
+    
+}
@@ -0,0 +1,20 @@
+package org.ormfux.common.db.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Container for multiple {@link NamedQuery} annotations of an entity class.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface NamedQueries {
+    
+    /**
+     * The named queries.
+     */
+    public NamedQuery[] value();
+    
+}
@@ -0,0 +1,28 @@
+package org.ormfux.common.db.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation for entity classes defining a query for the entity, which is registered once and then
+ * created by its name.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Repeatable(NamedQueries.class)
+public @interface NamedQuery {
+    
+    /**
+     * The unique name of the query, e.g. {@code "Order.byCustomer"}.
+     */
+    public String name();
+    
+    /**
+     * The suffix (joins, where conditions, sort, etc.) of the query.
+     */
+    public String suffix() default "";
+    
+}
@@ -0,0 +1,26 @@
+package org.ormfux.common.db.converters;
+
+import java.sql.ResultSet;
+
+/**
+ * Reads the value of a column from a result set as a specific Java type. Converters 
+ * should use the typed getters of the result set (e.g. {@link ResultSet#getLong(int)}) and
+ * return {@code null} for SQL {@code NULL} values.
+ *
+ * @param <T> The Java type of the read value.
+ */
+@FunctionalInterface
+public interface ValueConverter<T> {
+    
+    /**
+     * Reads the value from the current row of the result set.
+     * 
+     * @param resultSet The result set positioned on the row to read.
+     * @param columnIdx The (1-based) index of the column to read.
+     * @return The value; {@code null} when the column value is {@code NULL}.
+     * 
+     * @throws java.sql.SQLException
+     */
+    public T read(ResultSet resultSet, int columnIdx) throws java.sql.SQLException;
+    
+}
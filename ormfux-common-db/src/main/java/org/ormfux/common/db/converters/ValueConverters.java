@@ -0,0 +1,154 @@
+package org.ormfux.common.db.converters;
+
+import static org.ormfux.common.utils.NullableUtils.nonNull;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ormfux.common.utils.NullableUtils;
+
+/**
+ * Registry of the {@link ValueConverter}s by Java type. There are converters for the primitive 
+ * types and their wrappers, Strings, numbers, {@code java.util.Date}, the {@code java.sql} date 
+ * types, {@code java.time} types, and enums (mapped by name). Custom converters can be registered 
+ * for further types or to replace the default ones. Types without converter are read with 
+ * {@link ResultSet#getObject(int)}.
+ */
+public final class ValueConverters {
+    
+    /**
+     * Converter for types that have no specific converter.
+     */
+    public static final ValueConverter<Object> OBJECT_CONVERTER = ResultSet::getObject;
+    
+    /**
+     * The converters by target type.
+     */
+    private static final Map<Class<?>, ValueConverter<?>> CONVERTERS = new ConcurrentHashMap<>();
+    
+    static {
+        registerDefaults();
+    }
+    
+    private ValueConverters() {
+        throw new IllegalAccessError(ValueConverters.class.getSimpleName() + " class is not intended to be instantiated");
+    }
+    
+    /**
+     * Registers a converter for a type. Replaces the current converter of the type.
+     * 
+     * @param type The Java type.
+     * @param converter The converter.
+     */
+    public static <T> void register(final Class<T> type, final ValueConverter<? extends T> converter) {
+        CONVERTERS.put(Objects.requireNonNull(type), Objects.requireNonNull(converter));
+    }
+    
+    /**
+     * Removes all custom converters and restores the default ones.
+     */
+    public static void reset() {
+        CONVERTERS.clear();
+        registerDefaults();
+    }
+    
+    /**
+     * Gets the converter for the type.
+     * 
+     * @param type The Java type.
+     * @return The converter; {@link #OBJECT_CONVERTER} when there is no specific converter.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public static ValueConverter<?> getConverter(final Class<?> type) {
+        final ValueConverter<?> converter = CONVERTERS.get(type);
+        
+        if (nonNull(converter)) {
+            return converter;
+            
+        } else if (type.isEnum()) {
+            return (resultSet, columnIdx) -> NullableUtils.retrieve(resultSet.getString(columnIdx), 
+                                                                    name -> Enum.valueOf((Class<Enum>) type, name));
+            
+        } else {
+            return OBJECT_CONVERTER;
+        }
+    }
+    
+    /**
+     * Registers the default converters.
+     */
+    private static void registerDefaults() {
+        register(String.class, ResultSet::getString);
+        
+        final ValueConverter<Long> longConverter = (resultSet, columnIdx) -> nullIfWasNull(resultSet, resultSet.getLong(columnIdx));
+        register(Long.class, longConverter);
+        register(long.class, longConverter);
+        
+        final ValueConverter<Integer> intConverter = (resultSet, columnIdx) -> nullIfWasNull(resultSet, resultSet.getInt(columnIdx));
+        register(Integer.class, intConverter);
+        register(int.class, intConverter);
+        
+        final ValueConverter<Short> shortConverter = (resultSet, columnIdx) -> nullIfWasNull(resultSet, resultSet.getShort(columnIdx));
+        register(Short.class, shortConverter);
+        register(short.class, shortConverter);
+        
+        final ValueConverter<Byte> byteConverter = (resultSet, columnIdx) -> nullIfWasNull(resultSet, resultSet.getByte(columnIdx));
+        register(Byte.class, byteConverter);
+        register(byte.class, byteConverter);
+        
+        final ValueConverter<Double> doubleConverter = (resultSet, columnIdx) -> nullIfWasNull(resultSet, resultSet.getDouble(columnIdx));
+        register(Double.class, doubleConverter);
+        register(double.class, doubleConverter);
+        
+        final ValueConverter<Float> floatConverter = (resultSet, columnIdx) -> nullIfWasNull(resultSet, resultSet.getFloat(columnIdx));
+        register(Float.class, floatConverter);
+        register(float.class, floatConverter);
+        
+        final ValueConverter<Boolean> booleanConverter = (resultSet, columnIdx) -> nullIfWasNull(resultSet, resultSet.getBoolean(columnIdx));
+        register(Boolean.class, booleanConverter);
+        register(boolean.class, booleanConverter);
+        
+        register(BigDecimal.class, ResultSet::getBigDecimal);
+        register(BigInteger.class, (resultSet, columnIdx) -> NullableUtils.retrieve(resultSet.getBigDecimal(columnIdx), BigDecimal::toBigInteger));
+        register(byte[].class, ResultSet::getBytes);
+        
+        register(Date.class, ResultSet::getTimestamp);
+        register(Timestamp.class, ResultSet::getTimestamp);
+        register(java.sql.Date.class, ResultSet::getDate);
+        register(Time.class, ResultSet::getTime);
+        
+        register(Instant.class, (resultSet, columnIdx) -> NullableUtils.retrieve(resultSet.getTimestamp(columnIdx), Timestamp::toInstant));
+        register(LocalDateTime.class, (resultSet, columnIdx) -> NullableUtils.retrieve(resultSet.getTimestamp(columnIdx), Timestamp::toLocalDateTime));
+        register(LocalDate.class, (resultSet, columnIdx) -> NullableUtils.retrieve(resultSet.getDate(columnIdx), java.sql.Date::toLocalDate));
+        register(LocalTime.class, (resultSet, columnIdx) -> NullableUtils.retrieve(resultSet.getTime(columnIdx), Time::toLocalTime));
+        register(OffsetDateTime.class, (resultSet, columnIdx) -> resultSet.getObject(columnIdx, OffsetDateTime.class));
+    }
+    
+    /**
+     * Checks if the last read value was SQL {@code NULL}.
+     * 
+     * @param resultSet The result set from which the value was read.
+     * @param value The read value.
+     * @return The value; {@code null} when the column value was {@code NULL}.
+     */
+    private static <T> T nullIfWasNull(final ResultSet resultSet, final T value) throws java.sql.SQLException {
+        if (resultSet.wasNull()) {
+            return null;
+        } else {
+            return value;
+        }
+    }
+    
+}
@@ -0,0 +1,28 @@
+package org.ormfux.common.db.exception;
+
+/**
+ * Exception to be thrown when a query result exceeds the configured number of rows or bytes.
+ */
+public class ResultLimitExceededException extends SQLException {
+    
+    /**
+     * Serial version uid.
+     */
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * @param message Exception message.
+     */
+    public ResultLimitExceededException(final String message) {
+        super(message);
+    }
+    
+    /**
+     * @param message Exception message.
+     * @param cause nested Exception. 
+     */
+    public ResultLimitExceededException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+    
+}
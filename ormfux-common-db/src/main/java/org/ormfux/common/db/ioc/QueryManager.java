@@ -1,8 +1,18 @@
 package org.ormfux.common.db.ioc;
 
+import java.nio.file.Path;
+
+import org.ormfux.common.db.query.CollectionParameterMode;
+import org.ormfux.common.db.query.IdentityMap;
 import org.ormfux.common.db.query.Query;
+import org.ormfux.common.db.query.QueryListener;
+import org.ormfux.common.db.query.QueryOptions;
 import org.ormfux.common.db.query.TypedQuery;
+import org.ormfux.common.db.query.UnitOfWork;
+import org.ormfux.common.db.query.WriteBehindQueue;
 import org.ormfux.common.db.query.connection.AbstractDbConnectionProvider;
+import org.ormfux.common.db.query.connection.BackupFormat;
+import org.ormfux.common.db.query.connection.BackupProgressListener;
 import org.ormfux.common.db.query.connection.DbConnectionProvider;
 import org.ormfux.common.di.annotations.Bean;
 import org.ormfux.common.di.annotations.BeanConstructor;
@@ -73,6 +83,157 @@ public class QueryManager {
         return wrappedManager.createQuery(entityType, querySuffix, entityAlias);
     }
     
+    /**
+     * Registers a native query under a name after validating it against the database.
+     * 
+     * @param name The unique name of the query.
+     * @param queryString The query.
+     * 
+     * @see org.ormfux.common.db.query.QueryManager#registerNamedQuery(String, String)
+     */
+    public void registerNamedQuery(final String name, final String queryString) {
+        wrappedManager.registerNamedQuery(name, queryString);
+    }
+    
+    /**
+     * Registers a query for the entity type under a name after validating it against the database.
+     * 
+     * @param name The unique name of the query.
+     * @param entityType The type of entity to query.
+     * @param querySuffix The suffix for the query.
+     * 
+     * @see org.ormfux.common.db.query.QueryManager#registerNamedQuery(String, Class, String)
+     */
+    public void registerNamedQuery(final String name, final Class<?> entityType, final String querySuffix) {
+        wrappedManager.registerNamedQuery(name, entityType, querySuffix);
+    }
+    
+    /**
+     * Registers the queries defined with {@code @NamedQuery} annotations on the entity types.
+     * 
+     * @param entityTypes The entity types.
+     */
+    public void registerNamedQueries(final Class<?>... entityTypes) {
+        wrappedManager.registerNamedQueries(entityTypes);
+    }
+    
+    /**
+     * Creates a new query from a registered native query.
+     * 
+     * @param name The name of the query.
+     */
+    public Query createNamedQuery(final String name) {
+        return wrappedManager.createNamedQuery(name);
+    }
+    
+    /**
+     * Creates a new query from a registered query for the entity type.
+     * 
+     * @param name The name of the query.
+     * @param entityType The type of entity to query.
+     */
+    public <T> TypedQuery<T> createNamedQuery(final String name, final Class<T> entityType) {
+        return wrappedManager.createNamedQuery(name, entityType);
+    }
+    
+    /**
+     * Creates a new unit of work, which collects the writes of its queries until it is flushed.
+     */
+    public UnitOfWork createUnitOfWork() {
+        return wrappedManager.createUnitOfWork();
+    }
+    
+    /**
+     * Creates a new write-behind queue, which writes the updates of its queries asynchronously in batches.
+     * 
+     * @param capacity The maximum number of queued entities.
+     * @param journalFile The file journaling the queued updates; {@code null} for none.
+     */
+    public WriteBehindQueue createWriteBehindQueue(final int capacity, final Path journalFile) {
+        return wrappedManager.createWriteBehindQueue(capacity, journalFile);
+    }
+    
+    /**
+     * Writes the entities of the identity map and the validated named queries to a snapshot file.
+     * 
+     * @param identityMap The entities to write.
+     * @param snapshotFile The snapshot file.
+     */
+    public void writeCacheSnapshot(final IdentityMap identityMap, final Path snapshotFile) {
+        wrappedManager.writeCacheSnapshot(identityMap, snapshotFile);
+    }
+    
+    /**
+     * Restores the entities and named queries of a snapshot, which are still up to date.
+     * 
+     * @param snapshotFile The snapshot file.
+     * @return The restored entities.
+     */
+    public IdentityMap restoreCacheSnapshot(final Path snapshotFile) {
+        return wrappedManager.restoreCacheSnapshot(snapshotFile);
+    }
+    
+    /**
+     * Registers a listener, which is notified about each query executed through this manager.
+     * 
+     * @param listener The listener.
+     */
+    public void addQueryListener(final QueryListener listener) {
+        wrappedManager.addQueryListener(listener);
+    }
+    
+    /**
+     * Removes a registered query listener.
+     * 
+     * @param listener The listener.
+     */
+    public void removeQueryListener(final QueryListener listener) {
+        wrappedManager.removeQueryListener(listener);
+    }
+    
+    /**
+     * How collection parameter values are bound in the created queries.
+     */
+    public CollectionParameterMode getCollectionParameterMode() {
+        return wrappedManager.getCollectionParameterMode();
+    }
+    
+    /**
+     * @see #getCollectionParameterMode()
+     */
+    public void setCollectionParameterMode(final CollectionParameterMode collectionParameterMode) {
+        wrappedManager.setCollectionParameterMode(collectionParameterMode);
+    }
+    
+    /**
+     * The number of elements above which collection parameters of the created queries are bound via 
+     * temporary tables.
+     */
+    public int getTempTableThreshold() {
+        return wrappedManager.getTempTableThreshold();
+    }
+    
+    /**
+     * @see #getTempTableThreshold()
+     */
+    public void setTempTableThreshold(final int tempTableThreshold) {
+        wrappedManager.setTempTableThreshold(tempTableThreshold);
+    }
+    
+    /**
+     * The settings for the execution of the created queries.
+     */
+    public QueryOptions getDefaultOptions() {
+        return wrappedManager.getDefaultOptions();
+    }
+    
+    /**
+     * @see #getDefaultOptions()
+     */
+    public void setDefaultOptions(final QueryOptions defaultOptions) {
+        wrappedManager.setDefaultOptions(defaultOptions);
+    }
+    
     /**
      * If the underlying {@link DbConnectionProvider} can create a database backup.
      */
@@ -89,6 +250,40 @@ public class QueryManager {
         wrappedManager.backupDatabase(databaseVersion);
     }
     
+    /**
+     * Uses the underlying {@link DbConnectionProvider} to create an incremental database backup, which
+     * stores only the parts of the database that changed since the previous incremental backup.
+     * 
+     * @param databaseVersion A version indicator for the backed up database.
+     * @return The path of the manifest describing the backup.
+     */
+    public String backupDatabaseIncremental(final CharSequence databaseVersion) {
+        return wrappedManager.backupDatabaseIncremental(databaseVersion);
+    }
+    
+    /**
+     * If the underlying {@link DbConnectionProvider} can create a database backup while the
+     * database stays available.
+     */
+    public boolean isCanBackupDatabaseOnline() {
+        return wrappedManager.isCanBackupDatabaseOnline();
+    }
+    
+    /**
+     * Uses the underlying {@link DbConnectionProvider} to create a database backup while the
+     * database stays available.
+     * 
+     * @param databaseVersion A version indicator for the backed up database.
+     * @param format The format of the backup.
+     * @param progressListener Receives the progress of the backup; can be {@code null}.
+     * @return The path of the backup file.
+     */
+    public String backupDatabaseOnline(final CharSequence databaseVersion, 
+                                       final BackupFormat format, 
+                                       final BackupProgressListener progressListener) {
+        return wrappedManager.backupDatabaseOnline(databaseVersion, format, progressListener);
+    }
+    
     /**
      * Checks, if the database is reachable.
      * 
@@ -5,6 +5,8 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.apache.commons.lang3.StringUtils;
 import org.ormfux.common.db.exception.DuplicateParamException;
@@ -16,6 +18,11 @@ import org.ormfux.common.db.query.connection.DbConnectionProvider;
  */
 public abstract class AbstractQuery {
     
+    /**
+     * Logs the failures of query listeners.
+     */
+    private static final Logger LOGGER = Logger.getLogger(AbstractQuery.class.getName());
+    
     /**
      * The provider for the database connection.
      */
@@ -31,6 +38,21 @@ public abstract class AbstractQuery {
      */
     private final Map<String, Object> queryParams = new HashMap<>();
     
+    /**
+     * How collection parameter values are bound.
+     */
+    private CollectionParameterMode collectionParameterMode = CollectionParameterMode.EXPAND;
+    
+    /**
+     * The number of elements above which a collection parameter is bound via a temporary table.
+     */
+    private int tempTableThreshold;
+    
+    /**
+     * The settings for the execution of the query.
+     */
+    private QueryOptions options = new QueryOptions();
+    
     /**
      * Creates a new query.
      * 
@@ -71,6 +93,73 @@ public abstract class AbstractQuery {
         }
     }
     
+    /**
+     * How collection parameter values are bound.
+     */
+    public CollectionParameterMode getCollectionParameterMode() {
+        return collectionParameterMode;
+    }
+    
+    /**
+     * @see #getCollectionParameterMode()
+     */
+    public void setCollectionParameterMode(final CollectionParameterMode collectionParameterMode) {
+        this.collectionParameterMode = Objects.requireNonNull(collectionParameterMode);
+    }
+    
+    /**
+     * The number of elements above which a collection parameter is bulk-inserted into a temporary table,
+     * which then replaces the list of values (e.g. {@code id in :ids} becomes 
+     * {@code id in (select x from <temporary table>)}). {@code 0} disables temporary tables.
+     * Temporary tables are only used when the connection provider supports them for the element type.
+     */
+    public int getTempTableThreshold() {
+        return tempTableThreshold;
+    }
+    
+    /**
+     * @see #getTempTableThreshold()
+     */
+    public void setTempTableThreshold(final int tempTableThreshold) {
+        if (tempTableThreshold < 0) {
+            throw new IllegalArgumentException("The temporary table threshold must not be negative.");
+        }
+        
+        this.tempTableThreshold = tempTableThreshold;
+    }
+    
+    /**
+     * The settings for the execution of the query, e.g. its timeout. The returned options can be
+     * modified directly.
+     */
+    public QueryOptions getOptions() {
+        return options;
+    }
+    
+    /**
+     * @see #getOptions()
+     */
+    public void setOptions(final QueryOptions options) {
+        this.options = Objects.requireNonNull(options);
+    }
+    
+    /**
+     * Notifies the query listeners of the connection provider about an execution. A failing listener 
+     * is logged, so that it neither fails an already committed execution nor hides the failure of the
+     * execution.
+     * 
+     * @param event The execution information.
+     */
+    protected void fireQueryEvent(final QueryEvent event) {
+        for (final QueryListener listener : dbConnectionProvider.getQueryListeners()) {
+            try {
+                listener.queryExecuted(event);
+            } catch (final RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Query listener failed: " + listener.getClass().getName(), e);
+            }
+        }
+    }
+    
     /**
      * The database connection with which to execute the query.
      */
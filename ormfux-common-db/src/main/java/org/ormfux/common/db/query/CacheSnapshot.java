@@ -0,0 +1,556 @@
+package org.ormfux.common.db.query;
+
+import static org.ormfux.common.utils.NullableUtils.isNull;
+import static org.ormfux.common.utils.NullableUtils.nonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.ormfux.common.db.exception.SQLException;
+import org.ormfux.common.db.query.QueryManager.NamedQueryDefinition;
+import org.ormfux.common.utils.ListUtils;
+
+/**
+ * Writes the entities of an {@link IdentityMap} and the validated named queries of a {@link QueryManager}
+ * to a snapshot file and restores them, so that they neither have to be loaded nor validated again after
+ * a restart. The snapshot is a compact binary file, which is streamed to and from the disk through buffered
+ * streams, so that its size is not bounded by the heap:
+ * <pre>
+ * header:        magic number, format version, schema fingerprint
+ * named queries: count, (name, entity type, query string, parsed query string)*
+ * entity types:  count, (type name, mapping fingerprint, byte length (long), entity count, entity*)*
+ * entity:        field count, (field name, value)*, collection count, (field name, element count, element id*)*
+ * </pre>
+ * On restore, the snapshot is discarded when the database schema has changed. The entities of a type are
+ * discarded when the mapping of the type has changed, and single entities when their version has changed
+ * in the database.
+ */
+final class CacheSnapshot {
+    
+    /**
+     * Identifies a snapshot file.
+     */
+    private static final int MAGIC_NUMBER = 0x4F524D58;
+    
+    /**
+     * The version of the snapshot format.
+     */
+    private static final int FORMAT_VERSION = 2;
+    
+    /**
+     * The maximum number of entities, whose versions are checked with one query.
+     */
+    private static final int VERSION_CHECK_CHUNK_SIZE = 1000;
+    
+    /**
+     * Marks a {@code null} value in the snapshot.
+     */
+    private static final byte NULL_VALUE = 0;
+    
+    /**
+     * Marks a String in the snapshot.
+     */
+    private static final byte STRING_VALUE = 1;
+    
+    /**
+     * Marks an Integer in the snapshot.
+     */
+    private static final byte INTEGER_VALUE = 2;
+    
+    /**
+     * Marks a Long in the snapshot.
+     */
+    private static final byte LONG_VALUE = 3;
+    
+    /**
+     * Marks a Double in the snapshot.
+     */
+    private static final byte DOUBLE_VALUE = 4;
+    
+    /**
+     * Marks a Boolean in the snapshot.
+     */
+    private static final byte BOOLEAN_VALUE = 5;
+    
+    /**
+     * Marks a Timestamp in the snapshot.
+     */
+    private static final byte TIMESTAMP_VALUE = 6;
+    
+    /**
+     * Marks a byte array in the snapshot.
+     */
+    private static final byte BYTES_VALUE = 7;
+    
+    /**
+     * Marks a serialized object in the snapshot.
+     */
+    private static final byte OBJECT_VALUE = 8;
+    
+    /**
+     * Utility class.
+     */
+    private CacheSnapshot() {
+        throw new IllegalAccessError(CacheSnapshot.class.getSimpleName() + " class is not intended to be instantiated");
+    }
+    
+    /**
+     * Writes the snapshot. The file is replaced only when the snapshot is written completely.
+     * 
+     * @param queryManager The manager creating the queries.
+     * @param schemaFingerprint The fingerprint of the database schema.
+     * @param namedQueries The validated named queries by name.
+     * @param identityMap The entities.
+     * @param snapshotFile The snapshot file.
+     * 
+     * @throws SQLException When the snapshot cannot be written.
+     */
+    static void write(final QueryManager queryManager,
+                      final String schemaFingerprint,
+                      final Map<String, NamedQueryDefinition> namedQueries,
+                      final IdentityMap identityMap,
+                      final Path snapshotFile) throws SQLException {
+        final Path tempFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        
+        try (FileChannel channel = FileChannel.open(tempFile,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                                    StandardOpenOption.WRITE)) {
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            
+            output.writeInt(MAGIC_NUMBER);
+            output.writeInt(FORMAT_VERSION);
+            writeString(output, schemaFingerprint);
+            
+            output.writeInt(namedQueries.size());
+            
+            for (final Entry<String, NamedQueryDefinition> namedQuery : namedQueries.entrySet()) {
+                final Class<?> entityType = namedQuery.getValue().getEntityType();
+                
+                writeString(output, namedQuery.getKey());
+                writeString(output, isNull(entityType) ? null : entityType.getName());
+                writeString(output, namedQuery.getValue().getQueryString());
+                writeString(output, namedQuery.getValue().getParsedQuery().getQueryString());
+            }
+            
+            final Set<Class<?>> entityTypes = identityMap.getEntityTypes();
+            output.writeInt(entityTypes.size());
+            
+            for (final Class<?> entityType : entityTypes) {
+                writeEntities(queryManager.createQuery(entityType), identityMap, output, channel);
+            }
+            
+            output.flush();
+            channel.force(false);
+            
+        } catch (final IOException e) {
+            throw new SQLException("Error writing the cache snapshot.", e);
+        }
+        
+        //the file is closed before it is moved.
+        try {
+            Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            throw new SQLException("Error writing the cache snapshot.", e);
+        }
+    }
+    
+    /**
+     * Writes the entities of a type, preceded by their length in bytes, so that they can be skipped. The
+     * length is filled in when the entities are written.
+     * 
+     * @param query The query of the entity type.
+     * @param identityMap The entities.
+     * @param output The snapshot output.
+     * @param channel The channel of the snapshot file.
+     * 
+     * @throws IOException
+     */
+    private static <T> void writeEntities(final TypedQuery<T> query,
+                                          final IdentityMap identityMap,
+                                          final DataOutputStream output,
+                                          final FileChannel channel) throws IOException {
+        final List<T> entities = identityMap.getEntities(query.getEntityType());
+        
+        writeString(output, query.getEntityType().getName());
+        writeString(output, query.getMappingFingerprint());
+        output.writeLong(0);
+        output.flush();
+        final long startPosition = channel.position();
+        
+        output.writeInt(entities.size());
+        
+        for (final T entity : entities) {
+            final Map<String, Object> fieldValues = query.readFieldValues(entity);
+            output.writeInt(fieldValues.size());
+            
+            for (final Entry<String, Object> fieldValue : fieldValues.entrySet()) {
+                writeString(output, fieldValue.getKey());
+                writeValue(output, fieldValue.getValue());
+            }
+            
+            final Map<String, List<Object>> collectionIds = query.readCollectionIds(entity);
+            output.writeInt(collectionIds.size());
+            
+            for (final Entry<String, List<Object>> collection : collectionIds.entrySet()) {
+                writeString(output, collection.getKey());
+                output.writeInt(collection.getValue().size());
+                
+                for (final Object elementId : collection.getValue()) {
+                    writeValue(output, elementId);
+                }
+            }
+        }
+        
+        output.flush();
+        final long endPosition = channel.position();
+        
+        final ByteBuffer byteCount = ByteBuffer.allocate(Long.BYTES);
+        byteCount.putLong(0, endPosition - startPosition);
+        
+        while (byteCount.hasRemaining()) {
+            channel.write(byteCount, startPosition - Long.BYTES + byteCount.position());
+        }
+    }
+    
+    /**
+     * Restores the snapshot. The named queries are added to the validated named queries; the entities with
+     * current versions are returned.
+     * 
+     * @param queryManager The manager creating the queries.
+     * @param schemaFingerprint The fingerprint of the current database schema.
+     * @param snapshotFile The snapshot file.
+     * @param validatedNamedQueries Receives the validated named queries by name.
+     * @return The restored entities; empty when there is no snapshot or it is outdated.
+     * 
+     * @throws SQLException When the snapshot cannot be read.
+     */
+    static IdentityMap restore(final QueryManager queryManager,
+                               final String schemaFingerprint,
+                               final Path snapshotFile,
+                               final Map<String, NamedQueryDefinition> validatedNamedQueries) throws SQLException {
+        final IdentityMap identityMap = new IdentityMap();
+        
+        if (!Files.exists(snapshotFile)) {
+            return identityMap;
+        }
+        
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            if (input.readInt() != MAGIC_NUMBER) {
+                throw new SQLException("Not a cache snapshot: " + snapshotFile);
+            }
+            
+            if (input.readInt() != FORMAT_VERSION || !schemaFingerprint.equals(readString(input))) {
+                return identityMap;
+            }
+            
+            final int namedQueryCount = input.readInt();
+            
+            for (int queryIdx = 0; queryIdx < namedQueryCount; queryIdx++) {
+                final String name = readString(input);
+                final String entityTypeName = readString(input);
+                final String queryString = readString(input);
+                final ParsedQuery parsedQuery = ParsedQuery.parse(readString(input));
+                final Class<?> entityType = isNull(entityTypeName) ? null : findEntityType(queryManager, entityTypeName);
+                
+                if (isNull(entityTypeName) || nonNull(entityType)) {
+                    validatedNamedQueries.put(name, new NamedQueryDefinition(entityType, queryString, parsedQuery));
+                }
+            }
+            
+            //the references are resolved when all entities are restored.
+            final List<Runnable> referenceResolvers = new ArrayList<>();
+            final int entityTypeCount = input.readInt();
+            
+            for (int typeIdx = 0; typeIdx < entityTypeCount; typeIdx++) {
+                final Class<?> entityType = findEntityType(queryManager, readString(input));
+                final String mappingFingerprint = readString(input);
+                final long entityByteCount = input.readLong();
+                
+                if (nonNull(entityType) && queryManager.createQuery(entityType).getMappingFingerprint().equals(mappingFingerprint)) {
+                    restoreEntities(queryManager.createQuery(entityType), input, identityMap, referenceResolvers);
+                } else {
+                    skipFully(input, entityByteCount);
+                }
+            }
+            
+            referenceResolvers.forEach(Runnable::run);
+            
+            return identityMap;
+            
+        } catch (final IOException | IllegalArgumentException e) {
+            throw new SQLException("Error reading the cache snapshot.", e);
+        }
+    }
+    
+    /**
+     * Restores the entities of a type and puts those with current versions into the identity map.
+     * 
+     * @param query The query of the entity type.
+     * @param input The snapshot input.
+     * @param identityMap Receives the entities.
+     * @param referenceResolvers Collects the resolution of the references of the restored entities.
+     * 
+     * @throws IOException
+     */
+    private static <T> void restoreEntities(final TypedQuery<T> query,
+                                            final DataInputStream input,
+                                            final IdentityMap identityMap,
+                                            final List<Runnable> referenceResolvers) throws IOException {
+        final int entityCount = input.readInt();
+        final List<T> entities = new ArrayList<>(entityCount);
+        final Map<T, Map<String, List<Object>>> collectionIds = new IdentityHashMap<>();
+        
+        for (int entityIdx = 0; entityIdx < entityCount; entityIdx++) {
+            final Map<String, Object> fieldValues = new HashMap<>();
+            final int fieldCount = input.readInt();
+            
+            for (int fieldIdx = 0; fieldIdx < fieldCount; fieldIdx++) {
+                fieldValues.put(readString(input), readValue(input));
+            }
+            
+            final T entity = query.createFromFieldValues(fieldValues);
+            final Map<String, List<Object>> entityCollectionIds = new HashMap<>();
+            final int collectionCount = input.readInt();
+            
+            for (int collectionIdx = 0; collectionIdx < collectionCount; collectionIdx++) {
+                final String fieldName = readString(input);
+                final List<Object> elementIds = new ArrayList<>();
+                final int elementCount = input.readInt();
+                
+                for (int elementIdx = 0; elementIdx < elementCount; elementIdx++) {
+                    elementIds.add(readValue(input));
+                }
+                
+                entityCollectionIds.put(fieldName, elementIds);
+            }
+            
+            entities.add(entity);
+            collectionIds.put(entity, entityCollectionIds);
+        }
+        
+        for (final List<T> chunk : ListUtils.split(entities, VERSION_CHECK_CHUNK_SIZE)) {
+            for (final T entity : query.filterCurrentEntities(chunk)) {
+                identityMap.putIfAbsent(query.getEntityType(), query.readEntityId(entity), entity);
+                referenceResolvers.add(() -> query.resolveReferences(entity, collectionIds.get(entity), identityMap));
+            }
+        }
+    }
+    
+    /**
+     * Skips bytes of the snapshot.
+     * 
+     * @param input The snapshot input.
+     * @param byteCount The number of bytes to skip.
+     * 
+     * @throws IOException
+     */
+    private static void skipFully(final DataInputStream input, final long byteCount) throws IOException {
+        long remaining = byteCount;
+        
+        while (remaining > 0) {
+            final long skipped = input.skip(remaining);
+            
+            if (skipped <= 0) {
+                //skip() may return 0 before the end of the stream; read() detects the end.
+                if (input.read() < 0) {
+                    throw new EOFException();
+                }
+                
+                remaining--;
+            } else {
+                remaining -= skipped;
+            }
+        }
+    }
+    
+    /**
+     * Determines an entity type by name.
+     * 
+     * @param queryManager The manager creating the queries.
+     * @param entityTypeName The name of the type.
+     * @return The type; {@code null} when it does not exist (anymore) or is no entity.
+     */
+    private static Class<?> findEntityType(final QueryManager queryManager, final String entityTypeName) {
+        try {
+            final Class<?> entityType = Class.forName(entityTypeName);
+            queryManager.createQuery(entityType);
+            
+            return entityType;
+            
+        } catch (final ClassNotFoundException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Writes a String as UTF-8 bytes preceded by their number; {@code -1} for {@code null}.
+     * 
+     * @param output The snapshot output.
+     * @param value The String.
+     * 
+     * @throws IOException
+     */
+    private static void writeString(final DataOutputStream output, final String value) throws IOException {
+        if (isNull(value)) {
+            output.writeInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+    
+    /**
+     * Reads a String written with {@link #writeString(DataOutputStream, String)}.
+     * 
+     * @param input The snapshot input.
+     * @return The String.
+     * 
+     * @throws IOException
+     */
+    private static String readString(final DataInputStream input) throws IOException {
+        final int length = input.readInt();
+        
+        if (length < 0) {
+            return null;
+        }
+        
+        final byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Writes a value. Common types are written in a compact format, others via serialization.
+     * 
+     * @param output The snapshot output.
+     * @param value The value.
+     * 
+     * @throws IOException
+     */
+    private static void writeValue(final DataOutputStream output, final Object value) throws IOException {
+        if (isNull(value)) {
+            output.writeByte(NULL_VALUE);
+            
+        } else if (value instanceof String) {
+            output.writeByte(STRING_VALUE);
+            writeString(output, (String) value);
+            
+        } else if (value instanceof Integer) {
+            output.writeByte(INTEGER_VALUE);
+            output.writeInt((Integer) value);
+            
+        } else if (value instanceof Long) {
+            output.writeByte(LONG_VALUE);
+            output.writeLong((Long) value);
+            
+        } else if (value instanceof Double) {
+            output.writeByte(DOUBLE_VALUE);
+            output.writeDouble((Double) value);
+            
+        } else if (value instanceof Boolean) {
+            output.writeByte(BOOLEAN_VALUE);
+            output.writeBoolean((Boolean) value);
+            
+        } else if (value.getClass() == Timestamp.class) {
+            output.writeByte(TIMESTAMP_VALUE);
+            output.writeLong(((Timestamp) value).getTime());
+            output.writeInt(((Timestamp) value).getNanos());
+            
+        } else if (value instanceof byte[]) {
+            output.writeByte(BYTES_VALUE);
+            output.writeInt(((byte[]) value).length);
+            output.write((byte[]) value);
+            
+        } else if (value instanceof Serializable) {
+            final ByteArrayOutputStream objectBytes = new ByteArrayOutputStream();
+            
+            try (ObjectOutputStream objectOutput = new ObjectOutputStream(objectBytes)) {
+                objectOutput.writeObject(value);
+            }
+            
+            output.writeByte(OBJECT_VALUE);
+            output.writeInt(objectBytes.size());
+            objectBytes.writeTo(output);
+            
+        } else {
+            throw new SQLException("Cannot write a value of type " + value.getClass().getName() + " to a cache snapshot.");
+        }
+    }
+    
+    /**
+     * Reads a value written with {@link #writeValue(DataOutputStream, Object)}.
+     * 
+     * @param input The snapshot input.
+     * @return The value.
+     * 
+     * @throws IOException
+     */
+    private static Object readValue(final DataInputStream input) throws IOException {
+        final byte valueType = input.readByte();
+        
+        switch (valueType) {
+            case NULL_VALUE:
+                return null;
+            case STRING_VALUE:
+                return readString(input);
+            case INTEGER_VALUE:
+                return input.readInt();
+            case LONG_VALUE:
+                return input.readLong();
+            case DOUBLE_VALUE:
+                return input.readDouble();
+            case BOOLEAN_VALUE:
+                return input.readBoolean();
+            case TIMESTAMP_VALUE:
+                final Timestamp timestamp = new Timestamp(input.readLong());
+                timestamp.setNanos(input.readInt());
+                
+                return timestamp;
+            case BYTES_VALUE:
+                final byte[] bytes = new byte[input.readInt()];
+                input.readFully(bytes);
+                
+                return bytes;
+            case OBJECT_VALUE:
+                final byte[] objectBytes = new byte[input.readInt()];
+                input.readFully(objectBytes);
+                
+                try (ObjectInputStream objectInput = new ObjectInputStream(new ByteArrayInputStream(objectBytes))) {
+                    return objectInput.readObject();
+                } catch (final ClassNotFoundException e) {
+                    throw new IOException("Unknown value class in cache snapshot.", e);
+                }
+            default:
+                throw new IOException("Unknown value type in cache snapshot: " + valueType);
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package org.ormfux.common.db.query;
+
+/**
+ * Defines how collection parameter values are bound to a query.
+ */
+public enum CollectionParameterMode {
+    
+    /**
+     * Each element is bound as a separate parameter, i.e. the parameter is expanded to {@code (?, ?, ..., ?)}.
+     * Each collection size results in a different SQL statement.
+     */
+    EXPAND,
+    
+    /**
+     * The collection is bound as a single array parameter, so that the SQL statement is the same for
+     * each collection size. When the database connection does not support array parameters for the 
+     * element type, the parameter is expanded to a padded number of elements instead.
+     */
+    ARRAY,
+    
+    /**
+     * Like {@link #ARRAY}, but when the connection supports neither array parameters nor temporary tables 
+     * for a collection, select queries with more than 1024 distinct elements are split into chunks, for 
+     * which the query is executed separately. The results of the chunks are concatenated, so this is only 
+     * correct for plain {@code IN} filters, i.e. queries whose result is the union of the results for the 
+     * chunks. It gives wrong results for {@code NOT IN}, aggregates, {@code GROUP BY}, {@code ORDER BY}, 
+     * {@code DISTINCT} and {@code LIMIT}/{@code OFFSET}.
+     */
+    CHUNKED_IN;
+    
+}
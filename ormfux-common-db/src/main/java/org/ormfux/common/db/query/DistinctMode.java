@@ -0,0 +1,27 @@
+package org.ormfux.common.db.query;
+
+/**
+ * Defines when the select of a {@link TypedQuery} is a {@code select distinct}. Without {@code distinct}, 
+ * entities returned multiple times by the database (e.g. due to joins) are removed from the result
+ * in memory.
+ */
+public enum DistinctMode {
+    
+    /**
+     * The select is always distinct.
+     */
+    ALWAYS,
+    
+    /**
+     * The select is distinct, when the query suffix joins other tables. Single table selects, like
+     * lookups by id, are executed without the costs of the {@code distinct}.
+     */
+    AUTO,
+    
+    /**
+     * The select is never distinct. Note that limits in the query apply to the rows returned by the 
+     * database, so that fewer entities than the limit can be returned, when joins produce duplicates.
+     */
+    NEVER;
+    
+}
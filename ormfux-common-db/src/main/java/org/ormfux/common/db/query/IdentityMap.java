@@ -0,0 +1,430 @@
+package org.ormfux.common.db.query;
+
+import static org.ormfux.common.utils.NullableUtils.isNull;
+import static org.ormfux.common.utils.NullableUtils.nonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the loaded entities by type and id, so that each entity is only loaded once and references
+ * to it resolve to the same instance. The entities of a type are held in a map keyed by the raw id;
+ * integral numeric ids are held in a map keyed by primitive {@code long}s, which does not box the ids.
+ * <p>
+ * A map can be shared by several queries (see {@link TypedQuery#setIdentityMap(IdentityMap)}), which
+ * then return the already loaded instances instead of new ones. The map is thread-safe, but an entity
+ * is added before its fields are set, so that circular references resolve to it. A map must therefore
+ * not be used by queries running concurrently, since they could return entities that are still loaded
+ * by another query. An entity that cannot be loaded completely is removed again.
+ * </p>
+ */
+public class IdentityMap {
+    
+    /**
+     * The entities by entity type.
+     */
+    private final Map<Class<?>, TypeEntities> entitiesByType = new ConcurrentHashMap<>();
+    
+    /**
+     * The map whose entities are returned in addition, without adding to it; {@code null} when there is none.
+     */
+    private final IdentityMap sharedEntities;
+    
+    /**
+     * Creates an empty map.
+     */
+    public IdentityMap() {
+        this.sharedEntities = null;
+    }
+    
+    /**
+     * Creates an empty map on top of a shared one. The entities of the shared map are returned as well,
+     * but added entities are only held by the new map. This keeps incompletely loaded entities (e.g. 
+     * with a fetch plan) out of the shared map.
+     * 
+     * @param sharedEntities The shared map.
+     */
+    IdentityMap(final IdentityMap sharedEntities) {
+        this.sharedEntities = Objects.requireNonNull(sharedEntities);
+    }
+    
+    /**
+     * Determines the loaded entity.
+     * 
+     * @param entityType The entity type.
+     * @param entityId The id of the entity.
+     * @return The entity; {@code null} when it is not loaded.
+     */
+    @SuppressWarnings("unchecked")
+    public <E> E get(final Class<E> entityType, final Object entityId) {
+        final TypeEntities typeEntities = entitiesByType.get(entityType);
+        final Object entity = isNull(typeEntities) ? null : typeEntities.get(entityId);
+        
+        if (isNull(entity) && nonNull(sharedEntities)) {
+            return sharedEntities.get(entityType, entityId);
+        }
+        
+        return (E) entity;
+    }
+    
+    /**
+     * Checks, if the entity is loaded.
+     * 
+     * @param entityType The entity type.
+     * @param entityId The id of the entity.
+     * @return {@code true} when the entity is loaded.
+     */
+    public boolean contains(final Class<?> entityType, final Object entityId) {
+        return nonNull(get(entityType, entityId));
+    }
+    
+    /**
+     * Adds a loaded entity, when there is none with the id yet.
+     * 
+     * @param entityType The entity type.
+     * @param entityId The id of the entity.
+     * @param entity The entity.
+     * @return The entity that was already loaded; {@code null} when the entity was added.
+     */
+    @SuppressWarnings("unchecked")
+    public <E> E putIfAbsent(final Class<E> entityType, final Object entityId, final E entity) {
+        Objects.requireNonNull(entityId);
+        Objects.requireNonNull(entity);
+        
+        if (nonNull(sharedEntities)) {
+            final E sharedEntity = sharedEntities.get(entityType, entityId);
+            
+            if (nonNull(sharedEntity)) {
+                return sharedEntity;
+            }
+        }
+        
+        return (E) entitiesByType.computeIfAbsent(entityType, type -> new TypeEntities()).putIfAbsent(entityId, entity);
+    }
+    
+    /**
+     * Removes a loaded entity, e.g. to load it again.
+     * 
+     * @param entityType The entity type.
+     * @param entityId The id of the entity.
+     */
+    public void remove(final Class<?> entityType, final Object entityId) {
+        final TypeEntities typeEntities = entitiesByType.get(entityType);
+        
+        if (nonNull(typeEntities)) {
+            typeEntities.remove(entityId);
+        }
+    }
+    
+    /**
+     * Removes a loaded entity, when the id is still mapped to that instance, e.g. when it could not be 
+     * loaded completely.
+     * 
+     * @param entityType The entity type.
+     * @param entityId The id of the entity.
+     * @param entity The entity instance.
+     */
+    void remove(final Class<?> entityType, final Object entityId, final Object entity) {
+        final TypeEntities typeEntities = entitiesByType.get(entityType);
+        
+        if (nonNull(typeEntities)) {
+            typeEntities.remove(entityId, entity);
+        }
+    }
+    
+    /**
+     * Removes all loaded entities of a type, e.g. after they were changed in the database without 
+     * being loaded.
+     * 
+     * @param entityType The entity type.
+     */
+    public void removeAll(final Class<?> entityType) {
+        entitiesByType.remove(entityType);
+    }
+    
+    /**
+     * The types of the loaded entities.
+     */
+    public Set<Class<?>> getEntityTypes() {
+        return new HashSet<>(entitiesByType.keySet());
+    }
+    
+    /**
+     * Determines the loaded entities of a type.
+     * 
+     * @param entityType The entity type.
+     * @return A copy of the loaded entities.
+     */
+    @SuppressWarnings("unchecked")
+    public <E> List<E> getEntities(final Class<E> entityType) {
+        final TypeEntities typeEntities = entitiesByType.get(entityType);
+        
+        if (isNull(typeEntities)) {
+            return new ArrayList<>();
+        }
+        
+        return (List<E>) typeEntities.values();
+    }
+    
+    /**
+     * The number of loaded entities.
+     */
+    public int size() {
+        return entitiesByType.values().stream().mapToInt(TypeEntities::size).sum();
+    }
+    
+    /**
+     * Removes all loaded entities.
+     */
+    public void clear() {
+        entitiesByType.clear();
+    }
+    
+    /**
+     * Checks, if the id is held as primitive {@code long}.
+     * 
+     * @param entityId The id.
+     * @return {@code true} for integral numeric ids.
+     */
+    private static boolean isLongId(final Object entityId) {
+        return entityId instanceof Long || entityId instanceof Integer || entityId instanceof Short || entityId instanceof Byte;
+    }
+    
+    /**
+     * The loaded entities of one type.
+     */
+    private static class TypeEntities {
+        
+        /**
+         * The entities with integral numeric ids.
+         */
+        private final LongKeyMap longIdEntities = new LongKeyMap();
+        
+        /**
+         * The entities with other ids.
+         */
+        private final Map<Object, Object> objectIdEntities = new HashMap<>();
+        
+        /**
+         * @see IdentityMap#get(Class, Object)
+         */
+        public synchronized Object get(final Object entityId) {
+            if (isLongId(entityId)) {
+                return longIdEntities.get(((Number) entityId).longValue());
+            } else {
+                return objectIdEntities.get(entityId);
+            }
+        }
+        
+        /**
+         * @see IdentityMap#putIfAbsent(Class, Object, Object)
+         */
+        public synchronized Object putIfAbsent(final Object entityId, final Object entity) {
+            if (isLongId(entityId)) {
+                return longIdEntities.putIfAbsent(((Number) entityId).longValue(), entity);
+            } else {
+                return objectIdEntities.putIfAbsent(entityId, entity);
+            }
+        }
+        
+        /**
+         * @see IdentityMap#remove(Class, Object)
+         */
+        public synchronized void remove(final Object entityId) {
+            if (isLongId(entityId)) {
+                longIdEntities.remove(((Number) entityId).longValue());
+            } else {
+                objectIdEntities.remove(entityId);
+            }
+        }
+        
+        /**
+         * @see IdentityMap#remove(Class, Object, Object)
+         */
+        public synchronized void remove(final Object entityId, final Object entity) {
+            if (get(entityId) == entity) {
+                remove(entityId);
+            }
+        }
+        
+        /**
+         * The number of entities.
+         */
+        public synchronized int size() {
+            return longIdEntities.size() + objectIdEntities.size();
+        }
+        
+        /**
+         * A copy of the entities.
+         */
+        public synchronized List<Object> values() {
+            final List<Object> values = new ArrayList<>(size());
+            longIdEntities.addValuesTo(values);
+            values.addAll(objectIdEntities.values());
+            
+            return values;
+        }
+        
+    }
+    
+    /**
+     * A map with primitive {@code long} keys and non-null values. The entries are held in arrays
+     * with open addressing and linear probing.
+     */
+    private static class LongKeyMap {
+        
+        /**
+         * The keys; only valid where a value is set.
+         */
+        private long[] keys = new long[16];
+        
+        /**
+         * The values; {@code null} marks an empty slot.
+         */
+        private Object[] values = new Object[16];
+        
+        /**
+         * The number of entries.
+         */
+        private int size;
+        
+        /**
+         * Determines the value of the key.
+         * 
+         * @param key The key.
+         * @return The value; {@code null} when there is none.
+         */
+        public Object get(final long key) {
+            final int mask = values.length - 1;
+            
+            for (int slot = slot(key, mask); values[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            
+            return null;
+        }
+        
+        /**
+         * Adds the value, when the key has none yet.
+         * 
+         * @param key The key.
+         * @param value The value.
+         * @return The existing value; {@code null} when the value was added.
+         */
+        public Object putIfAbsent(final long key, final Object value) {
+            final int mask = values.length - 1;
+            int slot = slot(key, mask);
+            
+            for (; values[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            
+            keys[slot] = key;
+            values[slot] = value;
+            size++;
+            
+            //keep at least half of the slots empty, so that the probe sequences stay short.
+            if (size * 2 > values.length) {
+                resize();
+            }
+            
+            return null;
+        }
+        
+        /**
+         * Removes the value of the key. The following entries of the probe sequence are moved up,
+         * so that no entry becomes unreachable.
+         * 
+         * @param key The key.
+         */
+        public void remove(final long key) {
+            final int mask = values.length - 1;
+            int slot = slot(key, mask);
+            
+            while (values[slot] != null && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            
+            if (values[slot] == null) {
+                return;
+            }
+            
+            values[slot] = null;
+            size--;
+            
+            for (int nextSlot = (slot + 1) & mask; values[nextSlot] != null; nextSlot = (nextSlot + 1) & mask) {
+                final int homeSlot = slot(keys[nextSlot], mask);
+                
+                //the entry can fill the gap, when its home slot is not between the gap and its slot.
+                if (((nextSlot - homeSlot) & mask) >= ((nextSlot - slot) & mask)) {
+                    keys[slot] = keys[nextSlot];
+                    values[slot] = values[nextSlot];
+                    values[nextSlot] = null;
+                    slot = nextSlot;
+                }
+            }
+        }
+        
+        /**
+         * The number of entries.
+         */
+        public int size() {
+            return size;
+        }
+        
+        /**
+         * Adds the values to a list.
+         * 
+         * @param valueList The list.
+         */
+        public void addValuesTo(final List<Object> valueList) {
+            for (final Object value : values) {
+                if (value != null) {
+                    valueList.add(value);
+                }
+            }
+        }
+        
+        /**
+         * Doubles the number of slots.
+         */
+        private void resize() {
+            final long[] oldKeys = keys;
+            final Object[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Object[oldValues.length * 2];
+            size = 0;
+            
+            for (int slot = 0; slot < oldValues.length; slot++) {
+                if (oldValues[slot] != null) {
+                    putIfAbsent(oldKeys[slot], oldValues[slot]);
+                }
+            }
+        }
+        
+        /**
+         * Determines the first slot of the probe sequence of a key.
+         * 
+         * @param key The key.
+         * @param mask The number of slots minus one.
+         * @return The slot.
+         */
+        private static int slot(final long key, final int mask) {
+            final long hash = key * 0x9E3779B97F4A7C15L;
+            
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+        
+    }
+    
+}
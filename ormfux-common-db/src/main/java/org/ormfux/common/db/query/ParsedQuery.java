@@ -0,0 +1,182 @@
+package org.ormfux.common.db.query;
+
+import static org.ormfux.common.utils.NullableUtils.isNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ormfux.common.db.query.SqlStatementSplitter.SqlStatement;
+
+/**
+ * A query string split at its named parameters ({@code :name}), so that the parameters do not have
+ * to be searched again for each execution. The query string consists of the fragments with the
+ * parameters between them: {@code fragment0 :param0 fragment1 :param1 ... fragmentN}.
+ * <p>
+ * The statements of the query strings prepared for execution are kept as well, so that queries 
+ * sharing the parsed query (e.g. named queries) split them only once.
+ * </p>
+ */
+public final class ParsedQuery {
+    
+    /**
+     * The maximum number of prepared query strings, whose statements are kept. The prepared query
+     * strings differ by the sizes of expanded collection parameters.
+     */
+    private static final int MAX_SPLIT_QUERY_STRINGS = 64;
+    
+    /**
+     * The parsed query string.
+     */
+    private final String queryString;
+    
+    /**
+     * The query string parts before, between and after the parameters.
+     */
+    private final List<String> fragments;
+    
+    /**
+     * The parameter names in the order of their occurrence.
+     */
+    private final List<String> paramNames;
+    
+    /**
+     * The statements of the prepared query strings, by prepared query string.
+     */
+    private final Map<String, List<SqlStatement>> statementsByQueryString = new ConcurrentHashMap<>();
+    
+    /**
+     * @param queryString The parsed query string.
+     * @param fragments The query string parts before, between and after the parameters.
+     * @param paramNames The parameter names in the order of their occurrence.
+     */
+    private ParsedQuery(final String queryString, final List<String> fragments, final List<String> paramNames) {
+        this.queryString = queryString;
+        this.fragments = Collections.unmodifiableList(fragments);
+        this.paramNames = Collections.unmodifiableList(paramNames);
+    }
+    
+    /**
+     * Splits the query string at its parameters. A parameter starts with a colon and ends before the
+     * next separator (see {@link #indexOfSeparator(String, int)}) or at the end of the query.
+     * 
+     * @param queryString The query string.
+     * @return The parsed query.
+     */
+    public static ParsedQuery parse(final String queryString) {
+        Objects.requireNonNull(queryString);
+        
+        final List<String> fragments = new ArrayList<>();
+        final List<String> paramNames = new ArrayList<>();
+        int fragmentStart = 0;
+        int paramIndex = queryString.indexOf(':');
+        
+        while (paramIndex > -1) {
+            int endOfParamName = indexOfSeparator(queryString, paramIndex);
+            
+            if (endOfParamName < 0) { //query should end with this parameter.
+                endOfParamName = queryString.length();
+            }
+            
+            fragments.add(queryString.substring(fragmentStart, paramIndex));
+            paramNames.add(queryString.substring(paramIndex + 1, endOfParamName));
+            
+            fragmentStart = endOfParamName;
+            paramIndex = queryString.indexOf(':', endOfParamName);
+        }
+        
+        fragments.add(queryString.substring(fragmentStart));
+        
+        return new ParsedQuery(queryString, fragments, paramNames);
+    }
+    
+    /**
+     * The parsed query string.
+     */
+    public String getQueryString() {
+        return queryString;
+    }
+    
+    /**
+     * The query string parts before, between and after the parameters. There is always one fragment
+     * more than there are parameters.
+     */
+    public List<String> getFragments() {
+        return fragments;
+    }
+    
+    /**
+     * The parameter names in the order of their occurrence. Parameters used several times are
+     * contained several times.
+     */
+    public List<String> getParamNames() {
+        return paramNames;
+    }
+    
+    /**
+     * Builds the query string with the same placeholder for each parameter.
+     * 
+     * @param placeholder The placeholder.
+     * @return The query string.
+     */
+    public String replaceParams(final String placeholder) {
+        final StringBuilder query = new StringBuilder(queryString.length());
+        
+        for (int paramIdx = 0; paramIdx < paramNames.size(); paramIdx++) {
+            query.append(fragments.get(paramIdx))
+                 .append(placeholder);
+        }
+        
+        return query.append(fragments.get(paramNames.size())).toString();
+    }
+    
+    /**
+     * Splits a query string prepared for execution from this query into its statements. The statements 
+     * are split once per prepared query string and then reused.
+     * 
+     * @param preparedQueryString The query string with the parameters replaced by their placeholders.
+     * @return The statements, in the order of the query string.
+     * 
+     * @see SqlStatementSplitter#split(String)
+     */
+    public List<SqlStatement> splitStatements(final String preparedQueryString) {
+        List<SqlStatement> statements = statementsByQueryString.get(preparedQueryString);
+        
+        if (isNull(statements)) {
+            statements = Collections.unmodifiableList(SqlStatementSplitter.split(preparedQueryString));
+            
+            if (statementsByQueryString.size() < MAX_SPLIT_QUERY_STRINGS) {
+                statementsByQueryString.put(preparedQueryString, statements);
+            }
+        }
+        
+        return statements;
+    }
+    
+    /**
+     * Searches for the next parameter name separator character in the query.
+     * Separators are white spaces, comma, semi colon, tabs, line breaks, and closing
+     * brackets.
+     * 
+     * @param queryString The query.
+     * @param startPos The index from which to search for the next separator.
+     * @return The index of the next separator character; {@code -1} when there is none.
+     */
+    private static int indexOfSeparator(final String queryString, int startPos) {
+        int index = -1;
+        
+        for (char separator : new char[]{' ', ';', ',', '\t', '\n', ')'}) {
+            final int separatorIndex = queryString.indexOf(separator, startPos);
+            
+            if (separatorIndex > 0 && (index == -1 || index > separatorIndex)) {
+                index = separatorIndex;
+            }
+        }
+        
+        return index;
+    }
+
+}
@@ -1,17 +1,29 @@
 package org.ormfux.common.db.query;
 
 import static org.ormfux.common.utils.NullableUtils.isNull;
+import static org.ormfux.common.utils.NullableUtils.nonNull;
 
 import java.lang.reflect.Field;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
 import org.ormfux.common.db.annotation.Entity;
@@ -19,9 +31,13 @@ import org.ormfux.common.db.annotation.Id;
 import org.ormfux.common.db.exception.NonMatchedParamException;
 import org.ormfux.common.db.exception.NonUniqueResultException;
 import org.ormfux.common.db.exception.SQLException;
+import org.ormfux.common.db.query.QueryEvent.QueryType;
 import org.ormfux.common.db.query.QueryResult.QueryResultRow;
+import org.ormfux.common.db.query.SqlStatementSplitter.SqlStatement;
 import org.ormfux.common.db.query.connection.DbConnectionProvider;
+import org.ormfux.common.db.query.flow.Publisher;
 import org.ormfux.common.utils.ListUtils;
+import org.ormfux.common.utils.NullableUtils;
 import org.ormfux.common.utils.reflection.ClassUtils;
 import org.ormfux.common.utils.reflection.PropertyUtils;
 
@@ -31,6 +47,33 @@ import org.ormfux.common.utils.reflection.PropertyUtils;
  */
 public class Query extends AbstractQuery {
     
+    /**
+     * The size of the chunks into which collection parameters are split, when they cannot be bound
+     * as array parameter.
+     */
+    private static final int COLLECTION_CHUNK_SIZE = 1024;
+    
+    /**
+     * The prefix of the names of the temporary tables holding collection parameters.
+     */
+    private static final String TEMP_TABLE_PREFIX = "ormfux_param_";
+    
+    /**
+     * Matches the named parameters in the query string.
+     */
+    private static final Pattern PARAM_PATTERN = Pattern.compile(":(\\w+)");
+    
+    /**
+     * The query string split at its parameters; parsed with the first execution, unless set before.
+     */
+    private ParsedQuery parsedQuery;
+    
+    /**
+     * The number of rows the query must affect when it is executed with other statements; negative when it 
+     * is not checked.
+     */
+    private int expectedRowCount = -1;
+    
     /**
      * Creates a new query.
      * 
@@ -43,6 +86,77 @@ public class Query extends AbstractQuery {
         Objects.requireNonNull(queryString);
     }
     
+    /**
+     * Creates a copy of this query, in which the names of the parameters are prefixed, so that it can be 
+     * joined with other queries using the same parameter names.
+     * 
+     * @param paramPrefix The prefix of the parameter names.
+     * @return The copy with the prefixed parameters.
+     */
+    protected Query prefixParameters(final String paramPrefix) {
+        final Map<String, Object> queryParams = getQueryParams();
+        final Matcher paramMatcher = PARAM_PATTERN.matcher(getQueryString());
+        final StringBuffer prefixedSql = new StringBuffer();
+        
+        while (paramMatcher.find()) {
+            if (queryParams.containsKey(paramMatcher.group(1))) {
+                paramMatcher.appendReplacement(prefixedSql, ':' + paramPrefix + paramMatcher.group(1));
+            }
+        }
+        
+        paramMatcher.appendTail(prefixedSql);
+        
+        final Query prefixedQuery = new Query(getDbConnectionProvider(), prefixedSql.toString());
+        
+        for (final Entry<String, Object> param : queryParams.entrySet()) {
+            prefixedQuery.addParameter(paramPrefix + param.getKey(), param.getValue());
+        }
+        
+        prefixedQuery.setExpectedRowCount(expectedRowCount);
+        
+        return prefixedQuery;
+    }
+    
+    /**
+     * The number of rows the statement of this query must affect, when it is joined with other statements
+     * into one transaction (e.g. because a version condition must match for each row); negative when the 
+     * row count is not checked.
+     */
+    protected int getExpectedRowCount() {
+        return expectedRowCount;
+    }
+    
+    /**
+     * @see #getExpectedRowCount()
+     */
+    protected void setExpectedRowCount(final int expectedRowCount) {
+        this.expectedRowCount = expectedRowCount;
+    }
+    
+    /**
+     * Sets the already parsed query string, e.g. of a named query, so that it is not parsed again.
+     * 
+     * @param parsedQuery The parsed query string of this query.
+     */
+    protected void setParsedQuery(final ParsedQuery parsedQuery) {
+        if (!parsedQuery.getQueryString().equals(getQueryString())) {
+            throw new IllegalArgumentException("The parsed query does not match the query string.");
+        }
+        
+        this.parsedQuery = parsedQuery;
+    }
+    
+    /**
+     * The parsed query string; parsed on first use, unless it was {@link #setParsedQuery(ParsedQuery) set}.
+     */
+    private ParsedQuery getParsedQuery() {
+        if (isNull(parsedQuery)) {
+            parsedQuery = ParsedQuery.parse(getQueryString());
+        }
+        
+        return parsedQuery;
+    }
+    
     /**
      * Executes an the query as an update query (update/insert/create/drop). 
      * Explicitly commits the changes.
@@ -52,49 +166,158 @@ public class Query extends AbstractQuery {
      * @throws SQLException
      */
     public int executeUpdate() throws SQLException {
-        final PreparedQuery preparedQuery = prepareQueryForExecution();
+        return sumRowCounts(executeUpdate((Consumer<int[]>) null));
+    }
+    
+    /**
+     * Executes the query as an update query and determines the number of affected rows of each statement
+     * in the query string. The changes are only committed, when the validator accepts the row counts;
+     * when it throws an exception, the changes are rolled back.
+     * <p>
+     * One {@link QueryEvent} is fired per batch of consecutive identical statements, with the SQL of the batch's 
+     * statement as template. The templates thereby do not depend on the parameter names, which are renamed 
+     * when statements are joined. The time spent on preparing the query and on connecting is reported with 
+     * the first batch, the commit with the last one.
+     * </p>
+     * 
+     * @param rowCountValidator Validates the row counts before the changes are committed; can be {@code null}.
+     * @return The number of affected rows of each statement; negative, when the driver does not report it.
+     * 
+     * @throws SQLException
+     */
+    protected int[] executeUpdate(final Consumer<int[]> rowCountValidator) throws SQLException {
+        final List<QueryEvent> events = new ArrayList<>();
         
         try {
-            int affectedRows = 0;
+            return executeUpdate(events, rowCountValidator);
+        } catch (final RuntimeException e) {
+            if (events.isEmpty()) {
+                events.add(new QueryEvent(getQueryString(), QueryType.UPDATE));
+            }
+            
+            //the failure belongs to the batch being executed, or to the commit after the last batch.
+            events.get(events.size() - 1).setFailure(e);
+            throw e;
+        } finally {
+            events.forEach(this::fireQueryEvent);
+        }
+    }
+    
+    /**
+     * Executes an the query as an update query (update/insert/create/drop). 
+     * Explicitly commits the changes.
+     * 
+     * @param events Collects the execution information of each batch.
+     * @param rowCountValidator Validates the row counts before the changes are committed; can be {@code null}.
+     * @return the number of affected rows of each statement.
+     * 
+     * @throws SQLException
+     */
+    private int[] executeUpdate(final List<QueryEvent> events, final Consumer<int[]> rowCountValidator) throws SQLException {
+        long startTime = System.nanoTime();
+        final PreparedQuery preparedQuery = prepareQueryForExecution(null, null);
+        long prepareNanos = System.nanoTime() - startTime;
+        
+        try {
+            startTime = System.nanoTime();
             final Connection connection = getDbConnection();
+            final long connectionWaitNanos = System.nanoTime() - startTime;
+            
+            startTime = System.nanoTime();
+            applyConnectionOptions(connection);
+            createTempTables(connection, preparedQuery);
+            prepareNanos += System.nanoTime() - startTime;
             
             //Multiple parameterized queries in one query string are not supported by H2. so we need to split.
-            final String[] subQueries = StringUtils.split(preparedQuery.getQueryString(), ';');
+            final List<SqlStatement> statements = getParsedQuery().splitStatements(preparedQuery.getQueryString());
+            final int[] rowCounts = new int[statements.size()];
             int paramNbr = 0;
+            int statementIdx = 0;
             
-            for (final String subQuery : subQueries) {
-               if (!StringUtils.isBlank(subQuery)) {
-                   final int subQueryParamCount = StringUtils.countMatches(subQuery, '?');
-                   final PreparedStatement statement = connection.prepareStatement(subQuery);
-                       
-                   try {
-                       for (int paramIdx = 0; paramIdx < subQueryParamCount; paramIdx++) {
-                           statement.setObject(paramIdx + 1, preparedQuery.getParamValues().get(paramNbr + paramIdx));
-                       }
-                       
-                       statement.addBatch();
-                       
-                       final int[] updateResult = statement.executeBatch();
-                       
-                       for (int updateResultEntry : updateResult) {
-                           affectedRows += updateResultEntry;
-                       }
-                       
-                       paramNbr = paramNbr + subQueryParamCount;
-                       
-                   } catch (java.sql.SQLException e) {
-                       throw new SQLException("Error executing query.", e);
-                   } finally {
-                       statement.close();
-                   }
-                   
-               }
+            while (statementIdx < statements.size()) {
+                //consecutive identical statements are executed as one batch.
+                final String statementSql = statements.get(statementIdx).getSql();
+                final int batchStartIdx = statementIdx;
+                final int batchStartParamNbr = paramNbr;
+                final QueryEvent event = new QueryEvent(statementSql, QueryType.UPDATE);
+                
+                if (events.isEmpty()) {
+                    event.setConnectionWaitNanos(connectionWaitNanos);
+                    event.addPrepareNanos(prepareNanos);
+                }
+                
+                events.add(event);
+                startTime = System.nanoTime();
+                final PreparedStatement statement = connection.prepareStatement(statementSql);
+                
+                try {
+                    applyStatementOptions(statement);
+                    
+                    do {
+                        final int statementParamCount = statements.get(statementIdx).getParameterCount();
+                        
+                        for (int paramIdx = 0; paramIdx < statementParamCount; paramIdx++) {
+                            statement.setObject(paramIdx + 1, preparedQuery.getParamValues().get(paramNbr + paramIdx));
+                        }
+                        
+                        statement.addBatch();
+                        paramNbr = paramNbr + statementParamCount;
+                        statementIdx++;
+                        
+                    } while (statementIdx < statements.size() && statementSql.equals(statements.get(statementIdx).getSql()));
+                    
+                    event.setParameterCount(paramNbr - batchStartParamNbr);
+                    event.addPrepareNanos(System.nanoTime() - startTime);
+                    
+                    startTime = System.nanoTime();
+                    final int[] updateResult = statement.executeBatch();
+                    event.addExecuteNanos(System.nanoTime() - startTime);
+                    event.setRowCount(sumRowCounts(updateResult));
+                    System.arraycopy(updateResult, 0, rowCounts, batchStartIdx, updateResult.length);
+                    
+                } catch (java.sql.SQLException e) {
+                    final SQLException failure = new SQLException("Error executing query.", e);
+                    
+                    //the connection must not keep the locks of the statements executed so far.
+                    try {
+                        connection.rollback();
+                        connection.close();
+                    } catch (final java.sql.SQLException closeException) {
+                        failure.addSuppressed(closeException);
+                    }
+                    
+                    throw failure;
+                } finally {
+                    statement.close();
+                }
             }
             
+            if (nonNull(rowCountValidator)) {
+                try {
+                    rowCountValidator.accept(rowCounts);
+                } catch (final RuntimeException e) {
+                    //closing drops the temporary tables of the connection.
+                    connection.rollback();
+                    connection.close();
+                    throw e;
+                }
+            }
+            
+            if (events.isEmpty()) {
+                final QueryEvent event = new QueryEvent(getQueryString(), QueryType.UPDATE);
+                event.setConnectionWaitNanos(connectionWaitNanos);
+                event.addPrepareNanos(prepareNanos);
+                events.add(event);
+            }
+            
+            startTime = System.nanoTime();
             connection.commit();
+            //dropping commits, so the tables are dropped after the changes are committed.
+            dropTempTables(connection, preparedQuery);
             connection.close();
+            events.get(events.size() - 1).addExecuteNanos(System.nanoTime() - startTime);
             
-            return affectedRows;
+            return rowCounts;
             
         } catch (java.sql.SQLException e) {
             throw new SQLException("Error connecting or commiting to database.", e);
@@ -102,6 +325,25 @@ public class Query extends AbstractQuery {
         
     }
     
+    /**
+     * Sums up the number of affected rows of the statements.
+     * 
+     * @param rowCounts The number of affected rows of each statement.
+     * @return The total number of affected rows.
+     */
+    protected static int sumRowCounts(final int[] rowCounts) {
+        int affectedRows = 0;
+        
+        for (final int rowCount : rowCounts) {
+            //the driver may not report the count of each batch entry.
+            if (rowCount > 0) {
+                affectedRows += rowCount;
+            }
+        }
+        
+        return affectedRows;
+    }
+    
     /**
      * Executes the query as a select query that should return only one result row.
      * 
@@ -131,22 +373,72 @@ public class Query extends AbstractQuery {
      * @throws SQLException
      */
     public QueryResult getResultList() throws SQLException {
-        final PreparedQuery preparedQuery = prepareQueryForExecution();
+        final QueryEvent event = new QueryEvent(getQueryString(), QueryType.SELECT);
         
         try {
-            final Connection connection = getDbConnection();
-            final PreparedStatement statement = connection.prepareStatement(preparedQuery.getQueryString());
+            return getResultList(event);
+        } catch (final RuntimeException e) {
+            event.setFailure(e);
+            throw e;
+        } finally {
+            fireQueryEvent(event);
+        }
+    }
+    
+    /**
+     * Publishes the rows of the query as a select query. Each subscription executes the query on the
+     * executor and reads the rows from the cursor as the subscriber requests them.
+     * 
+     * @param executor The executor on which the query is executed and the rows are published.
+     * @return The publisher of the result rows.
+     * 
+     * @see QueryPublisher
+     */
+    public Publisher<QueryResultRow> publishResults(final Executor executor) {
+        return new QueryPublisher<>(this, executor, () -> new QueryPublisher.RowReader<QueryResultRow>() {
             
-            try {
-                for (int queryIdx = 0; queryIdx < preparedQuery.getParamValues().size(); queryIdx++) {
-                    statement.setObject(queryIdx + 1, preparedQuery.getParamValues().get(queryIdx));
-                }
+            private final QueryResult result = new QueryResult(getOptions());
+            
+            private int resultColumnCount;
+            
+            @Override
+            public void init(final ResultSet resultSet) throws java.sql.SQLException {
+                resultColumnCount = resultSet.getMetaData().getColumnCount();
                 
-                statement.addBatch();
+                for (int columnIdx = 1; columnIdx <= resultColumnCount; columnIdx++) {
+                    //our indices are zero-based
+                    result.addColumn(columnIdx - 1, resultSet.getMetaData().getColumnLabel(columnIdx));
+                }
+            }
+            
+            @Override
+            public QueryResultRow read(final ResultSet resultSet) throws java.sql.SQLException {
+                final List<Object> rowData = new ArrayList<>(resultColumnCount);
                 
-                final QueryResult result = new QueryResult();
+                for (int columnIdx = 1; columnIdx <= resultColumnCount; columnIdx++) {
+                    rowData.add(resultSet.getObject(columnIdx));
+                }
                 
-                final ResultSet resultSet = statement.executeQuery();
+                return result.new QueryResultRow(rowData);
+            }
+            
+        });
+    }
+    
+    /**
+     * Executes an the query as a select query. The event is not fired, so that the 
+     * caller can complete it.
+     * 
+     * @param event Collects the execution information.
+     * @return The query result as iterable object.
+     * 
+     * @throws SQLException
+     */
+    protected QueryResult getResultList(final QueryEvent event) throws SQLException {
+        final QueryResult result = new QueryResult(getOptions());
+        
+        try {
+            executeQuery(event, resultSet -> {
                 final int resultColumnCount = resultSet.getMetaData().getColumnCount();
                 
                 for (int columnIdx = 1; columnIdx <= resultColumnCount; columnIdx++) {
@@ -154,6 +446,8 @@ public class Query extends AbstractQuery {
                     result.addColumn(columnIdx - 1, resultSet.getMetaData().getColumnLabel(columnIdx));
                 }
                 
+                long rowCount = 0;
+                
                 while (resultSet.next()) {
                     final List<Object> rowData = new ArrayList<>(resultColumnCount);
                     
@@ -162,14 +456,114 @@ public class Query extends AbstractQuery {
                     }
                     
                     result.addRow(rowData);
+                    rowCount++;
                 }
                 
-                return result;
+                return rowCount;
+            });
+            
+        } catch (final RuntimeException e) {
+            //deletes spilled rows
+            result.close();
+            throw e;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Executes an the query as a select query and passes the result set to the handler. The 
+     * connection is closed after the handler has finished. The event is not fired, so that the 
+     * caller can complete it.
+     * <p>
+     * When a collection parameter is split into chunks (see {@link CollectionParameterMode#CHUNKED_IN}),
+     * the query is executed once per chunk and the handler is called for each result set.
+     * </p>
+     * 
+     * @param event Collects the execution information.
+     * @param resultSetHandler Reads the result set.
+     * 
+     * @throws SQLException
+     */
+    protected void executeQuery(final QueryEvent event, final ResultSetHandler resultSetHandler) throws SQLException {
+        long startTime = System.nanoTime();
+        final List<PreparedQuery> preparedQueries = prepareChunkedQueryForExecution();
+        event.setParameterCount(preparedQueries.get(0).getParamValues().size());
+        event.addPrepareNanos(System.nanoTime() - startTime);
+        
+        try {
+            startTime = System.nanoTime();
+            final Connection connection = getDbConnection();
+            event.setConnectionWaitNanos(System.nanoTime() - startTime);
+            
+            PreparedStatement statement = null;
+            String statementSql = null;
+            
+            try {
+                //temporary tables are never chunked, so all chunks use the same ones.
+                startTime = System.nanoTime();
+                applyConnectionOptions(connection);
+                createTempTables(connection, preparedQueries.get(0));
+                event.addPrepareNanos(System.nanoTime() - startTime);
+                
+                long rowCount = 0;
+                
+                for (final PreparedQuery preparedQuery : preparedQueries) {
+                    startTime = System.nanoTime();
+                    
+                    //chunks with the same SQL share the statement.
+                    if (!preparedQuery.getQueryString().equals(statementSql)) {
+                        if (nonNull(statement)) {
+                            statement.close();
+                        }
+                        
+                        statement = connection.prepareStatement(preparedQuery.getQueryString());
+                        statementSql = preparedQuery.getQueryString();
+                        applyStatementOptions(statement);
+                    } else {
+                        statement.clearParameters();
+                    }
+                    
+                    //the maximum number of rows applies to all chunks together.
+                    if (getOptions().getMaxRows() > 0) {
+                        if (rowCount >= getOptions().getMaxRows()) {
+                            break;
+                        }
+                        
+                        statement.setMaxRows((int) (getOptions().getMaxRows() - rowCount));
+                    }
+                    
+                    for (int queryIdx = 0; queryIdx < preparedQuery.getParamValues().size(); queryIdx++) {
+                        statement.setObject(queryIdx + 1, preparedQuery.getParamValues().get(queryIdx));
+                    }
+                    
+                    event.addPrepareNanos(System.nanoTime() - startTime);
+                    
+                    startTime = System.nanoTime();
+                    final ResultSet resultSet = statement.executeQuery();
+                    event.addExecuteNanos(System.nanoTime() - startTime);
+                    
+                    startTime = System.nanoTime();
+                    
+                    try {
+                        rowCount += resultSetHandler.handle(resultSet);
+                    } finally {
+                        resultSet.close();
+                    }
+                    
+                    event.addFetchNanos(System.nanoTime() - startTime);
+                }
+                
+                event.setRowCount(rowCount);
+                dropTempTables(connection, preparedQueries.get(0));
                 
             } catch (java.sql.SQLException e) {
                 throw new SQLException("Error connecting to database.", e);
             } finally {
-                statement.close();
+                if (nonNull(statement)) {
+                    statement.close();
+                }
+                
                 connection.close();
             }
         } catch (java.sql.SQLException e) {
@@ -177,80 +571,132 @@ public class Query extends AbstractQuery {
         }
     }
     
+    /**
+     * Prepares the query for execution. When the query explicitly allows chunking of collections (see
+     * {@link CollectionParameterMode#CHUNKED_IN}), but the connection supports neither array parameters 
+     * nor temporary tables, the largest collection parameter exceeding the chunk size is split into 
+     * chunks, with a prepared query per chunk.
+     * 
+     * @return The queries as they can be executed.
+     * 
+     * @throws SQLException
+     */
+    private List<PreparedQuery> prepareChunkedQueryForExecution() throws SQLException {
+        String chunkedParamName = null;
+        List<Object> chunkedParamValue = null;
+        
+        if (getCollectionParameterMode() == CollectionParameterMode.CHUNKED_IN) {
+            for (final Entry<String, Object> param : getQueryParams().entrySet()) {
+                if (param.getValue() instanceof Collection) {
+                    //duplicates must not end up in different chunks.
+                    final List<Object> distinctValues = new ArrayList<>(new LinkedHashSet<>((Collection<?>) param.getValue()));
+                    final List<Object> elementValues = ListUtils.map(distinctValues, this::toJdbcValue);
+                    
+                    if (distinctValues.size() > COLLECTION_CHUNK_SIZE
+                            && isNull(createArrayParameterExpression(elementValues))
+                            && !isTempTableCollection(elementValues)
+                            && (isNull(chunkedParamValue) || chunkedParamValue.size() < distinctValues.size())) {
+                        chunkedParamName = param.getKey();
+                        chunkedParamValue = distinctValues;
+                    }
+                }
+            }
+        }
+        
+        if (isNull(chunkedParamName)) {
+            return Collections.singletonList(prepareQueryForExecution(null, null));
+            
+        } else {
+            final List<PreparedQuery> preparedQueries = new ArrayList<>();
+            
+            for (final List<Object> chunk : ListUtils.split(chunkedParamValue, COLLECTION_CHUNK_SIZE)) {
+                preparedQueries.add(prepareQueryForExecution(chunkedParamName, chunk));
+            }
+            
+            return preparedQueries;
+        }
+    }
+    
     /**
      * Prepares the query for execution.
-     *  
+     * 
+     * @param overriddenParamName The name of a parameter, whose value is replaced for this execution;
+     *                            {@code null} when no value is replaced.
+     * @param overriddenParamValue The value to use instead of the parameter's value.
      * @return The query as it can be executed.
      * 
      * @throws SQLException
      */
-    private PreparedQuery prepareQueryForExecution() throws SQLException {
+    private PreparedQuery prepareQueryForExecution(final String overriddenParamName, final Object overriddenParamValue) throws SQLException {
         final PreparedQuery query = new PreparedQuery();
         query.setQueryString(getQueryString());
         
         if (!getQueryParams().isEmpty()) {
+            final ParsedQuery parsedQuery = getParsedQuery();
             final Set<String> matchedParams = new HashSet<>();
-            int nextParamIndex = query.getQueryString().indexOf(':');
+            final StringBuilder queryString = new StringBuilder(getQueryString().length());
             
-            while (nextParamIndex > -1) {
-                //determine next param
-                int endOfParamName = indexOfSeparator(query.getQueryString(), nextParamIndex);
-                
-                if (endOfParamName < 0) { //query should end with this parameter.
-                    endOfParamName = query.getQueryString().length();
-                }
-                
-                final String nextParamName = query.getQueryString().substring(nextParamIndex + 1, endOfParamName);
+            for (int paramIdx = 0; paramIdx < parsedQuery.getParamNames().size(); paramIdx++) {
+                final String nextParamName = parsedQuery.getParamNames().get(paramIdx);
+                queryString.append(parsedQuery.getFragments().get(paramIdx));
                 
                 if (!getQueryParams().containsKey(nextParamName)) {
                     throw new SQLException("Parameter value not defined: " + nextParamName);
                 }
                 
                 matchedParams.add(nextParamName);
-                final List<Object> paramValues = new ArrayList<>();
-                final Object paramValue = getQueryParams().get(nextParamName);
+                final Object paramValue = nextParamName.equals(overriddenParamName) ? overriddenParamValue : getQueryParams().get(nextParamName);
                 final String paramInQuery;
                 
                 if (paramValue instanceof Collection) {
                     final Collection<?> collection = (Collection<?>) paramValue;
                     
+                    final List<Object> elementValues = ListUtils.map(collection, this::toJdbcValue);
+                    final String tempTableName = TEMP_TABLE_PREFIX + query.getTempTables().size();
+                    final String tempTableStatement = createTempTableStatement(tempTableName, elementValues);
+                    
                     if (collection.isEmpty()) {
                         paramInQuery = "null";
                         
-                    } else {
-                        paramInQuery = '(' + StringUtils.repeat("?", ",", collection.size()) + ')';
-                        paramValues.addAll(collection);
-                    }
-                    
-                    
-                } else {
-                    paramInQuery = "?";
-                    paramValues.add(paramValue);
-                }
-                
-                query.setQueryString(StringUtils.replaceOnce(query.getQueryString(), ':' + nextParamName, paramInQuery));
-                
-                for (final Object param : paramValues) {
-                    if (isNull(param)) {
-                        query.addParamValue(null);
-                        
-                    } else if (param.getClass().isEnum()) {
-                        query.addParamValue(((Enum<?>) param).name());
+                    } else if (nonNull(tempTableStatement)) {
+                        paramInQuery = "(select x from " + tempTableName + ')';
+                        query.addTempTable(new TempTable(tempTableName, tempTableStatement, elementValues));
                         
-                    } else if (param.getClass().isAnnotationPresent(Entity.class)) {
-                        final Field idField = ListUtils.selectFirst(ClassUtils.getAllFields(param.getClass()), field -> field.isAnnotationPresent(Id.class));
+                    } else if (getCollectionParameterMode() != CollectionParameterMode.EXPAND) {
+                        final String arrayExpression = createArrayParameterExpression(elementValues);
                         
-                        query.addParamValue(PropertyUtils.read(param, idField.getName()));
+                        if (nonNull(arrayExpression)) {
+                            paramInQuery = arrayExpression;
+                            query.addParamValue(elementValues.toArray());
+                            
+                        } else {
+                            //pad with the last element, so that the number of distinct query strings stays small.
+                            final int paddedSize = getPaddedCollectionSize(elementValues.size());
+                            paramInQuery = '(' + StringUtils.repeat("?", ",", paddedSize) + ')';
+                            
+                            for (int elementIdx = 0; elementIdx < paddedSize; elementIdx++) {
+                                query.addParamValue(elementValues.get(Math.min(elementIdx, elementValues.size() - 1)));
+                            }
+                        }
                         
                     } else {
-                        query.addParamValue(paramValue);
+                        paramInQuery = '(' + StringUtils.repeat("?", ",", elementValues.size()) + ')';
+                        
+                        for (final Object elementValue : elementValues) {
+                            query.addParamValue(elementValue);
+                        }
                     }
+                    
+                } else {
+                    paramInQuery = "?";
+                    query.addParamValue(toJdbcValue(paramValue));
                 }
                 
-                //next param position
-                nextParamIndex = query.getQueryString().indexOf(':');
+                queryString.append(paramInQuery);
             }
             
+            query.setQueryString(queryString.append(parsedQuery.getFragments().get(parsedQuery.getParamNames().size())).toString());
+            
             if (matchedParams.size() != getQueryParams().size()) {
                 throw new NonMatchedParamException("At least one parameter value was not matched. Non-matched values: " 
                                                     + new HashSet<>(getQueryParams().keySet()).removeAll(matchedParams));
@@ -262,26 +708,198 @@ public class Query extends AbstractQuery {
     }
     
     /**
-     * Determines the index of the next "separator character" in the query.
-     * Separators are white spaces, comma, semi colon, tabs, line breaks, and closing 
-     * brackets.
-     *
-     * @param queryString The query.
-     * @param startPos The idnex from which to search for the next separator.
-     * @return The index of the next separator character; {@code -1} when there is none.
+     * Converts a parameter value to the value bound to the statement.
+     * 
+     * @param param The parameter value.
+     * @return The value to bind.
+     */
+    private Object toJdbcValue(final Object param) {
+        if (isNull(param)) {
+            return null;
+            
+        } else if (param.getClass().isEnum()) {
+            return ((Enum<?>) param).name();
+            
+        } else if (param instanceof Instant) {
+            return Timestamp.from((Instant) param);
+            
+        } else if (param.getClass().isAnnotationPresent(Entity.class)) {
+            final Field idField = ListUtils.selectFirst(ClassUtils.getAllFields(param.getClass()), field -> field.isAnnotationPresent(Id.class));
+            
+            return PropertyUtils.read(param, idField.getName());
+            
+        } else {
+            return param;
+        }
+    }
+    
+    /**
+     * Creates the expression for binding the collection elements as array parameter.
+     * 
+     * @param elementValues The elements as they are bound.
+     * @return The expression; {@code null} when the connection does not support array parameters
+     *         for the elements.
+     */
+    private String createArrayParameterExpression(final List<Object> elementValues) {
+        final Object firstElement = ListUtils.selectFirst(elementValues, NullableUtils::nonNull);
+        
+        if (isNull(firstElement)) {
+            return null;
+        } else {
+            return getDbConnectionProvider().createArrayParameterExpression(firstElement.getClass());
+        }
+    }
+    
+    /**
+     * Creates the statement creating the temporary table for the collection elements.
+     * 
+     * @param tableName The name of the table.
+     * @param elementValues The elements as they are bound.
+     * @return The statement; {@code null} when the collection does not exceed the temporary table threshold
+     *         or the connection does not support temporary tables for the elements.
+     */
+    private String createTempTableStatement(final String tableName, final List<Object> elementValues) {
+        if (getTempTableThreshold() == 0 || elementValues.size() <= getTempTableThreshold()) {
+            return null;
+        }
+        
+        final Object firstElement = ListUtils.selectFirst(elementValues, NullableUtils::nonNull);
+        
+        if (isNull(firstElement)) {
+            return null;
+        } else {
+            return getDbConnectionProvider().createTempTableStatement(tableName, firstElement.getClass());
+        }
+    }
+    
+    /**
+     * Checks, if the collection elements are bound via a temporary table.
+     * 
+     * @param elementValues The elements as they are bound.
+     * @return {@code true} when the elements are inserted into a temporary table.
+     */
+    private boolean isTempTableCollection(final List<Object> elementValues) {
+        return nonNull(createTempTableStatement(TEMP_TABLE_PREFIX, elementValues));
+    }
+    
+    /**
+     * Applies the connection related {@link #getOptions() options}.
+     * 
+     * @param connection The connection on which the query is executed.
+     * 
+     * @throws java.sql.SQLException
+     */
+    private void applyConnectionOptions(final Connection connection) throws java.sql.SQLException {
+        if (getOptions().isReadOnly()) {
+            connection.setReadOnly(true);
+        }
+    }
+    
+    /**
+     * Applies the statement related {@link #getOptions() options}, except for the maximum number of rows.
+     * 
+     * @param statement The statement executing the query.
+     * 
+     * @throws java.sql.SQLException
      */
-    private int indexOfSeparator(final String queryString, int startPos) {
-        int index = -1;
+    private void applyStatementOptions(final Statement statement) throws java.sql.SQLException {
+        if (getOptions().getFetchSize() > 0) {
+            statement.setFetchSize(getOptions().getFetchSize());
+        }
         
-        for (char separator : new char[]{' ', ';', ',', '\t', '\n', ')'}) {
-            final int separatorIndex = queryString.indexOf(separator, startPos);
+        if (getOptions().getQueryTimeout() > 0) {
+            statement.setQueryTimeout(getOptions().getQueryTimeout());
+        }
+    }
+    
+    /**
+     * Creates the temporary tables of the query and inserts the collection elements in batches.
+     * 
+     * @param connection The connection on which the query is executed.
+     * @param query The query.
+     * 
+     * @throws java.sql.SQLException
+     */
+    private void createTempTables(final Connection connection, final PreparedQuery query) throws java.sql.SQLException {
+        for (final TempTable tempTable : query.getTempTables()) {
+            final Statement createStatement = connection.createStatement();
+            
+            try {
+                createStatement.execute(tempTable.getCreateStatement());
+            } finally {
+                createStatement.close();
+            }
+            
+            final PreparedStatement insertStatement = connection.prepareStatement("insert into " + tempTable.getName() + " (x) values (?)");
             
-            if (separatorIndex > 0 && (index == -1 || index > separatorIndex)) {
-                index = separatorIndex;
+            try {
+                for (final List<Object> chunk : ListUtils.split(tempTable.getValues(), COLLECTION_CHUNK_SIZE)) {
+                    for (final Object value : chunk) {
+                        insertStatement.setObject(1, value);
+                        insertStatement.addBatch();
+                    }
+                    
+                    insertStatement.executeBatch();
+                }
+            } finally {
+                insertStatement.close();
             }
         }
+    }
+    
+    /**
+     * Drops the temporary tables of the query. Note that dropping a table commits the transaction.
+     * 
+     * @param connection The connection on which the query was executed.
+     * @param query The query.
+     * 
+     * @throws java.sql.SQLException
+     */
+    private void dropTempTables(final Connection connection, final PreparedQuery query) throws java.sql.SQLException {
+        if (!query.getTempTables().isEmpty()) {
+            final Statement dropStatement = connection.createStatement();
+            
+            try {
+                for (final TempTable tempTable : query.getTempTables()) {
+                    dropStatement.execute("drop table " + tempTable.getName());
+                }
+            } finally {
+                dropStatement.close();
+            }
+        }
+    }
+    
+    /**
+     * Determines the number of parameters to which a collection is padded: the next power of two,
+     * but at least the size of the collection.
+     * 
+     * @param collectionSize The size of the collection.
+     * @return The padded size.
+     */
+    private int getPaddedCollectionSize(final int collectionSize) {
+        if (collectionSize <= 1 || collectionSize >= COLLECTION_CHUNK_SIZE) {
+            return collectionSize;
+        } else {
+            return Math.min(COLLECTION_CHUNK_SIZE, Integer.highestOneBit(collectionSize - 1) << 1);
+        }
+    }
+    
+    /**
+     * Reads the result set of a select query.
+     */
+    @FunctionalInterface
+    protected interface ResultSetHandler {
+        
+        /**
+         * Reads the rows of the result set.
+         * 
+         * @param resultSet The result set positioned before the first row.
+         * @return The number of read rows.
+         * 
+         * @throws java.sql.SQLException
+         */
+        public long handle(ResultSet resultSet) throws java.sql.SQLException;
         
-        return index;
     }
     
     /**
@@ -299,6 +917,11 @@ public class Query extends AbstractQuery {
          */
         private List<Object> paramValues = new ArrayList<>();
         
+        /**
+         * The temporary tables, which have to exist when the query is executed.
+         */
+        private List<TempTable> tempTables = new ArrayList<>();
+        
         /**
          * Adds a parameter value for the execution. 
          */
@@ -313,6 +936,20 @@ public class Query extends AbstractQuery {
             return paramValues;
         }
         
+        /**
+         * Adds a temporary table for the execution. 
+         */
+        public void addTempTable(final TempTable tempTable) {
+            this.tempTables.add(tempTable);
+        }
+        
+        /**
+         * The temporary tables, which have to exist when the query is executed.
+         */
+        public List<TempTable> getTempTables() {
+            return tempTables;
+        }
+        
         /**
          * The final query String.
          */
@@ -328,4 +965,62 @@ public class Query extends AbstractQuery {
         }
         
     }
+    
+    /**
+     * A temporary table holding the elements of a collection parameter.
+     */
+    private static class TempTable {
+        
+        /**
+         * The name of the table.
+         */
+        private final String name;
+        
+        /**
+         * The statement creating the table.
+         */
+        private final String createStatement;
+        
+        /**
+         * The distinct, non-null elements to insert.
+         */
+        private final List<Object> values;
+        
+        /**
+         * @param name The name of the table.
+         * @param createStatement The statement creating the table.
+         * @param elementValues The elements as they are bound.
+         */
+        public TempTable(final String name, final String createStatement, final List<Object> elementValues) {
+            this.name = name;
+            this.createStatement = createStatement;
+            
+            //the single column is the primary key of the table.
+            final Set<Object> distinctValues = new LinkedHashSet<>(elementValues);
+            distinctValues.remove(null);
+            this.values = new ArrayList<>(distinctValues);
+        }
+        
+        /**
+         * The name of the table.
+         */
+        public String getName() {
+            return name;
+        }
+        
+        /**
+         * The statement creating the table.
+         */
+        public String getCreateStatement() {
+            return createStatement;
+        }
+        
+        /**
+         * The distinct, non-null elements to insert.
+         */
+        public List<Object> getValues() {
+            return values;
+        }
+        
+    }
 }
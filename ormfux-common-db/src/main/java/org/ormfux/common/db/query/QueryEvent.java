@@ -0,0 +1,219 @@
+package org.ormfux.common.db.query;
+
+/**
+ * Information about a single query execution, or about a single statement (batch) of an update. 
+ * Durations are in nano seconds.
+ */
+public class QueryEvent {
+    
+    /**
+     * The query as it was defined (i.e. with parameter names instead of values).
+     */
+    private final String sqlTemplate;
+    
+    /**
+     * The kind of execution.
+     */
+    private final QueryType queryType;
+    
+    /**
+     * The number of values bound to the statement.
+     */
+    private int parameterCount;
+    
+    /**
+     * Time spent waiting for the database connection.
+     */
+    private long connectionWaitNanos;
+    
+    /**
+     * Time spent preparing the query and the statement including parameter binding.
+     */
+    private long prepareNanos;
+    
+    /**
+     * Time spent executing the statement (including the commit for updates).
+     */
+    private long executeNanos;
+    
+    /**
+     * Time spent reading the rows from the result set.
+     */
+    private long fetchNanos;
+    
+    /**
+     * Time spent mapping the rows to entities.
+     */
+    private long hydrateNanos;
+    
+    /**
+     * The number of returned (select) or affected (update) rows.
+     */
+    private long rowCount;
+    
+    /**
+     * The error that aborted the execution.
+     */
+    private Throwable failure;
+    
+    /**
+     * @param sqlTemplate The query as it was defined.
+     * @param queryType The kind of execution.
+     */
+    protected QueryEvent(final String sqlTemplate, final QueryType queryType) {
+        this.sqlTemplate = sqlTemplate;
+        this.queryType = queryType;
+    }
+    
+    /**
+     * The query as it was defined (i.e. with parameter names instead of values). Updates report one event
+     * per executed statement (or batch of identical statements), whose template is the statement's SQL
+     * with placeholders instead of values.
+     */
+    public String getSqlTemplate() {
+        return sqlTemplate;
+    }
+    
+    /**
+     * The kind of execution.
+     */
+    public QueryType getQueryType() {
+        return queryType;
+    }
+    
+    /**
+     * The number of values bound to the statement.
+     */
+    public int getParameterCount() {
+        return parameterCount;
+    }
+    
+    /**
+     * @see #getParameterCount()
+     */
+    protected void setParameterCount(final int parameterCount) {
+        this.parameterCount = parameterCount;
+    }
+    
+    /**
+     * Time spent waiting for the database connection.
+     */
+    public long getConnectionWaitNanos() {
+        return connectionWaitNanos;
+    }
+    
+    /**
+     * @see #getConnectionWaitNanos()
+     */
+    protected void setConnectionWaitNanos(final long connectionWaitNanos) {
+        this.connectionWaitNanos = connectionWaitNanos;
+    }
+    
+    /**
+     * Time spent preparing the query and the statement including parameter binding.
+     */
+    public long getPrepareNanos() {
+        return prepareNanos;
+    }
+    
+    /**
+     * Adds time to the prepare duration.
+     */
+    protected void addPrepareNanos(final long nanos) {
+        this.prepareNanos += nanos;
+    }
+    
+    /**
+     * Time spent executing the statement (including the commit for updates).
+     */
+    public long getExecuteNanos() {
+        return executeNanos;
+    }
+    
+    /**
+     * Adds time to the execute duration.
+     */
+    protected void addExecuteNanos(final long nanos) {
+        this.executeNanos += nanos;
+    }
+    
+    /**
+     * Time spent reading the rows from the result set.
+     */
+    public long getFetchNanos() {
+        return fetchNanos;
+    }
+    
+    /**
+     * Adds time to the fetch duration.
+     */
+    protected void addFetchNanos(final long nanos) {
+        this.fetchNanos += nanos;
+    }
+    
+    /**
+     * Time spent mapping the rows to entities. This includes the loading of referenced
+     * entities and collections. Always {@code 0} for native queries.
+     */
+    public long getHydrateNanos() {
+        return hydrateNanos;
+    }
+    
+    /**
+     * Adds time to the hydrate duration.
+     */
+    protected void addHydrateNanos(final long nanos) {
+        this.hydrateNanos += nanos;
+    }
+    
+    /**
+     * The number of returned (select) or affected (update) rows.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+    
+    /**
+     * @see #getRowCount()
+     */
+    protected void setRowCount(final long rowCount) {
+        this.rowCount = rowCount;
+    }
+    
+    /**
+     * The error that aborted the execution; {@code null} when the execution was successful.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+    
+    /**
+     * @see #getFailure()
+     */
+    protected void setFailure(final Throwable failure) {
+        this.failure = failure;
+    }
+    
+    /**
+     * The overall duration of the execution.
+     */
+    public long getTotalNanos() {
+        return connectionWaitNanos + prepareNanos + executeNanos + fetchNanos + hydrateNanos;
+    }
+    
+    /**
+     * The kind of query execution.
+     */
+    public enum QueryType {
+        /**
+         * A query returning rows.
+         */
+        SELECT,
+        
+        /**
+         * A query altering data or structure.
+         */
+        UPDATE
+    }
+    
+}
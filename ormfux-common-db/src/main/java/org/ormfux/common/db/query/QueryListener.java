@@ -0,0 +1,18 @@
+package org.ormfux.common.db.query;
+
+/**
+ * Listener, which is notified about each query execution. Listeners are registered at the 
+ * {@link org.ormfux.common.db.query.connection.DbConnectionProvider} (or via the {@link QueryManager}) 
+ * and are invoked on the thread that executed the query, after the connection has been closed.
+ */
+@FunctionalInterface
+public interface QueryListener {
+    
+    /**
+     * Called once a query was executed.
+     * 
+     * @param event The information about the execution.
+     */
+    public void queryExecuted(QueryEvent event);
+    
+}
@@ -1,10 +1,23 @@
 package org.ormfux.common.db.query;
 
+import static org.ormfux.common.utils.NullableUtils.isNull;
 import static org.ormfux.common.utils.NullableUtils.nonNull;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.lang3.StringUtils;
+import org.ormfux.common.db.annotation.NamedQuery;
+import org.ormfux.common.db.exception.SQLException;
+import org.ormfux.common.db.query.SqlStatementSplitter.SqlStatement;
 import org.ormfux.common.db.query.connection.AbstractDbConnectionProvider;
+import org.ormfux.common.db.query.connection.BackupFormat;
+import org.ormfux.common.db.query.connection.BackupProgressListener;
 import org.ormfux.common.db.query.connection.DbConnectionProvider;
 import org.ormfux.common.utils.reflection.ClassUtils;
 
@@ -18,13 +31,45 @@ public class QueryManager {
      */
     private DbConnectionProvider connectionProvider;
     
+    /**
+     * The listeners to register at the connection provider.
+     */
+    private final List<QueryListener> queryListeners = new ArrayList<>();
+    
+    /**
+     * How collection parameter values are bound in the created queries.
+     */
+    private CollectionParameterMode collectionParameterMode = CollectionParameterMode.EXPAND;
+    
+    /**
+     * The number of elements above which collection parameters of the created queries are bound via 
+     * temporary tables.
+     */
+    private int tempTableThreshold;
+    
+    /**
+     * The settings for the execution of the created queries.
+     */
+    private QueryOptions defaultOptions = new QueryOptions();
+    
+    /**
+     * The registered named queries by name.
+     */
+    private final Map<String, NamedQueryDefinition> namedQueries = new ConcurrentHashMap<>();
+    
+    /**
+     * The named queries restored from a cache snapshot by name. They are not validated again, when they are 
+     * registered unchanged.
+     */
+    private final Map<String, NamedQueryDefinition> validatedNamedQueries = new ConcurrentHashMap<>();
+    
     /**
      * Creates a new query for this manager's database.
      *
      * @param queryString The query.
      */
     public Query createQuery(final String queryString) {
-        return new Query(connectionProvider, queryString);
+        return configureQuery(new Query(connectionProvider, queryString));
     }
     
     /**
@@ -33,7 +78,7 @@ public class QueryManager {
      * @param entityType The type of entity to query.
      */
     public <T> TypedQuery<T> createQuery(final Class<T> entityType) {
-        return new TypedQuery<>(connectionProvider, null, entityType);
+        return configureQuery(new TypedQuery<>(connectionProvider, null, entityType));
     }
     
     /**
@@ -44,7 +89,7 @@ public class QueryManager {
      * @param querySuffix The suffix for the query.
      */
     public <T> TypedQuery<T> createQuery(final Class<T> entityType, final String querySuffix) {
-        return new TypedQuery<>(connectionProvider, querySuffix, entityType);
+        return configureQuery(new TypedQuery<>(connectionProvider, querySuffix, entityType));
     }
     
     /**
@@ -56,7 +101,281 @@ public class QueryManager {
      * @param entityAlias Alias for the entity in the query when the auto-generated one should not be used.
      */
     public <T> TypedQuery<T> createQuery(final Class<T> entityType, final String querySuffix, final String entityAlias) {
-        return new TypedQuery<>(connectionProvider, querySuffix, entityType, entityAlias);
+        return configureQuery(new TypedQuery<>(connectionProvider, querySuffix, entityType, entityAlias));
+    }
+    
+    /**
+     * Registers a native query under a name. The query is parsed and its statements are validated against 
+     * the database once, so that errors show up at registration instead of execution. Requires the database
+     * to be {@link #setDatabase(Class, String, String...) set}.
+     * 
+     * @param name The unique name of the query.
+     * @param queryString The query.
+     * 
+     * @throws SQLException When the query is invalid.
+     */
+    public void registerNamedQuery(final String name, final String queryString) {
+        checkNamedQueryName(name);
+        final ParsedQuery parsedQuery = ParsedQuery.parse(queryString);
+        
+        if (!isValidated(name, null, parsedQuery)) {
+            //the placeholders are valid for single and collection parameters.
+            for (final SqlStatement statement : SqlStatementSplitter.split(parsedQuery.replaceParams("(?)"))) {
+                connectionProvider.validateQuery(statement.getSql());
+            }
+        }
+        
+        addNamedQuery(name, new NamedQueryDefinition(null, queryString, parsedQuery));
+    }
+    
+    /**
+     * Registers a query for the entity type under a name. The generated select is parsed and validated 
+     * against the database once, so that errors show up at registration instead of execution. Requires 
+     * the database to be {@link #setDatabase(Class, String, String...) set}.
+     * 
+     * @param name The unique name of the query.
+     * @param entityType The type of entity to query.
+     * @param querySuffix The suffix for the query.
+     * 
+     * @throws SQLException When the query is invalid.
+     */
+    public void registerNamedQuery(final String name, final Class<?> entityType, final String querySuffix) {
+        checkNamedQueryName(name);
+        final ParsedQuery parsedSelect = ParsedQuery.parse(createQuery(entityType, querySuffix).createSelectQuery().getQueryString());
+        
+        if (!isValidated(name, entityType, parsedSelect)) {
+            connectionProvider.validateQuery(parsedSelect.replaceParams("(?)"));
+        }
+        
+        addNamedQuery(name, new NamedQueryDefinition(entityType, querySuffix, parsedSelect));
+    }
+    
+    /**
+     * Registers the queries defined with {@link NamedQuery} annotations on the entity types.
+     * 
+     * @param entityTypes The entity types.
+     * 
+     * @throws SQLException When a query is invalid.
+     * 
+     * @see #registerNamedQuery(String, Class, String)
+     */
+    public void registerNamedQueries(final Class<?>... entityTypes) {
+        for (final Class<?> entityType : entityTypes) {
+            for (final NamedQuery namedQuery : entityType.getAnnotationsByType(NamedQuery.class)) {
+                registerNamedQuery(namedQuery.name(), entityType, namedQuery.suffix());
+            }
+        }
+    }
+    
+    /**
+     * Creates a new query from a registered native query.
+     * 
+     * @param name The name of the query.
+     * 
+     * @throws IllegalArgumentException When no native query is registered with the name.
+     */
+    public Query createNamedQuery(final String name) {
+        final NamedQueryDefinition namedQuery = getNamedQuery(name);
+        
+        if (nonNull(namedQuery.getEntityType())) {
+            throw new IllegalArgumentException("The query is registered for an entity type: " + name);
+        }
+        
+        final Query query = createQuery(namedQuery.getQueryString());
+        query.setParsedQuery(namedQuery.getParsedQuery());
+        
+        return query;
+    }
+    
+    /**
+     * Creates a new query from a registered query for the entity type.
+     * 
+     * @param name The name of the query.
+     * @param entityType The type of entity to query.
+     * 
+     * @throws IllegalArgumentException When no query is registered with the name for the entity type.
+     */
+    public <T> TypedQuery<T> createNamedQuery(final String name, final Class<T> entityType) {
+        final NamedQueryDefinition namedQuery = getNamedQuery(name);
+        
+        if (namedQuery.getEntityType() != entityType) {
+            throw new IllegalArgumentException("The query is not registered for the entity type " + entityType + ": " + name);
+        }
+        
+        final TypedQuery<T> query = createQuery(entityType, namedQuery.getQueryString());
+        query.setParsedSelect(namedQuery.getParsedQuery());
+        
+        return query;
+    }
+    
+    /**
+     * Checks, if a named query was restored from a cache snapshot unchanged.
+     * 
+     * @param name The name of the query.
+     * @param entityType The entity type of a typed query; {@code null} for a native query.
+     * @param parsedQuery The parsed query.
+     * @return {@code true} when the query does not need to be validated.
+     */
+    private boolean isValidated(final String name, final Class<?> entityType, final ParsedQuery parsedQuery) {
+        final NamedQueryDefinition validatedQuery = validatedNamedQueries.get(name);
+        
+        return nonNull(validatedQuery) 
+                   && validatedQuery.getEntityType() == entityType 
+                   && validatedQuery.getParsedQuery().getQueryString().equals(parsedQuery.getQueryString());
+    }
+    
+    /**
+     * Writes the entities of the identity map and the registered named queries to a snapshot file (e.g. at 
+     * shutdown), from which they are restored after a restart with {@link #restoreCacheSnapshot(Path)}.
+     * 
+     * @param identityMap The entities, e.g. of a shared identity map.
+     * @param snapshotFile The snapshot file.
+     * 
+     * @throws SQLException When the snapshot cannot be written.
+     */
+    public void writeCacheSnapshot(final IdentityMap identityMap, final Path snapshotFile) {
+        CacheSnapshot.write(this, connectionProvider.getSchemaFingerprint(), namedQueries, identityMap, snapshotFile);
+    }
+    
+    /**
+     * Restores a snapshot written with {@link #writeCacheSnapshot(IdentityMap, Path)}. The snapshot is discarded 
+     * when the database schema has changed since. Entities, whose mapping or version has changed, are discarded. 
+     * The restored named queries are not validated again when they are registered unchanged.
+     * 
+     * @param snapshotFile The snapshot file.
+     * @return The restored entities; empty when there is no current snapshot.
+     * 
+     * @throws SQLException When the snapshot cannot be read.
+     */
+    public IdentityMap restoreCacheSnapshot(final Path snapshotFile) {
+        return CacheSnapshot.restore(this, connectionProvider.getSchemaFingerprint(), snapshotFile, validatedNamedQueries);
+    }
+    
+    /**
+     * Checks, that the name of a new named query is not used yet.
+     * 
+     * @param name The name.
+     */
+    private void checkNamedQueryName(final String name) {
+        if (StringUtils.isBlank(name)) {
+            throw new IllegalArgumentException("The name of the query is required.");
+        } else if (namedQueries.containsKey(name)) {
+            throw new IllegalArgumentException("A query with this name is already registered: " + name);
+        }
+    }
+    
+    /**
+     * Adds a validated named query.
+     * 
+     * @param name The name.
+     * @param namedQuery The query.
+     */
+    private void addNamedQuery(final String name, final NamedQueryDefinition namedQuery) {
+        if (nonNull(namedQueries.putIfAbsent(name, namedQuery))) {
+            throw new IllegalArgumentException("A query with this name is already registered: " + name);
+        }
+    }
+    
+    /**
+     * Determines a registered named query.
+     * 
+     * @param name The name.
+     * @return The query.
+     */
+    private NamedQueryDefinition getNamedQuery(final String name) {
+        final NamedQueryDefinition namedQuery = namedQueries.get(name);
+        
+        if (isNull(namedQuery)) {
+            throw new IllegalArgumentException("No query is registered with this name: " + name);
+        }
+        
+        return namedQuery;
+    }
+    
+    /**
+     * Creates a new unit of work, which collects the writes of its queries until it is flushed.
+     */
+    public UnitOfWork createUnitOfWork() {
+        return new UnitOfWork(this);
+    }
+    
+    /**
+     * Creates a new write-behind queue, which writes the updates of its queries asynchronously in batches.
+     * When a journal file is given, the updates left in it by a previous queue are queued again.
+     * 
+     * @param capacity The maximum number of queued entities.
+     * @param journalFile The file journaling the queued updates; {@code null} for none.
+     * 
+     * @throws SQLException When the journal cannot be read.
+     */
+    public WriteBehindQueue createWriteBehindQueue(final int capacity, final Path journalFile) {
+        return new WriteBehindQueue(this, capacity, journalFile);
+    }
+    
+    /**
+     * Applies the defaults of this manager to a new query.
+     * 
+     * @param query The query.
+     * @return The query.
+     */
+    private <Q extends AbstractQuery> Q configureQuery(final Q query) {
+        query.setCollectionParameterMode(collectionParameterMode);
+        query.setTempTableThreshold(tempTableThreshold);
+        query.setOptions(new QueryOptions(defaultOptions));
+        
+        return query;
+    }
+    
+    /**
+     * How collection parameter values are bound in the created queries. Defaults to 
+     * {@link CollectionParameterMode#EXPAND}.
+     */
+    public CollectionParameterMode getCollectionParameterMode() {
+        return collectionParameterMode;
+    }
+    
+    /**
+     * @see #getCollectionParameterMode()
+     */
+    public void setCollectionParameterMode(final CollectionParameterMode collectionParameterMode) {
+        this.collectionParameterMode = Objects.requireNonNull(collectionParameterMode);
+    }
+    
+    /**
+     * The number of elements above which collection parameters of the created queries are bound via 
+     * temporary tables. Defaults to {@code 0}, which disables temporary tables.
+     * 
+     * @see AbstractQuery#getTempTableThreshold()
+     */
+    public int getTempTableThreshold() {
+        return tempTableThreshold;
+    }
+    
+    /**
+     * @see #getTempTableThreshold()
+     */
+    public void setTempTableThreshold(final int tempTableThreshold) {
+        if (tempTableThreshold < 0) {
+            throw new IllegalArgumentException("The temporary table threshold must not be negative.");
+        }
+        
+        this.tempTableThreshold = tempTableThreshold;
+    }
+    
+    /**
+     * The settings for the execution of the created queries. Each query receives a copy, so changes of
+     * these options only affect queries created afterwards, and changes of the options of a query only 
+     * affect that query. 
+     */
+    public QueryOptions getDefaultOptions() {
+        return defaultOptions;
+    }
+    
+    /**
+     * @see #getDefaultOptions()
+     */
+    public void setDefaultOptions(final QueryOptions defaultOptions) {
+        this.defaultOptions = Objects.requireNonNull(defaultOptions);
     }
     
     /**
@@ -76,6 +395,37 @@ public class QueryManager {
         connectionProvider = ClassUtils.createObject(connectionProviderType, 
                                                      Arrays.asList(String.class, String[].class), 
                                                      Arrays.asList(databaseUrl, connectionParams));
+        
+        for (final QueryListener listener : queryListeners) {
+            connectionProvider.addQueryListener(listener);
+        }
+    }
+    
+    /**
+     * Registers a listener, which is notified about each query executed through this manager. The 
+     * listener is retained when the database is changed.
+     * 
+     * @param listener The listener.
+     */
+    public void addQueryListener(final QueryListener listener) {
+        queryListeners.add(Objects.requireNonNull(listener));
+        
+        if (nonNull(connectionProvider)) {
+            connectionProvider.addQueryListener(listener);
+        }
+    }
+    
+    /**
+     * Removes a registered query listener.
+     * 
+     * @param listener The listener.
+     */
+    public void removeQueryListener(final QueryListener listener) {
+        queryListeners.remove(listener);
+        
+        if (nonNull(connectionProvider)) {
+            connectionProvider.removeQueryListener(listener);
+        }
     }
     
     /**
@@ -94,6 +444,40 @@ public class QueryManager {
         connectionProvider.backupDatabase(databaseVersion);
     }
     
+    /**
+     * Uses the underlying {@link DbConnectionProvider} to create an incremental database backup, which
+     * stores only the parts of the database that changed since the previous incremental backup.
+     * 
+     * @param databaseVersion A version indicator for the backed up database.
+     * @return The path of the manifest describing the backup.
+     */
+    public String backupDatabaseIncremental(final CharSequence databaseVersion) {
+        return connectionProvider.backupDatabaseIncremental(databaseVersion);
+    }
+    
+    /**
+     * If the underlying {@link DbConnectionProvider} can create a database backup while the
+     * database stays available.
+     */
+    public boolean isCanBackupDatabaseOnline() {
+        return connectionProvider.isCanBackupDatabaseOnline();
+    }
+    
+    /**
+     * Uses the underlying {@link DbConnectionProvider} to create a database backup while the
+     * database stays available.
+     * 
+     * @param databaseVersion A version indicator for the backed up database.
+     * @param format The format of the backup.
+     * @param progressListener Receives the progress of the backup; can be {@code null}.
+     * @return The path of the backup file.
+     */
+    public String backupDatabaseOnline(final CharSequence databaseVersion, 
+                                       final BackupFormat format, 
+                                       final BackupProgressListener progressListener) {
+        return connectionProvider.backupDatabaseOnline(databaseVersion, format, progressListener);
+    }
+    
     /**
      * Checks, if the database is reachable.
      * 
@@ -102,4 +486,58 @@ public class QueryManager {
     public boolean pingDatabase() {
         return connectionProvider.ping();
     }
+    
+    /**
+     * A registered named query.
+     */
+    static class NamedQueryDefinition {
+        
+        /**
+         * The entity type of a typed query; {@code null} for a native query.
+         */
+        private final Class<?> entityType;
+        
+        /**
+         * The native query or the suffix of the typed query.
+         */
+        private final String queryString;
+        
+        /**
+         * The parsed native query or the parsed select of the typed query.
+         */
+        private final ParsedQuery parsedQuery;
+        
+        /**
+         * @param entityType The entity type of a typed query; {@code null} for a native query.
+         * @param queryString The native query or the suffix of the typed query.
+         * @param parsedQuery The parsed native query or the parsed select of the typed query.
+         */
+        public NamedQueryDefinition(final Class<?> entityType, final String queryString, final ParsedQuery parsedQuery) {
+            this.entityType = entityType;
+            this.queryString = queryString;
+            this.parsedQuery = parsedQuery;
+        }
+        
+        /**
+         * The entity type of a typed query; {@code null} for a native query.
+         */
+        public Class<?> getEntityType() {
+            return entityType;
+        }
+        
+        /**
+         * The native query or the suffix of the typed query.
+         */
+        public String getQueryString() {
+            return queryString;
+        }
+        
+        /**
+         * The parsed native query or the parsed select of the typed query.
+         */
+        public ParsedQuery getParsedQuery() {
+            return parsedQuery;
+        }
+        
+    }
 }
@@ -0,0 +1,194 @@
+package org.ormfux.common.db.query;
+
+import java.util.Objects;
+
+/**
+ * Settings applied to the connection and statement when a query is executed. Values of {@code 0} (or
+ * {@code null}) keep the default of the driver.
+ */
+public class QueryOptions {
+    
+    /**
+     * The number of rows fetched from the database at once.
+     */
+    private int fetchSize;
+    
+    /**
+     * The number of seconds after which the execution of a statement is cancelled.
+     */
+    private int queryTimeout;
+    
+    /**
+     * The maximum number of rows returned by a select.
+     */
+    private int maxRows;
+    
+    /**
+     * Whether the connection is marked as read-only.
+     */
+    private boolean readOnly;
+    
+    /**
+     * The maximum number of rows held in memory by a result.
+     */
+    private long resultRowLimit;
+    
+    /**
+     * The maximum estimated number of bytes held in memory by a result.
+     */
+    private long resultByteLimit;
+    
+    /**
+     * What happens when a result exceeds its limits.
+     */
+    private ResultLimitAction resultLimitAction = ResultLimitAction.FAIL;
+    
+    /**
+     * Creates options with the defaults of the driver.
+     */
+    public QueryOptions() {
+    }
+    
+    /**
+     * Creates a copy of the options.
+     * 
+     * @param options The options to copy.
+     */
+    public QueryOptions(final QueryOptions options) {
+        Objects.requireNonNull(options);
+        
+        this.fetchSize = options.fetchSize;
+        this.queryTimeout = options.queryTimeout;
+        this.maxRows = options.maxRows;
+        this.readOnly = options.readOnly;
+        this.resultRowLimit = options.resultRowLimit;
+        this.resultByteLimit = options.resultByteLimit;
+        this.resultLimitAction = options.resultLimitAction;
+    }
+    
+    /**
+     * The number of rows fetched from the database at once; {@code 0} for the driver's default.
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+    
+    /**
+     * @see #getFetchSize()
+     */
+    public void setFetchSize(final int fetchSize) {
+        if (fetchSize < 0) {
+            throw new IllegalArgumentException("The fetch size must not be negative.");
+        }
+        
+        this.fetchSize = fetchSize;
+    }
+    
+    /**
+     * The number of seconds after which the execution of a statement is cancelled; {@code 0} for no timeout.
+     */
+    public int getQueryTimeout() {
+        return queryTimeout;
+    }
+    
+    /**
+     * @see #getQueryTimeout()
+     */
+    public void setQueryTimeout(final int queryTimeout) {
+        if (queryTimeout < 0) {
+            throw new IllegalArgumentException("The query timeout must not be negative.");
+        }
+        
+        this.queryTimeout = queryTimeout;
+    }
+    
+    /**
+     * The maximum number of rows returned by a select; {@code 0} for no limit. When a select is executed
+     * in chunks, the limit applies to the whole result.
+     */
+    public int getMaxRows() {
+        return maxRows;
+    }
+    
+    /**
+     * @see #getMaxRows()
+     */
+    public void setMaxRows(final int maxRows) {
+        if (maxRows < 0) {
+            throw new IllegalArgumentException("The maximum number of rows must not be negative.");
+        }
+        
+        this.maxRows = maxRows;
+    }
+    
+    /**
+     * Whether the connection is marked as read-only. This is a hint to the driver, which may use it for
+     * optimizations. It does not necessarily prevent changes.
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+    
+    /**
+     * @see #isReadOnly()
+     */
+    public void setReadOnly(final boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+    
+    /**
+     * The maximum number of rows held in memory by a result; {@code 0} for no limit. Unlike 
+     * {@link #getMaxRows()}, exceeding the limit is not silent, but handled according to the 
+     * {@link #getResultLimitAction() result limit action}.
+     */
+    public long getResultRowLimit() {
+        return resultRowLimit;
+    }
+    
+    /**
+     * @see #getResultRowLimit()
+     */
+    public void setResultRowLimit(final long resultRowLimit) {
+        if (resultRowLimit < 0) {
+            throw new IllegalArgumentException("The result row limit must not be negative.");
+        }
+        
+        this.resultRowLimit = resultRowLimit;
+    }
+    
+    /**
+     * The maximum number of bytes held in memory by a result; {@code 0} for no limit. The size of the
+     * rows is a rough estimate of their heap usage.
+     * 
+     * @see #getResultRowLimit()
+     */
+    public long getResultByteLimit() {
+        return resultByteLimit;
+    }
+    
+    /**
+     * @see #getResultByteLimit()
+     */
+    public void setResultByteLimit(final long resultByteLimit) {
+        if (resultByteLimit < 0) {
+            throw new IllegalArgumentException("The result byte limit must not be negative.");
+        }
+        
+        this.resultByteLimit = resultByteLimit;
+    }
+    
+    /**
+     * What happens when a result exceeds its row or byte limit. Defaults to {@link ResultLimitAction#FAIL}.
+     */
+    public ResultLimitAction getResultLimitAction() {
+        return resultLimitAction;
+    }
+    
+    /**
+     * @see #getResultLimitAction()
+     */
+    public void setResultLimitAction(final ResultLimitAction resultLimitAction) {
+        this.resultLimitAction = Objects.requireNonNull(resultLimitAction);
+    }
+    
+}
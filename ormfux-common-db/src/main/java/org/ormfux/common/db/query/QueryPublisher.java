@@ -0,0 +1,246 @@
+package org.ormfux.common.db.query;
+
+import static org.ormfux.common.utils.NullableUtils.isNull;
+
+import java.sql.ResultSet;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import org.ormfux.common.db.exception.SQLException;
+import org.ormfux.common.db.query.QueryEvent.QueryType;
+import org.ormfux.common.db.query.flow.Publisher;
+import org.ormfux.common.db.query.flow.Subscriber;
+import org.ormfux.common.db.query.flow.Subscription;
+
+/**
+ * Publishes the rows of a select query to subscribers. The publisher is cold: each subscription
+ * executes the query anew on the executor. A row is read from the cursor only when the subscriber
+ * has requested it, so a slow subscriber does not cause the result to be buffered.
+ * <p>
+ * While the result is open, the subscription occupies a connection and a thread of the executor,
+ * which waits for demand. The executor should therefore be sized like the connection pool. The
+ * fetch time of the query event includes the time spent waiting for demand.
+ * </p>
+ * 
+ * @param <T> The type of the published rows.
+ */
+public class QueryPublisher<T> implements Publisher<T> {
+    
+    /**
+     * The query to execute.
+     */
+    private final Query query;
+    
+    /**
+     * The executor on which the query is executed and the rows are published.
+     */
+    private final Executor executor;
+    
+    /**
+     * Creates the reader of the rows for a subscription.
+     */
+    private final Supplier<RowReader<T>> rowReaderFactory;
+    
+    /**
+     * Creates a new publisher.
+     * 
+     * @param query The query to execute.
+     * @param executor The executor on which the query is executed and the rows are published.
+     * @param rowReaderFactory Creates the reader of the rows for a subscription.
+     */
+    protected QueryPublisher(final Query query, final Executor executor, final Supplier<RowReader<T>> rowReaderFactory) {
+        this.query = Objects.requireNonNull(query);
+        this.executor = Objects.requireNonNull(executor);
+        this.rowReaderFactory = Objects.requireNonNull(rowReaderFactory);
+    }
+    
+    /**
+     * Subscribes to the rows of the query. The query is executed on the executor right away; the first
+     * row is read once the subscriber requests it.
+     */
+    @Override
+    public void subscribe(final Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber);
+        
+        final QuerySubscription subscription = new QuerySubscription();
+        subscriber.onSubscribe(subscription);
+        
+        try {
+            executor.execute(() -> publish(subscriber, subscription));
+        } catch (final RejectedExecutionException e) {
+            if (!subscription.isCancelled()) {
+                subscriber.onError(e);
+            }
+        }
+    }
+    
+    /**
+     * Executes the query and publishes the rows according to the demand of the subscriber.
+     * 
+     * @param subscriber The subscriber.
+     * @param subscription The subscription of the subscriber.
+     */
+    private void publish(final Subscriber<? super T> subscriber, final QuerySubscription subscription) {
+        final QueryEvent event = new QueryEvent(query.getQueryString(), QueryType.SELECT);
+        
+        try {
+            final RowReader<T> rowReader = rowReaderFactory.get();
+            
+            query.executeQuery(event, resultSet -> {
+                rowReader.init(resultSet);
+                long rowCount = 0;
+                
+                //the cursor is at most one row ahead of the demand.
+                while (!subscription.isCancelled() && resultSet.next()) {
+                    final T row = rowReader.read(resultSet);
+                    
+                    if (isNull(row)) {
+                        continue;
+                    }
+                    
+                    if (!subscription.awaitDemand()) {
+                        break;
+                    }
+                    
+                    subscriber.onNext(row);
+                    rowCount++;
+                }
+                
+                return rowCount;
+            });
+            
+            if (!subscription.isCancelled()) {
+                subscriber.onComplete();
+            }
+            
+        } catch (final RuntimeException e) {
+            event.setFailure(e);
+            
+            if (!subscription.isCancelled()) {
+                subscription.cancel();
+                subscriber.onError(e);
+            }
+            
+        } finally {
+            query.fireQueryEvent(event);
+        }
+    }
+    
+    /**
+     * Reads the published rows from the result sets of a subscription.
+     * 
+     * @param <T> The type of the rows.
+     */
+    protected interface RowReader<T> {
+        
+        /**
+         * Called for each result set before its rows are read.
+         * 
+         * @param resultSet The result set positioned before the first row.
+         * 
+         * @throws java.sql.SQLException
+         */
+        public void init(ResultSet resultSet) throws java.sql.SQLException;
+        
+        /**
+         * Reads the current row of the result set.
+         * 
+         * @param resultSet The result set positioned on the row.
+         * @return The row; {@code null} when the row is not published.
+         * 
+         * @throws java.sql.SQLException
+         */
+        public T read(ResultSet resultSet) throws java.sql.SQLException;
+        
+    }
+    
+    /**
+     * The subscription of a subscriber, holding its outstanding demand.
+     */
+    private static class QuerySubscription implements Subscription {
+        
+        /**
+         * The number of requested, but not yet published rows.
+         */
+        private long demand;
+        
+        /**
+         * Whether the subscription is cancelled.
+         */
+        private boolean cancelled;
+        
+        /**
+         * Whether a non-positive number of rows was requested.
+         */
+        private boolean invalidRequest;
+        
+        /**
+         * Adds to the demand. A non-positive number fails the publishing.
+         */
+        @Override
+        public synchronized void request(final long n) {
+            if (n <= 0) {
+                invalidRequest = true;
+            } else if (demand > Long.MAX_VALUE - n) {
+                demand = Long.MAX_VALUE;
+            } else {
+                demand += n;
+            }
+            
+            notifyAll();
+        }
+        
+        /**
+         * Stops the publishing. The connection is released once the publishing thread notices it.
+         */
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+        
+        /**
+         * Whether the subscription is cancelled.
+         */
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+        
+        /**
+         * Waits until a row is requested and consumes the demand for it. An unbounded demand
+         * ({@link Long#MAX_VALUE}) is never consumed.
+         * 
+         * @return {@code true} when the row can be published; {@code false} when the subscription
+         *         is cancelled.
+         * 
+         * @throws SQLException When waiting is interrupted.
+         * @throws IllegalArgumentException When a non-positive number of rows was requested.
+         */
+        public synchronized boolean awaitDemand() throws SQLException {
+            while (demand == 0 && !cancelled && !invalidRequest) {
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for the demand of the subscriber.", e);
+                }
+            }
+            
+            if (invalidRequest) {
+                throw new IllegalArgumentException("The number of requested rows must be positive.");
+            } else if (cancelled) {
+                return false;
+            }
+            
+            if (demand != Long.MAX_VALUE) {
+                demand--;
+            }
+            
+            return true;
+        }
+        
+    }
+
+}
@@ -1,15 +1,97 @@
 package org.ormfux.common.db.query;
 
+import static org.ormfux.common.utils.NullableUtils.isNull;
+import static org.ormfux.common.utils.NullableUtils.nonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.ormfux.common.db.exception.ResultLimitExceededException;
+import org.ormfux.common.db.exception.SQLException;
 
 /**
  * Iterable result of a query execution.
+ * <p>
+ * When the result exceeds the row or byte limit of the query's {@link QueryOptions} and the limit
+ * action is {@link ResultLimitAction#SPILL}, the exceeding rows are written to a temporary file.
+ * Iterating the result transparently reads them from there. Such results should be {@link #close() closed}
+ * to delete the file.
+ * </p>
  */
-public class QueryResult implements Iterable<QueryResult.QueryResultRow> {
+public class QueryResult implements Iterable<QueryResult.QueryResultRow>, AutoCloseable {
+    
+    /**
+     * The size of the buffers for writing and reading spilled rows.
+     */
+    private static final int SPILL_BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * The number of spilled rows after which the references held by the spill stream are released.
+     */
+    private static final int SPILL_RESET_INTERVAL = 1000;
+    
+    /**
+     * The maximum length of Strings written in the compact spill format.
+     */
+    private static final int MAX_UTF_LENGTH = 65535 / 3;
+    
+    /**
+     * Marks a {@code null} value in the spill file.
+     */
+    private static final byte NULL_VALUE = 0;
+    
+    /**
+     * Marks a String in the spill file.
+     */
+    private static final byte STRING_VALUE = 1;
+    
+    /**
+     * Marks an Integer in the spill file.
+     */
+    private static final byte INTEGER_VALUE = 2;
+    
+    /**
+     * Marks a Long in the spill file.
+     */
+    private static final byte LONG_VALUE = 3;
+    
+    /**
+     * Marks a Double in the spill file.
+     */
+    private static final byte DOUBLE_VALUE = 4;
+    
+    /**
+     * Marks a Boolean in the spill file.
+     */
+    private static final byte BOOLEAN_VALUE = 5;
+    
+    /**
+     * Marks a Timestamp in the spill file.
+     */
+    private static final byte TIMESTAMP_VALUE = 6;
+    
+    /**
+     * Marks a byte array in the spill file.
+     */
+    private static final byte BYTES_VALUE = 7;
+    
+    /**
+     * Marks a serialized object in the spill file.
+     */
+    private static final byte OBJECT_VALUE = 8;
     
     /**
      * The indices of the columns in the result by name.
@@ -17,10 +99,68 @@ public class QueryResult implements Iterable<QueryResult.QueryResultRow> {
     private final Map<String, Integer> columns = new HashMap<>();
     
     /**
-     * The rows in the result.
+     * The rows in the result held in memory.
      */
     private final List<QueryResultRow> rows = new ArrayList<>();
     
+    /**
+     * The maximum number of rows held in memory; {@code 0} for no limit.
+     */
+    private final long rowLimit;
+    
+    /**
+     * The maximum estimated number of bytes held in memory; {@code 0} for no limit.
+     */
+    private final long byteLimit;
+    
+    /**
+     * What happens when the limits are exceeded.
+     */
+    private final ResultLimitAction limitAction;
+    
+    /**
+     * The estimated number of bytes of the rows held in memory.
+     */
+    private long estimatedBytes;
+    
+    /**
+     * The file with the rows exceeding the limits.
+     */
+    private Path spillFile;
+    
+    /**
+     * Writes the rows to the spill file; {@code null} when all rows are written.
+     */
+    private ObjectOutputStream spillOutput;
+    
+    /**
+     * The number of rows in the spill file.
+     */
+    private int spilledRowCount;
+    
+    /**
+     * The streams of the iterators currently reading the spill file.
+     */
+    private final List<ObjectInputStream> spillInputs = new ArrayList<>();
+    
+    /**
+     * Creates a result without limits.
+     */
+    public QueryResult() {
+        this(new QueryOptions());
+    }
+    
+    /**
+     * Creates a result with the limits of the options.
+     * 
+     * @param options The options of the query.
+     */
+    protected QueryResult(final QueryOptions options) {
+        this.rowLimit = options.getResultRowLimit();
+        this.byteLimit = options.getResultByteLimit();
+        this.limitAction = options.getResultLimitAction();
+    }
+    
     /**
      * Adds a column definition to the result.
      * 
@@ -33,24 +173,321 @@ public class QueryResult implements Iterable<QueryResult.QueryResultRow> {
     
     /**
      * Adds the values of a row to the result.
-     *
+     * 
      * @param row The data of a single row.
+     * 
+     * @throws ResultLimitExceededException when the row exceeds the limits and the result must not spill.
      */
     protected void addRow(final List<Object> row) {
-        rows.add(new QueryResultRow(row));
+        final long rowBytes = byteLimit > 0 ? estimateBytes(row) : 0;
+        
+        if (nonNull(spillFile)) {
+            spillRow(row);
+            
+        } else if ((rowLimit > 0 && rows.size() >= rowLimit) || (byteLimit > 0 && estimatedBytes + rowBytes > byteLimit)) {
+            if (limitAction == ResultLimitAction.FAIL) {
+                throw new ResultLimitExceededException("The query result exceeds the limit of " + rowLimit + " rows or "
+                                                       + byteLimit + " bytes.");
+            }
+            
+            startSpill();
+            spillRow(row);
+            
+        } else {
+            rows.add(new QueryResultRow(row));
+            estimatedBytes += rowBytes;
+        }
     }
     
     /**
      * The numer of entries in the result.
      */
     public int size() {
-        return rows.size();
+        return rows.size() + spilledRowCount;
+    }
+    
+    /**
+     * Whether some of the rows are written to a temporary file, because the result exceeds its limits.
+     */
+    public boolean isSpilled() {
+        return nonNull(spillFile);
     }
     
     /** {@inheritDoc} */
     @Override
     public Iterator<QueryResultRow> iterator() {
-        return rows.iterator();
+        if (isNull(spillFile)) {
+            return rows.iterator();
+        } else {
+            finishSpill();
+            
+            return new SpilledRowsIterator();
+        }
+    }
+    
+    /**
+     * Deletes the temporary file of spilled rows. Afterwards, the spilled rows cannot be read anymore.
+     */
+    @Override
+    public void close() {
+        try {
+            finishSpill();
+            
+            for (final ObjectInputStream spillInput : spillInputs) {
+                spillInput.close();
+            }
+            
+            spillInputs.clear();
+            
+            if (nonNull(spillFile)) {
+                Files.deleteIfExists(spillFile);
+            }
+            
+        } catch (final IOException e) {
+            throw new SQLException("Error deleting spilled query result.", e);
+        }
+    }
+    
+    /**
+     * Estimates the heap usage of a row.
+     * 
+     * @param row The row data.
+     * @return The estimated number of bytes.
+     */
+    protected static long estimateBytes(final List<Object> row) {
+        //row object, list and references
+        long bytes = 56 + 8L * row.size();
+        
+        for (final Object value : row) {
+            if (value instanceof String) {
+                bytes += 40 + 2L * ((String) value).length();
+            } else if (value instanceof byte[]) {
+                bytes += 16 + ((byte[]) value).length;
+            } else if (value instanceof Integer || value instanceof Boolean || value instanceof Short || value instanceof Byte) {
+                bytes += 16;
+            } else if (value instanceof Long || value instanceof Double || value instanceof java.util.Date) {
+                bytes += 24;
+            } else if (nonNull(value)) {
+                bytes += 64;
+            }
+        }
+        
+        return bytes;
+    }
+    
+    /**
+     * Creates the spill file.
+     */
+    private void startSpill() {
+        try {
+            spillFile = Files.createTempFile("ormfux-result-", ".spill");
+            spillOutput = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile), SPILL_BUFFER_SIZE));
+        } catch (final IOException e) {
+            close();
+            throw new SQLException("Error creating file for spilled query result.", e);
+        }
+    }
+    
+    /**
+     * Writes the row to the spill file.
+     * 
+     * @param row The row data.
+     */
+    private void spillRow(final List<Object> row) {
+        if (isNull(spillOutput)) {
+            throw new IllegalStateException("The rows of the result are already complete.");
+        }
+        
+        try {
+            spillOutput.writeInt(row.size());
+            
+            for (final Object value : row) {
+                writeValue(value);
+            }
+            
+            spilledRowCount++;
+            
+            //the stream keeps references to written objects until it is reset.
+            if (spilledRowCount % SPILL_RESET_INTERVAL == 0) {
+                spillOutput.reset();
+            }
+            
+        } catch (final IOException e) {
+            close();
+            throw new SQLException("Error writing spilled query result.", e);
+        }
+    }
+    
+    /**
+     * Completes the spill file, so that it can be read.
+     */
+    private void finishSpill() {
+        if (nonNull(spillOutput)) {
+            try {
+                spillOutput.close();
+                spillOutput = null;
+            } catch (final IOException e) {
+                throw new SQLException("Error writing spilled query result.", e);
+            }
+        }
+    }
+    
+    /**
+     * Writes a value to the spill file. Common types are written in a compact format, others
+     * via serialization.
+     * 
+     * @param value The value.
+     * 
+     * @throws IOException
+     */
+    private void writeValue(final Object value) throws IOException {
+        if (isNull(value)) {
+            spillOutput.writeByte(NULL_VALUE);
+            
+        } else if (value instanceof String && ((String) value).length() <= MAX_UTF_LENGTH) {
+            spillOutput.writeByte(STRING_VALUE);
+            spillOutput.writeUTF((String) value);
+            
+        } else if (value instanceof Integer) {
+            spillOutput.writeByte(INTEGER_VALUE);
+            spillOutput.writeInt((Integer) value);
+            
+        } else if (value instanceof Long) {
+            spillOutput.writeByte(LONG_VALUE);
+            spillOutput.writeLong((Long) value);
+            
+        } else if (value instanceof Double) {
+            spillOutput.writeByte(DOUBLE_VALUE);
+            spillOutput.writeDouble((Double) value);
+            
+        } else if (value instanceof Boolean) {
+            spillOutput.writeByte(BOOLEAN_VALUE);
+            spillOutput.writeBoolean((Boolean) value);
+            
+        } else if (value.getClass() == Timestamp.class) {
+            spillOutput.writeByte(TIMESTAMP_VALUE);
+            spillOutput.writeLong(((Timestamp) value).getTime());
+            spillOutput.writeInt(((Timestamp) value).getNanos());
+            
+        } else if (value instanceof byte[]) {
+            spillOutput.writeByte(BYTES_VALUE);
+            spillOutput.writeInt(((byte[]) value).length);
+            spillOutput.write((byte[]) value);
+            
+        } else if (value instanceof Serializable) {
+            spillOutput.writeByte(OBJECT_VALUE);
+            spillOutput.writeObject(value);
+            
+        } else {
+            throw new SQLException("Cannot spill a value of type " + value.getClass().getName() + " to a file.");
+        }
+    }
+    
+    /**
+     * Reads a value from the spill file.
+     * 
+     * @param spillInput The stream of the spill file.
+     * @return The value.
+     * 
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private static Object readValue(final ObjectInputStream spillInput) throws IOException, ClassNotFoundException {
+        final byte valueType = spillInput.readByte();
+        
+        switch (valueType) {
+            case NULL_VALUE:
+                return null;
+            case STRING_VALUE:
+                return spillInput.readUTF();
+            case INTEGER_VALUE:
+                return spillInput.readInt();
+            case LONG_VALUE:
+                return spillInput.readLong();
+            case DOUBLE_VALUE:
+                return spillInput.readDouble();
+            case BOOLEAN_VALUE:
+                return spillInput.readBoolean();
+            case TIMESTAMP_VALUE:
+                final Timestamp timestamp = new Timestamp(spillInput.readLong());
+                timestamp.setNanos(spillInput.readInt());
+                
+                return timestamp;
+            case BYTES_VALUE:
+                final byte[] bytes = new byte[spillInput.readInt()];
+                spillInput.readFully(bytes);
+                
+                return bytes;
+            case OBJECT_VALUE:
+                return spillInput.readObject();
+            default:
+                throw new IOException("Unknown value type in spill file: " + valueType);
+        }
+    }
+    
+    /**
+     * Iterates the rows in memory, followed by the spilled rows. The spill file is opened
+     * when the first spilled row is read and closed after the last one.
+     */
+    private class SpilledRowsIterator implements Iterator<QueryResultRow> {
+        
+        /**
+         * Iterates the rows in memory.
+         */
+        private final Iterator<QueryResultRow> memoryRows = rows.iterator();
+        
+        /**
+         * The stream of the spill file.
+         */
+        private ObjectInputStream spillInput;
+        
+        /**
+         * The number of spilled rows read so far.
+         */
+        private int readSpilledRowCount;
+        
+        /** {@inheritDoc} */
+        @Override
+        public boolean hasNext() {
+            return memoryRows.hasNext() || readSpilledRowCount < spilledRowCount;
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        public QueryResultRow next() {
+            if (memoryRows.hasNext()) {
+                return memoryRows.next();
+            } else if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            
+            try {
+                if (isNull(spillInput)) {
+                    spillInput = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(spillFile), SPILL_BUFFER_SIZE));
+                    spillInputs.add(spillInput);
+                }
+                
+                final int columnCount = spillInput.readInt();
+                final List<Object> row = new ArrayList<>(columnCount);
+                
+                for (int columnIdx = 0; columnIdx < columnCount; columnIdx++) {
+                    row.add(readValue(spillInput));
+                }
+                
+                readSpilledRowCount++;
+                
+                if (readSpilledRowCount == spilledRowCount) {
+                    spillInput.close();
+                    spillInputs.remove(spillInput);
+                }
+                
+                return new QueryResultRow(row);
+                
+            } catch (final IOException | ClassNotFoundException e) {
+                throw new SQLException("Error reading spilled query result.", e);
+            }
+        }
+        
     }
     
     /**
@@ -0,0 +1,508 @@
+package org.ormfux.common.db.query;
+
+import static org.ormfux.common.utils.NullableUtils.isNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.Objects;
+
+import org.ormfux.common.db.exception.SQLException;
+import org.ormfux.common.db.query.QueryEvent.QueryType;
+
+/**
+ * Exports the result of a query as CSV or JSON lines (UTF-8 encoded). The rows are written
+ * straight from the result set to the target, so that the result is never held in memory
+ * as a whole. The encoded rows are collected in a reusable buffer, which is written to the
+ * target whenever it is full.
+ * <p>
+ * The values are exported with their String representation as provided by the database
+ * driver. In JSON lines, numeric and boolean columns are written as JSON numbers and booleans.
+ * </p>
+ * An exporter is not thread-safe, but can be reused for subsequent exports.
+ */
+public class ResultExporter {
+    
+    /**
+     * The default size of the buffer in bytes.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * The format of the export.
+     */
+    private final Format format;
+    
+    /**
+     * Whether CSV exports start with a line containing the column labels.
+     */
+    private final boolean csvHeader;
+    
+    /**
+     * The buffer collecting the encoded rows.
+     */
+    private final ByteBuffer buffer;
+    
+    /**
+     * Encodes the rows into the buffer.
+     */
+    private final CharsetEncoder encoder;
+    
+    /**
+     * Collects the characters of a row.
+     */
+    private final StringBuilder rowBuilder = new StringBuilder(256);
+    
+    /**
+     * The characters of a row to encode. Array-backed, so that the encoder can work on the array.
+     */
+    private CharBuffer rowChars = CharBuffer.allocate(256);
+    
+    /**
+     * Creates an exporter with the default buffer size. CSV exports have a header line.
+     * 
+     * @param format The format of the export.
+     */
+    public ResultExporter(final Format format) {
+        this(format, true, DEFAULT_BUFFER_SIZE);
+    }
+    
+    /**
+     * @param format The format of the export.
+     * @param csvHeader Whether CSV exports start with a line containing the column labels.
+     * @param bufferSize The size of the buffer in bytes.
+     */
+    public ResultExporter(final Format format, final boolean csvHeader, final int bufferSize) {
+        Objects.requireNonNull(format);
+        
+        if (bufferSize < 16) {
+            throw new IllegalArgumentException("The buffer size must at least be 16 bytes.");
+        }
+        
+        this.format = format;
+        this.csvHeader = csvHeader;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.encoder = StandardCharsets.UTF_8.newEncoder()
+                                             .onMalformedInput(CodingErrorAction.REPLACE)
+                                             .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+    
+    /**
+     * Executes the query and writes the result to the stream. The stream is flushed, but not closed.
+     * 
+     * @param query The query to export.
+     * @param outputStream The target of the export.
+     * @return The number of exported rows.
+     * 
+     * @throws SQLException
+     */
+    public long export(final Query query, final OutputStream outputStream) throws SQLException {
+        final long rowCount = export(query, Channels.newChannel(outputStream));
+        
+        try {
+            outputStream.flush();
+        } catch (final IOException e) {
+            throw new SQLException("Error writing the export.", e);
+        }
+        
+        return rowCount;
+    }
+    
+    /**
+     * Executes the query and writes the result to the stream. The stream is flushed, but not closed.
+     * The exported columns are the mapped columns of the entity.
+     * 
+     * @param query The query to export.
+     * @param outputStream The target of the export.
+     * @return The number of exported rows.
+     * 
+     * @throws SQLException
+     */
+    public long export(final TypedQuery<?> query, final OutputStream outputStream) throws SQLException {
+        return export(query.createSelectQuery(), outputStream);
+    }
+    
+    /**
+     * Executes the query and writes the result to the channel. The channel is not closed.
+     * The exported columns are the mapped columns of the entity.
+     * 
+     * @param query The query to export.
+     * @param channel The target of the export.
+     * @return The number of exported rows.
+     * 
+     * @throws SQLException
+     */
+    public long export(final TypedQuery<?> query, final WritableByteChannel channel) throws SQLException {
+        return export(query.createSelectQuery(), channel);
+    }
+    
+    /**
+     * Executes the query and writes the result to the channel. The channel is not closed.
+     * 
+     * @param query The query to export.
+     * @param channel The target of the export.
+     * @return The number of exported rows.
+     * 
+     * @throws SQLException
+     */
+    public long export(final Query query, final WritableByteChannel channel) throws SQLException {
+        Objects.requireNonNull(query);
+        Objects.requireNonNull(channel);
+        
+        final QueryEvent event = new QueryEvent(query.getQueryString(), QueryType.SELECT);
+        final boolean[] headerWritten = new boolean[1];
+        
+        try {
+            //the header is written only once, even when the query is executed in chunks.
+            query.executeQuery(event, resultSet -> {
+                final long rowCount = writeResult(resultSet, channel, !headerWritten[0]);
+                headerWritten[0] = true;
+                
+                return rowCount;
+            });
+            
+            return event.getRowCount();
+            
+        } catch (final RuntimeException e) {
+            event.setFailure(e);
+            throw e;
+        } finally {
+            query.fireQueryEvent(event);
+        }
+    }
+    
+    /**
+     * Writes all rows of the result set to the channel.
+     * 
+     * @param resultSet The result set.
+     * @param channel The target of the export.
+     * @param firstResult Whether this is the first result set of the query, which is preceded by the header.
+     * @return The number of written rows.
+     * 
+     * @throws java.sql.SQLException
+     */
+    private long writeResult(final ResultSet resultSet, final WritableByteChannel channel, final boolean firstResult) throws java.sql.SQLException {
+        buffer.clear();
+        encoder.reset();
+        
+        final ResultSetMetaData metaData = resultSet.getMetaData();
+        final int columnCount = metaData.getColumnCount();
+        final ColumnKind[] columnKinds = new ColumnKind[columnCount];
+        final String[] columnLabels = new String[columnCount];
+        
+        for (int columnIdx = 1; columnIdx <= columnCount; columnIdx++) {
+            columnKinds[columnIdx - 1] = ColumnKind.of(metaData.getColumnType(columnIdx));
+            columnLabels[columnIdx - 1] = metaData.getColumnLabel(columnIdx);
+        }
+        
+        if (format == Format.CSV && csvHeader && firstResult) {
+            rowBuilder.setLength(0);
+            
+            for (int columnIdx = 0; columnIdx < columnCount; columnIdx++) {
+                if (columnIdx > 0) {
+                    rowBuilder.append(',');
+                }
+                
+                appendCsvValue(columnLabels[columnIdx]);
+            }
+            
+            rowBuilder.append("\r\n");
+            writeRow(channel);
+        }
+        
+        //the JSON keys are the same for each row.
+        final String[] jsonKeys = new String[columnCount];
+        
+        if (format == Format.JSON_LINES) {
+            for (int columnIdx = 0; columnIdx < columnCount; columnIdx++) {
+                rowBuilder.setLength(0);
+                appendJsonString(columnLabels[columnIdx]);
+                jsonKeys[columnIdx] = rowBuilder.append(':').toString();
+            }
+        }
+        
+        long rowCount = 0;
+        
+        while (resultSet.next()) {
+            rowBuilder.setLength(0);
+            
+            if (format == Format.CSV) {
+                appendCsvRow(resultSet, columnCount);
+            } else {
+                appendJsonRow(resultSet, columnKinds, jsonKeys);
+            }
+            
+            writeRow(channel);
+            rowCount++;
+        }
+        
+        encoder.encode(CharBuffer.allocate(0), buffer, true);
+        encoder.flush(buffer);
+        flushBuffer(channel);
+        
+        return rowCount;
+    }
+    
+    /**
+     * Appends the current row as CSV line.
+     * 
+     * @param resultSet The result set positioned on the row.
+     * @param columnCount The number of columns.
+     * 
+     * @throws java.sql.SQLException
+     */
+    private void appendCsvRow(final ResultSet resultSet, final int columnCount) throws java.sql.SQLException {
+        for (int columnIdx = 1; columnIdx <= columnCount; columnIdx++) {
+            if (columnIdx > 1) {
+                rowBuilder.append(',');
+            }
+            
+            final String value = resultSet.getString(columnIdx);
+            
+            if (!isNull(value)) {
+                appendCsvValue(value);
+            }
+        }
+        
+        rowBuilder.append("\r\n");
+    }
+    
+    /**
+     * Appends the current row as JSON object line.
+     * 
+     * @param resultSet The result set positioned on the row.
+     * @param columnKinds The kind of value per column.
+     * @param jsonKeys The JSON keys per column, including the colon.
+     * 
+     * @throws java.sql.SQLException
+     */
+    private void appendJsonRow(final ResultSet resultSet, final ColumnKind[] columnKinds, final String[] jsonKeys) throws java.sql.SQLException {
+        rowBuilder.append('{');
+        
+        for (int columnIdx = 1; columnIdx <= columnKinds.length; columnIdx++) {
+            if (columnIdx > 1) {
+                rowBuilder.append(',');
+            }
+            
+            rowBuilder.append(jsonKeys[columnIdx - 1]);
+            
+            switch (columnKinds[columnIdx - 1]) {
+                case BOOLEAN:
+                    final boolean booleanValue = resultSet.getBoolean(columnIdx);
+                    rowBuilder.append(resultSet.wasNull() ? "null" : String.valueOf(booleanValue));
+                    break;
+                
+                case NUMBER:
+                    final String numberValue = resultSet.getString(columnIdx);
+                    
+                    if (isNull(numberValue)) {
+                        rowBuilder.append("null");
+                    } else if (!Character.isDigit(numberValue.charAt(numberValue.length() - 1))) {
+                        //NaN and Infinity are not valid JSON numbers
+                        appendJsonString(numberValue);
+                    } else {
+                        rowBuilder.append(numberValue);
+                    }
+                    
+                    break;
+                
+                default:
+                    final String value = resultSet.getString(columnIdx);
+                    
+                    if (isNull(value)) {
+                        rowBuilder.append("null");
+                    } else {
+                        appendJsonString(value);
+                    }
+            }
+        }
+        
+        rowBuilder.append("}\n");
+    }
+    
+    /**
+     * Appends a CSV value, which is quoted when it contains a separator, a quote or a line break.
+     * 
+     * @param value The value.
+     */
+    private void appendCsvValue(final String value) {
+        boolean quote = false;
+        
+        for (int charIdx = 0; charIdx < value.length() && !quote; charIdx++) {
+            final char character = value.charAt(charIdx);
+            quote = character == ',' || character == '"' || character == '\r' || character == '\n';
+        }
+        
+        if (!quote) {
+            rowBuilder.append(value);
+            
+        } else {
+            rowBuilder.append('"');
+            
+            for (int charIdx = 0; charIdx < value.length(); charIdx++) {
+                final char character = value.charAt(charIdx);
+                
+                if (character == '"') {
+                    rowBuilder.append('"');
+                }
+                
+                rowBuilder.append(character);
+            }
+            
+            rowBuilder.append('"');
+        }
+    }
+    
+    /**
+     * Appends a quoted and escaped JSON string.
+     * 
+     * @param value The value.
+     */
+    private void appendJsonString(final String value) {
+        rowBuilder.append('"');
+        
+        for (int charIdx = 0; charIdx < value.length(); charIdx++) {
+            final char character = value.charAt(charIdx);
+            
+            switch (character) {
+                case '"':
+                    rowBuilder.append("\\\"");
+                    break;
+                case '\\':
+                    rowBuilder.append("\\\\");
+                    break;
+                case '\n':
+                    rowBuilder.append("\\n");
+                    break;
+                case '\r':
+                    rowBuilder.append("\\r");
+                    break;
+                case '\t':
+                    rowBuilder.append("\\t");
+                    break;
+                default:
+                    if (character < 0x20) {
+                        rowBuilder.append("\\u00")
+                                  .append(Character.forDigit(character >> 4, 16))
+                                  .append(Character.forDigit(character & 0xF, 16));
+                    } else {
+                        rowBuilder.append(character);
+                    }
+            }
+        }
+        
+        rowBuilder.append('"');
+    }
+    
+    /**
+     * Encodes the collected row into the buffer. The buffer is written to the channel
+     * whenever it is full.
+     * 
+     * @param channel The target of the export.
+     */
+    private void writeRow(final WritableByteChannel channel) {
+        if (rowChars.capacity() < rowBuilder.length()) {
+            rowChars = CharBuffer.allocate(Math.max(rowBuilder.length(), 2 * rowChars.capacity()));
+        }
+        
+        rowBuilder.getChars(0, rowBuilder.length(), rowChars.array(), 0);
+        rowChars.clear().limit(rowBuilder.length());
+        
+        while (rowChars.hasRemaining()) {
+            final CoderResult result = encoder.encode(rowChars, buffer, false);
+            
+            if (result.isOverflow()) {
+                flushBuffer(channel);
+            }
+        }
+    }
+    
+    /**
+     * Writes the content of the buffer to the channel and clears the buffer.
+     * 
+     * @param channel The target of the export.
+     */
+    private void flushBuffer(final WritableByteChannel channel) {
+        buffer.flip();
+        
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (final IOException e) {
+            throw new SQLException("Error writing the export.", e);
+        }
+        
+        buffer.clear();
+    }
+    
+    /**
+     * The format of an export.
+     */
+    public enum Format {
+        
+        /**
+         * Comma separated values as defined by RFC 4180. Values are quoted only when
+         * necessary, {@code NULL} is exported as empty value.
+         */
+        CSV,
+        
+        /**
+         * One JSON object per row, keyed by the column labels, separated by line feeds.
+         */
+        JSON_LINES;
+        
+    }
+    
+    /**
+     * Kinds of column values, as far as relevant for the export.
+     */
+    private enum ColumnKind {
+        
+        BOOLEAN,
+        
+        NUMBER,
+        
+        TEXT;
+        
+        /**
+         * Determines the kind of a column.
+         * 
+         * @param sqlType The SQL type as in {@link Types}.
+         * @return The kind.
+         */
+        public static ColumnKind of(final int sqlType) {
+            switch (sqlType) {
+                case Types.BOOLEAN:
+                case Types.BIT:
+                    return BOOLEAN;
+                
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                case Types.NUMERIC:
+                case Types.DECIMAL:
+                    return NUMBER;
+                
+                default:
+                    return TEXT;
+            }
+        }
+        
+    }
+    
+}
@@ -0,0 +1,19 @@
+package org.ormfux.common.db.query;
+
+/**
+ * Defines what happens, when a query result exceeds the limits of its {@link QueryOptions}.
+ */
+public enum ResultLimitAction {
+    
+    /**
+     * The query fails with a {@link org.ormfux.common.db.exception.ResultLimitExceededException}.
+     */
+    FAIL,
+    
+    /**
+     * The rows exceeding the limits are written to a temporary file, from which they are read when 
+     * iterating the result. Only supported for the results of native queries; typed queries fail.
+     */
+    SPILL;
+    
+}
@@ -0,0 +1,157 @@
+package org.ormfux.common.db.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Splits SQL strings into single statements. Separators and parameter placeholders are only
+ * recognized outside of string literals, quoted identifiers, dollar quoted strings and comments.
+ */
+public final class SqlStatementSplitter {
+    
+    /**
+     * Utility class.
+     */
+    private SqlStatementSplitter() {
+        throw new IllegalAccessError(SqlStatementSplitter.class.getSimpleName() + " class is not intended to be instantiated");
+    }
+    
+    /**
+     * Splits the SQL string into its statements, which are separated by semicolons. Blank
+     * statements are omitted.
+     * 
+     * @param sql The SQL string.
+     * @return The statements, in the order of the SQL string.
+     */
+    public static List<SqlStatement> split(final String sql) {
+        Objects.requireNonNull(sql);
+        
+        final List<SqlStatement> statements = new ArrayList<>();
+        final int length = sql.length();
+        int statementStart = 0;
+        int parameterCount = 0;
+        int charIdx = 0;
+        
+        while (charIdx < length) {
+            final char character = sql.charAt(charIdx);
+            
+            if (character == '\'' || character == '"' || character == '`') {
+                charIdx = skipQuoted(sql, charIdx, character);
+                
+            } else if (character == '-' && charIdx + 1 < length && sql.charAt(charIdx + 1) == '-') {
+                final int lineEnd = sql.indexOf('\n', charIdx);
+                charIdx = lineEnd < 0 ? length : lineEnd + 1;
+                
+            } else if (character == '/' && charIdx + 1 < length && sql.charAt(charIdx + 1) == '*') {
+                final int commentEnd = sql.indexOf("*/", charIdx + 2);
+                charIdx = commentEnd < 0 ? length : commentEnd + 2;
+                
+            } else if (character == '$' && charIdx + 1 < length && sql.charAt(charIdx + 1) == '$') {
+                final int quoteEnd = sql.indexOf("$$", charIdx + 2);
+                charIdx = quoteEnd < 0 ? length : quoteEnd + 2;
+                
+            } else if (character == '?') {
+                parameterCount++;
+                charIdx++;
+                
+            } else if (character == ';') {
+                addStatement(statements, sql.substring(statementStart, charIdx), parameterCount);
+                statementStart = charIdx + 1;
+                parameterCount = 0;
+                charIdx++;
+                
+            } else {
+                charIdx++;
+            }
+        }
+        
+        addStatement(statements, sql.substring(statementStart), parameterCount);
+        
+        return statements;
+    }
+    
+    /**
+     * Determines the index after the end of a quoted section. Quotes within the section are
+     * escaped by doubling them.
+     * 
+     * @param sql The SQL string.
+     * @param quoteStart The index of the opening quote.
+     * @param quote The quote character.
+     * @return The index after the closing quote; the length of the SQL string when there is none.
+     */
+    private static int skipQuoted(final String sql, final int quoteStart, final char quote) {
+        int charIdx = quoteStart + 1;
+        
+        while (charIdx < sql.length()) {
+            if (sql.charAt(charIdx) == quote) {
+                if (charIdx + 1 < sql.length() && sql.charAt(charIdx + 1) == quote) {
+                    //escaped quote
+                    charIdx += 2;
+                } else {
+                    return charIdx + 1;
+                }
+            } else {
+                charIdx++;
+            }
+        }
+        
+        return charIdx;
+    }
+    
+    /**
+     * Adds the statement to the list, when it is not blank.
+     * 
+     * @param statements The statements.
+     * @param sql The SQL of the statement.
+     * @param parameterCount The number of parameter placeholders in the statement.
+     */
+    private static void addStatement(final List<SqlStatement> statements, final String sql, final int parameterCount) {
+        final String trimmedSql = sql.trim();
+        
+        if (!trimmedSql.isEmpty()) {
+            statements.add(new SqlStatement(trimmedSql, parameterCount));
+        }
+    }
+    
+    /**
+     * A single SQL statement.
+     */
+    public static final class SqlStatement {
+        
+        /**
+         * The SQL of the statement, without the separator and surrounding white space.
+         */
+        private final String sql;
+        
+        /**
+         * The number of parameter placeholders in the statement.
+         */
+        private final int parameterCount;
+        
+        /**
+         * @param sql The SQL of the statement.
+         * @param parameterCount The number of parameter placeholders in the statement.
+         */
+        public SqlStatement(final String sql, final int parameterCount) {
+            this.sql = sql;
+            this.parameterCount = parameterCount;
+        }
+        
+        /**
+         * The SQL of the statement, without the separator and surrounding white space.
+         */
+        public String getSql() {
+            return sql;
+        }
+        
+        /**
+         * The number of parameter placeholders in the statement.
+         */
+        public int getParameterCount() {
+            return parameterCount;
+        }
+        
+    }
+    
+}
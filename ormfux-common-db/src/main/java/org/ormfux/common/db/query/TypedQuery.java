@@ -7,12 +7,33 @@ import static org.ormfux.common.utils.NullableUtils.not;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
+import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Set;
 import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
 import org.ormfux.common.db.annotation.CollectionOfEntities;
@@ -20,14 +41,20 @@ import org.ormfux.common.db.annotation.Column;
 import org.ormfux.common.db.annotation.Entity;
 import org.ormfux.common.db.annotation.Id;
 import org.ormfux.common.db.annotation.Version;
+import org.ormfux.common.db.converters.ValueConverter;
+import org.ormfux.common.db.converters.ValueConverters;
 import org.ormfux.common.db.exception.NonUniqueResultException;
+import org.ormfux.common.db.exception.ResultLimitExceededException;
 import org.ormfux.common.db.exception.SQLException;
 import org.ormfux.common.db.exception.StaleEntityException;
 import org.ormfux.common.db.generators.LongIncrementGenerator;
 import org.ormfux.common.db.generators.NoValueGenerator;
 import org.ormfux.common.db.generators.ValueGenerator;
+import org.ormfux.common.db.query.QueryEvent.QueryType;
 import org.ormfux.common.db.query.QueryResult.QueryResultRow;
 import org.ormfux.common.db.query.connection.DbConnectionProvider;
+import org.ormfux.common.db.query.flow.Publisher;
+import org.ormfux.common.utils.ListUtils;
 import org.ormfux.common.utils.NullableUtils;
 import org.ormfux.common.utils.reflection.ClassUtils;
 import org.ormfux.common.utils.reflection.PropertyUtils;
@@ -39,6 +66,31 @@ import org.ormfux.common.utils.reflection.PropertyUtils;
  */
 public class TypedQuery<T> extends AbstractQuery {
     
+    /**
+     * The maximum number of collection elements handled by a single statement.
+     */
+    private static final int COLLECTION_CHUNK_SIZE = 1000;
+    
+    /**
+     * Matches query suffixes, which join other tables; either explicitly or via a list of tables. 
+     */
+    private static final Pattern JOIN_PATTERN = Pattern.compile("(?is)^\\s*,|\\bjoin\\b");
+    
+    /**
+     * The default number of rows hydrated by one task of the hydration pool.
+     */
+    public static final int DEFAULT_HYDRATION_CHUNK_SIZE = 256;
+    
+    /**
+     * The label of the column with the owner ids when collections are loaded for several owners.
+     */
+    private static final String FETCH_OWNER_LABEL = "fetch_owner_id";
+    
+    /**
+     * The name of the temporary table holding the ids of the entities deleted by a set-based delete.
+     */
+    private static final String DELETED_IDS_TABLE = "ormfux_deleted_ids";
+    
     /**
      * The type that will be returned and updated by this query.
      */
@@ -49,6 +101,51 @@ public class TypedQuery<T> extends AbstractQuery {
      */
     private final String entityAlias;
     
+    /**
+     * When the select is distinct.
+     */
+    private DistinctMode distinctMode = DistinctMode.AUTO;
+    
+    /**
+     * The pool hydrating the rows in parallel; {@code null} to hydrate them on the calling thread.
+     */
+    private ForkJoinPool hydrationPool;
+    
+    /**
+     * The number of rows hydrated by one task of the hydration pool.
+     */
+    private int hydrationChunkSize = DEFAULT_HYDRATION_CHUNK_SIZE;
+    
+    /**
+     * The unit of work collecting the writes of the query; {@code null} when they are executed immediately.
+     */
+    private UnitOfWork unitOfWork;
+    
+    /**
+     * The queue collecting the updates of the query; {@code null} when they are executed immediately.
+     */
+    private WriteBehindQueue writeBehindQueue;
+    
+    /**
+     * The entities shared with other queries; {@code null} to use new ones per execution.
+     */
+    private IdentityMap identityMap;
+    
+    /**
+     * The references and collections to load; {@code null} to load all of them.
+     */
+    private FetchPlan fetchPlan;
+    
+    /**
+     * The column selected in addition to the entity columns, with the owner ids of loaded collections.
+     */
+    private String ownerColumn;
+    
+    /**
+     * The select of a named query, which was parsed when the query was registered.
+     */
+    private ParsedQuery parsedSelect;
+    
     /**
      * @param dbConnection The connection to the database.
      * @param querySuffix The suffix (joins, where conditions, sort, etc.) for the query.
@@ -77,7 +174,196 @@ public class TypedQuery<T> extends AbstractQuery {
     }
     
     /**
-     * Updates/creates the entity in the database.
+     * When the select is distinct. Defaults to {@link DistinctMode#AUTO}.
+     */
+    public DistinctMode getDistinctMode() {
+        return distinctMode;
+    }
+    
+    /**
+     * @see #getDistinctMode()
+     */
+    public void setDistinctMode(final DistinctMode distinctMode) {
+        this.distinctMode = Objects.requireNonNull(distinctMode);
+    }
+    
+    /**
+     * The pool on which the rows of results larger than the {@link #getHydrationChunkSize() chunk size} are
+     * hydrated into entities in parallel; {@code null} (the default) to hydrate them on the calling thread.
+     * The rows are still read from the cursor by the calling thread, which submits each chunk as soon as 
+     * it has been read. The result keeps the order of the rows.
+     * References shared between rows are resolved to the same instance.
+     */
+    public ForkJoinPool getHydrationPool() {
+        return hydrationPool;
+    }
+    
+    /**
+     * @see #getHydrationPool()
+     */
+    public void setHydrationPool(final ForkJoinPool hydrationPool) {
+        this.hydrationPool = hydrationPool;
+    }
+    
+    /**
+     * The number of rows hydrated by one task of the {@link #getHydrationPool() hydration pool}. Defaults to
+     * {@link #DEFAULT_HYDRATION_CHUNK_SIZE}.
+     */
+    public int getHydrationChunkSize() {
+        return hydrationChunkSize;
+    }
+    
+    /**
+     * @see #getHydrationChunkSize()
+     */
+    public void setHydrationChunkSize(final int hydrationChunkSize) {
+        if (hydrationChunkSize < 1) {
+            throw new IllegalArgumentException("The hydration chunk size must be positive.");
+        }
+        
+        this.hydrationChunkSize = hydrationChunkSize;
+    }
+    
+    /**
+     * The identity map holding the loaded entities across executions. Set the same map for several queries 
+     * to share the loaded entities between them, e.g. for a session. Already loaded entities are returned 
+     * as they are, without reading their state again. {@code null} (the default) uses a new map for each 
+     * execution.
+     * <p>
+     * The entities are added to the map before their fields are set, so that circular references resolve
+     * to the same instance. The queries sharing a map must therefore not run concurrently; otherwise a query 
+     * could return an entity that another query is still loading. Entities that cannot be loaded completely 
+     * are removed from the map again.
+     * </p>
+     * <p>
+     * With {@link #fetch(String...) fetch paths}, the loaded entities are incomplete. They are then only 
+     * held for the execution and not added to the map, while the entities already in the map are still 
+     * returned as they are.
+     * </p>
+     */
+    public IdentityMap getIdentityMap() {
+        return identityMap;
+    }
+    
+    /**
+     * @see #getIdentityMap()
+     */
+    public void setIdentityMap(final IdentityMap identityMap) {
+        this.identityMap = identityMap;
+    }
+    
+    /**
+     * Restricts the loaded references and collections to the given paths. A path consists of the names 
+     * of reference or collection fields, separated by dots (e.g. {@code "customer"} or {@code "lines.product"}).
+     * All fields of a path are loaded. Paths are added to the ones of previous invocations.
+     * <p>
+     * Without fetch paths, all references and collections are loaded recursively. With fetch paths, 
+     * references which are not fetched are stubs, which only have their id set, and collections which 
+     * are not fetched are {@code null}. These collections are left untouched when the entity is updated, 
+     * as long as they are {@code null}; {@code null} collections of other entities are cleared. The fetched references and collections are loaded in batches with one query per 
+     * path and up to 1000 ids.
+     * </p>
+     * 
+     * @param paths The paths to load.
+     * 
+     * @throws IllegalArgumentException When a path does not consist of reference and collection fields.
+     */
+    public void fetch(final String... paths) {
+        if (isNull(fetchPlan)) {
+            fetchPlan = new FetchPlan();
+        }
+        
+        for (final String path : paths) {
+            Class<?> pathType = entityType;
+            FetchPlan pathPlan = fetchPlan;
+            
+            for (final String fieldName : StringUtils.split(path, '.')) {
+                final Field field = getFetchableField(pathType, fieldName);
+                pathType = field.isAnnotationPresent(CollectionOfEntities.class) ? getCollectionEntityType(field) : field.getType();
+                pathPlan = pathPlan.getFieldPlans().computeIfAbsent(fieldName, name -> new FetchPlan());
+            }
+        }
+    }
+    
+    /**
+     * Sets the parsed select of a named query, which is used as long as the select does not change
+     * (e.g. with the {@link #getDistinctMode() distinct mode}).
+     * 
+     * @param parsedSelect The parsed select.
+     */
+    protected void setParsedSelect(final ParsedQuery parsedSelect) {
+        this.parsedSelect = parsedSelect;
+    }
+    
+    /**
+     * The entity type of the query.
+     */
+    protected Class<T> getEntityType() {
+        return entityType;
+    }
+    
+    /**
+     * Reads the id of an entity of the query's type.
+     * 
+     * @param entity The entity.
+     * @return The id; {@code null} for transient entities.
+     */
+    protected Object readEntityId(final T entity) {
+        return PropertyUtils.read(entity, getIdField().getName());
+    }
+    
+    /**
+     * Reads the version of an entity of the query's type.
+     * 
+     * @param entity The entity.
+     * @return The version.
+     */
+    protected Object readEntityVersion(final T entity) {
+        return PropertyUtils.read(entity, getVersionField().getName());
+    }
+    
+    /**
+     * Sets the version of an entity of the query's type, e.g. to restore it after a failed write.
+     * 
+     * @param entity The entity.
+     * @param version The version.
+     */
+    protected void writeEntityVersion(final T entity, final Object version) {
+        PropertyUtils.write(entity, getVersionField().getName(), version);
+    }
+    
+    /**
+     * @see #getUnitOfWork()
+     */
+    protected void setUnitOfWork(final UnitOfWork unitOfWork) {
+        this.unitOfWork = unitOfWork;
+    }
+    
+    /**
+     * The unit of work collecting the writes of the query; {@code null} when they are executed immediately.
+     */
+    public UnitOfWork getUnitOfWork() {
+        return unitOfWork;
+    }
+    
+    /**
+     * @see #getWriteBehindQueue()
+     */
+    protected void setWriteBehindQueue(final WriteBehindQueue writeBehindQueue) {
+        this.writeBehindQueue = writeBehindQueue;
+    }
+    
+    /**
+     * The queue collecting the updates of the query; {@code null} when they are executed immediately.
+     */
+    public WriteBehindQueue getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+    
+    /**
+     * Updates/creates the entity in the database. When the query belongs to a {@link UnitOfWork}, 
+     * the write is deferred until the unit of work is flushed. When the query belongs to a 
+     * {@link WriteBehindQueue}, the write is queued and executed asynchronously.
      * 
      * @param entity The entity to update in the database.
      * @return The entity id.
@@ -85,6 +371,13 @@ public class TypedQuery<T> extends AbstractQuery {
      * @throws SQLException 
      */
     public Object update(final T entity) throws SQLException {
+        if (nonNull(writeBehindQueue)) {
+            return writeBehindQueue.registerUpdate(this, entity);
+            
+        } else if (nonNull(unitOfWork)) {
+            return unitOfWork.registerUpdate(this, entity);
+        }
+        
         final Field idField = getIdField();
         final Object entityId = PropertyUtils.read(entity, idField.getName());
         
@@ -108,8 +401,26 @@ public class TypedQuery<T> extends AbstractQuery {
      * @throws SQLException
      */
     private void doUpdate(final T entity) throws SQLException {
-        final List<Field> simpleFields = getMappedSimpleFields();
+        prepareUpdate(entity);
+        
+        //build update query. first main entity then collections
+        final List<Query> queries = new ArrayList<>();
+        queries.add(createUpdateQuery(entity));
+        queries.addAll(createClearCollectionsQueries(entity, false));
+        queries.addAll(createInsertCollectionsQueries(entity, collEntity -> true));
+        
+        if (executeJoinedUpdate(queries) < 1) {
+            throw new SQLException("Nothing was updated.");
+        }
         
+    }
+    
+    /**
+     * Increments the version of an existing entity and sets the values of the automatically valued fields.
+     * 
+     * @param entity The entity to update.
+     */
+    protected void prepareUpdate(final T entity) {
         //increment version
         final Field versionField = getVersionField();
         Object entityVersion = PropertyUtils.read(entity, versionField.getName());
@@ -118,80 +429,70 @@ public class TypedQuery<T> extends AbstractQuery {
         PropertyUtils.write(entity, versionField.getName(), entityVersion);
         
         //set automatic valued fields
-        for (final Field simpleField : simpleFields) {
-            final Column colDef = simpleField.getAnnotation(Column.class);
-            
-            if (!colDef.generator().isAssignableFrom(NoValueGenerator.class)) {
-                final ValueGenerator<?> valueGenerator = ClassUtils.createObject(colDef.generator());
-                final Object previousValue = PropertyUtils.read(entity, simpleField.getName());
-                PropertyUtils.write(entity, simpleField.getName(), valueGenerator.generate(previousValue));
-            }
-            
-        }
+        generateValues(entity);
+    }
+    
+    /**
+     * Creates the query updating the mapped columns of an existing entity.
+     * 
+     * @param entity The entity to update.
+     * @return The query.
+     */
+    protected Query createUpdateQuery(final T entity) {
+        return createUpdateQuery(entity, "");
+    }
+    
+    /**
+     * Creates the query updating the mapped columns of an existing entity, as long as the entity still has
+     * the expected version in the database. The query is {@link Query#getExpectedRowCount() expected} to
+     * affect one row, so that the update of a stale entity is detected (see {@link #checkRowCounts(List, int[])}).
+     * 
+     * @param entity The entity to update.
+     * @param expectedVersion The version the entity must have in the database.
+     * @return The query.
+     */
+    protected Query createUpdateQuery(final T entity, final Object expectedVersion) {
+        final String versionColumn = getTableName() + '.' + getVersionField().getAnnotation(Column.class).columnName();
         
-        //build update query. first main entity then collections
+        final Query query = createUpdateQuery(entity, " and coalesce(" + versionColumn + ", -1) = :expectedVersion");
+        query.addParameter("expectedVersion", isNull(expectedVersion) ? -1L : expectedVersion);
+        query.setExpectedRowCount(1);
+        
+        return query;
+    }
+    
+    /**
+     * Creates the query updating the mapped columns of an existing entity.
+     * 
+     * @param entity The entity to update.
+     * @param condition The additional condition of the update; empty for none.
+     * @return The query.
+     */
+    private Query createUpdateQuery(final T entity, final String condition) {
         final String tableName = getTableName();
         final Field idField = getIdField();
         final Column idColumn = idField.getAnnotation(Column.class);
         
-        final StringBuilder queryString = new StringBuilder();
-        
-        //main update query
         final StringJoiner updateQuery = new StringJoiner(", ", 
                                                           " update " + tableName + " set ", 
-                                                          " where " + tableName + '.' + idColumn.columnName() + " = :id; ");
+                                                          " where " + tableName + '.' + idColumn.columnName() + " = :id" + condition + "; ");
         final Map<String, Object> queryParams = new HashMap<>();
         
-        for (final Field simpleField : simpleFields) {
+        for (final Field simpleField : getMappedSimpleFields()) {
             if (!simpleField.isAnnotationPresent(Id.class)) {
-                final Class<?> fieldType = simpleField.getType();
-                final String fieldName = simpleField.getName();
-                
-                Object updateValue = PropertyUtils.read(entity, fieldName);
-                
-                if (isNull(updateValue)) {
-                    //no action necessary
-                    
-                } else if (fieldType.isEnum()) {
-                    //enum fields
-                    updateValue = ((Enum<?>) updateValue).name();
-                    
-                } else if (fieldType.isAnnotationPresent(Entity.class)) {
-                    //field is another entity. load it
-                    final Field nestedEntityIdField = getIdField(fieldType);
-                    updateValue = PropertyUtils.read(updateValue, nestedEntityIdField.getName());
-                    
-                } else {
-                    //field is a "simple type". no action necessary.
-                }
-                
-                final Column colDef = simpleField.getAnnotation(Column.class);
-                final String columnName = colDef.columnName();
+                final String columnName = simpleField.getAnnotation(Column.class).columnName();
                 
                 updateQuery.add(tableName + '.' + columnName + " = :" + columnName);
-                queryParams.put(columnName, updateValue);
-                
+                queryParams.put(columnName, readColumnValue(entity, simpleField));
             }
             
         }
         
-        queryString.append(updateQuery);
-        
-        //collections
-        queryString.append(createClearCollectionsQuery());
-        
-        final Query insertCollectionsQuery = createInsertCollectionsQuery(entity);
-        queryString.append(insertCollectionsQuery.getQueryString());
-        queryParams.putAll(insertCollectionsQuery.getQueryParams());
-        
-        final Query query = new Query(getDbConnectionProvider(), queryString.toString());
+        final Query query = new Query(getDbConnectionProvider(), updateQuery.toString());
         query.addParameter("id", PropertyUtils.read(entity, idField.getName()));
         query.addParameters(queryParams);
         
-        if (query.executeUpdate() < 1) {
-            throw new SQLException("Nothing was updated.");
-        }
-        
+        return query;
     }
     
     /**
@@ -203,54 +504,66 @@ public class TypedQuery<T> extends AbstractQuery {
      * @throws SQLException 
      */
     private Object doCreate(final T entity) throws SQLException {
-        final List<Field> simpleFields = getMappedSimpleFields();
+        final Object entityId = prepareCreate(entity);
+        
+        final List<Query> queries = new ArrayList<>();
+        queries.add(createInsertQuery(entity));
+        queries.addAll(createInsertCollectionsQueries(entity, collEntity -> true));
+        
+        if (executeJoinedUpdate(queries) < 1) {
+            throw new SQLException("Nothing was inserted.");
+        }
+        
+        return entityId;
+        
+    }
+    
+    /**
+     * Assigns a new id to a transient entity and sets the values of the automatically valued fields.
+     * 
+     * @param entity The entity to create.
+     * @return The entity id.
+     */
+    protected Object prepareCreate(final T entity) {
+        final Object entityId = assignNewId(entity);
+        
+        //set automatic valued fields
+        generateValues(entity);
         
-        //create new entity id
+        return entityId;
+    }
+    
+    /**
+     * Assigns a new id to a transient entity.
+     * 
+     * @param entity The entity.
+     * @return The entity id.
+     */
+    private Object assignNewId(final T entity) {
         final Field idField = getIdField();
         final Object entityId =  ClassUtils.createObject(idField.getAnnotation(Id.class).value()).generateId();
         PropertyUtils.write(entity, idField.getName(), entityId);
         
-        //set automatic valued fields
-        for (final Field simpleField : simpleFields) {
-            final Column colDef = simpleField.getAnnotation(Column.class);
-            
-            if (!colDef.generator().isAssignableFrom(NoValueGenerator.class)) {
-                final ValueGenerator<?> valueGenerator = ClassUtils.createObject(colDef.generator());
-                final Object previousValue = PropertyUtils.read(entity, simpleField.getName());
-                PropertyUtils.write(entity, simpleField.getName(), valueGenerator.generate(previousValue));
-            }
-            
-        }
-        
+        return entityId;
+    }
+    
+    /**
+     * Creates the query inserting the non-null mapped columns of a transient entity.
+     * 
+     * @param entity The entity to create.
+     * @return The query.
+     */
+    protected Query createInsertQuery(final T entity) {
         final Map<String, Object> queryParams = new HashMap<>();
-        final StringBuilder queryString = new StringBuilder(); 
-        final String tableName = getTableName();
         
         final StringJoiner insertColumns = new StringJoiner(", ", "(", ")");
         final StringJoiner valuesDef = new StringJoiner(", ", "(", ")");
         
-        for (final Field simpleField : simpleFields) {
-            final Class<?> fieldType = simpleField.getType();
-            final String fieldName = simpleField.getName();
-            
-            Object updateValue = PropertyUtils.read(entity, fieldName);
+        for (final Field simpleField : getMappedSimpleFields()) {
+            final Object updateValue = readColumnValue(entity, simpleField);
             
             if (nonNull(updateValue)) {
-                if (fieldType.isEnum()) {
-                    //enum fields
-                    updateValue = ((Enum<?>) updateValue).name();
-                    
-                } else if (fieldType.isAnnotationPresent(Entity.class)) {
-                    //field is another entity. load it
-                    final Field nestedEntityIdField = getIdField(fieldType);
-                    updateValue = PropertyUtils.read(updateValue, nestedEntityIdField.getName());
-                    
-                } else {
-                    //field is a "simple type". no action necessary.
-                }
-                
-                final Column colDef = simpleField.getAnnotation(Column.class);
-                final String columnName = colDef.columnName();
+                final String columnName = simpleField.getAnnotation(Column.class).columnName();
                 
                 insertColumns.add(columnName);
                 valuesDef.add(":" + columnName);
@@ -259,200 +572,1348 @@ public class TypedQuery<T> extends AbstractQuery {
             
         }
         
-        queryString.append("insert into ").append(tableName)
-                   .append(insertColumns)
-                   .append(" values ").append(valuesDef)
-                   .append("; ");
-        
-        final Query insertCollectionsQuery = createInsertCollectionsQuery(entity);
-        queryString.append(insertCollectionsQuery.getQueryString());
-        queryParams.putAll(insertCollectionsQuery.getQueryParams());
-        
-        final Query query = new Query(getDbConnectionProvider(), queryString.toString());
+        final Query query = new Query(getDbConnectionProvider(), "insert into " + getTableName() + insertColumns + " values " + valuesDef + "; ");
         query.addParameters(queryParams);
         
-        if (query.executeUpdate() < 1) {
-            throw new SQLException("Nothing was inserted.");
-        }
-        
-        return entityId;
-        
+        return query;
+    }
+    
+    /**
+     * Inserts the entity or, when an entity with its id exists, updates it with one statement, so that an 
+     * entity with an assigned id can be written without reading it first. The existing entity is only 
+     * updated, when its version matches the version of the entity.
+     * 
+     * @param entity The entity to insert or update.
+     * @return The entity id.
+     * 
+     * @throws StaleEntityException When the entity exists with a different version.
+     * @see #upsertAll(Collection)
+     */
+    public Object upsert(final T entity) throws SQLException {
+        upsertAll(Collections.singletonList(entity));
+        
+        return PropertyUtils.read(entity, getIdField().getName());
+    }
+    
+    /**
+     * Inserts or updates the entities like {@link #upsert(Object)}. The statements of all entities are 
+     * executed as one batch in one transaction; when one of the entities is stale, none is written. 
+     * Entities without id get a new id. When the database does not support upserts, the versions of
+     * the entities are read before they are written.
+     * 
+     * @param entities The entities to insert or update.
+     * 
+     * @throws StaleEntityException When one of the entities exists with a different version.
+     * @throws IllegalStateException When the query belongs to a unit of work or write-behind queue.
+     */
+    public void upsertAll(final Collection<T> entities) throws SQLException {
+        checkNotDeferred();
+        
+        if (entities.isEmpty()) {
+            return;
+        }
+        
+        final List<T> entityList = new ArrayList<>(entities);
+        final Field idField = getIdField();
+        final Field versionField = getVersionField();
+        final List<Object> previousVersions = ListUtils.map(entityList, entity -> PropertyUtils.read(entity, versionField.getName()));
+        final String upsertStatement = createUpsertStatement();
+        
+        //without upsert statement, the existing entities are determined before they are written.
+        final Map<Object, Object> databaseVersions = new HashMap<>();
+        
+        if (isNull(upsertStatement)) {
+            final List<Object> entityIds = ListUtils.filter(ListUtils.map(entityList, entity -> PropertyUtils.read(entity, idField.getName())), 
+                                                            NullableUtils::nonNull);
+            
+            if (!entityIds.isEmpty()) {
+                databaseVersions.putAll(readDatabaseVersions(entityType, entityIds));
+            }
+        }
+        
+        try {
+            final List<Query> queries = new ArrayList<>();
+            final List<Query> collectionQueries = new ArrayList<>();
+            
+            for (int entityIdx = 0; entityIdx < entityList.size(); entityIdx++) {
+                final T entity = entityList.get(entityIdx);
+                Object entityId = PropertyUtils.read(entity, idField.getName());
+                
+                if (isNull(entityId)) {
+                    entityId = assignNewId(entity);
+                }
+                
+                final boolean exists = databaseVersions.containsKey(entityId);
+                
+                if (exists && !isSameVersion(databaseVersions.get(entityId), previousVersions.get(entityIdx))) {
+                    throw new StaleEntityException("The entity version has changed in the database: " + entityType.getName() + ":" + entityId);
+                }
+                
+                prepareUpdate(entity);
+                
+                final Query query;
+                
+                if (nonNull(upsertStatement)) {
+                    query = createUpsertQuery(entity, upsertStatement, previousVersions.get(entityIdx));
+                } else if (exists) {
+                    query = createUpdateQuery(entity, previousVersions.get(entityIdx));
+                } else {
+                    query = createInsertQuery(entity);
+                }
+                
+                //one statement per entity, so that the row count of each entity is known.
+                final String paramPrefix = "e" + entityIdx + '_';
+                queries.add(query.prefixParameters(paramPrefix));
+                
+                for (final Query collectionQuery : createClearCollectionsQueries(entity, false)) {
+                    collectionQueries.add(collectionQuery.prefixParameters(paramPrefix));
+                }
+                
+                for (final Query collectionQuery : createInsertCollectionsQueries(entity, collEntity -> true)) {
+                    collectionQueries.add(collectionQuery.prefixParameters(paramPrefix));
+                }
+            }
+            
+            queries.addAll(collectionQueries);
+            
+            joinQueries(queries).executeUpdate(rowCounts -> {
+                for (int entityIdx = 0; entityIdx < entityList.size(); entityIdx++) {
+                    if (rowCounts[entityIdx] == 0) {
+                        throw new StaleEntityException("The entity version has changed in the database: " + entityType.getName() + ":" 
+                                                       + PropertyUtils.read(entityList.get(entityIdx), idField.getName()));
+                    }
+                }
+                
+                checkRowCounts(queries, rowCounts);
+            });
+            
+        } catch (final RuntimeException e) {
+            //nothing was written. restore the versions.
+            for (int entityIdx = 0; entityIdx < entityList.size(); entityIdx++) {
+                PropertyUtils.write(entityList.get(entityIdx), versionField.getName(), previousVersions.get(entityIdx));
+            }
+            
+            throw e;
+        }
+    }
+    
+    /**
+     * Creates the upsert statement of this query's entity type.
+     * 
+     * @return The statement; {@code null} when the database does not support upserts.
+     */
+    private String createUpsertStatement() {
+        final List<String> columnNames = ListUtils.map(getMappedSimpleFields(), 
+                                                       simpleField -> simpleField.getAnnotation(Column.class).columnName());
+        
+        return getDbConnectionProvider().createUpsertStatement(getTableName(), 
+                                                               getIdField().getAnnotation(Column.class).columnName(), 
+                                                               getVersionField().getAnnotation(Column.class).columnName(), 
+                                                               columnNames);
+    }
+    
+    /**
+     * Creates the query inserting or updating all mapped columns of an entity.
+     * 
+     * @param entity The entity.
+     * @param upsertStatement The upsert statement of this query's entity type.
+     * @param expectedVersion The version the entity must have in the database to be updated.
+     * @return The query.
+     */
+    private Query createUpsertQuery(final T entity, final String upsertStatement, final Object expectedVersion) {
+        final Query query = new Query(getDbConnectionProvider(), upsertStatement + "; ");
+        
+        for (final Field simpleField : getMappedSimpleFields()) {
+            query.addParameter(simpleField.getAnnotation(Column.class).columnName(), readColumnValue(entity, simpleField));
+        }
+        
+        query.addParameter("expectedVersion", expectedVersion);
+        
+        return query;
+    }
+    
+    /**
+     * Sets the values of the fields, whose column defines a value generator.
+     * 
+     * @param entity The entity.
+     */
+    private void generateValues(final T entity) {
+        for (final Field simpleField : getMappedSimpleFields()) {
+            final Column colDef = simpleField.getAnnotation(Column.class);
+            
+            if (!colDef.generator().isAssignableFrom(NoValueGenerator.class)) {
+                final ValueGenerator<?> valueGenerator = ClassUtils.createObject(colDef.generator());
+                final Object previousValue = PropertyUtils.read(entity, simpleField.getName());
+                PropertyUtils.write(entity, simpleField.getName(), valueGenerator.generate(previousValue));
+            }
+            
+        }
+    }
+    
+    /**
+     * Reads the value of a mapped simple field as it is written to its column.
+     * 
+     * @param entity The entity.
+     * @param simpleField The field.
+     * @return The column value.
+     */
+    private Object readColumnValue(final T entity, final Field simpleField) {
+        return toColumnValue(simpleField, PropertyUtils.read(entity, simpleField.getName()));
+    }
+    
+    /**
+     * Converts the value of a mapped simple field to the value written to its column.
+     * 
+     * @param simpleField The field.
+     * @param value The field value.
+     * @return The column value.
+     */
+    private Object toColumnValue(final Field simpleField, final Object value) {
+        final Class<?> fieldType = simpleField.getType();
+        
+        if (isNull(value)) {
+            //no action necessary
+            return null;
+            
+        } else if (fieldType.isEnum()) {
+            //enum fields
+            return ((Enum<?>) value).name();
+            
+        } else if (fieldType.isAnnotationPresent(Entity.class)) {
+            //field is another entity. use its id
+            final Field nestedEntityIdField = getIdField(fieldType);
+            return PropertyUtils.read(value, nestedEntityIdField.getName());
+            
+        } else {
+            //field is a "simple type". no action necessary.
+            return value;
+        }
+    }
+    
+    /**
+     * Reads the values of the mapped simple fields of an entity by field name. References to other 
+     * entities are read as their ids.
+     * 
+     * @param entity The entity.
+     * @return The field values.
+     */
+    protected Map<String, Object> readFieldValues(final T entity) {
+        final Map<String, Object> fieldValues = new HashMap<>();
+        
+        for (final Field simpleField : getMappedSimpleFields()) {
+            final Object value = PropertyUtils.read(entity, simpleField.getName());
+            
+            if (nonNull(value) && simpleField.getType().isAnnotationPresent(Entity.class)) {
+                fieldValues.put(simpleField.getName(), PropertyUtils.read(value, getIdField(simpleField.getType()).getName()));
+            } else {
+                fieldValues.put(simpleField.getName(), value);
+            }
+        }
+        
+        return fieldValues;
+    }
+    
+    /**
+     * Creates an entity from the values of its mapped simple fields (see {@link #readFieldValues(Object)}).
+     * References to other entities are stubs, which only have their id set; collections are not loaded
+     * ({@code null}).
+     * 
+     * @param fieldValues The field values.
+     * @return The entity.
+     * 
+     * @throws SQLException
+     */
+    protected T createFromFieldValues(final Map<String, Object> fieldValues) throws SQLException {
+        final T entity = ClassUtils.createObject(entityType);
+        
+        for (final Field simpleField : getMappedSimpleFields()) {
+            final Object value = fieldValues.get(simpleField.getName());
+            
+            if (nonNull(value) && simpleField.getType().isAnnotationPresent(Entity.class)) {
+                PropertyUtils.write(entity, simpleField.getName(), createStub(simpleField.getType(), value));
+            } else if (nonNull(value) || !simpleField.getType().isPrimitive()) {
+                PropertyUtils.write(entity, simpleField.getName(), value);
+            }
+        }
+        
+        for (final Field collectionField : getMappedCollectionFields()) {
+            PropertyUtils.write(entity, collectionField.getName(), null);
+        }
+        
+        return entity;
+    }
+    
+    /**
+     * Reads the ids of the elements of the loaded (non-{@code null}) collections of an entity by field name.
+     * 
+     * @param entity The entity.
+     * @return The element ids.
+     */
+    protected Map<String, List<Object>> readCollectionIds(final T entity) {
+        final Map<String, List<Object>> collectionIds = new HashMap<>();
+        
+        for (final Field collectionField : getMappedCollectionFields()) {
+            final Collection<?> collection = (Collection<?>) PropertyUtils.read(entity, collectionField.getName());
+            
+            if (nonNull(collection)) {
+                final Field elementIdField = getIdField(getCollectionEntityType(collectionField));
+                collectionIds.put(collectionField.getName(), ListUtils.map(collection, element -> PropertyUtils.read(element, elementIdField.getName())));
+            }
+        }
+        
+        return collectionIds;
+    }
+    
+    /**
+     * Replaces the referenced stubs of an entity created with {@link #createFromFieldValues(Map)} with the
+     * loaded entities and sets its collections from the element ids. Elements, which are not loaded, are stubs.
+     * 
+     * @param entity The entity.
+     * @param collectionIds The ids of the elements of the loaded collections by field name.
+     * @param loadedEntities The loaded entities.
+     * 
+     * @throws SQLException
+     */
+    protected void resolveReferences(final T entity, 
+                                     final Map<String, List<Object>> collectionIds, 
+                                     final IdentityMap loadedEntities) throws SQLException {
+        for (final Field simpleField : getMappedSimpleFields()) {
+            final Class<?> fieldType = simpleField.getType();
+            final Object stub = PropertyUtils.read(entity, simpleField.getName());
+            
+            if (nonNull(stub) && fieldType.isAnnotationPresent(Entity.class)) {
+                final Object referencedEntity = loadedEntities.get(fieldType, PropertyUtils.read(stub, getIdField(fieldType).getName()));
+                
+                if (nonNull(referencedEntity)) {
+                    PropertyUtils.write(entity, simpleField.getName(), referencedEntity);
+                }
+            }
+        }
+        
+        for (final Field collectionField : getMappedCollectionFields()) {
+            final List<Object> elementIds = collectionIds.get(collectionField.getName());
+            
+            if (nonNull(elementIds)) {
+                final Class<?> elementType = getCollectionEntityType(collectionField);
+                final List<Object> collection = new ArrayList<>();
+                
+                for (final Object elementId : elementIds) {
+                    final Object element = loadedEntities.get(elementType, elementId);
+                    collection.add(nonNull(element) ? element : createStub(elementType, elementId));
+                }
+                
+                PropertyUtils.write(entity, collectionField.getName(), collection);
+            }
+        }
+    }
+    
+    /**
+     * Describes how the entity type is mapped to its table. The description changes when a mapped field
+     * or column changes.
+     * 
+     * @return The description.
+     */
+    protected String getMappingFingerprint() {
+        final StringBuilder fingerprint = new StringBuilder(getTableName());
+        
+        for (final Field field : getMappedFields()) {
+            fingerprint.append(';').append(field.getName()).append(':').append(field.getType().getName());
+            
+            if (field.isAnnotationPresent(Column.class)) {
+                fingerprint.append(':').append(field.getAnnotation(Column.class).columnName());
+            } else {
+                final CollectionOfEntities collDef = field.getAnnotation(CollectionOfEntities.class);
+                fingerprint.append(':').append(getCollectionEntityType(field).getName())
+                           .append(':').append(collDef.joinTable())
+                           .append(':').append(collDef.joinColumn())
+                           .append(':').append(collDef.inverseJoinColumn());
+            }
+        }
+        
+        return fingerprint.toString();
+    }
+    
+    /**
+     * Deletes the entity. When the query belongs to a {@link UnitOfWork}, the deletion is deferred
+     * until the unit of work is flushed and {@code 0} is returned. When the query belongs to a 
+     * {@link WriteBehindQueue}, the queued update of the entity is discarded before it is deleted.
+     * 
+     * @param entity The entity to delete.
+     * @return the number of rows removed from the database.
+     * 
+     * @throws SQLException 
+     */
+    public int delete(final T entity) throws SQLException {
+        Objects.requireNonNull(entity);
+        
+        if (nonNull(writeBehindQueue)) {
+            writeBehindQueue.discardUpdate(this, entity);
+        }
+        
+        if (nonNull(unitOfWork)) {
+            unitOfWork.registerDelete(this, entity);
+            return 0;
+        }
+        
+        //Creating a batch update query, which removes collection content first.
+        //This way, when we fail at one part, we commit nothing.
+        final List<Query> queries = new ArrayList<>();
+        queries.addAll(createClearCollectionsQueries(entity, true));
+        queries.add(createDeleteQuery(entity));
+        
+        return joinQueries(queries).executeUpdate();
+    }
+    
+    /**
+     * Creates the query deleting the row of the entity.
+     * 
+     * @param entity The entity to delete.
+     * @return The query.
+     */
+    protected Query createDeleteQuery(final T entity) {
+        final Field idField = getIdField();
+        final Column columnDef = idField.getAnnotation(Column.class);
+        
+        final Query query = new Query(getDbConnectionProvider(), 
+                                      "delete from " + getTableName() + " where " + getTableName() + '.' + columnDef.columnName() + " = :id; ");
+        query.addParameter("id", PropertyUtils.read(entity, idField.getName()));
+        
+        return query;
+    }
+    
+    /**
+     * Deletes all entities matching the suffix with set-based statements, without loading them. The suffix 
+     * is the same as for selecting the entities with this query (joins, where conditions). The rows of the 
+     * join tables of the entity collections are removed and the elements of collections mapped with a join 
+     * column are unlinked in the same transaction. When the database supports temporary tables, the ids of
+     * the matching entities are determined once, so that removing the collections does not change which
+     * entities are deleted. The entities of this type are removed from the identity map of the query.
+     * 
+     * @param suffix The suffix selecting the entities to delete.
+     * @param params The parameters of the suffix; can be {@code null}.
+     * @return The number of deleted entities.
+     * 
+     * @throws IllegalStateException When the query belongs to a unit of work or write-behind queue.
+     */
+    public int deleteWhere(final String suffix, final Map<String, Object> params) throws SQLException {
+        checkNotDeferred();
+        
+        final String tableName = getTableName();
+        final String tempTableStatement = getDbConnectionProvider().createTempTableStatement(DELETED_IDS_TABLE, getIdField().getType());
+        final List<Query> queries = new ArrayList<>();
+        final String idCondition;
+        
+        if (nonNull(tempTableStatement)) {
+            queries.add(createBulkQuery(tempTableStatement + "; ", null));
+            queries.add(createBulkQuery("insert into " + DELETED_IDS_TABLE + " (x) " + createSelectIdsQuery(suffix) + "; ", params));
+            idCondition = " in (select x from " + DELETED_IDS_TABLE + ")";
+        } else {
+            idCondition = " in (" + createSelectIdsQuery(suffix) + ")";
+        }
+        
+        for (final Field collectionField : getMappedCollectionFields()) {
+            queries.add(createBulkQuery(createClearCollectionStatement(collectionField, idCondition), params));
+        }
+        
+        final int deleteIdx = queries.size();
+        queries.add(createBulkQuery("delete from " + tableName 
+                                        + " where " + tableName + '.' + getIdField().getAnnotation(Column.class).columnName() + idCondition + "; ", 
+                                    params));
+        
+        if (nonNull(tempTableStatement)) {
+            queries.add(createBulkQuery("drop table " + DELETED_IDS_TABLE + "; ", null));
+        }
+        
+        return executeBulkUpdate(queries, deleteIdx);
+    }
+    
+    /**
+     * Updates all entities matching the suffix with one set-based statement, without loading them. The 
+     * suffix is the same as for selecting the entities with this query (joins, where conditions). The 
+     * version of the updated entities is incremented, so that loaded instances become stale. The entities 
+     * of this type are removed from the identity map of the query.
+     * 
+     * @param assignments The new values by field name. The id, the version and collections cannot be assigned.
+     * @param suffix The suffix selecting the entities to update.
+     * @param params The parameters of the suffix; can be {@code null}.
+     * @return The number of updated entities.
+     * 
+     * @throws IllegalArgumentException When a field is not mapped or cannot be assigned.
+     * @throws IllegalStateException When the query belongs to a unit of work or write-behind queue.
+     */
+    public int updateWhere(final Map<String, Object> assignments, final String suffix, final Map<String, Object> params) throws SQLException {
+        checkNotDeferred();
+        
+        if (assignments.isEmpty()) {
+            throw new IllegalArgumentException("At least one assignment is required.");
+        }
+        
+        final String tableName = getTableName();
+        final String idColumn = getIdField().getAnnotation(Column.class).columnName();
+        final String versionColumn = getVersionField().getAnnotation(Column.class).columnName();
+        
+        final StringJoiner updateQuery = new StringJoiner(", ", 
+                                                          "update " + tableName + " set ", 
+                                                          " where " + tableName + '.' + idColumn + " in (" + createSelectIdsQuery(suffix) + "); ");
+        final Map<String, Object> assignmentParams = new HashMap<>();
+        
+        for (final Entry<String, Object> assignment : assignments.entrySet()) {
+            final Field assignedField = getAssignableField(assignment.getKey());
+            final String paramName = "assignment" + assignmentParams.size();
+            
+            updateQuery.add(tableName + '.' + assignedField.getAnnotation(Column.class).columnName() + " = :" + paramName);
+            assignmentParams.put(paramName, toColumnValue(assignedField, assignment.getValue()));
+        }
+        
+        //a missing version becomes 0, as with the version generator.
+        updateQuery.add(tableName + '.' + versionColumn + " = coalesce(" + tableName + '.' + versionColumn + ", -1) + 1");
+        
+        final Query query = createBulkQuery(updateQuery.toString(), params);
+        query.addParameters(assignmentParams);
+        
+        return executeBulkUpdate(Collections.singletonList(query), 0);
+    }
+    
+    /**
+     * Creates the query selecting the ids of the entities matching the suffix.
+     * 
+     * @param suffix The suffix (joins, where conditions) of the query.
+     * @return The query string.
+     */
+    private String createSelectIdsQuery(final String suffix) {
+        final String tableName = getTableName();
+        final String alias = StringUtils.isBlank(entityAlias) ? tableName : entityAlias;
+        
+        return "select distinct " + alias + '.' + getIdField().getAnnotation(Column.class).columnName() 
+                + " from " + tableName + ' ' + alias + ' ' + StringUtils.defaultString(suffix);
+    }
+    
+    /**
+     * Creates a query of a set-based write.
+     * 
+     * @param statement The statement.
+     * @param params The parameters of the suffix; can be {@code null}.
+     * @return The query.
+     */
+    private Query createBulkQuery(final String statement, final Map<String, Object> params) {
+        final Query query = new Query(getDbConnectionProvider(), statement);
+        
+        if (nonNull(params)) {
+            query.addParameters(params);
+        }
+        
+        return query;
+    }
+    
+    /**
+     * Executes the statements of a set-based write in one transaction and removes the entities of 
+     * this type from the identity map.
+     * 
+     * @param queries The queries; one per statement.
+     * @param entityQueryIdx The index of the query writing the entities of this type.
+     * @return The number of written entities.
+     */
+    private int executeBulkUpdate(final List<Query> queries, final int entityQueryIdx) {
+        final Query query = joinQueries(queries);
+        query.setCollectionParameterMode(getCollectionParameterMode());
+        query.setTempTableThreshold(getTempTableThreshold());
+        query.setOptions(getOptions());
+        
+        final int[] rowCounts = query.executeUpdate((Consumer<int[]>) null);
+        
+        if (nonNull(identityMap)) {
+            identityMap.removeAll(entityType);
+        }
+        
+        return rowCounts[entityQueryIdx];
+    }
+    
+    /**
+     * Determines a mapped simple field, which can be assigned by a set-based update.
+     * 
+     * @param fieldName The name of the field.
+     * @return The field.
+     * 
+     * @throws IllegalArgumentException When the field is not mapped, or is the id or version field.
+     */
+    private Field getAssignableField(final String fieldName) {
+        for (final Field simpleField : getMappedSimpleFields()) {
+            if (simpleField.getName().equals(fieldName)) {
+                if (simpleField.isAnnotationPresent(Id.class) || simpleField.isAnnotationPresent(Version.class)) {
+                    throw new IllegalArgumentException("The id and version cannot be assigned: " + fieldName);
+                }
+                
+                return simpleField;
+            }
+        }
+        
+        throw new IllegalArgumentException("The field is not mapped to a column: " + fieldName);
+    }
+    
+    /**
+     * Checks that the query does not belong to a unit of work or write-behind queue, since the write 
+     * cannot be deferred.
+     * 
+     * @throws IllegalStateException When the query belongs to a unit of work or write-behind queue.
+     */
+    private void checkNotDeferred() {
+        if (nonNull(unitOfWork) || nonNull(writeBehindQueue)) {
+            throw new IllegalStateException("The write cannot be deferred by a unit of work or write-behind queue.");
+        }
+    }
+    
+    /**
+     * Creates the queries clearing the collections of entities of an entity; one query per collection.
+     *
+     * @param entity The entity with the entity collections.
+     * @param includeUnloaded Clear also the collections that a fetch plan left unloaded ({@code null}).
+     * @return The queries.
+     */
+    protected List<Query> createClearCollectionsQueries(final T entity, final boolean includeUnloaded) {
+        final List<Field> collectionFields = getMappedCollectionFields();
+        final List<Query> clearCollectionsQueries = new ArrayList<>();
+        final Object entityId = PropertyUtils.read(entity, getIdField().getName());
+        
+        if (!includeUnloaded) {
+            //null collections of entities loaded completely are cleared.
+            collectionFields.removeIf(collectionField -> isNull(PropertyUtils.read(entity, collectionField.getName()))
+                                                         && UnloadedCollections.isUnloaded(entity, collectionField.getName()));
+        }
+        
+        for (final Field collectionField : collectionFields) {
+            final Query query = new Query(getDbConnectionProvider(), createClearCollectionStatement(collectionField, " = :id"));
+            query.addParameter("id", entityId);
+            clearCollectionsQueries.add(query);
+        }
+        
+        return clearCollectionsQueries;
+    }
+    
+    /**
+     * Creates the statement clearing a collection of entities of the owners, whose id matches the condition.
+     * 
+     * @param collectionField The collection field.
+     * @param ownerCondition The condition for the owner id, e.g. {@code " = :id"}.
+     * @return The statement.
+     */
+    private String createClearCollectionStatement(final Field collectionField, final String ownerCondition) {
+        final CollectionOfEntities collDef = collectionField.getAnnotation(CollectionOfEntities.class);
+        final String joinTableName = getJoinTableName(collectionField);
+        
+        if (!StringUtils.isBlank(joinTableName)) {
+            return "delete from " + joinTableName + " where  " + joinTableName + '.' + collDef.joinColumn() + ownerCondition + "; ";
+            
+        } else {
+            final Class<?> collEntityType = getCollectionEntityType(collectionField);
+            final String collEntityTable = getTableName(collEntityType);
+            
+            return "update " + collEntityTable + " set " + collEntityTable + '.' + collDef.joinColumn() +  " = null "
+                   + "where " + collEntityTable + '.' + collDef.joinColumn() + ownerCondition + "; ";
+        }
+    }
+    
+    /**
+     * Creates the queries for persisting the relation between an entity and the collections of entities in it.
+     * The versions of the elements of collections mapped with a join column are checked, since the elements 
+     * are updated: the update of each chunk of elements only matches the elements with the expected version 
+     * and defines the {@link Query#getExpectedRowCount() expected row count} (see {@link #checkRowCounts(List, int[])}).
+     *
+     * @param entity The entity with the entity collections.
+     * @param versionCheckFilter Selects the elements, whose version is checked.
+     * @return The queries; one per statement.
+     */
+    @SuppressWarnings("unchecked")
+    protected List<Query> createInsertCollectionsQueries(final T entity, final Predicate<Object> versionCheckFilter) {
+        final List<Field> collectionFields = getMappedCollectionFields();
+        final Object entityId = PropertyUtils.read(entity, getIdField().getName());
+        
+        final List<Query> insertCollectionsQueries = new ArrayList<>();
+        int paramIdx = 0;
+        
+        for (final Field collectionField : collectionFields) {
+            final List<Object> collection = (List<Object>) PropertyUtils.read(entity, collectionField.getName());
+            
+            if (NullableUtils.check(collection, not(isEmpty()))) {
+                final CollectionOfEntities collDef = collectionField.getAnnotation(CollectionOfEntities.class);
+                final Class<?> collEntityType = getCollectionEntityType(collectionField);
+                final Field collEntityIdField = getIdField(collEntityType);
+                final String joinTableName = getJoinTableName(collectionField);
+                
+                if (!StringUtils.isBlank(joinTableName)) {
+                    //collection is mapped with join table
+                    final StringJoiner collectionInsert = new StringJoiner(", ", 
+                                                                           "insert into " + joinTableName + 
+                                                                           '(' + collDef.joinColumn() + ',' + collDef.inverseJoinColumn() 
+                                                                           + ") values ", 
+                                                                           ";");
+                    final Map<String, Object> paramValues = new HashMap<>();
+                    
+                    for (final Object collEntity : collection) {
+                        final String paramName = "joinInsertPar" + (paramIdx++);
+                        collectionInsert.add("(:id, :" + paramName + ')');
+                        paramValues.put(paramName, PropertyUtils.read(collEntity, collEntityIdField.getName()));
+                    }
+                    
+                    final Query query = new Query(getDbConnectionProvider(), collectionInsert.toString());
+                    query.addParameter("id", entityId);
+                    query.addParameters(paramValues);
+                    insertCollectionsQueries.add(query);
+                    
+                } else {
+                    //collection is mapped with simple join column. re-link the elements with one update per chunk.
+                    final String collEntityTable = getTableName(collEntityType);
+                    final String collIdColumn = collEntityTable + '.' + collEntityIdField.getAnnotation(Column.class).columnName();
+                    final Field collVersionField = getVersionField(collEntityType);
+                    final String collVersionColumn = "coalesce(" + collEntityTable + '.' 
+                                                     + collVersionField.getAnnotation(Column.class).columnName() + ", -1)";
+                    
+                    final String baseUpdate = "update " + collEntityTable 
+                                                + " set " + collEntityTable + '.' + collDef.joinColumn() + " = :id "
+                                                + "where " + collIdColumn + " in :";
+                    
+                    for (final List<Object> collectionChunk : ListUtils.split(collection, COLLECTION_CHUNK_SIZE)) {
+                        final List<Object> collectionIds = ListUtils.map(collectionChunk, collEntity -> PropertyUtils.read(collEntity, collEntityIdField.getName()));
+                        final String paramName = "refUpdatePar" + (paramIdx++);
+                        final StringBuilder update = new StringBuilder(baseUpdate).append(paramName);
+                        final Map<String, Object> paramValues = new HashMap<>();
+                        
+                        //the elements with another version are not updated, so the row count is checked.
+                        final StringJoiner versionCases = new StringJoiner(" ", " and " + collVersionColumn + " = case " + collIdColumn + ' ', 
+                                                                           " else " + collVersionColumn + " end");
+                        
+                        for (final Object collEntity : ListUtils.filter(collectionChunk, versionCheckFilter)) {
+                            final String versionParamName = "refVersionPar" + (paramIdx++);
+                            final Object collEntityVersion = PropertyUtils.read(collEntity, collVersionField.getName());
+                            
+                            versionCases.add("when :" + versionParamName + "Id then :" + versionParamName);
+                            paramValues.put(versionParamName + "Id", PropertyUtils.read(collEntity, collEntityIdField.getName()));
+                            paramValues.put(versionParamName, isNull(collEntityVersion) ? -1L : collEntityVersion);
+                        }
+                        
+                        if (!paramValues.isEmpty()) {
+                            update.append(versionCases);
+                        }
+                        
+                        final Query query = new Query(getDbConnectionProvider(), update.append("; ").toString());
+                        query.addParameter("id", entityId);
+                        query.addParameter(paramName, collectionIds);
+                        query.addParameters(paramValues);
+                        query.setExpectedRowCount(new HashSet<>(collectionIds).size());
+                        insertCollectionsQueries.add(query);
+                    }
+                }
+            }
+        }
+        
+        return insertCollectionsQueries; 
+    }
+    
+    /**
+     * Checks that the statements have affected their {@link Query#getExpectedRowCount() expected number of rows}.
+     * 
+     * @param statements The executed statements; one per query.
+     * @param rowCounts The number of affected rows of each statement.
+     * 
+     * @throws StaleEntityException When a statement has affected another number of rows.
+     */
+    protected static void checkRowCounts(final List<Query> statements, final int[] rowCounts) {
+        for (int statementIdx = 0; statementIdx < statements.size(); statementIdx++) {
+            final int expectedRowCount = statements.get(statementIdx).getExpectedRowCount();
+            
+            //the driver may not report the count of each batch entry.
+            if (expectedRowCount >= 0 && rowCounts[statementIdx] >= 0 && rowCounts[statementIdx] != expectedRowCount) {
+                throw new StaleEntityException("An entity version has changed in the database: " + statements.get(statementIdx).getQueryString());
+            }
+        }
+    }
+    
+    /**
+     * Executes the queries in one transaction. The changes are rolled back, when a query does not affect
+     * its expected number of rows.
+     * 
+     * @param queries The queries; one statement each.
+     * @return The number of affected rows.
+     * 
+     * @throws SQLException
+     */
+    private int executeJoinedUpdate(final List<Query> queries) throws SQLException {
+        return Query.sumRowCounts(joinQueries(queries).executeUpdate(rowCounts -> checkRowCounts(queries, rowCounts)));
+    }
+    
+    /**
+     * Joins the queries into one query, which executes their statements in one transaction.
+     * The parameter names of the queries must be unique, unless they have the same value.
+     * 
+     * @param queries The queries to join.
+     * @return The joined query.
+     */
+    private Query joinQueries(final List<Query> queries) {
+        final StringBuilder queryString = new StringBuilder();
+        final Map<String, Object> queryParams = new HashMap<>();
+        
+        for (final Query query : queries) {
+            queryString.append(query.getQueryString());
+            queryParams.putAll(query.getQueryParams());
+        }
+        
+        final Query query = new Query(getDbConnectionProvider(), queryString.toString());
+        query.addParameters(queryParams);
+        
+        return query; 
+    }
+    
+    /**
+     * Executes the query returning a single entity. Throws an error when more than 
+     * one entity is found.
+     * 
+     * @return The found entity.
+     * 
+     * @throws SQLException  
+     */
+    public T getSingleResult() throws SQLException {
+        return getSingleResult(createLoadedEntities());
+    }
+    
+    /**
+     * Executes the query returning a single entity. Throws an error when more than 
+     * one entity is found.
+     * 
+     * @param loadedEntities The already loaded entities.
+     * @return The entity fulfilling the query.
+     * 
+     * @throws SQLException  
+     */
+    private T getSingleResult(final IdentityMap loadedEntities) throws SQLException {
+        final List<T> results = getResultList(loadedEntities);
+        
+        if (results.isEmpty()) {
+            return null;
+        } else if (results.size() > 1) {
+            throw new NonUniqueResultException("The query returned more than one result.");
+        } else {
+            return results.get(0);
+        }
+        
+    }
+    
+    /**
+     * Executes the query returning a list of entities.
+     * 
+     * @return The entities fulfilling the query.
+     * @throws SQLException
+     */
+    public List<T> getResultList() throws SQLException {
+        return getResultList(createLoadedEntities());
+    }
+    
+    /**
+     * Executes the query returning a list of entities.
+     * 
+     * @param loadedEntities The already loaded entities.
+     * @return The entities fulfilling the query.
+     * 
+     * @throws SQLException
+     */
+    private List<T> getResultList(final IdentityMap loadedEntities) throws SQLException {
+        //use classic query
+        final Query query = createSelectQuery();
+        final QueryEvent event = new QueryEvent(query.getQueryString(), QueryType.SELECT);
+        
+        try {
+            //the converters are determined once for the whole result.
+            final List<ColumnMapping> columnMappings = createColumnMappings();
+            //the rows not yet submitted to the hydration pool.
+            final List<Object[]> rows = new ArrayList<>();
+            final List<ForkJoinTask<List<T>>> hydrationTasks = new ArrayList<>();
+            //the entities are always held in memory, so exceeding the limits fails regardless of the limit action.
+            final long rowLimit = getOptions().getResultRowLimit();
+            final long byteLimit = getOptions().getResultByteLimit();
+            final long[] estimatedBytes = new long[1];
+            final long[] rowCount = new long[1];
+            
+            try {
+                query.executeQuery(event, resultSet -> {
+                    final int[] columnIndices = new int[columnMappings.size()];
+                    
+                    for (int mappingIdx = 0; mappingIdx < columnIndices.length; mappingIdx++) {
+                        columnIndices[mappingIdx] = resultSet.findColumn(columnMappings.get(mappingIdx).getColumnLabel());
+                    }
+                    
+                    final long previousRowCount = rowCount[0];
+                    
+                    while (resultSet.next()) {
+                        final Object[] row = new Object[columnIndices.length];
+                        
+                        for (int mappingIdx = 0; mappingIdx < columnIndices.length; mappingIdx++) {
+                            row[mappingIdx] = columnMappings.get(mappingIdx).getConverter().read(resultSet, columnIndices[mappingIdx]);
+                        }
+                        
+                        if (byteLimit > 0) {
+                            estimatedBytes[0] += QueryResult.estimateBytes(Arrays.asList(row));
+                        }
+                        
+                        if ((rowLimit > 0 && rowCount[0] >= rowLimit) || (byteLimit > 0 && estimatedBytes[0] > byteLimit)) {
+                            throw new ResultLimitExceededException("The query result exceeds the limit of " + rowLimit + " rows or "
+                                                                   + byteLimit + " bytes.");
+                        }
+                        
+                        rows.add(row);
+                        rowCount[0]++;
+                        
+                        //full chunks are hydrated while the next rows are read.
+                        if (nonNull(hydrationPool) && rows.size() == hydrationChunkSize) {
+                            final List<Object[]> chunk = new ArrayList<>(rows);
+                            hydrationTasks.add(hydrationPool.submit(() -> hydrateChunk(chunk, columnMappings, loadedEntities)));
+                            rows.clear();
+                        }
+                    }
+                    
+                    return (int) (rowCount[0] - previousRowCount);
+                });
+                
+            } catch (final RuntimeException e) {
+                cancelHydration(hydrationTasks);
+                throw e;
+            }
+            
+            //map query result to entities.
+            final long hydrateStart = System.nanoTime();
+            final List<T> entities = hydrate(hydrationTasks, rows, columnMappings, loadedEntities);
+            final List<T> resultList = new ArrayList<>(entities.size());
+            //without distinct the rows of one entity can be returned multiple times.
+            final Set<T> resultEntities = isDistinct() ? null : Collections.newSetFromMap(new IdentityHashMap<>());
+            
+            for (final T entity : entities) {
+                if (isNull(resultEntities) || resultEntities.add(entity)) {
+                    resultList.add(entity);
+                }
+            }
+            
+            if (nonNull(fetchPlan)) {
+                applyFetchPlan(entityType, resultList, fetchPlan, loadedEntities);
+            }
+            
+            event.addHydrateNanos(System.nanoTime() - hydrateStart);
+            
+            return resultList;
+            
+        } catch (final RuntimeException e) {
+            event.setFailure(e);
+            throw e;
+        } finally {
+            fireQueryEvent(event);
+        }
     }
     
     /**
-     * Deletes the entity.
+     * Determines the map of the already loaded entities for an execution.
      * 
-     * @param entity The entity to delete.
-     * @return the number of rows removed from the database.
+     * @return The {@link #getIdentityMap() identity map} of the query; a new one when none is set, or
+     *         one on top of it, when the entities are loaded with a fetch plan.
+     */
+    private IdentityMap createLoadedEntities() {
+        if (isNull(identityMap)) {
+            return new IdentityMap();
+        } else if (nonNull(fetchPlan)) {
+            //incomplete entities must not be returned by other queries sharing the map.
+            return new IdentityMap(identityMap);
+        } else {
+            return identityMap;
+        }
+    }
+    
+    /**
+     * Creates the entities from the rows. The full chunks of large results have already been submitted to 
+     * the hydration pool while the cursor was read; the remaining rows are hydrated on the calling thread 
+     * in the meantime.
      * 
-     * @throws SQLException 
+     * @param tasks The tasks hydrating the chunks submitted to the pool, in the order of the rows.
+     * @param remainingRows The rows after the last submitted chunk, already converted to the field types.
+     * @param columnMappings The mappings of the row values to the fields.
+     * @param loadedEntities The already loaded entities.
+     * @return The entities in the order of the rows.
+     * 
+     * @throws SQLException
      */
-    public int delete(final T entity) throws SQLException {
-        Objects.requireNonNull(entity);
-        
-        //Creating a batch update query, which removes collection content first.
-        //This way, when we fail at one part, we commit nothing.
-        final StringBuilder deleteQuery = new StringBuilder();
+    private List<T> hydrate(final List<ForkJoinTask<List<T>>> tasks,
+                            final List<Object[]> remainingRows, 
+                            final List<ColumnMapping> columnMappings, 
+                            final IdentityMap loadedEntities) throws SQLException {
+        if (tasks.isEmpty()) {
+            return hydrateChunk(remainingRows, columnMappings, loadedEntities);
+        }
         
-        deleteQuery.append(createClearCollectionsQuery());
+        final List<T> entities = new ArrayList<>(tasks.size() * hydrationChunkSize + remainingRows.size());
         
-        final Field idField = getIdField();
-        final Column columnDef = idField.getAnnotation(Column.class);
+        try {
+            final List<T> remainingEntities = hydrateChunk(remainingRows, columnMappings, loadedEntities);
+            
+            //joining the tasks in the order of the chunks keeps the order of the rows.
+            for (final ForkJoinTask<List<T>> task : tasks) {
+                entities.addAll(task.get());
+            }
+            
+            entities.addAll(remainingEntities);
+            
+        } catch (final ExecutionException e) {
+            cancelHydration(tasks);
+            
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else {
+                throw new SQLException("Cannot create new entity instance.", e.getCause());
+            }
+            
+        } catch (final InterruptedException e) {
+            cancelHydration(tasks);
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while creating the entity instances.", e);
+            
+        } catch (final RuntimeException e) {
+            cancelHydration(tasks);
+            throw e;
+        }
         
-        deleteQuery.append("delete from " + getTableName() + " where " + getTableName() + '.' + columnDef.columnName() + " = :id; ");
+        return entities;
+    }
+    
+    /**
+     * Cancels the hydration tasks, which have not started yet.
+     * 
+     * @param tasks The tasks submitted to the hydration pool.
+     */
+    private static void cancelHydration(final List<? extends ForkJoinTask<?>> tasks) {
+        tasks.forEach(task -> task.cancel(false));
+    }
+    
+    /**
+     * Creates the entities from the rows on the current thread.
+     * 
+     * @param rows The row data, already converted to the field types.
+     * @param columnMappings The mappings of the row values to the fields.
+     * @param loadedEntities The already loaded entities.
+     * @return The entities in the order of the rows.
+     * 
+     * @throws SQLException
+     */
+    private List<T> hydrateChunk(final List<Object[]> rows, 
+                                 final List<ColumnMapping> columnMappings, 
+                                 final IdentityMap loadedEntities) throws SQLException {
+        final List<T> entities = new ArrayList<>(rows.size());
         
-        final Query query = new Query(getDbConnectionProvider(), deleteQuery.toString());
-        query.addParameter("id", PropertyUtils.read(entity, idField.getName()));
+        for (final Object[] row : rows) {
+            entities.add(createEntityInstance(row, columnMappings, loadedEntities));
+        }
         
-        return query.executeUpdate();
+        return entities;
     }
     
     /**
-     * Creates the query String to clear the values of a collection of entities.
-     *
-     * @return The query string for the collection update.
+     * Publishes the entities fulfilling the query. Each subscription executes the query on the executor
+     * and reads and hydrates the rows as the subscriber requests them. The result limits do not apply,
+     * since the entities are not held by the publisher.
+     * 
+     * @param executor The executor on which the query is executed and the entities are published.
+     * @return The publisher of the entities.
+     * 
+     * @see QueryPublisher
      */
-    private String createClearCollectionsQuery() {
-        final List<Field> collectionFields = getMappedCollectionFields();
-        final StringBuilder clearCollectionsQuery = new StringBuilder();
+    public Publisher<T> publishResults(final Executor executor) {
+        final List<ColumnMapping> columnMappings = createColumnMappings();
+        final boolean distinct = isDistinct();
         
-        for (final Field collectionField : collectionFields) {
-            final CollectionOfEntities collDef = collectionField.getAnnotation(CollectionOfEntities.class);
-            final String joinTableName = getJoinTableName(collectionField);
+        return new QueryPublisher<>(createSelectQuery(), executor, () -> new QueryPublisher.RowReader<T>() {
             
-            if (!StringUtils.isBlank(joinTableName)) {
-                clearCollectionsQuery.append("delete from " + joinTableName + " where  " + joinTableName + '.' + collDef.joinColumn()+ " = :id; ");
+            private final IdentityMap loadedEntities = createLoadedEntities();
+            
+            //without distinct the rows of one entity can be returned multiple times.
+            private final Set<T> publishedEntities = distinct ? null : Collections.newSetFromMap(new IdentityHashMap<>());
+            
+            private final int[] columnIndices = new int[columnMappings.size()];
+            
+            @Override
+            public void init(final ResultSet resultSet) throws java.sql.SQLException {
+                for (int mappingIdx = 0; mappingIdx < columnIndices.length; mappingIdx++) {
+                    columnIndices[mappingIdx] = resultSet.findColumn(columnMappings.get(mappingIdx).getColumnLabel());
+                }
+            }
+            
+            @Override
+            public T read(final ResultSet resultSet) throws java.sql.SQLException {
+                final Object[] row = new Object[columnIndices.length];
                 
-            } else {
-                final Class<?> collEntityType = getCollectionEntityType(collectionField);
-                final String collEntityTable = getTableName(collEntityType);
+                for (int mappingIdx = 0; mappingIdx < columnIndices.length; mappingIdx++) {
+                    row[mappingIdx] = columnMappings.get(mappingIdx).getConverter().read(resultSet, columnIndices[mappingIdx]);
+                }
                 
-                clearCollectionsQuery.append("update " + collEntityTable + " set " + collEntityTable + '.' + collDef.joinColumn() +  " = null ")
-                                     .append("where " + collEntityTable + '.' + collDef.joinColumn() + " = :id; ");
+                final T entity = createEntityInstance(row, columnMappings, loadedEntities);
                 
+                if (isNull(publishedEntities) || publishedEntities.add(entity)) {
+                    if (nonNull(fetchPlan)) {
+                        applyFetchPlan(entityType, Collections.singletonList(entity), fetchPlan, loadedEntities);
+                    }
+                    
+                    return entity;
+                } else {
+                    return null;
+                }
             }
-        }
-        
-        return clearCollectionsQuery.toString();
+            
+        });
     }
     
     /**
-     * Creates the query for persisting the relation between an entity and the collections of entities in it.
-     *
-     * @param entity The entity with the entity collections.
-     * @return The query.
+     * Scans the entities fulfilling the query in parallel. Their ids are split into ranges of 
+     * about the same number of rows, and each range is read by a separate worker on the executor with its 
+     * own connection. The entities are passed to the consumer as they are read, so the consumer is called
+     * concurrently and must be thread-safe. The order of the entities is undefined.
+     * <p>
+     * Each worker fetches at most {@code maxRowsInFlight} rows ahead of the consumer and releases its 
+     * already loaded entities every {@code maxRowsInFlight} rows, so its memory stays bounded regardless 
+     * of the size of the table. References are thus only shared within such a batch of rows. Without 
+     * distinct (see {@link #getDistinctMode()}), an entity can be passed to the consumer more than once.
+     * </p>
+     * <p>
+     * The method returns when all workers have finished. When a worker fails, the other workers stop 
+     * and the first failure is thrown.
+     * </p>
+     * 
+     * @param partitionCount The number of id ranges to scan in parallel.
+     * @param maxRowsInFlight The number of rows a worker fetches and keeps loaded at most.
+     * @param executor The executor on which the id ranges are scanned.
+     * @param consumer Receives the entities.
+     * @return The number of scanned rows.
+     * 
+     * @throws SQLException
      */
-    @SuppressWarnings("unchecked")
-    private Query createInsertCollectionsQuery(final T entity) {
-        final List<Field> collectionFields = getMappedCollectionFields();
+    public long scan(final int partitionCount, 
+                     final int maxRowsInFlight, 
+                     final Executor executor, 
+                     final Consumer<? super T> consumer) throws SQLException {
+        if (partitionCount < 1) {
+            throw new IllegalArgumentException("The partition count must be positive.");
+        }
         
-        final StringBuilder insertCollectionsQuery = new StringBuilder();
-        final Map<String, Object> paramValues = new HashMap<>();
-        int paramIdx = 0;
+        if (maxRowsInFlight < 1) {
+            throw new IllegalArgumentException("The maximum number of rows in flight must be positive.");
+        }
         
-        for (final Field collectionField : collectionFields) {
-            final List<Object> collection = (List<Object>) PropertyUtils.read(entity, collectionField.getName());
+        Objects.requireNonNull(executor);
+        Objects.requireNonNull(consumer);
+        
+        final List<Object> boundaries = findPartitionBoundaries(partitionCount);
+        final List<ColumnMapping> columnMappings = createColumnMappings();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final List<CompletableFuture<Long>> partitions = new ArrayList<>();
+        RuntimeException failure = null;
+        
+        for (int partitionIdx = 0; partitionIdx <= boundaries.size(); partitionIdx++) {
+            final Object lowerBound = partitionIdx == 0 ? null : boundaries.get(partitionIdx - 1);
+            final Object upperBound = partitionIdx == boundaries.size() ? null : boundaries.get(partitionIdx);
+            final Query partitionQuery = createPartitionQuery(lowerBound, upperBound, maxRowsInFlight);
             
-            if (NullableUtils.check(collection, not(isEmpty()))) {
-                final CollectionOfEntities collDef = collectionField.getAnnotation(CollectionOfEntities.class);
-                final Class<?> collEntityType = getCollectionEntityType(collectionField);
-                final Field collEntityIdField = getIdField(collEntityType);
-                final String joinTableName = getJoinTableName(collectionField);
+            try {
+                partitions.add(CompletableFuture.supplyAsync(() -> scanPartition(partitionQuery, 
+                                                                                 columnMappings, 
+                                                                                 maxRowsInFlight, 
+                                                                                 cancelled, 
+                                                                                 consumer), 
+                                                             executor));
+            } catch (final RejectedExecutionException e) {
+                cancelled.set(true);
+                failure = new SQLException("Cannot scan the partitions of the table.", e);
+                break;
+            }
+        }
+        
+        //all workers are awaited, so that no connection is in use when the method returns.
+        long rowCount = 0;
+        
+        for (final CompletableFuture<Long> partition : partitions) {
+            try {
+                rowCount += partition.join();
+            } catch (final CompletionException e) {
+                cancelled.set(true);
                 
-                if (!StringUtils.isBlank(joinTableName)) {
-                    //collection is mapped with join table
-                    final StringJoiner collectionInsert = new StringJoiner(", ", 
-                                                                           "insert into " + joinTableName + 
-                                                                           '(' + collDef.joinColumn() + ',' + collDef.inverseJoinColumn() 
-                                                                           + ") values ", 
-                                                                           ";");
-                    
-                    for (final Object collEntity : collection) {
-                        final String paramName = "joinInsertPar" + (paramIdx++);
-                        collectionInsert.add("(:id, :" + paramName + ')');
-                        paramValues.put(paramName, PropertyUtils.read(collEntity, collEntityIdField.getName()));
-                    }
-                    
-                    insertCollectionsQuery.append(collectionInsert);
-                    
-                } else {
-                    //collection is mapped with simple join column
-                    final String collEntityTable = getTableName(collEntityType);
-                    
-                    final String baseUpdate = "update " + collEntityTable 
-                                                + " set " + collEntityTable + '.' + collDef.joinColumn() + " = :id "
-                                                + "where " + collEntityTable +  '.' + getIdField(collEntityType).getAnnotation(Column.class).columnName() + " = :";
-                    
-                    for (final Object collEntity : collection) {
-                        checkVersion(collEntityType, collEntity);
-                        
-                        final String paramName = "refUpdatePar" + (paramIdx++);
-                        insertCollectionsQuery.append(baseUpdate).append(paramName).append("; ");
-                        paramValues.put(paramName, PropertyUtils.read(collEntity, collEntityIdField.getName()));
+                if (isNull(failure)) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        failure = (RuntimeException) e.getCause();
+                    } else {
+                        failure = new SQLException("Cannot scan the partitions of the table.", e.getCause());
                     }
                 }
             }
         }
         
-        final Query query = new Query(getDbConnectionProvider(), insertCollectionsQuery.toString());
-        query.addParameters(paramValues);
+        if (nonNull(failure)) {
+            throw failure;
+        }
         
-        return query; 
+        return rowCount;
     }
     
     /**
-     * Executes the query returning a single entity. Throws an error when more than 
-     * one entity is found.
+     * Determines the ids splitting the entities fulfilling the query into ranges of about the same number 
+     * of rows. After counting the distinct ids, every n-th of them is sampled in one ordered pass over the 
+     * ids, numbering them with {@code rownum()}.
      * 
-     * @return The found entity.
+     * @param partitionCount The number of ranges.
+     * @return The ascending ids at which the ranges start, except for the first range; empty when 
+     *         the entities are not split.
      * 
-     * @throws SQLException  
+     * @throws SQLException
      */
-    public T getSingleResult() throws SQLException {
-        return getSingleResult(new HashMap<>());
+    private List<Object> findPartitionBoundaries(final int partitionCount) throws SQLException {
+        final String idLabel = getIdField().getAnnotation(Column.class).columnLabel();
+        final String idsQuery = "select distinct scan_ids." + idLabel + " as boundary from (" 
+                                + createSelectQuery().getQueryString() + ") scan_ids";
+        
+        final Query countQuery = createScanQuery("select count(*) as row_count from (" + idsQuery + ") scan_count");
+        final long rowCount = ((Number) countQuery.getSingleResult().getValue("row_count")).longValue();
+        
+        final List<Object> boundaries = new ArrayList<>();
+        
+        if (partitionCount > 1 && rowCount > 1) {
+            //the first id of each range is every step-th id, excluding the first one.
+            final Query boundaryQuery = createScanQuery("select scan_sample.boundary from ("
+                                                        + "select scan_ordered.boundary, rownum() as scan_row from (" 
+                                                        + idsQuery + " order by boundary) scan_ordered) scan_sample "
+                                                        + "where scan_sample.scan_row > 1 and mod(scan_sample.scan_row - 1, :scanStep) = 0 "
+                                                        + "order by scan_sample.scan_row");
+            boundaryQuery.addParameter("scanStep", (rowCount + partitionCount - 1) / partitionCount);
+            
+            for (final QueryResultRow boundaryRow : boundaryQuery.getResultList()) {
+                boundaries.add(boundaryRow.getValue("boundary"));
+            }
+        }
+        
+        return boundaries;
     }
     
     /**
-     * Executes the query returning a single entity. Throws an error when more than 
-     * one entity is found.
+     * Creates a query over the select of this query for a scan, with the parameters of this query.
      * 
-     * @param loadedEntities The already loaded entities.
-     * @return The entity fulfilling the query.
+     * @param queryString The query string, which contains the select of this query.
+     * @return The query.
+     */
+    private Query createScanQuery(final String queryString) {
+        final Query query = new Query(getDbConnectionProvider(), queryString);
+        query.addParameters(getQueryParams());
+        query.setCollectionParameterMode(getCollectionParameterMode());
+        query.setTempTableThreshold(getTempTableThreshold());
+        
+        return query;
+    }
+    
+    /**
+     * Creates the query selecting the entities fulfilling this query within an id range.
      * 
-     * @throws SQLException  
+     * @param lowerBound The inclusive lower bound of the id; {@code null} for no lower bound.
+     * @param upperBound The exclusive upper bound of the id; {@code null} for no upper bound.
+     * @param maxRowsInFlight The fetch size of the query.
+     * @return The query with the parameters of this query.
      */
-    private T getSingleResult(final Map<String, Object> loadedEntities) throws SQLException {
-        final List<T> results = getResultList(loadedEntities);
+    private Query createPartitionQuery(final Object lowerBound, final Object upperBound, final int maxRowsInFlight) {
+        final String idLabel = getIdField().getAnnotation(Column.class).columnLabel();
+        final StringJoiner conditions = new StringJoiner(" and ", " where ", "");
+        conditions.setEmptyValue("");
         
-        if (results.isEmpty()) {
-            return null;
-        } else if (results.size() > 1) {
-            throw new NonUniqueResultException("The query returned more than one result.");
-        } else {
-            return results.get(0);
+        if (nonNull(lowerBound)) {
+            conditions.add("scan_partition." + idLabel + " >= :scanLowerBound");
+        }
+        
+        if (nonNull(upperBound)) {
+            conditions.add("scan_partition." + idLabel + " < :scanUpperBound");
+        }
+        
+        final Query query = createScanQuery("select * from (" + createSelectQuery().getQueryString() + ") scan_partition" + conditions);
+        
+        if (nonNull(lowerBound)) {
+            query.addParameter("scanLowerBound", lowerBound);
+        }
+        
+        if (nonNull(upperBound)) {
+            query.addParameter("scanUpperBound", upperBound);
         }
         
+        final QueryOptions options = new QueryOptions(getOptions());
+        options.setFetchSize(maxRowsInFlight);
+        query.setOptions(options);
+        
+        return query;
     }
     
     /**
-     * Executes the query returning a list of entities.
+     * Reads the entities of an id range and passes them to the consumer.
+     * 
+     * @param query The query selecting the id range.
+     * @param columnMappings The mappings of the row values to the fields.
+     * @param maxRowsInFlight The number of rows after which the loaded entities are released.
+     * @param cancelled Set when a worker has failed; stops the other workers.
+     * @param consumer Receives the entities.
+     * @return The number of read rows.
      * 
-     * @return The entities fulfilling the query.
      * @throws SQLException
      */
-    public List<T> getResultList() throws SQLException {
-        return getResultList(new HashMap<>());
+    private long scanPartition(final Query query, 
+                               final List<ColumnMapping> columnMappings, 
+                               final int maxRowsInFlight, 
+                               final AtomicBoolean cancelled, 
+                               final Consumer<? super T> consumer) throws SQLException {
+        final QueryEvent event = new QueryEvent(query.getQueryString(), QueryType.SELECT);
+        
+        try {
+            query.executeQuery(event, resultSet -> {
+                final int[] columnIndices = new int[columnMappings.size()];
+                
+                for (int mappingIdx = 0; mappingIdx < columnIndices.length; mappingIdx++) {
+                    columnIndices[mappingIdx] = resultSet.findColumn(columnMappings.get(mappingIdx).getColumnLabel());
+                }
+                
+                final IdentityMap loadedEntities = new IdentityMap();
+                long rowCount = 0;
+                
+                while (!cancelled.get() && resultSet.next()) {
+                    final Object[] row = new Object[columnIndices.length];
+                    
+                    for (int mappingIdx = 0; mappingIdx < columnIndices.length; mappingIdx++) {
+                        row[mappingIdx] = columnMappings.get(mappingIdx).getConverter().read(resultSet, columnIndices[mappingIdx]);
+                    }
+                    
+                    if (rowCount % maxRowsInFlight == 0) {
+                        loadedEntities.clear();
+                    }
+                    
+                    final T entity = createEntityInstance(row, columnMappings, loadedEntities);
+                    
+                    if (nonNull(fetchPlan)) {
+                        applyFetchPlan(entityType, Collections.singletonList(entity), fetchPlan, loadedEntities);
+                    }
+                    
+                    consumer.accept(entity);
+                    rowCount++;
+                }
+                
+                return rowCount;
+            });
+            
+            return event.getRowCount();
+            
+        } catch (final RuntimeException e) {
+            event.setFailure(e);
+            cancelled.set(true);
+            throw e;
+        } finally {
+            fireQueryEvent(event);
+        }
     }
     
     /**
-     * Executes the query returning a list of entities.
-     * 
-     * @param loadedEntities The already loaded entities.
-     * @return The entities fulfilling the query.
+     * Creates the plain query selecting the mapped columns of the entities fulfilling this query.
      * 
-     * @throws SQLException
+     * @return The query with the parameters of this query.
      */
-    private List<T> getResultList(final Map<String, Object> loadedEntities) throws SQLException {
+    protected Query createSelectQuery() {
         final String queryString;
         
         if (!StringUtils.isEmpty(getQueryString())) {
@@ -461,117 +1922,202 @@ public class TypedQuery<T> extends AbstractQuery {
             queryString = buildSelectAll().toString();
         }
         
-        //use classic query
         final Query query = new Query(getDbConnectionProvider(), queryString);
         query.addParameters(getQueryParams());
+        query.setCollectionParameterMode(getCollectionParameterMode());
+        query.setTempTableThreshold(getTempTableThreshold());
+        query.setOptions(getOptions());
         
-        final QueryResult queryResults = query.getResultList();
+        if (nonNull(parsedSelect) && parsedSelect.getQueryString().equals(queryString)) {
+            query.setParsedQuery(parsedSelect);
+        }
         
-        //map query result to entities.
-        final List<T> resultList = new ArrayList<>(queryResults.size());
+        return query;
+    }
+    
+    /**
+     * Determines the columns to read for the mapped simple fields and the converters 
+     * with which to read them. References to other entities are read with the converter
+     * for the id type of the referenced entity.
+     * 
+     * @return The mappings in the order of the mapped fields.
+     */
+    private List<ColumnMapping> createColumnMappings() {
+        final List<Field> simpleFields = getMappedSimpleFields();
+        final List<ColumnMapping> columnMappings = new ArrayList<>(simpleFields.size());
         
-        for (final QueryResultRow row : queryResults) {
-            final T entity = createEntityInstance(row, loadedEntities);
-            resultList.add(entity);
+        for (final Field simpleField : simpleFields) {
+            final Class<?> fieldType = simpleField.getType();
+            final ValueConverter<?> converter;
+            
+            if (fieldType.isAnnotationPresent(Entity.class)) {
+                converter = ValueConverters.getConverter(getIdField(fieldType).getType());
+            } else {
+                converter = ValueConverters.getConverter(fieldType);
+            }
+            
+            simpleField.setAccessible(true);
+            columnMappings.add(new ColumnMapping(simpleField, converter));
         }
         
-        return resultList;
+        return columnMappings;
     }
     
     /**
      * Creates a new entity instance from the row data.
      * 
-     * @param row The row data.
+     * @param row The row data, already converted to the field types.
+     * @param columnMappings The mappings of the row values to the fields.
      * @param loadedEntities The already loaded entities.
      * @return The entity instance.
      * 
      * @throws SQLException
      */
-    @SuppressWarnings("unchecked")
-    private T createEntityInstance(final QueryResultRow row, 
-                                   final Map<String, Object> loadedEntities) throws SQLException {
-        try {
-            //use existing instance when already loaded.
-            final Field idField = getIdField();
-            idField.setAccessible(true);
-            final Object entityId = row.getValue(idField.getAnnotation(Column.class).columnLabel());
-            
-            if (loadedEntities.containsKey(entityType.getName() + ':' + entityId)) {
-                return (T) loadedEntities.get(entityType.getName() + ':' + entityId);
-            }
-            
-            //actually create the instance.
-            final List<Field> simpleFields = getMappedSimpleFields();
-            final List<Field> collectionFields = getMappedCollectionFields();
-            
-            //put in loaded entities before doing anything else to handle circular references
-            final T entity = ClassUtils.createObject(entityType);
-            idField.set(entity, entityId);
-            loadedEntities.put(entityType.getName() + ':' + entityId, entity);  
+    @SuppressWarnings("unchecked")
+    private T createEntityInstance(final Object[] row, 
+                                   final List<ColumnMapping> columnMappings,
+                                   final IdentityMap loadedEntities) throws SQLException {
+        try {
+            //use existing instance when already loaded.
+            final Field idField = getIdField();
+            idField.setAccessible(true);
+            final Object entityId = row[indexOfField(columnMappings, idField)];
+            
+            final Object loadedEntity = loadedEntities.get(entityType, entityId);
+            
+            if (nonNull(loadedEntity)) {
+                return (T) loadedEntity;
+            }
+            
+            //actually create the instance. put in loaded entities before doing anything else to handle circular references
+            final T entity = ClassUtils.createObject(entityType);
+            idField.set(entity, entityId);
+            
+            //when rows are hydrated in parallel, another thread may have created the entity in the meantime.
+            final Object concurrentEntity = loadedEntities.putIfAbsent(entityType, entityId, entity);
+            
+            if (nonNull(concurrentEntity)) {
+                return (T) concurrentEntity;
+            }
+            
+            try {
+                hydrateEntity(entity, entityId, row, columnMappings, loadedEntities);
+                
+            } catch (final RuntimeException e) {
+                //the incomplete entity must not be returned by later loads.
+                loadedEntities.remove(entityType, entityId, entity);
+                throw e;
+            }
+            
+            return entity;
+            
+        } catch (final IllegalAccessException e) {
+            throw new SQLException("Cannot create new entity instance.", e);
+        }
+    }
+    
+    /**
+     * Sets the fields of a new entity instance, which is already held by the loaded entities.
+     * 
+     * @param entity The entity.
+     * @param entityId The id of the entity.
+     * @param row The row data, already converted to the field types.
+     * @param columnMappings The mappings of the row values to the fields.
+     * @param loadedEntities The already loaded entities.
+     * 
+     * @throws SQLException
+     */
+    private void hydrateEntity(final T entity,
+                               final Object entityId,
+                               final Object[] row, 
+                               final List<ColumnMapping> columnMappings,
+                               final IdentityMap loadedEntities) throws SQLException {
+        final List<Field> collectionFields = getMappedCollectionFields();
+        
+        //simple fields
+        for (int mappingIdx = 0; mappingIdx < columnMappings.size(); mappingIdx++) {
+            final Field simpleField = columnMappings.get(mappingIdx).getField();
+            final Class<?> fieldType = simpleField.getType();
+            final Object value = row[mappingIdx];
             
-            //simple fields
-            for (final Field simpleField : simpleFields) {
-                final Class<?> fieldType = simpleField.getType();
-                final String columnLabel = simpleField.getAnnotation(Column.class).columnLabel();
-                simpleField.setAccessible(true);
-                
-                final Object rawValue = row.getValue(columnLabel);
-                
-                if (fieldType.isEnum()) {
-                    //enum fields
-                    PropertyUtils.write(entity, simpleField.getName(), convertToEnumValue(rawValue, fieldType));
-                    
-                } else if (NullableUtils.check(rawValue, () -> fieldType.isAnnotationPresent(Entity.class))) {
-                    //field is another entity. load it
-                    Object referencedEntity = load(fieldType, rawValue, loadedEntities);
-                    
-                    if (isNull(referencedEntity)) {
-                        throw new SQLException("Entity not found: " + entityType + ':' + entityId);
-                    }
-                    
-                    PropertyUtils.write(entity, simpleField.getName(), referencedEntity);
-                    
-                } else {
-                    //field is a "simple type" or null-entity-reference. just assign
-                    //TODO should we make an effort to map value to the correct type?
-                    PropertyUtils.write(entity, simpleField.getName(), rawValue);
-                }
+            if (nonNull(fetchPlan) && NullableUtils.check(value, () -> fieldType.isAnnotationPresent(Entity.class))) {
+                //the fetch plan loads the reference afterwards. until then it is a stub, unless already loaded.
+                final Object referencedEntity = loadedEntities.get(fieldType, value);
                 
-            }
-            
-            //collection fields
-            for (final Field collectionField : collectionFields) {
-                final Class<?> collectionEntityType = getCollectionEntityType(collectionField);
+                PropertyUtils.write(entity, simpleField.getName(), nonNull(referencedEntity) ? referencedEntity : createStub(fieldType, value));
                 
-                final CollectionOfEntities collDef = collectionField.getAnnotation(CollectionOfEntities.class);
-                final String collectionQuerySuffix;
-                final String collEntityTable = getTableName(collectionEntityType);
-                final String joinTableName = getJoinTableName(collectionField);
+            } else if (NullableUtils.check(value, () -> fieldType.isAnnotationPresent(Entity.class))) {
+                //field is another entity. load it
+                Object referencedEntity = load(fieldType, value, loadedEntities);
                 
-                if (!StringUtils.isBlank(joinTableName)) {
-                    final Field collIdField = getIdField(collectionEntityType);
-                    
-                    collectionQuerySuffix = "join " + joinTableName + ' ' + joinTableName 
-                                            + " on " + joinTableName + '.' + collDef.inverseJoinColumn()
-                                            + " = " + collEntityTable + '.' + collIdField.getAnnotation(Column.class).columnName()
-                                            + " where " + joinTableName + '.' + collDef.joinColumn() + " = :id ";
-                } else {
-                    collectionQuerySuffix = " where " + collEntityTable + '.' + collDef.joinColumn() + " = :id ";
+                if (isNull(referencedEntity)) {
+                    throw new SQLException("Entity not found: " + entityType + ':' + entityId);
                 }
                 
-                final TypedQuery<?> collectionQuery = new TypedQuery<>(getDbConnectionProvider(), collectionQuerySuffix, collectionEntityType);
-                collectionQuery.addParameter("id", entityId);
+                PropertyUtils.write(entity, simpleField.getName(), referencedEntity);
+                
+            } else if (isNull(value) && fieldType.isPrimitive()) {
+                //NULL cannot be assigned to primitives. keep the default value.
                 
-                final List<?> collectionEntities = collectionQuery.getResultList(loadedEntities);
+            } else {
+                //value is already converted to the field type, or null-entity-reference. just assign
+                PropertyUtils.write(entity, simpleField.getName(), value);
+            }
+            
+        }
+        
+        //collection fields. the fetch plan loads them afterwards.
+        for (final Field collectionField : collectionFields) {
+            if (nonNull(fetchPlan)) {
+                PropertyUtils.write(entity, collectionField.getName(), null);
+                UnloadedCollections.markUnloaded(entity, collectionField.getName());
+                continue;
+            }
+            
+            final Class<?> collectionEntityType = getCollectionEntityType(collectionField);
+            
+            final CollectionOfEntities collDef = collectionField.getAnnotation(CollectionOfEntities.class);
+            final String collectionQuerySuffix;
+            final String collEntityTable = getTableName(collectionEntityType);
+            final String joinTableName = getJoinTableName(collectionField);
+            
+            if (!StringUtils.isBlank(joinTableName)) {
+                final Field collIdField = getIdField(collectionEntityType);
                 
-                PropertyUtils.write(entity, collectionField.getName(), collectionEntities);
+                collectionQuerySuffix = "join " + joinTableName + ' ' + joinTableName 
+                                        + " on " + joinTableName + '.' + collDef.inverseJoinColumn()
+                                        + " = " + collEntityTable + '.' + collIdField.getAnnotation(Column.class).columnName()
+                                        + " where " + joinTableName + '.' + collDef.joinColumn() + " = :id ";
+            } else {
+                collectionQuerySuffix = " where " + collEntityTable + '.' + collDef.joinColumn() + " = :id ";
             }
             
-            return entity;
+            final TypedQuery<?> collectionQuery = new TypedQuery<>(getDbConnectionProvider(), collectionQuerySuffix, collectionEntityType);
+            collectionQuery.addParameter("id", entityId);
             
-        } catch (final IllegalAccessException e) {
-            throw new SQLException("Cannot create new entity instance.", e);
+            final List<?> collectionEntities = collectionQuery.getResultList(loadedEntities);
+            
+            PropertyUtils.write(entity, collectionField.getName(), collectionEntities);
+        }
+    }
+    
+    /**
+     * Determines the index of the mapping for the field.
+     * 
+     * @param columnMappings The mappings.
+     * @param field The field.
+     * @return The index.
+     * 
+     * @throws SQLException When the field is not mapped.
+     */
+    private int indexOfField(final List<ColumnMapping> columnMappings, final Field field) throws SQLException {
+        for (int mappingIdx = 0; mappingIdx < columnMappings.size(); mappingIdx++) {
+            if (columnMappings.get(mappingIdx).getField().equals(field)) {
+                return mappingIdx;
+            }
         }
+        
+        throw new SQLException("Field is not mapped to a column: " + field);
     }
     
     /**
@@ -607,6 +2153,42 @@ public class TypedQuery<T> extends AbstractQuery {
         return collectionEntityType;
     }
     
+    /**
+     * The entity types, whose rows are referenced by the rows of this query's entity type, i.e. the types
+     * of the fields referencing other entities.
+     * 
+     * @return The referenced types.
+     */
+    protected Set<Class<?>> getReferencedEntityTypes() {
+        final Set<Class<?>> referencedTypes = new LinkedHashSet<>();
+        
+        for (final Field simpleField : getMappedSimpleFields()) {
+            if (simpleField.getType().isAnnotationPresent(Entity.class)) {
+                referencedTypes.add(simpleField.getType());
+            }
+        }
+        
+        return referencedTypes;
+    }
+    
+    /**
+     * The entity types, whose rows reference the rows of this query's entity type via the join column
+     * of a collection without join table.
+     * 
+     * @return The referencing types.
+     */
+    protected Set<Class<?>> getReferencingEntityTypes() {
+        final Set<Class<?>> referencingTypes = new LinkedHashSet<>();
+        
+        for (final Field collectionField : getMappedCollectionFields()) {
+            if (StringUtils.isBlank(getJoinTableName(collectionField))) {
+                referencingTypes.add(getCollectionEntityType(collectionField));
+            }
+        }
+        
+        return referencingTypes;
+    }
+    
     /**
      * Loads the entity with the given id.
      * 
@@ -616,7 +2198,7 @@ public class TypedQuery<T> extends AbstractQuery {
      * @throws SQLException
      */
     public T load(final Object entityId) throws SQLException {
-        return load(entityId, new HashMap<>());
+        return load(entityId, createLoadedEntities());
     }
     
     /**
@@ -628,13 +2210,14 @@ public class TypedQuery<T> extends AbstractQuery {
      * 
      * @throws SQLException
      */
-    private T load(final Object entityId, final Map<String, Object> loadedEntities) throws SQLException {
+    private T load(final Object entityId, final IdentityMap loadedEntities) throws SQLException {
         final Field idField = getIdField();
         final Column columnDef = idField.getAnnotation(Column.class);
         
         final String querySuffix = "where " + getTableName() + '.' + columnDef.columnName() + " = :id";
         
         final TypedQuery<T> loadQuery = new TypedQuery<>(getDbConnectionProvider(), querySuffix, entityType);
+        loadQuery.fetchPlan = fetchPlan;
         loadQuery.addParameter("id", entityId);
         
         return loadQuery.getSingleResult(loadedEntities);
@@ -650,8 +2233,8 @@ public class TypedQuery<T> extends AbstractQuery {
      * 
      * @throws SQLException
      */
-    private Object load(final Class<?> entityType, final Object entityId, final Map<String, Object> loadedEntities) throws SQLException {
-        Object loadedEntity = loadedEntities.get(entityType.getName() + ':' + entityId);
+    private Object load(final Class<?> entityType, final Object entityId, final IdentityMap loadedEntities) throws SQLException {
+        Object loadedEntity = loadedEntities.get(entityType, entityId);
         
         if (isNull(loadedEntity)) {
             final TypedQuery<?> query = new TypedQuery<>(getDbConnectionProvider(), null, entityType);
@@ -662,15 +2245,286 @@ public class TypedQuery<T> extends AbstractQuery {
     }
     
     /**
-     * Converts the object value to an enum value.
+     * Creates an entity of which only the id is set.
+     * 
+     * @param entityType The entity type.
+     * @param entityId The id.
+     * @return The stub.
+     * 
+     * @throws SQLException
+     */
+    private Object createStub(final Class<?> entityType, final Object entityId) throws SQLException {
+        final Object stub = ClassUtils.createObject(entityType);
+        PropertyUtils.write(stub, getIdField(entityType).getName(), entityId);
+        
+        return stub;
+    }
+    
+    /**
+     * Loads the references and collections of the fetch plan for the entities.
+     * 
+     * @param type The type of the entities.
+     * @param entities The entities.
+     * @param plan The fetch plan for the entities.
+     * @param loadedEntities The already loaded entities.
+     * 
+     * @throws SQLException
+     */
+    private void applyFetchPlan(final Class<?> type, 
+                                final Collection<?> entities, 
+                                final FetchPlan plan, 
+                                final IdentityMap loadedEntities) throws SQLException {
+        for (final Entry<String, FetchPlan> fieldPlan : plan.getFieldPlans().entrySet()) {
+            final Field field = getFetchableField(type, fieldPlan.getKey());
+            final Class<?> fetchedType;
+            final Set<Object> fetchedEntities;
+            
+            if (field.isAnnotationPresent(CollectionOfEntities.class)) {
+                fetchedType = getCollectionEntityType(field);
+                fetchedEntities = fetchCollections(type, field, entities, loadedEntities);
+            } else {
+                fetchedType = field.getType();
+                fetchedEntities = fetchReferences(field, entities, loadedEntities);
+            }
+            
+            if (!fieldPlan.getValue().getFieldPlans().isEmpty() && !fetchedEntities.isEmpty()) {
+                applyFetchPlan(fetchedType, fetchedEntities, fieldPlan.getValue(), loadedEntities);
+            }
+        }
+    }
+    
+    /**
+     * Replaces the stubs in a reference field of the entities with the loaded entities. The missing 
+     * entities are loaded with one query per chunk of ids.
+     * 
+     * @param field The reference field.
+     * @param entities The entities with the field.
+     * @param loadedEntities The already loaded entities.
+     * @return The referenced entities.
+     * 
+     * @throws SQLException
+     */
+    private Set<Object> fetchReferences(final Field field, 
+                                        final Collection<?> entities, 
+                                        final IdentityMap loadedEntities) throws SQLException {
+        final Class<?> referencedType = field.getType();
+        final Field referencedIdField = getIdField(referencedType);
+        final Set<Object> missingIds = new LinkedHashSet<>();
+        
+        for (final Object entity : entities) {
+            final Object referencedEntity = PropertyUtils.read(entity, field.getName());
+            
+            if (nonNull(referencedEntity)) {
+                final Object referencedId = PropertyUtils.read(referencedEntity, referencedIdField.getName());
+                
+                if (!loadedEntities.contains(referencedType, referencedId)) {
+                    missingIds.add(referencedId);
+                }
+            }
+        }
+        
+        final String querySuffix = "where " + getTableName(referencedType) + '.' 
+                                   + referencedIdField.getAnnotation(Column.class).columnName() + " in :ids";
+        
+        for (final List<Object> idChunk : ListUtils.split(new ArrayList<>(missingIds), COLLECTION_CHUNK_SIZE)) {
+            final TypedQuery<?> query = new TypedQuery<>(getDbConnectionProvider(), querySuffix, referencedType);
+            query.fetchPlan = new FetchPlan();
+            query.addParameter("ids", idChunk);
+            query.getResultList(loadedEntities);
+        }
+        
+        final Set<Object> referencedEntities = Collections.newSetFromMap(new IdentityHashMap<>());
+        
+        for (final Object entity : entities) {
+            final Object referencedEntity = PropertyUtils.read(entity, field.getName());
+            
+            if (nonNull(referencedEntity)) {
+                final Object referencedId = PropertyUtils.read(referencedEntity, referencedIdField.getName());
+                final Object loadedEntity = loadedEntities.get(referencedType, referencedId);
+                
+                if (isNull(loadedEntity)) {
+                    throw new SQLException("Entity not found: " + referencedType + ':' + referencedId);
+                }
+                
+                PropertyUtils.write(entity, field.getName(), loadedEntity);
+                referencedEntities.add(loadedEntity);
+            }
+        }
+        
+        return referencedEntities;
+    }
+    
+    /**
+     * Loads a collection field of the entities, for which it is not loaded yet ({@code null}). The 
+     * collections are loaded with one query per chunk of owner ids.
+     * 
+     * @param type The type of the entities.
+     * @param field The collection field.
+     * @param entities The entities with the field.
+     * @param loadedEntities The already loaded entities.
+     * @return The elements of the collections of all entities.
+     * 
+     * @throws SQLException
+     */
+    private Set<Object> fetchCollections(final Class<?> type, 
+                                         final Field field, 
+                                         final Collection<?> entities, 
+                                         final IdentityMap loadedEntities) throws SQLException {
+        final Field idField = getIdField(type);
+        final Set<Object> ownerIds = new LinkedHashSet<>();
+        
+        for (final Object entity : entities) {
+            if (isNull(PropertyUtils.read(entity, field.getName()))) {
+                ownerIds.add(PropertyUtils.read(entity, idField.getName()));
+            }
+        }
+        
+        final Class<?> collectionEntityType = getCollectionEntityType(field);
+        final CollectionOfEntities collDef = field.getAnnotation(CollectionOfEntities.class);
+        final String collEntityTable = getTableName(collectionEntityType);
+        final String joinTableName = getJoinTableName(field);
+        final String collectionQuerySuffix;
+        final String ownerColumn;
+        
+        if (!StringUtils.isBlank(joinTableName)) {
+            final Field collIdField = getIdField(collectionEntityType);
+            
+            collectionQuerySuffix = "join " + joinTableName + ' ' + joinTableName 
+                                    + " on " + joinTableName + '.' + collDef.inverseJoinColumn()
+                                    + " = " + collEntityTable + '.' + collIdField.getAnnotation(Column.class).columnName()
+                                    + " where " + joinTableName + '.' + collDef.joinColumn() + " in :ids ";
+            ownerColumn = joinTableName + '.' + collDef.joinColumn();
+        } else {
+            collectionQuerySuffix = " where " + collEntityTable + '.' + collDef.joinColumn() + " in :ids ";
+            ownerColumn = collEntityTable + '.' + collDef.joinColumn();
+        }
+        
+        final Map<Object, List<Object>> collections = new HashMap<>();
+        
+        for (final List<Object> idChunk : ListUtils.split(new ArrayList<>(ownerIds), COLLECTION_CHUNK_SIZE)) {
+            final TypedQuery<?> collectionQuery = new TypedQuery<>(getDbConnectionProvider(), collectionQuerySuffix, collectionEntityType);
+            collectionQuery.fetchPlan = new FetchPlan();
+            collectionQuery.ownerColumn = ownerColumn;
+            collectionQuery.addParameter("ids", idChunk);
+            collections.putAll(collectionQuery.getResultListByOwner(ValueConverters.getConverter(idField.getType()), loadedEntities));
+        }
+        
+        final Set<Object> collectionEntities = Collections.newSetFromMap(new IdentityHashMap<>());
+        
+        for (final Object entity : entities) {
+            Collection<?> collection = (Collection<?>) PropertyUtils.read(entity, field.getName());
+            
+            if (isNull(collection)) {
+                final Object entityId = PropertyUtils.read(entity, idField.getName());
+                collection = collections.getOrDefault(entityId, new ArrayList<>());
+                PropertyUtils.write(entity, field.getName(), collection);
+            }
+            
+            collectionEntities.addAll(collection);
+        }
+        
+        return collectionEntities;
+    }
+    
+    /**
+     * Executes the query as a select query, which selects the owner ids of the entities in 
+     * addition (see {@link #ownerColumn}).
+     * 
+     * @param ownerIdConverter Reads the owner ids.
+     * @param loadedEntities The already loaded entities.
+     * @return The entities by owner id.
+     * 
+     * @throws SQLException
+     */
+    private Map<Object, List<Object>> getResultListByOwner(final ValueConverter<?> ownerIdConverter, 
+                                                           final IdentityMap loadedEntities) throws SQLException {
+        final Query query = createSelectQuery();
+        final QueryEvent event = new QueryEvent(query.getQueryString(), QueryType.SELECT);
+        
+        try {
+            final List<ColumnMapping> columnMappings = createColumnMappings();
+            final List<Object[]> rows = new ArrayList<>();
+            final List<Object> ownerIds = new ArrayList<>();
+            
+            query.executeQuery(event, resultSet -> {
+                final int[] columnIndices = new int[columnMappings.size()];
+                
+                for (int mappingIdx = 0; mappingIdx < columnIndices.length; mappingIdx++) {
+                    columnIndices[mappingIdx] = resultSet.findColumn(columnMappings.get(mappingIdx).getColumnLabel());
+                }
+                
+                final int ownerIdIndex = resultSet.findColumn(FETCH_OWNER_LABEL);
+                final int previousRowCount = rows.size();
+                
+                while (resultSet.next()) {
+                    final Object[] row = new Object[columnIndices.length];
+                    
+                    for (int mappingIdx = 0; mappingIdx < columnIndices.length; mappingIdx++) {
+                        row[mappingIdx] = columnMappings.get(mappingIdx).getConverter().read(resultSet, columnIndices[mappingIdx]);
+                    }
+                    
+                    rows.add(row);
+                    ownerIds.add(ownerIdConverter.read(resultSet, ownerIdIndex));
+                }
+                
+                return rows.size() - previousRowCount;
+            });
+            
+            final long hydrateStart = System.nanoTime();
+            final List<T> entities = hydrateChunk(rows, columnMappings, loadedEntities);
+            final Map<Object, List<Object>> entitiesByOwner = new HashMap<>();
+            
+            for (int rowIdx = 0; rowIdx < entities.size(); rowIdx++) {
+                entitiesByOwner.computeIfAbsent(ownerIds.get(rowIdx), ownerId -> new ArrayList<>()).add(entities.get(rowIdx));
+            }
+            
+            event.addHydrateNanos(System.nanoTime() - hydrateStart);
+            
+            return entitiesByOwner;
+            
+        } catch (final RuntimeException e) {
+            event.setFailure(e);
+            throw e;
+        } finally {
+            fireQueryEvent(event);
+        }
+    }
+    
+    /**
+     * Determines the reference or collection field of an entity type, which can be fetched.
+     * 
+     * @param entityType The entity type.
+     * @param fieldName The name of the field.
+     * @return The field.
+     * 
+     * @throws IllegalArgumentException When the field is no reference or collection field.
+     */
+    private Field getFetchableField(final Class<?> entityType, final String fieldName) {
+        for (final Field field : ClassUtils.getAllFields(entityType)) {
+            if (field.getName().equals(fieldName)
+                    && (field.isAnnotationPresent(CollectionOfEntities.class) 
+                        || (field.isAnnotationPresent(Column.class) && field.getType().isAnnotationPresent(Entity.class)))) {
+                return field;
+            }
+        }
+        
+        throw new IllegalArgumentException("No reference or collection field '" + fieldName + "' in: " + entityType);
+    }
+    
+    /**
+     * Checks, if the select is distinct according to the {@link #getDistinctMode() distinct mode}.
      * 
-     * @param value The value to convert.
-     * @param enumType The enum type.
-     * @return The converted value.
+     * @return {@code true} when the select is distinct.
      */
-    @SuppressWarnings({ "rawtypes", "unchecked" })
-    private Enum convertToEnumValue(final Object value, final Class<?> enumType) {
-        return NullableUtils.retrieve(value, enumVal -> Enum.valueOf((Class<Enum>) enumType, enumVal.toString()));
+    private boolean isDistinct() {
+        switch (distinctMode) {
+            case ALWAYS:
+                return true;
+            case NEVER:
+                return false;
+            default:
+                return nonNull(getQueryString()) && JOIN_PATTERN.matcher(getQueryString()).find();
+        }
     }
     
     /**
@@ -684,13 +2538,17 @@ public class TypedQuery<T> extends AbstractQuery {
         final String tableName = getTableName();
         final String alias = StringUtils.isBlank(entityAlias) ? tableName : entityAlias;
         
-        final StringJoiner select = new StringJoiner(", ", "select distinct ", " ");
+        final StringJoiner select = new StringJoiner(", ", isDistinct() ? "select distinct " : "select ", " ");
         
         for (final Field mappedField : mappedFields) {
             final Column columnDef = mappedField.getAnnotation(Column.class);
             select.add(alias + '.' + columnDef.columnName() + " as " + columnDef.columnLabel());
         }
         
+        if (nonNull(ownerColumn)) {
+            select.add(ownerColumn + " as " + FETCH_OWNER_LABEL);
+        }
+        
         final StringBuilder query = new StringBuilder();
         
         query.append(select)
@@ -735,6 +2593,102 @@ public class TypedQuery<T> extends AbstractQuery {
         }
     }
     
+    /**
+     * Checks that the versions of the entities match those in the database with a single query.
+     * 
+     * @param entityType The type of the entities.
+     * @param entities The entities to check.
+     * 
+     * @throws StaleEntityException When the version of an entity has changed, or an entity does not exist
+     *                              in the database.
+     */
+    protected void checkVersions(final Class<?> entityType, final List<?> entities) {
+        final Field versionField = getVersionField(entityType);
+        final Field idField = getIdField(entityType);
+        
+        final List<Object> entityIds = ListUtils.map(entities, entity -> PropertyUtils.read(entity, idField.getName()));
+        final Map<Object, Object> databaseVersions = readDatabaseVersions(entityType, entityIds);
+        
+        for (int entityIdx = 0; entityIdx < entities.size(); entityIdx++) {
+            final Object entityId = entityIds.get(entityIdx);
+            final Object entityVersion = PropertyUtils.read(entities.get(entityIdx), versionField.getName());
+            
+            if (!databaseVersions.containsKey(entityId) || !isSameVersion(databaseVersions.get(entityId), entityVersion)) {
+                throw new StaleEntityException("The entity version has changed in the database: " + entityType.getName() + ":" + entityId);
+            }
+        }
+    }
+    
+    /**
+     * Determines the entities, whose versions match those in the database, with a single query.
+     * 
+     * @param entities The entities of this query's type.
+     * @return The entities with matching versions.
+     */
+    protected List<T> filterCurrentEntities(final List<T> entities) {
+        final Field idField = getIdField();
+        final Field versionField = getVersionField();
+        final Map<Object, Object> databaseVersions = readDatabaseVersions(entityType, 
+                                                                          ListUtils.map(entities, entity -> PropertyUtils.read(entity, idField.getName())));
+        
+        final List<T> currentEntities = new ArrayList<>();
+        
+        for (final T entity : entities) {
+            final Object entityId = PropertyUtils.read(entity, idField.getName());
+            
+            if (databaseVersions.containsKey(entityId) 
+                    && isSameVersion(databaseVersions.get(entityId), PropertyUtils.read(entity, versionField.getName()))) {
+                currentEntities.add(entity);
+            }
+        }
+        
+        return currentEntities;
+    }
+    
+    /**
+     * Reads the versions of entities from the database with a single query.
+     * 
+     * @param entityType The type of the entities.
+     * @param entityIds The ids of the entities.
+     * @return The versions by entity id; entities which do not exist are missing.
+     */
+    private Map<Object, Object> readDatabaseVersions(final Class<?> entityType, final List<Object> entityIds) {
+        final String tableName = getTableName(entityType);
+        final Column versionColumn = getVersionField(entityType).getAnnotation(Column.class);
+        final Column idColumn = getIdField(entityType).getAnnotation(Column.class);
+        
+        final String versionQuery = "select " + tableName + '.' + idColumn.columnName() 
+                                        + ", " + tableName + '.' + versionColumn.columnName() 
+                                        + " from " + tableName
+                                        + " where " + tableName + '.' + idColumn.columnName() + " in :ids";
+        
+        final Query query = new Query(getDbConnectionProvider(), versionQuery);
+        query.addParameter("ids", entityIds);
+        
+        final Map<Object, Object> databaseVersions = new HashMap<>();
+        
+        for (final QueryResultRow row : query.getResultList()) {
+            databaseVersions.put(row.getValue(0), row.getValue(1));
+        }
+        
+        return databaseVersions;
+    }
+    
+    /**
+     * Compares versions independent of the numeric type in which they are represented.
+     * 
+     * @param databaseVersion The version in the database.
+     * @param entityVersion The version of the entity.
+     * @return {@code true} when the versions are the same.
+     */
+    private boolean isSameVersion(final Object databaseVersion, final Object entityVersion) {
+        if (databaseVersion instanceof Number && entityVersion instanceof Number) {
+            return ((Number) databaseVersion).longValue() == ((Number) entityVersion).longValue();
+        } else {
+            return Objects.equals(databaseVersion, entityVersion);
+        }
+    }
+    
     /**
      * Determines the field which represents the entity id for this query's entity type.
      * 
@@ -844,5 +2798,70 @@ public class TypedQuery<T> extends AbstractQuery {
         return entityType.getAnnotation(Entity.class).table();
     }
     
+    /**
+     * The references and collections to load for an entity type.
+     */
+    private static class FetchPlan {
+        
+        /**
+         * The fetched fields with the plans for the types of the fields.
+         */
+        private final Map<String, FetchPlan> fieldPlans = new LinkedHashMap<>();
+        
+        /**
+         * The fetched fields with the plans for the types of the fields.
+         */
+        public Map<String, FetchPlan> getFieldPlans() {
+            return fieldPlans;
+        }
+        
+    }
+    
+    /**
+     * The mapping of a result column to a simple field.
+     */
+    private static class ColumnMapping {
+        
+        /**
+         * The field to which the value is written.
+         */
+        private final Field field;
+        
+        /**
+         * The converter reading the column value.
+         */
+        private final ValueConverter<?> converter;
+        
+        /**
+         * @param field The field to which the value is written.
+         * @param converter The converter reading the column value.
+         */
+        public ColumnMapping(final Field field, final ValueConverter<?> converter) {
+            this.field = field;
+            this.converter = converter;
+        }
+        
+        /**
+         * The field to which the value is written.
+         */
+        public Field getField() {
+            return field;
+        }
+        
+        /**
+         * The label of the column in the result.
+         */
+        public String getColumnLabel() {
+            return field.getAnnotation(Column.class).columnLabel();
+        }
+        
+        /**
+         * The converter reading the column value.
+         */
+        public ValueConverter<?> getConverter() {
+            return converter;
+        }
+        
+    }
     
 }
@@ -0,0 +1,534 @@
+package org.ormfux.common.db.query;
+
+import static org.ormfux.common.utils.NullableUtils.isNull;
+import static org.ormfux.common.utils.NullableUtils.nonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.ormfux.common.db.exception.SQLException;
+import org.ormfux.common.utils.ListUtils;
+
+/**
+ * Collects the writes of its queries ({@link TypedQuery#update(Object)} and {@link TypedQuery#delete(Object)})
+ * and executes them together when it is flushed. The statements are ordered by table, so that the
+ * statements of a table with the same structure are executed as one JDBC batch, and by the foreign key
+ * dependencies between the entity types (references to other entities and collections mapped with a join
+ * column):
+ * <ol>
+ * <li>inserts, referenced tables first,</li>
+ * <li>updates, referenced tables first,</li>
+ * <li>clearing the collections of updated and deleted entities,</li>
+ * <li>filling the collections of inserted and updated entities,</li>
+ * <li>deletes, referencing tables first.</li>
+ * </ol>
+ * Mixed writes of many entities thereby need a round trip per table and statement structure instead of
+ * one per entity. The state of the entities is read when the unit of work is flushed, so an entity is written
+ * only once, even when it is updated multiple times.
+ * <p>
+ * A unit of work is not thread-safe.
+ * </p>
+ */
+public class UnitOfWork {
+    
+    /**
+     * The manager creating the queries.
+     */
+    private final QueryManager queryManager;
+    
+    /**
+     * The pending writes by entity instance.
+     */
+    private final Map<Object, PendingWrite<?>> pendingWrites = new IdentityHashMap<>();
+    
+    /**
+     * The sequence number of the next registered write.
+     */
+    private long nextSequence;
+    
+    /**
+     * Creates a new unit of work.
+     * 
+     * @param queryManager The manager creating the queries.
+     */
+    protected UnitOfWork(final QueryManager queryManager) {
+        this.queryManager = Objects.requireNonNull(queryManager);
+    }
+    
+    /**
+     * Creates a new "select all" query for the entity type, whose writes are collected by this unit of work.
+     * 
+     * @param entityType The type of entity to query.
+     */
+    public <T> TypedQuery<T> createQuery(final Class<T> entityType) {
+        final TypedQuery<T> query = queryManager.createQuery(entityType);
+        query.setUnitOfWork(this);
+        
+        return query;
+    }
+    
+    /**
+     * Creates a new query for the entity type, whose writes are collected by this unit of work.
+     * 
+     * @param entityType The type of entity to query.
+     * @param querySuffix The suffix for the query.
+     */
+    public <T> TypedQuery<T> createQuery(final Class<T> entityType, final String querySuffix) {
+        final TypedQuery<T> query = queryManager.createQuery(entityType, querySuffix);
+        query.setUnitOfWork(this);
+        
+        return query;
+    }
+    
+    /**
+     * The number of entities with pending writes.
+     */
+    public int getPendingCount() {
+        return pendingWrites.size();
+    }
+    
+    /**
+     * Discards the pending writes. Ids and generated values already assigned to new entities are kept.
+     */
+    public void clear() {
+        pendingWrites.clear();
+    }
+    
+    /**
+     * Registers the creation or update of the entity. A new entity receives its id (and generated values)
+     * right away, so that it can be referenced by other entities.
+     * 
+     * @param query The query of the entity type.
+     * @param entity The entity.
+     * @return The entity id.
+     * 
+     * @throws SQLException When the entity is pending to be deleted.
+     */
+    protected <T> Object registerUpdate(final TypedQuery<T> query, final T entity) throws SQLException {
+        Objects.requireNonNull(entity);
+        
+        final PendingWrite<?> pendingWrite = pendingWrites.get(entity);
+        
+        if (nonNull(pendingWrite)) {
+            if (pendingWrite.getType() == WriteType.DELETE) {
+                throw new SQLException("The entity is already deleted: " + query.getEntityType().getName());
+            }
+            
+            //the state is read on flush.
+            return query.readEntityId(entity);
+        }
+        
+        final Object entityId = query.readEntityId(entity);
+        
+        if (isNull(entityId)) {
+            pendingWrites.put(entity, new PendingWrite<>(query, entity, WriteType.INSERT, nextSequence++));
+            return query.prepareCreate(entity);
+            
+        } else {
+            pendingWrites.put(entity, new PendingWrite<>(query, entity, WriteType.UPDATE, nextSequence++));
+            return entityId;
+        }
+    }
+    
+    /**
+     * Registers the creation of an entity, which already received its id (and generated values).
+     * 
+     * @param query The query of the entity type.
+     * @param entity The entity.
+     */
+    protected <T> void registerInsert(final TypedQuery<T> query, final T entity) {
+        Objects.requireNonNull(entity);
+        
+        pendingWrites.put(entity, new PendingWrite<>(query, entity, WriteType.INSERT, nextSequence++));
+    }
+    
+    /**
+     * Registers the deletion of the entity. Deleting a pending new entity only discards its creation.
+     * 
+     * @param query The query of the entity type.
+     * @param entity The entity.
+     */
+    protected <T> void registerDelete(final TypedQuery<T> query, final T entity) {
+        Objects.requireNonNull(entity);
+        
+        final PendingWrite<?> pendingWrite = pendingWrites.get(entity);
+        
+        if (nonNull(pendingWrite) && pendingWrite.getType() == WriteType.INSERT) {
+            pendingWrites.remove(entity);
+            
+        } else if (nonNull(pendingWrite)) {
+            pendingWrites.put(entity, new PendingWrite<>(query, entity, WriteType.DELETE, pendingWrite.getSequence()));
+            
+        } else if (nonNull(query.readEntityId(entity))) {
+            pendingWrites.put(entity, new PendingWrite<>(query, entity, WriteType.DELETE, nextSequence++));
+        }
+    }
+    
+    /**
+     * Executes the pending writes in one transaction. The versions of the updated entities and of re-linked 
+     * collection elements are checked by their updates; when one has changed, the transaction is rolled back
+     * with a {@link org.ormfux.common.db.exception.StaleEntityException StaleEntityException}. The pending 
+     * writes are discarded, also when the flush fails; the versions of the updated entities are then restored.
+     * 
+     * @return The number of affected rows.
+     * 
+     * @throws SQLException
+     */
+    public int flush() throws SQLException {
+        if (pendingWrites.isEmpty()) {
+            return 0;
+        }
+        
+        final List<PendingWrite<?>> writes = new ArrayList<>(pendingWrites.values());
+        writes.sort(Comparator.comparingLong(PendingWrite::getSequence));
+        
+        //the entities are written by this flush, so their versions are not checked again as collection elements.
+        final Set<Object> writtenEntities = Collections.newSetFromMap(new IdentityHashMap<>());
+        writtenEntities.addAll(pendingWrites.keySet());
+        pendingWrites.clear();
+        
+        final Map<Class<?>, Integer> tableRanks = determineTableRanks(writes);
+        final List<PendingStatement> statements = new ArrayList<>();
+        
+        try {
+            //the collections are determined before the versions are incremented.
+            for (final PendingWrite<?> write : writes) {
+                write.addCollectionStatements(statements, writtenEntities);
+            }
+            
+            for (final PendingWrite<?> write : writes) {
+                write.addTableStatements(statements, tableRanks.get(write.getQuery().getEntityType()));
+            }
+            
+            statements.sort(Comparator.comparing(PendingStatement::getPhase)
+                                      .thenComparingInt(PendingStatement::getRank)
+                                      .thenComparing(statement -> statement.getQuery().getQueryString())
+                                      .thenComparingLong(PendingStatement::getSequence));
+            
+            final List<Query> statementQueries = ListUtils.map(statements, PendingStatement::getQuery);
+            
+            return Query.sumRowCounts(joinStatements(statements).executeUpdate(rowCounts -> TypedQuery.checkRowCounts(statementQueries, rowCounts)));
+            
+        } catch (final RuntimeException e) {
+            //nothing was written. restore the versions.
+            for (final PendingWrite<?> write : writes) {
+                write.restoreVersion();
+            }
+            
+            throw e;
+        }
+    }
+    
+    /**
+     * Orders the entity types of the writes, so that referenced types come before the types referencing
+     * them. Circular references are broken in the order of the writes.
+     * 
+     * @param writes The pending writes.
+     * @return The rank of each entity type.
+     */
+    private Map<Class<?>, Integer> determineTableRanks(final List<PendingWrite<?>> writes) {
+        final Map<Class<?>, Set<Class<?>>> dependencies = new LinkedHashMap<>();
+        
+        for (final PendingWrite<?> write : writes) {
+            dependencies.putIfAbsent(write.getQuery().getEntityType(), new LinkedHashSet<>());
+        }
+        
+        for (final PendingWrite<?> write : writes) {
+            final Class<?> entityType = write.getQuery().getEntityType();
+            
+            for (final Class<?> referencedType : write.getQuery().getReferencedEntityTypes()) {
+                if (dependencies.containsKey(referencedType) && !referencedType.equals(entityType)) {
+                    dependencies.get(entityType).add(referencedType);
+                }
+            }
+            
+            for (final Class<?> referencingType : write.getQuery().getReferencingEntityTypes()) {
+                if (dependencies.containsKey(referencingType) && !referencingType.equals(entityType)) {
+                    dependencies.get(referencingType).add(entityType);
+                }
+            }
+        }
+        
+        final Map<Class<?>, Integer> tableRanks = new HashMap<>();
+        final Set<Class<?>> visitedTypes = new LinkedHashSet<>();
+        
+        for (final Class<?> entityType : dependencies.keySet()) {
+            rankTable(entityType, dependencies, visitedTypes, tableRanks);
+        }
+        
+        return tableRanks;
+    }
+    
+    /**
+     * Ranks the entity type after the types it depends on (depth-first).
+     * 
+     * @param entityType The entity type.
+     * @param dependencies The types each type depends on.
+     * @param visitedTypes The types already visited.
+     * @param tableRanks Collects the ranks.
+     */
+    private void rankTable(final Class<?> entityType,
+                           final Map<Class<?>, Set<Class<?>>> dependencies,
+                           final Set<Class<?>> visitedTypes,
+                           final Map<Class<?>, Integer> tableRanks) {
+        if (visitedTypes.add(entityType)) {
+            for (final Class<?> dependency : dependencies.get(entityType)) {
+                rankTable(dependency, dependencies, visitedTypes, tableRanks);
+            }
+            
+            tableRanks.put(entityType, tableRanks.size());
+        }
+    }
+    
+    /**
+     * Joins the statements into one query. The parameters are renamed, so that they are unique per statement.
+     * Consecutive statements with the same SQL are executed as one batch.
+     * 
+     * @param statements The ordered statements.
+     * @return The query executing all statements.
+     */
+    private Query joinStatements(final List<PendingStatement> statements) {
+        final StringBuilder queryString = new StringBuilder();
+        final Map<String, Object> queryParams = new HashMap<>();
+        int statementIdx = 0;
+        
+        for (final PendingStatement statement : statements) {
+            final Query prefixedQuery = statement.getQuery().prefixParameters("s" + (statementIdx++) + '_');
+            queryString.append(prefixedQuery.getQueryString()).append(' ');
+            queryParams.putAll(prefixedQuery.getQueryParams());
+        }
+        
+        final Query query = queryManager.createQuery(queryString.toString());
+        query.addParameters(queryParams);
+        
+        return query;
+    }
+    
+    /**
+     * The kinds of writes.
+     */
+    private enum WriteType {
+        INSERT, UPDATE, DELETE
+    }
+    
+    /**
+     * The phases of a flush, in the order of their execution.
+     */
+    private enum Phase {
+        INSERT, UPDATE, CLEAR_COLLECTIONS, INSERT_COLLECTIONS, DELETE
+    }
+    
+    /**
+     * A registered write of an entity.
+     * 
+     * @param <T> The entity type.
+     */
+    private static class PendingWrite<T> {
+        
+        /**
+         * The query of the entity type.
+         */
+        private final TypedQuery<T> query;
+        
+        /**
+         * The entity.
+         */
+        private final T entity;
+        
+        /**
+         * The kind of write.
+         */
+        private final WriteType type;
+        
+        /**
+         * The order in which the write was registered.
+         */
+        private final long sequence;
+        
+        /**
+         * The version of an updated entity before the flush; {@code null} until the version is incremented.
+         */
+        private Object previousVersion;
+        
+        /**
+         * Whether the version of the entity has been incremented by the flush.
+         */
+        private boolean versionIncremented;
+        
+        /**
+         * @param query The query of the entity type.
+         * @param entity The entity.
+         * @param type The kind of write.
+         * @param sequence The order in which the write was registered.
+         */
+        public PendingWrite(final TypedQuery<T> query, final T entity, final WriteType type, final long sequence) {
+            this.query = query;
+            this.entity = entity;
+            this.type = type;
+            this.sequence = sequence;
+        }
+        
+        /**
+         * Adds the statements clearing and filling the collections of the entity.
+         * 
+         * @param statements Collects the statements.
+         * @param writtenEntities The entities written by the flush, whose versions are not checked.
+         */
+        public void addCollectionStatements(final List<PendingStatement> statements, final Set<Object> writtenEntities) {
+            if (type != WriteType.INSERT) {
+                for (final Query collectionQuery : query.createClearCollectionsQueries(entity, type == WriteType.DELETE)) {
+                    statements.add(new PendingStatement(Phase.CLEAR_COLLECTIONS, 0, sequence, collectionQuery));
+                }
+            }
+            
+            if (type != WriteType.DELETE) {
+                for (final Query collectionQuery : query.createInsertCollectionsQueries(entity, collEntity -> !writtenEntities.contains(collEntity))) {
+                    statements.add(new PendingStatement(Phase.INSERT_COLLECTIONS, 0, sequence, collectionQuery));
+                }
+            }
+        }
+        
+        /**
+         * Adds the statement writing the row of the entity. Updated entities receive their new version.
+         * 
+         * @param statements Collects the statements.
+         * @param tableRank The rank of the entity's table.
+         */
+        public void addTableStatements(final List<PendingStatement> statements, final int tableRank) {
+            switch (type) {
+                case INSERT:
+                    statements.add(new PendingStatement(Phase.INSERT, tableRank, sequence, query.createInsertQuery(entity)));
+                    break;
+                
+                case UPDATE:
+                    previousVersion = query.readEntityVersion(entity);
+                    versionIncremented = true;
+                    query.prepareUpdate(entity);
+                    statements.add(new PendingStatement(Phase.UPDATE, tableRank, sequence, query.createUpdateQuery(entity, previousVersion)));
+                    break;
+                
+                default:
+                    //referencing tables first.
+                    statements.add(new PendingStatement(Phase.DELETE, -tableRank, sequence, query.createDeleteQuery(entity)));
+                    break;
+            }
+        }
+        
+        /**
+         * Restores the version of an updated entity, when the flush has incremented it.
+         */
+        public void restoreVersion() {
+            if (versionIncremented) {
+                query.writeEntityVersion(entity, previousVersion);
+                versionIncremented = false;
+            }
+        }
+        
+        /**
+         * The query of the entity type.
+         */
+        public TypedQuery<T> getQuery() {
+            return query;
+        }
+        
+        /**
+         * The entity.
+         */
+        public T getEntity() {
+            return entity;
+        }
+        
+        /**
+         * The kind of write.
+         */
+        public WriteType getType() {
+            return type;
+        }
+        
+        /**
+         * The order in which the write was registered.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+        
+    }
+    
+    /**
+     * A single statement of a flush.
+     */
+    private static class PendingStatement {
+        
+        /**
+         * The phase in which the statement is executed.
+         */
+        private final Phase phase;
+        
+        /**
+         * The rank of the statement's table within the phase.
+         */
+        private final int rank;
+        
+        /**
+         * The order in which the write of the statement was registered.
+         */
+        private final long sequence;
+        
+        /**
+         * The statement with its parameters.
+         */
+        private final Query query;
+        
+        /**
+         * @param phase The phase in which the statement is executed.
+         * @param rank The rank of the statement's table within the phase.
+         * @param sequence The order in which the write of the statement was registered.
+         * @param query The statement with its parameters.
+         */
+        public PendingStatement(final Phase phase, final int rank, final long sequence, final Query query) {
+            this.phase = phase;
+            this.rank = rank;
+            this.sequence = sequence;
+            this.query = query;
+        }
+        
+        /**
+         * The phase in which the statement is executed.
+         */
+        public Phase getPhase() {
+            return phase;
+        }
+        
+        /**
+         * The rank of the statement's table within the phase.
+         */
+        public int getRank() {
+            return rank;
+        }
+        
+        /**
+         * The order in which the write of the statement was registered.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+        
+        /**
+         * The statement with its parameters.
+         */
+        public Query getQuery() {
+            return query;
+        }
+        
+    }
+
+}
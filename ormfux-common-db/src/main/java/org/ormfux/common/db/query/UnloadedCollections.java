@@ -0,0 +1,114 @@
+package org.ormfux.common.db.query;
+
+import static org.ormfux.common.utils.NullableUtils.nonNull;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers the collection fields, which a {@link TypedQuery#fetch(String...) fetch plan} left unloaded
+ * ({@code null}), per entity instance. Updates leave only these collections untouched, while {@code null}
+ * collections of other entities are cleared. The entities are referenced weakly and compared by identity,
+ * so that they are forgotten when they are no longer used.
+ * <p>
+ * The registry is thread-safe.
+ * </p>
+ */
+final class UnloadedCollections {
+    
+    /**
+     * The names of the unloaded collection fields by entity.
+     */
+    private static final Map<EntityReference, Set<String>> UNLOADED_FIELDS = new HashMap<>();
+    
+    /**
+     * Receives the references of the entities, which are no longer used.
+     */
+    private static final ReferenceQueue<Object> RELEASED_ENTITIES = new ReferenceQueue<>();
+    
+    private UnloadedCollections() {
+    }
+    
+    /**
+     * Marks a collection field of the entity as not loaded.
+     * 
+     * @param entity The entity.
+     * @param fieldName The name of the collection field.
+     */
+    public static synchronized void markUnloaded(final Object entity, final String fieldName) {
+        removeReleasedEntities();
+        
+        UNLOADED_FIELDS.computeIfAbsent(new EntityReference(entity, RELEASED_ENTITIES), reference -> new HashSet<>()).add(fieldName);
+    }
+    
+    /**
+     * Checks whether a collection field of the entity was left unloaded by a fetch plan.
+     * 
+     * @param entity The entity.
+     * @param fieldName The name of the collection field.
+     * @return {@code true} when the field was marked as not loaded.
+     */
+    public static synchronized boolean isUnloaded(final Object entity, final String fieldName) {
+        removeReleasedEntities();
+        
+        final Set<String> fieldNames = UNLOADED_FIELDS.get(new EntityReference(entity, null));
+        
+        return nonNull(fieldNames) && fieldNames.contains(fieldName);
+    }
+    
+    /**
+     * Removes the entries of the entities, which are no longer used.
+     */
+    private static void removeReleasedEntities() {
+        Reference<?> releasedEntity;
+        
+        while (nonNull(releasedEntity = RELEASED_ENTITIES.poll())) {
+            UNLOADED_FIELDS.remove(releasedEntity);
+        }
+    }
+    
+    /**
+     * A weak reference to an entity, which is equal to the references of the same instance.
+     */
+    private static class EntityReference extends WeakReference<Object> {
+        
+        /**
+         * The identity hash code of the entity, which is kept after the entity is released.
+         */
+        private final int hashCode;
+        
+        /**
+         * @param entity The entity.
+         * @param queue The queue receiving the reference, when the entity is released; {@code null} for lookups.
+         */
+        public EntityReference(final Object entity, final ReferenceQueue<Object> queue) {
+            super(entity, queue);
+            this.hashCode = System.identityHashCode(entity);
+        }
+        
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+        
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            } else if (!(other instanceof EntityReference)) {
+                return false;
+            }
+            
+            final Object entity = get();
+            
+            return nonNull(entity) && entity == ((EntityReference) other).get();
+        }
+        
+    }
+
+}
@@ -0,0 +1,983 @@
+package org.ormfux.common.db.query;
+
+import static org.ormfux.common.utils.NullableUtils.isNull;
+import static org.ormfux.common.utils.NullableUtils.nonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.ormfux.common.db.exception.SQLException;
+import org.ormfux.common.db.exception.StaleEntityException;
+
+/**
+ * Queues the updates of its queries ({@link TypedQuery#update(Object)}) and writes them asynchronously
+ * in batches on a background thread. This is meant for entities that tolerate eventual persistence, like
+ * counters or last-seen timestamps, which are updated at a high rate. The updates are coalesced per entity
+ * id: an entity is written once per batch with the state it has when the batch is written, however often
+ * it was updated before. A batch is written by a {@link UnitOfWork}, i.e. in one transaction with one JDBC
+ * batch per table.
+ * <p>
+ * The versions of the updated entities are checked when a batch is written. Entities, whose version has
+ * changed in the database, are discarded and reported to the {@link #setErrorHandler(Consumer) error handler}
+ * as {@link StaleEntityException}; the rest of the batch is written. When a batch fails otherwise, its halves
+ * are written separately, down to single updates, so that a failing update does not hold back the others. The
+ * updates that cannot be written are queued again and retried after the flush interval. An update that has failed
+ * {@link #setMaxAttempts(int) max attempts} times is discarded and reported to the error handler.
+ * </p>
+ * <p>
+ * The number of queued entities is bounded; queuing the update of a further entity blocks until the writer
+ * has taken a batch. With a journal file, each queued update is appended to the journal, which is compacted
+ * after each written batch. A new queue with the same journal file queues the updates left in it again, e.g.
+ * after a crash of the application. The journal is flushed to the operating system, but not forced to the disk.
+ * </p>
+ * <p>
+ * The entities are read by the writer thread when their batch is written, so they should not be modified
+ * concurrently. The queue itself is thread-safe.
+ * </p>
+ */
+public class WriteBehindQueue implements AutoCloseable {
+    
+    /**
+     * The default maximum number of entities written in one batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    
+    /**
+     * The default time in milliseconds after which queued updates are written, even when they do not fill a batch.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    
+    /**
+     * The default number of failed attempts after which a queued update is discarded.
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    
+    /**
+     * The logger of the default error handler.
+     */
+    private static final Logger LOGGER = Logger.getLogger(WriteBehindQueue.class.getName());
+    
+    /**
+     * The manager creating the queries.
+     */
+    private final QueryManager queryManager;
+    
+    /**
+     * The maximum number of queued entities.
+     */
+    private final int capacity;
+    
+    /**
+     * The file journaling the queued updates; {@code null} for none.
+     */
+    private final Path journalFile;
+    
+    /**
+     * The queued updates by entity in the order in which the entities were first queued.
+     */
+    private final Map<EntityKey, PendingUpdate<?>> pendingUpdates = new LinkedHashMap<>();
+    
+    /**
+     * Ensures that only one batch is written at a time.
+     */
+    private final Object writeLock = new Object();
+    
+    /**
+     * The thread writing the batches.
+     */
+    private final Thread writer;
+    
+    /**
+     * The maximum number of entities written in one batch.
+     */
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    
+    /**
+     * The time in milliseconds after which queued updates are written, even when they do not fill a batch.
+     */
+    private volatile long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    
+    /**
+     * The number of failed attempts after which a queued update is discarded.
+     */
+    private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    
+    /**
+     * Receives the errors of the writer thread.
+     */
+    private volatile Consumer<RuntimeException> errorHandler = error -> LOGGER.log(Level.WARNING, "Error writing queued updates.", error);
+    
+    /**
+     * Appends to the journal; {@code null} without journal.
+     */
+    private DataOutputStream journalOutput;
+    
+    /**
+     * Whether the queue is closed.
+     */
+    private boolean closed;
+    
+    /**
+     * Creates a new queue and starts its writer. The updates left in the journal are queued again.
+     * 
+     * @param queryManager The manager creating the queries.
+     * @param capacity The maximum number of queued entities.
+     * @param journalFile The file journaling the queued updates; {@code null} for none.
+     * 
+     * @throws SQLException When the journal cannot be read.
+     */
+    protected WriteBehindQueue(final QueryManager queryManager, final int capacity, final Path journalFile) throws SQLException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive.");
+        }
+        
+        this.queryManager = Objects.requireNonNull(queryManager);
+        this.capacity = capacity;
+        this.journalFile = journalFile;
+        
+        if (nonNull(journalFile)) {
+            recoverJournal();
+            rewriteJournal();
+        }
+        
+        writer = new Thread(this::runWriter, "write-behind-queue");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    /**
+     * Creates a new "select all" query for the entity type, whose updates are queued.
+     * 
+     * @param entityType The type of entity to query.
+     */
+    public <T> TypedQuery<T> createQuery(final Class<T> entityType) {
+        final TypedQuery<T> query = queryManager.createQuery(entityType);
+        query.setWriteBehindQueue(this);
+        
+        return query;
+    }
+    
+    /**
+     * Creates a new query for the entity type, whose updates are queued.
+     * 
+     * @param entityType The type of entity to query.
+     * @param querySuffix The suffix for the query.
+     */
+    public <T> TypedQuery<T> createQuery(final Class<T> entityType, final String querySuffix) {
+        final TypedQuery<T> query = queryManager.createQuery(entityType, querySuffix);
+        query.setWriteBehindQueue(this);
+        
+        return query;
+    }
+    
+    /**
+     * The maximum number of entities written in one batch.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+    
+    /**
+     * @see #getBatchSize()
+     */
+    public void setBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive.");
+        }
+        
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * The time in milliseconds after which queued updates are written, even when they do not fill a batch.
+     */
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+    
+    /**
+     * @see #getFlushInterval()
+     */
+    public void setFlushInterval(final long flushInterval) {
+        if (flushInterval < 1) {
+            throw new IllegalArgumentException("The flush interval must be positive.");
+        }
+        
+        this.flushInterval = flushInterval;
+    }
+    
+    /**
+     * The number of failed attempts to write a queued update, after which it is discarded and reported to the
+     * error handler. A newer update of the entity starts with no failed attempts.
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+    
+    /**
+     * @see #getMaxAttempts()
+     */
+    public void setMaxAttempts(final int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("The maximum number of attempts must be positive.");
+        }
+        
+        this.maxAttempts = maxAttempts;
+    }
+    
+    /**
+     * Receives the errors of the writer thread and the discarded stale and failing updates. By default, they 
+     * are logged.
+     */
+    public Consumer<RuntimeException> getErrorHandler() {
+        return errorHandler;
+    }
+    
+    /**
+     * @see #getErrorHandler()
+     */
+    public void setErrorHandler(final Consumer<RuntimeException> errorHandler) {
+        this.errorHandler = Objects.requireNonNull(errorHandler);
+    }
+    
+    /**
+     * The number of entities with queued updates.
+     */
+    public synchronized int getPendingCount() {
+        return pendingUpdates.size();
+    }
+    
+    /**
+     * Queues the update of the entity. A new entity receives its id (and generated values) right away.
+     * Blocks while the queue is full.
+     * 
+     * @param query The query of the entity type.
+     * @param entity The entity.
+     * @return The entity id.
+     * 
+     * @throws SQLException When the update cannot be journaled.
+     */
+    protected synchronized <T> Object registerUpdate(final TypedQuery<T> query, final T entity) throws SQLException {
+        Objects.requireNonNull(entity);
+        checkOpen();
+        
+        Object entityId = query.readEntityId(entity);
+        final boolean newEntity = isNull(entityId);
+        
+        if (newEntity) {
+            entityId = query.prepareCreate(entity);
+        }
+        
+        final EntityKey key = new EntityKey(query.getEntityType(), entityId);
+        
+        while (pendingUpdates.size() >= capacity && !pendingUpdates.containsKey(key)) {
+            //let the writer take a batch right away.
+            notifyAll();
+            
+            try {
+                wait();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for the write-behind queue.", e);
+            }
+            
+            checkOpen();
+        }
+        
+        //a pending creation stays a creation.
+        final PendingUpdate<?> pendingUpdate = pendingUpdates.get(key);
+        final boolean insert = newEntity || (nonNull(pendingUpdate) && pendingUpdate.isInsert());
+        
+        final byte[] journalRecord = appendToJournal(new JournalRecord(query.getEntityType().getName(), entityId, query.readFieldValues(entity)));
+        pendingUpdates.put(key, new PendingUpdate<>(query.getEntityType(), entity, entityId, insert, journalRecord));
+        
+        if (pendingUpdates.size() >= Math.min(batchSize, capacity)) {
+            notifyAll();
+        }
+        
+        return entityId;
+    }
+    
+    /**
+     * Discards the queued update of the entity, e.g. because it is deleted.
+     * 
+     * @param query The query of the entity type.
+     * @param entity The entity.
+     * 
+     * @throws SQLException When the discarding cannot be journaled.
+     */
+    protected synchronized <T> void discardUpdate(final TypedQuery<T> query, final T entity) throws SQLException {
+        final Object entityId = query.readEntityId(entity);
+        
+        if (nonNull(entityId) && nonNull(pendingUpdates.remove(new EntityKey(query.getEntityType(), entityId)))) {
+            appendToJournal(new JournalRecord(query.getEntityType().getName(), entityId, null));
+            notifyAll();
+        }
+    }
+    
+    /**
+     * Writes all queued updates on the calling thread.
+     * 
+     * @throws SQLException When updates of a batch cannot be written. They are queued again, unless they have 
+     *                      reached the maximum number of attempts.
+     */
+    public void flush() throws SQLException {
+        int writtenCount;
+        
+        do {
+            writtenCount = writeBatch();
+        } while (writtenCount > 0);
+    }
+    
+    /**
+     * Stops the writer and writes the remaining queued updates. Afterwards, no updates can be queued anymore.
+     * 
+     * @throws SQLException When the remaining updates cannot be written. They are kept in the journal.
+     */
+    @Override
+    public void close() throws SQLException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            
+            closed = true;
+            notifyAll();
+        }
+        
+        try {
+            writer.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        try {
+            flush();
+        } finally {
+            closeJournal();
+        }
+    }
+    
+    /**
+     * Writes batches until the queue is closed.
+     */
+    private void runWriter() {
+        boolean failed = false;
+        
+        while (awaitBatch(failed)) {
+            try {
+                flush();
+                failed = false;
+            } catch (final RuntimeException e) {
+                failed = true;
+                errorHandler.accept(e);
+            }
+        }
+    }
+    
+    /**
+     * Waits until a batch is full or the flush interval has passed.
+     * 
+     * @param backOff Wait for the whole flush interval, e.g. after a failed batch.
+     * @return {@code false} when the queue is closed.
+     */
+    private synchronized boolean awaitBatch(final boolean backOff) {
+        final long deadline = System.currentTimeMillis() + flushInterval;
+        long remaining = flushInterval;
+        
+        while (!closed && remaining > 0 && (backOff || pendingUpdates.size() < Math.min(batchSize, capacity))) {
+            try {
+                wait(remaining);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            
+            remaining = deadline - System.currentTimeMillis();
+        }
+        
+        return !closed;
+    }
+    
+    /**
+     * Takes a batch of queued updates and writes it. Stale entities are discarded. The updates that cannot be 
+     * written are queued again, or discarded after the maximum number of attempts.
+     * 
+     * @return The number of taken updates; {@code 0} when there are none.
+     * 
+     * @throws SQLException When updates of the batch cannot be written and are queued again.
+     */
+    private int writeBatch() throws SQLException {
+        synchronized (writeLock) {
+            final List<PendingUpdate<?>> batch = takeBatch();
+            final int batchCount = batch.size();
+            
+            if (batchCount == 0) {
+                return 0;
+            }
+            
+            final Map<PendingUpdate<?>, RuntimeException> failedUpdates = new LinkedHashMap<>();
+            writeBisected(batch, failedUpdates);
+            
+            final List<PendingUpdate<?>> retriedUpdates = new ArrayList<>();
+            RuntimeException failure = null;
+            
+            for (final Entry<PendingUpdate<?>, RuntimeException> failedUpdate : failedUpdates.entrySet()) {
+                final PendingUpdate<?> update = failedUpdate.getKey();
+                
+                if (update.addFailedAttempt() < maxAttempts) {
+                    retriedUpdates.add(update);
+                    failure = isNull(failure) ? failedUpdate.getValue() : failure;
+                } else {
+                    errorHandler.accept(new SQLException("Discarding the queued update of " + update.getEntityType().getName() 
+                                                         + ':' + update.getEntityId() + " after " + maxAttempts + " failed attempts.", 
+                                                         failedUpdate.getValue()));
+                }
+            }
+            
+            requeue(retriedUpdates);
+            rewriteJournal();
+            
+            if (nonNull(failure)) {
+                throw failure;
+            }
+            
+            return batchCount;
+        }
+    }
+    
+    /**
+     * Writes the updates, discarding stale entities. When the updates cannot be written together, both halves 
+     * are written separately, down to single updates.
+     * 
+     * @param updates The updates.
+     * @param failedUpdates Receives the updates that cannot be written with their failures.
+     */
+    private void writeBisected(final List<PendingUpdate<?>> updates, final Map<PendingUpdate<?>, RuntimeException> failedUpdates) {
+        try {
+            try {
+                writeUpdates(updates);
+            } catch (final StaleEntityException e) {
+                //nothing is written when a version has changed.
+                updates.removeIf(this::isStale);
+                writeUpdates(updates);
+            }
+        } catch (final RuntimeException e) {
+            if (updates.size() == 1) {
+                failedUpdates.put(updates.get(0), e);
+            } else if (updates.size() > 1) {
+                final int half = updates.size() / 2;
+                writeBisected(new ArrayList<>(updates.subList(0, half)), failedUpdates);
+                writeBisected(new ArrayList<>(updates.subList(half, updates.size())), failedUpdates);
+            }
+        }
+    }
+    
+    /**
+     * Removes the first queued updates from the queue.
+     * 
+     * @return The updates; at most one batch.
+     */
+    private synchronized List<PendingUpdate<?>> takeBatch() {
+        final List<PendingUpdate<?>> batch = new ArrayList<>();
+        final Iterator<PendingUpdate<?>> updateIterator = pendingUpdates.values().iterator();
+        
+        while (updateIterator.hasNext() && batch.size() < batchSize) {
+            batch.add(updateIterator.next());
+            updateIterator.remove();
+        }
+        
+        //the capacity is free again.
+        notifyAll();
+        
+        return batch;
+    }
+    
+    /**
+     * Writes the updates in one unit of work.
+     * 
+     * @param batch The updates.
+     * 
+     * @throws SQLException
+     */
+    private void writeUpdates(final List<PendingUpdate<?>> batch) throws SQLException {
+        final UnitOfWork unitOfWork = queryManager.createUnitOfWork();
+        
+        for (final PendingUpdate<?> update : batch) {
+            update.register(unitOfWork);
+        }
+        
+        unitOfWork.flush();
+    }
+    
+    /**
+     * Checks the version of an updated entity. Stale entities are reported to the error handler.
+     * 
+     * @param update The update.
+     * @return {@code true} when the version of the entity has changed in the database.
+     */
+    private boolean isStale(final PendingUpdate<?> update) {
+        if (update.isInsert()) {
+            return false;
+        }
+        
+        try {
+            queryManager.createQuery(update.getEntityType()).checkVersions(update.getEntityType(), Collections.singletonList(update.getEntity()));
+            return false;
+            
+        } catch (final StaleEntityException e) {
+            errorHandler.accept(e);
+            return true;
+        }
+    }
+    
+    /**
+     * Queues the updates of a failed batch again. Newer updates of the same entities are kept.
+     * 
+     * @param batch The updates.
+     */
+    private synchronized void requeue(final List<PendingUpdate<?>> batch) {
+        for (final PendingUpdate<?> update : batch) {
+            final EntityKey key = new EntityKey(update.getEntityType(), update.getEntityId());
+            final PendingUpdate<?> newerUpdate = pendingUpdates.get(key);
+            
+            if (isNull(newerUpdate)) {
+                pendingUpdates.put(key, update);
+            } else if (update.isInsert()) {
+                pendingUpdates.put(key, newerUpdate.asInsert());
+            }
+        }
+    }
+    
+    /**
+     * Checks that the queue is not closed.
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The write-behind queue is closed.");
+        }
+    }
+    
+    /**
+     * Appends a record to the journal.
+     * 
+     * @param record The record.
+     * @return The serialized record; {@code null} without journal.
+     * 
+     * @throws SQLException
+     */
+    private byte[] appendToJournal(final JournalRecord record) throws SQLException {
+        if (isNull(journalOutput)) {
+            return null;
+        }
+        
+        try {
+            final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+            
+            try (ObjectOutputStream recordOutput = new ObjectOutputStream(recordBytes)) {
+                recordOutput.writeObject(record);
+            }
+            
+            final byte[] serializedRecord = recordBytes.toByteArray();
+            writeRecord(journalOutput, serializedRecord);
+            journalOutput.flush();
+            
+            return serializedRecord;
+            
+        } catch (final IOException e) {
+            throw new SQLException("Error writing the write-behind journal.", e);
+        }
+    }
+    
+    /**
+     * Writes a serialized record with its length.
+     * 
+     * @param output The journal output.
+     * @param serializedRecord The serialized record.
+     * 
+     * @throws IOException
+     */
+    private static void writeRecord(final DataOutputStream output, final byte[] serializedRecord) throws IOException {
+        output.writeInt(serializedRecord.length);
+        output.write(serializedRecord);
+    }
+    
+    /**
+     * Replaces the journal with the records of the queued updates.
+     * 
+     * @throws SQLException
+     */
+    private synchronized void rewriteJournal() throws SQLException {
+        if (isNull(journalFile)) {
+            return;
+        }
+        
+        final Path tempFile = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+        
+        try {
+            try (DataOutputStream tempOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                for (final PendingUpdate<?> update : pendingUpdates.values()) {
+                    writeRecord(tempOutput, update.getJournalRecord());
+                }
+            }
+            
+            if (nonNull(journalOutput)) {
+                journalOutput.close();
+            }
+            
+            Files.move(tempFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journalOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(journalFile,
+                                                                                                StandardOpenOption.CREATE,
+                                                                                                StandardOpenOption.APPEND)));
+        } catch (final IOException e) {
+            throw new SQLException("Error writing the write-behind journal.", e);
+        }
+    }
+    
+    /**
+     * Closes the journal output.
+     * 
+     * @throws SQLException
+     */
+    private synchronized void closeJournal() throws SQLException {
+        if (nonNull(journalOutput)) {
+            try {
+                journalOutput.close();
+                journalOutput = null;
+            } catch (final IOException e) {
+                throw new SQLException("Error closing the write-behind journal.", e);
+            }
+        }
+    }
+    
+    /**
+     * Queues the updates left in the journal again. The last record of each entity wins. Entities, which
+     * do not exist in the database, are created. A record torn by a crash at the end of the journal is ignored.
+     * 
+     * @throws SQLException
+     */
+    private void recoverJournal() throws SQLException {
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+        
+        final Map<EntityKey, byte[]> records = new LinkedHashMap<>();
+        
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+            while (true) {
+                final byte[] serializedRecord;
+                
+                try {
+                    serializedRecord = new byte[input.readInt()];
+                    input.readFully(serializedRecord);
+                } catch (final EOFException e) {
+                    break;
+                }
+                
+                final JournalRecord record = readRecord(serializedRecord);
+                final EntityKey key = new EntityKey(Class.forName(record.getEntityType()), record.getEntityId());
+                
+                if (isNull(record.getFieldValues())) {
+                    records.remove(key);
+                } else {
+                    records.put(key, serializedRecord);
+                }
+            }
+            
+        } catch (final IOException | ClassNotFoundException e) {
+            throw new SQLException("Error reading the write-behind journal.", e);
+        }
+        
+        for (final Entry<EntityKey, byte[]> record : records.entrySet()) {
+            pendingUpdates.put(record.getKey(), recoverUpdate(record.getKey().getEntityType(), record.getValue()));
+        }
+    }
+    
+    /**
+     * Restores the queued update of a journal record.
+     * 
+     * @param entityType The entity type.
+     * @param serializedRecord The serialized record.
+     * @return The update.
+     * 
+     * @throws SQLException
+     */
+    private <T> PendingUpdate<T> recoverUpdate(final Class<T> entityType, final byte[] serializedRecord) throws SQLException {
+        final JournalRecord record = readRecord(serializedRecord);
+        final TypedQuery<T> query = queryManager.createQuery(entityType);
+        final boolean insert = isNull(query.load(record.getEntityId()));
+        final T entity = query.createFromFieldValues(record.getFieldValues());
+        
+        return new PendingUpdate<>(entityType, entity, record.getEntityId(), insert, serializedRecord);
+    }
+    
+    /**
+     * Deserializes a journal record.
+     * 
+     * @param serializedRecord The serialized record.
+     * @return The record.
+     * 
+     * @throws SQLException
+     */
+    private static JournalRecord readRecord(final byte[] serializedRecord) throws SQLException {
+        try (ObjectInputStream recordInput = new ObjectInputStream(new ByteArrayInputStream(serializedRecord))) {
+            return (JournalRecord) recordInput.readObject();
+        } catch (final IOException | ClassNotFoundException e) {
+            throw new SQLException("Error reading the write-behind journal.", e);
+        }
+    }
+    
+    /**
+     * Identifies an entity by type and id.
+     */
+    private static final class EntityKey {
+        
+        /**
+         * The entity type.
+         */
+        private final Class<?> entityType;
+        
+        /**
+         * The entity id.
+         */
+        private final Object entityId;
+        
+        /**
+         * @param entityType The entity type.
+         * @param entityId The entity id.
+         */
+        public EntityKey(final Class<?> entityType, final Object entityId) {
+            this.entityType = entityType;
+            this.entityId = entityId;
+        }
+        
+        /**
+         * The entity type.
+         */
+        public Class<?> getEntityType() {
+            return entityType;
+        }
+        
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof EntityKey)) {
+                return false;
+            }
+            
+            final EntityKey otherKey = (EntityKey) other;
+            
+            return entityType.equals(otherKey.entityType) && entityId.equals(otherKey.entityId);
+        }
+        
+        @Override
+        public int hashCode() {
+            return 31 * entityType.hashCode() + entityId.hashCode();
+        }
+        
+    }
+    
+    /**
+     * A queued update of an entity.
+     * 
+     * @param <T> The entity type.
+     */
+    private static class PendingUpdate<T> {
+        
+        /**
+         * The entity type.
+         */
+        private final Class<T> entityType;
+        
+        /**
+         * The entity.
+         */
+        private final T entity;
+        
+        /**
+         * The entity id.
+         */
+        private final Object entityId;
+        
+        /**
+         * Whether the entity is created.
+         */
+        private final boolean insert;
+        
+        /**
+         * The serialized journal record; {@code null} without journal.
+         */
+        private final byte[] journalRecord;
+        
+        /**
+         * The number of failed attempts to write the update.
+         */
+        private int failedAttempts;
+        
+        /**
+         * @param entityType The entity type.
+         * @param entity The entity.
+         * @param entityId The entity id.
+         * @param insert Whether the entity is created.
+         * @param journalRecord The serialized journal record; {@code null} without journal.
+         */
+        public PendingUpdate(final Class<T> entityType, final T entity, final Object entityId, final boolean insert, final byte[] journalRecord) {
+            this.entityType = entityType;
+            this.entity = entity;
+            this.entityId = entityId;
+            this.insert = insert;
+            this.journalRecord = journalRecord;
+        }
+        
+        /**
+         * Registers the write of the entity at the unit of work.
+         * 
+         * @param unitOfWork The unit of work.
+         */
+        public void register(final UnitOfWork unitOfWork) {
+            final TypedQuery<T> query = unitOfWork.createQuery(entityType);
+            
+            if (insert) {
+                unitOfWork.registerInsert(query, entity);
+            } else {
+                unitOfWork.registerUpdate(query, entity);
+            }
+        }
+        
+        /**
+         * The same update as creation of the entity.
+         */
+        public PendingUpdate<T> asInsert() {
+            return new PendingUpdate<>(entityType, entity, entityId, true, journalRecord);
+        }
+        
+        /**
+         * The entity type.
+         */
+        public Class<T> getEntityType() {
+            return entityType;
+        }
+        
+        /**
+         * The entity.
+         */
+        public T getEntity() {
+            return entity;
+        }
+        
+        /**
+         * The entity id.
+         */
+        public Object getEntityId() {
+            return entityId;
+        }
+        
+        /**
+         * Whether the entity is created.
+         */
+        public boolean isInsert() {
+            return insert;
+        }
+        
+        /**
+         * The serialized journal record; {@code null} without journal.
+         */
+        public byte[] getJournalRecord() {
+            return journalRecord;
+        }
+        
+        /**
+         * Counts a failed attempt to write the update.
+         * 
+         * @return The number of failed attempts.
+         */
+        public int addFailedAttempt() {
+            return ++failedAttempts;
+        }
+        
+    }
+    
+    /**
+     * The journaled state of a queued update.
+     */
+    private static class JournalRecord implements Serializable {
+        
+        /**
+         * Serial version uid.
+         */
+        private static final long serialVersionUID = 1L;
+        
+        /**
+         * The name of the entity type.
+         */
+        private final String entityType;
+        
+        /**
+         * The entity id.
+         */
+        private final Object entityId;
+        
+        /**
+         * The values of the mapped simple fields; {@code null} when the update is discarded.
+         */
+        private final HashMap<String, Object> fieldValues;
+        
+        /**
+         * @param entityType The name of the entity type.
+         * @param entityId The entity id.
+         * @param fieldValues The values of the mapped simple fields; {@code null} when the update is discarded.
+         */
+        public JournalRecord(final String entityType, final Object entityId, final Map<String, Object> fieldValues) {
+            this.entityType = entityType;
+            this.entityId = entityId;
+            this.fieldValues = isNull(fieldValues) ? null : new HashMap<>(fieldValues);
+        }
+        
+        /**
+         * The name of the entity type.
+         */
+        public String getEntityType() {
+            return entityType;
+        }
+        
+        /**
+         * The entity id.
+         */
+        public Object getEntityId() {
+            return entityId;
+        }
+        
+        /**
+         * The values of the mapped simple fields; {@code null} when the update is discarded.
+         */
+        public Map<String, Object> getFieldValues() {
+            return fieldValues;
+        }
+        
+    }
+
+}
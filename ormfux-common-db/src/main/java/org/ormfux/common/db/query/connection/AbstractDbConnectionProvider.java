@@ -1,11 +1,19 @@
 package org.ormfux.common.db.query.connection;
 
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.ormfux.common.db.exception.SQLException;
+import org.ormfux.common.db.query.QueryListener;
 import org.ormfux.common.utils.NullableUtils;
 
 /**
@@ -23,6 +31,11 @@ public abstract class AbstractDbConnectionProvider implements DbConnectionProvid
      */
     private final List<String> connectionParams;
     
+    /**
+     * The listeners notified about query executions.
+     */
+    private final List<QueryListener> queryListeners = new CopyOnWriteArrayList<>();
+    
     /**
      * @param driverName The fully qualified class name of the database driver.
      * @param databaseUrl The URL to the database.
@@ -73,6 +86,174 @@ public abstract class AbstractDbConnectionProvider implements DbConnectionProvid
         //let sub-classes realize this in an optional fashion.
     }
     
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws UnsupportedOperationException when {@link #isCanBackupDatabase()} is {@code false}.
+     */
+    @Override
+    public final String backupDatabaseIncremental(final CharSequence databaseVersion) {
+        if (!isCanBackupDatabase()) {
+            throw new UnsupportedOperationException("Database backup is not supported.");
+        } else {
+            return doBackupDatabaseIncremental(databaseVersion);
+        }
+    }
+    
+    /**
+     * Conducts the actual incremental database backup.
+     * 
+     * @param databaseVersion A version indicator for the backed up database.
+     * @return The path of the manifest describing the backup.
+     */
+    protected String doBackupDatabaseIncremental(final CharSequence databaseVersion) {
+        //let sub-classes realize this in an optional fashion.
+        throw new UnsupportedOperationException("Incremental database backup is not supported.");
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * @return {@code false}, unless overridden.
+     */
+    @Override
+    public boolean isCanBackupDatabaseOnline() {
+        return false;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws UnsupportedOperationException when {@link #isCanBackupDatabaseOnline()} is {@code false}.
+     */
+    @Override
+    public final String backupDatabaseOnline(final CharSequence databaseVersion, 
+                                             final BackupFormat format, 
+                                             final BackupProgressListener progressListener) {
+        Objects.requireNonNull(format);
+        
+        if (!isCanBackupDatabaseOnline()) {
+            throw new UnsupportedOperationException("Online database backup is not supported.");
+        } else {
+            return doBackupDatabaseOnline(databaseVersion, format, progressListener);
+        }
+    }
+    
+    /**
+     * Conducts the actual online database backup.
+     * 
+     * @param databaseVersion A version indicator for the backed up database.
+     * @param format The format of the backup.
+     * @param progressListener Receives the progress of the backup; can be {@code null}.
+     * @return The path of the backup file.
+     */
+    protected String doBackupDatabaseOnline(final CharSequence databaseVersion, 
+                                            final BackupFormat format, 
+                                            final BackupProgressListener progressListener) {
+        //let sub-classes realize this in an optional fashion.
+        throw new UnsupportedOperationException("Online database backup is not supported.");
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * @return {@code null}, unless overridden.
+     */
+    @Override
+    public String createArrayParameterExpression(final Class<?> elementType) {
+        return null;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * @return {@code null}, unless overridden.
+     */
+    @Override
+    public String createTempTableStatement(final String tableName, final Class<?> elementType) {
+        return null;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * @return {@code null}, unless overridden.
+     */
+    @Override
+    public String createUpsertStatement(final String tableName, 
+                                        final String idColumn, 
+                                        final String versionColumn, 
+                                        final List<String> columnNames) {
+        return null;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * The statement is prepared on a new connection.
+     */
+    @Override
+    public void validateQuery(final String queryString) {
+        final Connection connection = getConnection();
+        
+        try {
+            try {
+                connection.prepareStatement(queryString).close();
+            } finally {
+                connection.close();
+            }
+        } catch (final java.sql.SQLException e) {
+            throw new SQLException("Invalid query: " + queryString, e);
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * The fingerprint is a hash over the names and types of the columns in the metadata of the database.
+     */
+    @Override
+    public String getSchemaFingerprint() {
+        final Connection connection = getConnection();
+        
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            
+            try (ResultSet columns = connection.getMetaData().getColumns(null, null, "%", "%")) {
+                while (columns.next()) {
+                    final String column = columns.getString("TABLE_SCHEM") + '.' + columns.getString("TABLE_NAME") 
+                                              + '.' + columns.getString("COLUMN_NAME") + ':' + columns.getString("TYPE_NAME") + ';';
+                    digest.update(column.getBytes(StandardCharsets.UTF_8));
+                }
+            } finally {
+                connection.close();
+            }
+            
+            return String.format("%064x", new BigInteger(1, digest.digest()));
+            
+        } catch (final java.sql.SQLException | NoSuchAlgorithmException e) {
+            throw new SQLException("Error reading the database schema.", e);
+        }
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public void addQueryListener(final QueryListener listener) {
+        queryListeners.add(Objects.requireNonNull(listener));
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public void removeQueryListener(final QueryListener listener) {
+        queryListeners.remove(listener);
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public List<QueryListener> getQueryListeners() {
+        return Collections.unmodifiableList(queryListeners);
+    }
+    
     /**
      * A connection to the database.
      */
@@ -0,0 +1,18 @@
+package org.ormfux.common.db.query.connection;
+
+/**
+ * The formats of online database backups.
+ */
+public enum BackupFormat {
+    
+    /**
+     * A compressed archive of the database files. Provides a consistent snapshot of the database.
+     */
+    ARCHIVE,
+    
+    /**
+     * A compressed SQL script re-creating the database.
+     */
+    SCRIPT;
+    
+}
@@ -0,0 +1,17 @@
+package org.ormfux.common.db.query.connection;
+
+/**
+ * Receives the progress of an online database backup.
+ */
+@FunctionalInterface
+public interface BackupProgressListener {
+    
+    /**
+     * Called repeatedly while the backup is written, and once more when it is finished.
+     * 
+     * @param bytesWritten The number of bytes written to the backup file so far.
+     * @param finished {@code true} when the backup is complete.
+     */
+    public void progress(long bytesWritten, boolean finished);
+    
+}
@@ -1,6 +1,10 @@
 package org.ormfux.common.db.query.connection;
 
 import java.sql.Connection;
+import java.util.Collections;
+import java.util.List;
+
+import org.ormfux.common.db.query.QueryListener;
 
 /**
  * Interface for providers, which build connections to a database.
@@ -29,10 +33,144 @@ public interface DbConnectionProvider {
      */
     public void backupDatabase(final CharSequence databaseVersion);
     
+    /**
+     * Backs up the database incrementally, storing only the parts of the database that changed
+     * since the previous incremental backup.
+     * 
+     * @param databaseVersion A version indicator for the backed up database.
+     * @return The path of the manifest describing the backup.
+     * 
+     * @throws UnsupportedOperationException unless implemented.
+     */
+    public default String backupDatabaseIncremental(final CharSequence databaseVersion) {
+        throw new UnsupportedOperationException("Incremental database backup is not supported.");
+    }
+    
+    /**
+     * If the connection provider can back up the database while it stays available.
+     * 
+     * @return {@code false}, unless implemented.
+     */
+    public default boolean isCanBackupDatabaseOnline() {
+        return false;
+    }
+    
+    /**
+     * Backs up the database while it stays available for other connections.
+     * 
+     * @param databaseVersion A version indicator for the backed up database.
+     * @param format The format of the backup.
+     * @param progressListener Receives the progress of the backup; can be {@code null}.
+     * @return The path of the backup file.
+     * 
+     * @throws UnsupportedOperationException unless implemented.
+     */
+    public default String backupDatabaseOnline(final CharSequence databaseVersion, 
+                                               final BackupFormat format, 
+                                               final BackupProgressListener progressListener) {
+        throw new UnsupportedOperationException("Online database backup is not supported.");
+    }
+    
+    /**
+     * Creates the SQL expression with which a collection parameter is bound as a single array parameter.
+     * The expression replaces the parameter including its brackets, e.g. in {@code id in :ids}, and
+     * must contain exactly one {@code ?}, to which the elements are bound as {@code Object[]}.
+     * 
+     * @param elementType The type of the elements as they are bound.
+     * @return The expression; {@code null} when array parameters are not supported for the type, 
+     *         which is the case unless implemented.
+     */
+    public default String createArrayParameterExpression(final Class<?> elementType) {
+        return null;
+    }
+    
+    /**
+     * Creates the statement creating a temporary table, into which the elements of a collection parameter
+     * are inserted. The table has the single column {@code x} and is only visible to the connection.
+     * It must be possible to create the table within a transaction without committing it.
+     * 
+     * @param tableName The name of the table.
+     * @param elementType The type of the elements as they are inserted.
+     * @return The statement; {@code null} when temporary tables are not supported for the type, 
+     *         which is the case unless implemented.
+     */
+    public default String createTempTableStatement(final String tableName, final Class<?> elementType) {
+        return null;
+    }
+    
+    /**
+     * Creates the statement inserting a row or updating the existing row with the same id in one step.
+     * The existing row is only updated, when its version equals the expected version; otherwise the 
+     * statement affects no row. The column values are bound to parameters named like the columns, the 
+     * expected version to the parameter {@code expectedVersion}.
+     * 
+     * @param tableName The name of the table.
+     * @param idColumn The id column.
+     * @param versionColumn The version column.
+     * @param columnNames All written columns, including the id and version columns.
+     * @return The statement; {@code null} when upserts are not supported, which is the case unless implemented.
+     */
+    public default String createUpsertStatement(final String tableName, 
+                                                final String idColumn, 
+                                                final String versionColumn, 
+                                                final List<String> columnNames) {
+        return null;
+    }
+    
     /**
      * Checks, if the database is reachable.
      * 
      * @return {@code true} when reachable.
      */
     public boolean ping();
+    
+    /**
+     * Validates a statement against the schema of the database without executing it. Unless implemented, 
+     * statements are not validated, so that errors show up when they are executed.
+     * 
+     * @param queryString The statement with {@code ?} placeholders for the parameters.
+     * 
+     * @throws org.ormfux.common.db.exception.SQLException When the statement is invalid.
+     */
+    public default void validateQuery(final String queryString) {
+    }
+    
+    /**
+     * Determines a fingerprint of the database schema (the tables and their columns), which changes
+     * when the schema changes.
+     * 
+     * @return The fingerprint.
+     * 
+     * @throws org.ormfux.common.db.exception.SQLException
+     * @throws UnsupportedOperationException unless implemented.
+     */
+    public default String getSchemaFingerprint() {
+        throw new UnsupportedOperationException("Schema fingerprints are not supported.");
+    }
+    
+    /**
+     * Registers a listener, which is notified about each query executed with connections of this provider.
+     * 
+     * @param listener The listener.
+     * 
+     * @throws UnsupportedOperationException unless implemented.
+     */
+    public default void addQueryListener(final QueryListener listener) {
+        throw new UnsupportedOperationException("Query listeners are not supported.");
+    }
+    
+    /**
+     * Removes a registered query listener. Does nothing, unless implemented.
+     * 
+     * @param listener The listener.
+     */
+    public default void removeQueryListener(final QueryListener listener) {
+    }
+    
+    /**
+     * The registered query listeners; empty, unless implemented.
+     */
+    public default List<QueryListener> getQueryListeners() {
+        return Collections.emptyList();
+    }
 }
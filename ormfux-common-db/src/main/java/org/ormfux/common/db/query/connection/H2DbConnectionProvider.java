@@ -1,15 +1,34 @@
 package org.ormfux.common.db.query.connection;
 
 import static org.ormfux.common.utils.NullableUtils.isNull;
+import static org.ormfux.common.utils.NullableUtils.nonNull;
 
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.Statement;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
+import org.apache.commons.lang3.StringUtils;
 import org.h2.engine.Constants;
 import org.h2.store.fs.FileUtils;
 import org.ormfux.common.db.exception.SQLException;
@@ -25,6 +44,42 @@ public class H2DbConnectionProvider extends AbstractDbConnectionProvider {
      */
     private static final String FILE_DB_INDICATOR = "jdbc:h2:file:";
     
+    /**
+     * The size of the buffers when writing a script backup.
+     */
+    private static final int SCRIPT_BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * Suffix of the database file for the directory containing incremental backups.
+     */
+    private static final String INCREMENTAL_BACKUP_DIRECTORY_SUFFIX = ".backups";
+    
+    /**
+     * Matches the statements that can be explained.
+     */
+    private static final Pattern EXPLAINABLE_PATTERN = Pattern.compile("(?i)^\\s*(select|insert|update|delete|merge|with)\\b");
+    
+    /**
+     * The SQL types of the collection parameter elements supported as array parameter or in temporary tables.
+     */
+    private static final Map<Class<?>, String> COLLECTION_ELEMENT_TYPES = new HashMap<>();
+    
+    static {
+        COLLECTION_ELEMENT_TYPES.put(String.class, "VARCHAR");
+        COLLECTION_ELEMENT_TYPES.put(Long.class, "BIGINT");
+        COLLECTION_ELEMENT_TYPES.put(Integer.class, "INT");
+        COLLECTION_ELEMENT_TYPES.put(Short.class, "SMALLINT");
+        COLLECTION_ELEMENT_TYPES.put(Byte.class, "TINYINT");
+        COLLECTION_ELEMENT_TYPES.put(Boolean.class, "BOOLEAN");
+        COLLECTION_ELEMENT_TYPES.put(Double.class, "DOUBLE");
+        COLLECTION_ELEMENT_TYPES.put(Float.class, "REAL");
+        COLLECTION_ELEMENT_TYPES.put(BigDecimal.class, "DECIMAL");
+        COLLECTION_ELEMENT_TYPES.put(UUID.class, "UUID");
+        COLLECTION_ELEMENT_TYPES.put(java.sql.Date.class, "DATE");
+        COLLECTION_ELEMENT_TYPES.put(java.sql.Time.class, "TIME");
+        COLLECTION_ELEMENT_TYPES.put(java.sql.Timestamp.class, "TIMESTAMP");
+    }
+    
     /**
      * The URL used to connect to the H2 database.
      */
@@ -101,7 +156,7 @@ public class H2DbConnectionProvider extends AbstractDbConnectionProvider {
         closeAllConnections();
         
         final String dbFile = getDbFile();
-        final String backupTimestamp = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(DateUtils.now());
+        final String backupTimestamp = createBackupTimestamp();
         
         try {
             final String pageDbFile = dbFile + Constants.SUFFIX_PAGE_FILE;
@@ -122,6 +177,203 @@ public class H2DbConnectionProvider extends AbstractDbConnectionProvider {
         }
     }
     
+    /**
+     * {@inheritDoc}
+     * 
+     * The backup store is the directory {@code <db file>.backups} next to the database file. The
+     * manifests are named after the database file, followed by the version and the timestamp.
+     * Like {@link #backupDatabase(CharSequence)}, the database is shut down for the backup.
+     * 
+     * @see IncrementalBackup
+     */
+    @Override
+    protected String doBackupDatabaseIncremental(final CharSequence databaseVersion) {
+        closeAllConnections();
+        
+        final String dbFile = getDbFile();
+        final List<Path> filesToBackup = new ArrayList<>();
+        
+        for (final String dbFileSuffix : new String[] {Constants.SUFFIX_PAGE_FILE, Constants.SUFFIX_MV_FILE}) {
+            if (FileUtils.exists(dbFile + dbFileSuffix)) {
+                filesToBackup.add(Paths.get(dbFile + dbFileSuffix));
+            }
+        }
+        
+        final IncrementalBackup backupStore = new IncrementalBackup(Paths.get(dbFile + INCREMENTAL_BACKUP_DIRECTORY_SUFFIX));
+        
+        try {
+            return backupStore.backup(Paths.get(dbFile).getFileName() + "." + databaseVersion + "." + createBackupTimestamp(), 
+                                      filesToBackup)
+                              .toString();
+        } catch (final IOException e) {
+            throw new SQLException("Error creating incremental backup of database.", e);
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * @return {@code true} when the connection is to a file database.
+     */
+    @Override
+    public boolean isCanBackupDatabaseOnline() {
+        return isCanBackupDatabase();
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * The backup file is named after the database file, followed by the version, the timestamp 
+     * and {@code .zip} for {@link BackupFormat#ARCHIVE} or {@code .sql.gz} for {@link BackupFormat#SCRIPT}.
+     * Archives are created with {@code BACKUP TO}, for which the progress is only reported once
+     * it is finished. Scripts can be restored with {@code RUNSCRIPT FROM '<file>' COMPRESSION GZIP}.
+     */
+    @Override
+    protected String doBackupDatabaseOnline(final CharSequence databaseVersion, 
+                                            final BackupFormat format, 
+                                            final BackupProgressListener progressListener) {
+        final String backupFile = getDbFile() + "." + databaseVersion + "." + createBackupTimestamp()
+                                  + (format == BackupFormat.ARCHIVE ? ".zip" : ".sql.gz");
+        
+        if (FileUtils.exists(backupFile)) {
+            throw new SQLException("The backup file already exists: " + backupFile);
+        }
+        
+        try (final Connection connection = getConnection();
+             final Statement statement = connection.createStatement()) {
+            
+            if (format == BackupFormat.ARCHIVE) {
+                statement.execute("BACKUP TO '" + StringUtils.replace(backupFile, "'", "''") + "'");
+            } else {
+                writeScript(statement, Paths.get(backupFile), progressListener);
+            }
+            
+            connection.commit();
+            
+        } catch (final java.sql.SQLException | IOException | RuntimeException e) {
+            FileUtils.tryDelete(backupFile);
+            throw new SQLException("Error creating online backup of database.", e);
+        }
+        
+        if (nonNull(progressListener)) {
+            progressListener.progress(FileUtils.size(backupFile), true);
+        }
+        
+        return backupFile;
+    }
+    
+    /**
+     * Writes the script of the database to the GZIP compressed backup file.
+     * 
+     * @param statement The statement with which to create the script.
+     * @param backupFile The backup file.
+     * @param progressListener Receives the progress of the backup; can be {@code null}.
+     * 
+     * @throws java.sql.SQLException
+     * @throws IOException
+     */
+    private void writeScript(final Statement statement, 
+                             final Path backupFile, 
+                             final BackupProgressListener progressListener) throws java.sql.SQLException, IOException {
+        try (final ResultSet script = statement.executeQuery("SCRIPT");
+             final CountingOutputStream fileOutput = new CountingOutputStream(Files.newOutputStream(backupFile));
+             final Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(fileOutput, SCRIPT_BUFFER_SIZE), 
+                                                                               StandardCharsets.UTF_8), 
+                                                      SCRIPT_BUFFER_SIZE)) {
+            long reportedBytes = 0;
+            
+            while (script.next()) {
+                writer.write(script.getString(1));
+                writer.write(";\n");
+                
+                //the compressed data reaches the file in chunks. report each chunk.
+                if (nonNull(progressListener) && fileOutput.getCount() > reportedBytes) {
+                    reportedBytes = fileOutput.getCount();
+                    progressListener.progress(reportedBytes, false);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Creates the timestamp for the names of backup files.
+     */
+    private String createBackupTimestamp() {
+        return new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(DateUtils.now());
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * The elements are selected from a {@code TABLE} function, which can be used with an index.
+     */
+    @Override
+    public String createArrayParameterExpression(final Class<?> elementType) {
+        final String sqlType = COLLECTION_ELEMENT_TYPES.get(elementType);
+        
+        if (isNull(sqlType)) {
+            return null;
+        } else {
+            return "(select x from table(x " + sqlType + " = ?))";
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * The table is transactional, so that its creation does not commit the current transaction.
+     */
+    @Override
+    public String createTempTableStatement(final String tableName, final Class<?> elementType) {
+        final String sqlType = COLLECTION_ELEMENT_TYPES.get(elementType);
+        
+        if (isNull(sqlType)) {
+            return null;
+        } else {
+            return "create local temporary table " + tableName + " (x " + sqlType + " primary key) transactional";
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * The row is merged with {@code MERGE INTO ... KEY}, selecting the values only when no row with a 
+     * different version exists.
+     */
+    @Override
+    public String createUpsertStatement(final String tableName, 
+                                        final String idColumn, 
+                                        final String versionColumn, 
+                                        final List<String> columnNames) {
+        final StringJoiner columns = new StringJoiner(", ", "(", ")");
+        final StringJoiner values = new StringJoiner(", ");
+        
+        for (final String columnName : columnNames) {
+            columns.add(columnName);
+            values.add(":" + columnName);
+        }
+        
+        return "merge into " + tableName + ' ' + columns + " key (" + idColumn + ") select " + values 
+                + " where not exists (select 1 from " + tableName 
+                + " where " + tableName + '.' + idColumn + " = :" + idColumn 
+                + " and " + tableName + '.' + versionColumn + " is not :expectedVersion)";
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * Data manipulation statements are validated with {@code EXPLAIN}, so that their execution plan
+     * is determined as well.
+     */
+    @Override
+    public void validateQuery(final String queryString) {
+        if (EXPLAINABLE_PATTERN.matcher(queryString).find()) {
+            super.validateQuery("explain " + queryString);
+        } else {
+            super.validateQuery(queryString);
+        }
+    }
+    
     /**
      * Checks, if the database file exists.
      */
@@ -139,4 +391,44 @@ public class H2DbConnectionProvider extends AbstractDbConnectionProvider {
     private String getDbFile() {
         return getDatabaseUrl().substring(FILE_DB_INDICATOR.length());
     }
+    
+    /**
+     * Counts the bytes written to the wrapped stream.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        
+        /**
+         * The number of written bytes.
+         */
+        private long count;
+        
+        /**
+         * @param out The wrapped stream.
+         */
+        public CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+        
+        /**
+         * The number of written bytes.
+         */
+        public long getCount() {
+            return count;
+        }
+        
+    }
 }
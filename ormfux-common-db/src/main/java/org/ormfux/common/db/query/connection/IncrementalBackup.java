@@ -0,0 +1,373 @@
+package org.ormfux.common.db.query.connection;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * An incremental, deduplicated backup store. Backed up files are split into chunks of a fixed size,
+ * which are stored once per content (identified by their SHA-256 hash). Each backup is described by
+ * a manifest listing the chunks of each file, so that each backup can be restored independently.
+ * Chunks, which did not change since a previous backup, are not stored again.
+ * <p>
+ * The store is a directory containing the manifests ({@code <backup name>.manifest}) and a
+ * sub-directory {@code chunks} with the chunk files.
+ * </p>
+ */
+public class IncrementalBackup {
+    
+    /**
+     * The default size of the chunks in bytes.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    
+    /**
+     * The suffix of manifest files.
+     */
+    public static final String MANIFEST_SUFFIX = ".manifest";
+    
+    /**
+     * The name of the directory containing the chunks.
+     */
+    private static final String CHUNK_DIRECTORY = "chunks";
+    
+    /**
+     * Manifest entry key for the chunk size.
+     */
+    private static final String CHUNK_SIZE_KEY = "chunkSize=";
+    
+    /**
+     * Manifest entry key for a file name. The chunk hashes of the file follow its size.
+     */
+    private static final String FILE_KEY = "file=";
+    
+    /**
+     * Manifest entry key for a file size.
+     */
+    private static final String SIZE_KEY = "size=";
+    
+    /**
+     * The algorithm with which the chunks are identified.
+     */
+    private static final String HASH_ALGORITHM = "SHA-256";
+    
+    /**
+     * The directory of the backup store.
+     */
+    private final Path backupDirectory;
+    
+    /**
+     * The size of the chunks in bytes.
+     */
+    private final int chunkSize;
+    
+    /**
+     * Creates a backup store with the default chunk size.
+     * 
+     * @param backupDirectory The directory of the backup store.
+     */
+    public IncrementalBackup(final Path backupDirectory) {
+        this(backupDirectory, DEFAULT_CHUNK_SIZE);
+    }
+    
+    /**
+     * @param backupDirectory The directory of the backup store.
+     * @param chunkSize The size of the chunks in bytes. Changing the chunk size of an existing
+     *                  store prevents the deduplication with the previous backups.
+     */
+    public IncrementalBackup(final Path backupDirectory, final int chunkSize) {
+        Objects.requireNonNull(backupDirectory);
+        
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size must be positive.");
+        }
+        
+        this.backupDirectory = backupDirectory;
+        this.chunkSize = chunkSize;
+    }
+    
+    /**
+     * Backs up the files. Only the chunks not yet contained in the store are written.
+     * 
+     * @param backupName The name of the backup. Determines the name of the manifest.
+     * @param files The files to back up. The file names must be unique.
+     * @return The manifest of the backup.
+     * 
+     * @throws IOException
+     * @throws FileAlreadyExistsException when there already is a backup with the name.
+     */
+    public Path backup(final String backupName, final List<Path> files) throws IOException {
+        final Path manifestFile = backupDirectory.resolve(backupName + MANIFEST_SUFFIX);
+        
+        if (Files.exists(manifestFile)) {
+            throw new FileAlreadyExistsException(manifestFile.toString());
+        }
+        
+        final Path chunkDirectory = backupDirectory.resolve(CHUNK_DIRECTORY);
+        Files.createDirectories(chunkDirectory);
+        
+        final MessageDigest digest = createDigest();
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(Math.min(chunkSize, 64 * 1024));
+        final Path tempManifestFile = Files.createTempFile(backupDirectory, backupName, ".tmp");
+        
+        try {
+            try (final BufferedWriter manifest = Files.newBufferedWriter(tempManifestFile, StandardCharsets.UTF_8)) {
+                writeManifestLine(manifest, CHUNK_SIZE_KEY + chunkSize);
+                
+                for (final Path file : files) {
+                    try (final FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+                        final long fileSize = fileChannel.size();
+                        writeManifestLine(manifest, FILE_KEY + file.getFileName());
+                        writeManifestLine(manifest, SIZE_KEY + fileSize);
+                        
+                        for (long chunkStart = 0; chunkStart < fileSize; chunkStart += chunkSize) {
+                            final long chunkLength = Math.min(chunkSize, fileSize - chunkStart);
+                            final String chunkHash = hashChunk(fileChannel, chunkStart, chunkLength, digest, readBuffer);
+                            
+                            storeChunk(fileChannel, chunkStart, chunkLength, chunkHash);
+                            writeManifestLine(manifest, chunkHash);
+                        }
+                    }
+                }
+            }
+            
+            //the manifest appears only when the backup is complete.
+            Files.move(tempManifestFile, manifestFile, StandardCopyOption.ATOMIC_MOVE);
+            
+        } finally {
+            Files.deleteIfExists(tempManifestFile);
+        }
+        
+        return manifestFile;
+    }
+    
+    /**
+     * Restores the files of a backup.
+     * 
+     * @param manifestFile The manifest of the backup.
+     * @param targetDirectory The directory into which the files are restored. Existing files are replaced.
+     * 
+     * @throws IOException
+     */
+    public void restore(final Path manifestFile, final Path targetDirectory) throws IOException {
+        Files.createDirectories(targetDirectory);
+        
+        try (final BufferedReader manifest = Files.newBufferedReader(manifestFile, StandardCharsets.UTF_8)) {
+            FileChannel targetChannel = null;
+            Path targetFile = null;
+            long targetSize = 0;
+            
+            try {
+                String line;
+                
+                while ((line = manifest.readLine()) != null) {
+                    if (line.isEmpty() || line.startsWith(CHUNK_SIZE_KEY)) {
+                        continue;
+                        
+                    } else if (line.startsWith(FILE_KEY)) {
+                        closeRestoredFile(targetChannel, targetFile, targetSize);
+                        
+                        targetFile = targetDirectory.resolve(line.substring(FILE_KEY.length()));
+                        targetChannel = FileChannel.open(targetFile,
+                                                         StandardOpenOption.CREATE,
+                                                         StandardOpenOption.WRITE,
+                                                         StandardOpenOption.TRUNCATE_EXISTING);
+                        
+                    } else if (line.startsWith(SIZE_KEY)) {
+                        targetSize = Long.parseLong(line.substring(SIZE_KEY.length()));
+                        
+                    } else if (targetChannel == null) {
+                        throw new IOException("Invalid manifest, chunk without file: " + manifestFile);
+                        
+                    } else {
+                        try (final FileChannel chunkChannel = FileChannel.open(getChunkFile(line), StandardOpenOption.READ)) {
+                            transfer(chunkChannel, 0, chunkChannel.size(), targetChannel);
+                        }
+                    }
+                }
+                
+                closeRestoredFile(targetChannel, targetFile, targetSize);
+                targetChannel = null;
+                
+            } finally {
+                if (targetChannel != null) {
+                    targetChannel.close();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Closes a restored file and checks its size.
+     * 
+     * @param targetChannel The channel to the restored file; can be {@code null}.
+     * @param targetFile The restored file.
+     * @param expectedSize The size of the file according to the manifest.
+     * 
+     * @throws IOException
+     */
+    private void closeRestoredFile(final FileChannel targetChannel, final Path targetFile, final long expectedSize) throws IOException {
+        if (targetChannel != null) {
+            final long actualSize = targetChannel.size();
+            targetChannel.close();
+            
+            if (actualSize != expectedSize) {
+                throw new IOException("Restored file " + targetFile + " has " + actualSize + " instead of " + expectedSize + " bytes.");
+            }
+        }
+    }
+    
+    /**
+     * Calculates the hash of a chunk.
+     * 
+     * @param fileChannel The channel to the backed up file.
+     * @param chunkStart The position of the chunk in the file.
+     * @param chunkLength The length of the chunk.
+     * @param digest The digest to use.
+     * @param readBuffer The buffer for reading the chunk.
+     * @return The hex encoded hash.
+     * 
+     * @throws IOException
+     */
+    private String hashChunk(final FileChannel fileChannel,
+                             final long chunkStart,
+                             final long chunkLength,
+                             final MessageDigest digest,
+                             final ByteBuffer readBuffer) throws IOException {
+        digest.reset();
+        long position = chunkStart;
+        final long chunkEnd = chunkStart + chunkLength;
+        
+        while (position < chunkEnd) {
+            readBuffer.clear();
+            readBuffer.limit((int) Math.min(readBuffer.capacity(), chunkEnd - position));
+            final int readBytes = fileChannel.read(readBuffer, position);
+            
+            if (readBytes < 0) {
+                throw new IOException("Unexpected end of file while reading a chunk.");
+            }
+            
+            readBuffer.flip();
+            digest.update(readBuffer);
+            position += readBytes;
+        }
+        
+        final byte[] hash = digest.digest();
+        final StringBuilder hexHash = new StringBuilder(hash.length * 2);
+        
+        for (final byte hashByte : hash) {
+            hexHash.append(Character.forDigit((hashByte >> 4) & 0xF, 16))
+                   .append(Character.forDigit(hashByte & 0xF, 16));
+        }
+        
+        return hexHash.toString();
+    }
+    
+    /**
+     * Stores the chunk, when the store does not contain it yet. The chunk is first written to
+     * a temporary file, so that incomplete chunks never appear in the store.
+     * 
+     * @param fileChannel The channel to the backed up file.
+     * @param chunkStart The position of the chunk in the file.
+     * @param chunkLength The length of the chunk.
+     * @param chunkHash The hash of the chunk.
+     * 
+     * @throws IOException
+     */
+    private void storeChunk(final FileChannel fileChannel,
+                            final long chunkStart,
+                            final long chunkLength,
+                            final String chunkHash) throws IOException {
+        final Path chunkFile = getChunkFile(chunkHash);
+        
+        if (!Files.exists(chunkFile)) {
+            Files.createDirectories(chunkFile.getParent());
+            final Path tempChunkFile = Files.createTempFile(chunkFile.getParent(), chunkHash, ".tmp");
+            
+            try {
+                try (final FileChannel chunkChannel = FileChannel.open(tempChunkFile, StandardOpenOption.WRITE)) {
+                    transfer(fileChannel, chunkStart, chunkLength, chunkChannel);
+                }
+                
+                Files.move(tempChunkFile, chunkFile, StandardCopyOption.ATOMIC_MOVE);
+                
+            } catch (final FileAlreadyExistsException e) {
+                //stored concurrently by another backup.
+            } finally {
+                Files.deleteIfExists(tempChunkFile);
+            }
+        }
+    }
+    
+    /**
+     * Transfers bytes between the channels.
+     * 
+     * @param source The source channel.
+     * @param position The position in the source channel.
+     * @param length The number of bytes to transfer.
+     * @param target The target channel.
+     * 
+     * @throws IOException
+     */
+    private void transfer(final FileChannel source, final long position, final long length, final FileChannel target) throws IOException {
+        long transferred = 0;
+        
+        while (transferred < length) {
+            final long transferredNow = source.transferTo(position + transferred, length - transferred, target);
+            
+            if (transferredNow <= 0 && position + transferred >= source.size()) {
+                throw new IOException("Unexpected end of file while transferring a chunk.");
+            }
+            
+            transferred += transferredNow;
+        }
+    }
+    
+    /**
+     * The file of the chunk with the hash. The chunks are distributed to sub-directories by
+     * the first two characters of their hashes.
+     * 
+     * @param chunkHash The hash of the chunk.
+     * @return The chunk file.
+     */
+    private Path getChunkFile(final String chunkHash) {
+        return backupDirectory.resolve(CHUNK_DIRECTORY).resolve(chunkHash.substring(0, 2)).resolve(chunkHash);
+    }
+    
+    /**
+     * Writes a line to the manifest.
+     * 
+     * @param manifest The manifest writer.
+     * @param line The line.
+     * 
+     * @throws IOException
+     */
+    private void writeManifestLine(final BufferedWriter manifest, final String line) throws IOException {
+        manifest.write(line);
+        manifest.newLine();
+    }
+    
+    /**
+     * Creates the digest with which the chunks are identified.
+     */
+    private MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Hash algorithm not available: " + HASH_ALGORITHM, e);
+        }
+    }
+    
+}
@@ -0,0 +1,21 @@
+package org.ormfux.common.db.query.flow;
+
+/**
+ * A producer of items, which are received by subscribers according to their demand. This mirrors
+ * {@code java.util.concurrent.Flow.Publisher} (and the Reactive Streams specification), which is not
+ * available on all supported Java versions.
+ * 
+ * @param <T> The type of the items.
+ */
+@FunctionalInterface
+public interface Publisher<T> {
+    
+    /**
+     * Adds the subscriber. The subscriber receives a {@link Subscription} via 
+     * {@link Subscriber#onSubscribe(Subscription)}, through which it requests items.
+     * 
+     * @param subscriber The subscriber.
+     */
+    public void subscribe(Subscriber<? super T> subscriber);
+
+}
@@ -0,0 +1,37 @@
+package org.ormfux.common.db.query.flow;
+
+/**
+ * A receiver of items from a {@link Publisher}. The methods are called serially. This mirrors
+ * {@code java.util.concurrent.Flow.Subscriber}.
+ * 
+ * @param <T> The type of the items.
+ */
+public interface Subscriber<T> {
+    
+    /**
+     * Called before any other method, with the subscription through which items are requested.
+     * 
+     * @param subscription The subscription.
+     */
+    public void onSubscribe(Subscription subscription);
+    
+    /**
+     * Called with the next item. Only called for requested items.
+     * 
+     * @param item The item.
+     */
+    public void onNext(T item);
+    
+    /**
+     * Called when the publisher fails. No other method is called afterwards.
+     * 
+     * @param throwable The failure.
+     */
+    public void onError(Throwable throwable);
+    
+    /**
+     * Called when all items are published. No other method is called afterwards.
+     */
+    public void onComplete();
+
+}
@@ -0,0 +1,21 @@
+package org.ormfux.common.db.query.flow;
+
+/**
+ * Connects a {@link Subscriber} to a {@link Publisher}. This mirrors 
+ * {@code java.util.concurrent.Flow.Subscription}.
+ */
+public interface Subscription {
+    
+    /**
+     * Adds to the number of items the subscriber wants to receive.
+     * 
+     * @param n The number of additional items; must be positive.
+     */
+    public void request(long n);
+    
+    /**
+     * Stops the delivery of items. Items may still be delivered for a short time.
+     */
+    public void cancel();
+
+}
@@ -0,0 +1,94 @@
+package org.ormfux.common.db.query.listener;
+
+import static org.ormfux.common.utils.NullableUtils.isNull;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ormfux.common.db.query.QueryEvent;
+import org.ormfux.common.db.query.QueryListener;
+
+/**
+ * Aggregates the durations and row counts of query executions in memory, one 
+ * {@link QueryStatistics} per SQL template. The number of tracked templates is limited; 
+ * executions of further templates are aggregated under {@link #OTHER_TEMPLATES}.
+ */
+public class QueryHistogramListener implements QueryListener {
+    
+    /**
+     * The key, under which executions are aggregated when the template limit is reached.
+     */
+    public static final String OTHER_TEMPLATES = "<other>";
+    
+    /**
+     * Default for the maximum number of tracked templates.
+     */
+    public static final int DEFAULT_MAX_TEMPLATES = 1000;
+    
+    /**
+     * The statistics by SQL template.
+     */
+    private final Map<String, QueryStatistics> statistics = new ConcurrentHashMap<>();
+    
+    /**
+     * The maximum number of templates for which separate statistics are kept.
+     */
+    private final int maxTemplates;
+    
+    /**
+     * Creates a listener tracking up to {@link #DEFAULT_MAX_TEMPLATES} templates.
+     */
+    public QueryHistogramListener() {
+        this(DEFAULT_MAX_TEMPLATES);
+    }
+    
+    /**
+     * @param maxTemplates The maximum number of templates for which separate statistics are kept.
+     */
+    public QueryHistogramListener(final int maxTemplates) {
+        if (maxTemplates < 1) {
+            throw new IllegalArgumentException("At least one template must be tracked.");
+        }
+        
+        this.maxTemplates = maxTemplates;
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public void queryExecuted(final QueryEvent event) {
+        QueryStatistics templateStatistics = statistics.get(event.getSqlTemplate());
+        
+        if (isNull(templateStatistics)) {
+            final String key = statistics.size() < maxTemplates ? event.getSqlTemplate() : OTHER_TEMPLATES;
+            templateStatistics = statistics.computeIfAbsent(key, template -> new QueryStatistics());
+        }
+        
+        templateStatistics.record(event);
+    }
+    
+    /**
+     * The statistics by SQL template.
+     */
+    public Map<String, QueryStatistics> getStatistics() {
+        return Collections.unmodifiableMap(statistics);
+    }
+    
+    /**
+     * The statistics for a SQL template.
+     * 
+     * @param sqlTemplate The template.
+     * @return The statistics; {@code null} when the template was not executed.
+     */
+    public QueryStatistics getStatistics(final String sqlTemplate) {
+        return statistics.get(sqlTemplate);
+    }
+    
+    /**
+     * Removes all collected statistics.
+     */
+    public void reset() {
+        statistics.clear();
+    }
+    
+}
@@ -0,0 +1,222 @@
+package org.ormfux.common.db.query.listener;
+
+import static org.ormfux.common.utils.NullableUtils.nonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.ormfux.common.db.query.QueryEvent;
+
+/**
+ * Thread-safe execution statistics of a single SQL template. The durations are recorded in 
+ * a histogram with buckets growing by a factor of two, starting at one micro second.
+ */
+public class QueryStatistics {
+    
+    /**
+     * The number of histogram buckets. The last bucket contains everything from about 
+     * 35 minutes upwards.
+     */
+    public static final int BUCKET_COUNT = 32;
+    
+    /**
+     * The number of executions.
+     */
+    private final LongAdder executionCount = new LongAdder();
+    
+    /**
+     * The number of failed executions.
+     */
+    private final LongAdder failureCount = new LongAdder();
+    
+    /**
+     * The sum of the total execution durations.
+     */
+    private final LongAdder totalNanos = new LongAdder();
+    
+    /**
+     * The sum of the connection wait durations.
+     */
+    private final LongAdder connectionWaitNanos = new LongAdder();
+    
+    /**
+     * The sum of the hydration durations.
+     */
+    private final LongAdder hydrateNanos = new LongAdder();
+    
+    /**
+     * The sum of the returned or affected rows.
+     */
+    private final LongAdder rowCount = new LongAdder();
+    
+    /**
+     * The longest total execution duration.
+     */
+    private final AtomicLong maxNanos = new AtomicLong();
+    
+    /**
+     * The execution counts per duration bucket.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    
+    /**
+     * Adds an execution to the statistics.
+     * 
+     * @param event The execution.
+     */
+    protected void record(final QueryEvent event) {
+        final long eventNanos = event.getTotalNanos();
+        
+        executionCount.increment();
+        totalNanos.add(eventNanos);
+        connectionWaitNanos.add(event.getConnectionWaitNanos());
+        hydrateNanos.add(event.getHydrateNanos());
+        rowCount.add(event.getRowCount());
+        maxNanos.accumulateAndGet(eventNanos, Math::max);
+        buckets.incrementAndGet(getBucketIndex(eventNanos));
+        
+        if (nonNull(event.getFailure())) {
+            failureCount.increment();
+        }
+    }
+    
+    /**
+     * Determines the histogram bucket for the duration.
+     * 
+     * @param nanos The duration.
+     * @return The bucket index.
+     */
+    private static int getBucketIndex(final long nanos) {
+        final long micros = nanos / 1000;
+        
+        if (micros < 1) {
+            return 0;
+        } else {
+            return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+        }
+    }
+    
+    /**
+     * The exclusive upper duration bound of a histogram bucket.
+     * 
+     * @param bucketIdx The index of the bucket.
+     * @return The bound in nano seconds; {@link Long#MAX_VALUE} for the last bucket.
+     */
+    public static long getBucketUpperBoundNanos(final int bucketIdx) {
+        if (bucketIdx >= BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        } else {
+            return (1L << bucketIdx) * 1000;
+        }
+    }
+    
+    /**
+     * The number of executions.
+     */
+    public long getExecutionCount() {
+        return executionCount.sum();
+    }
+    
+    /**
+     * The number of failed executions.
+     */
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+    
+    /**
+     * The sum of the total execution durations.
+     */
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+    
+    /**
+     * The average total execution duration.
+     */
+    public long getAverageNanos() {
+        final long count = getExecutionCount();
+        
+        return count == 0 ? 0 : getTotalNanos() / count;
+    }
+    
+    /**
+     * The longest total execution duration.
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+    
+    /**
+     * The sum of the connection wait durations.
+     */
+    public long getConnectionWaitNanos() {
+        return connectionWaitNanos.sum();
+    }
+    
+    /**
+     * The sum of the hydration durations.
+     */
+    public long getHydrateNanos() {
+        return hydrateNanos.sum();
+    }
+    
+    /**
+     * The sum of the returned or affected rows.
+     */
+    public long getRowCount() {
+        return rowCount.sum();
+    }
+    
+    /**
+     * A snapshot of the execution counts per histogram bucket.
+     */
+    public long[] getBuckets() {
+        final long[] snapshot = new long[BUCKET_COUNT];
+        
+        for (int bucketIdx = 0; bucketIdx < BUCKET_COUNT; bucketIdx++) {
+            snapshot[bucketIdx] = buckets.get(bucketIdx);
+        }
+        
+        return snapshot;
+    }
+    
+    /**
+     * Estimates a percentile of the total execution duration from the histogram.
+     * 
+     * @param percentile The percentile (between {@code 0} and {@code 100}).
+     * @return The upper bound of the bucket containing the percentile; {@code 0} when nothing 
+     *         was recorded. The last bucket reports the maximum duration.
+     */
+    public long getPercentileNanos(final double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("The percentile must be between 0 and 100.");
+        }
+        
+        final long[] snapshot = getBuckets();
+        long total = 0;
+        
+        for (final long bucketCount : snapshot) {
+            total += bucketCount;
+        }
+        
+        if (total == 0) {
+            return 0;
+        }
+        
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long cumulated = 0;
+        
+        for (int bucketIdx = 0; bucketIdx < BUCKET_COUNT; bucketIdx++) {
+            cumulated += snapshot[bucketIdx];
+            
+            if (cumulated >= rank) {
+                return Math.min(getBucketUpperBoundNanos(bucketIdx), getMaxNanos());
+            }
+        }
+        
+        return getMaxNanos();
+    }
+    
+}
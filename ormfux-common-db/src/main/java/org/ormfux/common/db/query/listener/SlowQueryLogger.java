@@ -0,0 +1,92 @@
+package org.ormfux.common.db.query.listener;
+
+import static org.ormfux.common.utils.NullableUtils.nonNull;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.ormfux.common.db.query.QueryEvent;
+import org.ormfux.common.db.query.QueryListener;
+
+/**
+ * Logs query executions, which take longer than a threshold. Uses {@code java.util.logging}, 
+ * so that no logging framework is required.
+ */
+public class SlowQueryLogger implements QueryListener {
+    
+    /**
+     * The logger to write to.
+     */
+    private final Logger logger;
+    
+    /**
+     * Executions with a total duration of at least this value are logged.
+     */
+    private final long thresholdNanos;
+    
+    /**
+     * Creates a logger writing to the logger named after this class.
+     * 
+     * @param threshold Executions taking at least this long are logged.
+     * @param unit The unit of the threshold.
+     */
+    public SlowQueryLogger(final long threshold, final TimeUnit unit) {
+        this(threshold, unit, Logger.getLogger(SlowQueryLogger.class.getName()));
+    }
+    
+    /**
+     * @param threshold Executions taking at least this long are logged.
+     * @param unit The unit of the threshold.
+     * @param logger The logger to write to.
+     */
+    public SlowQueryLogger(final long threshold, final TimeUnit unit, final Logger logger) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("The threshold must not be negative.");
+        }
+        
+        this.thresholdNanos = unit.toNanos(threshold);
+        this.logger = Objects.requireNonNull(logger);
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public void queryExecuted(final QueryEvent event) {
+        if (event.getTotalNanos() >= thresholdNanos && logger.isLoggable(Level.WARNING)) {
+            logger.log(Level.WARNING, buildMessage(event), event.getFailure());
+        }
+    }
+    
+    /**
+     * Creates the log message for the event.
+     * 
+     * @param event The query execution.
+     * @return The message.
+     */
+    protected String buildMessage(final QueryEvent event) {
+        final StringBuilder message = new StringBuilder();
+        
+        message.append("Slow ").append(event.getQueryType()).append(" query")
+               .append(nonNull(event.getFailure()) ? " (failed)" : "")
+               .append(": ").append(toMillis(event.getTotalNanos())).append(" ms total")
+               .append(", connection wait ").append(toMillis(event.getConnectionWaitNanos())).append(" ms")
+               .append(", prepare ").append(toMillis(event.getPrepareNanos())).append(" ms")
+               .append(", execute ").append(toMillis(event.getExecuteNanos())).append(" ms")
+               .append(", fetch ").append(toMillis(event.getFetchNanos())).append(" ms")
+               .append(", hydrate ").append(toMillis(event.getHydrateNanos())).append(" ms")
+               .append(", rows ").append(event.getRowCount())
+               .append(", parameters ").append(event.getParameterCount())
+               .append(": ").append(event.getSqlTemplate());
+        
+        return message.toString();
+    }
+    
+    /**
+     * Converts nano seconds to milli seconds with fractions.
+     */
+    private String toMillis(final long nanos) {
+        return String.format("%.3f", nanos / 1_000_000d);
+    }
+    
+}
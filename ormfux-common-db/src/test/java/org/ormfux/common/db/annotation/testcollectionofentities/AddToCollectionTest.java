@@ -3,8 +3,10 @@ package org.ormfux.common.db.annotation.testcollectionofentities;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.junit.Test;
+import org.ormfux.common.db.exception.StaleEntityException;
 import org.ormfux.common.db.query.TypedQuery;
 import org.ormfux.common.utils.ListUtils;
 
@@ -102,4 +104,45 @@ public class AddToCollectionTest extends AbstractCollectionOfEntitiesTest {
         
     }
     
+    @Test
+    public void testAddManyViaJoinColumn() {
+        queryManager.createQuery("insert into mock2 (id, version, mock) select 'mock2_' || x, 0, null from system_range(1, 2500)").executeUpdate();
+        queryManager.createQuery("insert into mock (id, version) values ('mainmock', 0)").executeUpdate();
+        
+        TypedQuery<MockEntity> query = queryManager.createQuery(MockEntity.class);
+        MockEntity loadedEntity = query.load("mainmock");
+        
+        //more elements than handled by a single statement
+        loadedEntity.getMockList1().addAll(queryManager.createQuery(MockEntity2.class).getResultList());
+        assertEquals(2500, loadedEntity.getMockList1().size());
+        
+        query.update(loadedEntity);
+        
+        assertEquals(2500L, queryManager.createQuery("select count(*) from mock2 where mock = 'mainmock'").getSingleResult().getValue(0));
+    }
+    
+    @Test
+    public void testAddStaleViaJoinColumn() {
+        queryManager.createQuery("insert into mock2 (id, version, mock) values ('mock2_1', 0, null)").executeUpdate();
+        queryManager.createQuery("insert into mock2 (id, version, mock) values ('mock2_2', 0, null)").executeUpdate();
+        queryManager.createQuery("insert into mock (id, version) values ('mainmock', 0)").executeUpdate();
+        
+        TypedQuery<MockEntity> query = queryManager.createQuery(MockEntity.class);
+        MockEntity loadedEntity = query.load("mainmock");
+        loadedEntity.getMockList1().addAll(queryManager.createQuery(MockEntity2.class).getResultList());
+        
+        queryManager.createQuery("update mock2 set version = 1 where id = 'mock2_2'").executeUpdate();
+        
+        try {
+            query.update(loadedEntity);
+            fail("The stale element should not be re-linked.");
+        } catch (StaleEntityException e) {
+            //expected.
+        }
+        
+        //the update is rolled back.
+        assertEquals(0L, queryManager.createQuery("select count(*) from mock2 where mock = 'mainmock'").getSingleResult().getValue(0));
+        assertEquals(0L, queryManager.createQuery("select version from mock where id = 'mainmock'").getSingleResult().getValue(0));
+    }
+    
 }
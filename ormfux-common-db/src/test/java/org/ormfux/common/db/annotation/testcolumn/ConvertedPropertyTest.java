@@ -0,0 +1,187 @@
+package org.ormfux.common.db.annotation.testcolumn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.annotation.AbstractAnnotationTest;
+import org.ormfux.common.db.annotation.Column;
+import org.ormfux.common.db.annotation.Entity;
+import org.ormfux.common.db.annotation.Id;
+import org.ormfux.common.db.annotation.Version;
+import org.ormfux.common.db.converters.ValueConverters;
+import org.ormfux.common.db.generators.RandomIdGenerator;
+import org.ormfux.common.db.query.TypedQuery;
+
+public class ConvertedPropertyTest extends AbstractAnnotationTest {
+    
+    public ConvertedPropertyTest() {
+        super("convertedpropertydb");
+    }
+    
+    @Before
+    public void beforeTest() {
+        super.beforeTest();
+        
+        queryManager.createQuery("create table entity (id varchar(255) not null, "
+                                                    + "version bigint, "
+                                                    + "intprop bigint, "
+                                                    + "instantprop timestamp, "
+                                                    + "localdateprop date, "
+                                                    + "localdatetimeprop timestamp, "
+                                                    + "stringprop varchar(255))").executeUpdate();
+        queryManager.createQuery("insert into entity (id, version, intprop, instantprop, localdateprop, localdatetimeprop, stringprop) "
+                                 + "values ('idvalue', 0, 42, '2018-03-04 05:06:07', '2018-03-04', '2018-03-04 05:06:07', 'text')").executeUpdate();
+        queryManager.createQuery("insert into entity (id, version) values ('nullvalues', 0)").executeUpdate();
+    }
+    
+    @After
+    public void afterTest() {
+        ValueConverters.reset();
+        super.afterTest();
+    }
+    
+    @Test
+    public void testRead() {
+        TypedQuery<ConvertedPropertiesEntity> query = queryManager.createQuery(ConvertedPropertiesEntity.class);
+        ConvertedPropertiesEntity entity = query.load("idvalue");
+        
+        assertEquals(42, entity.getIntProp());
+        assertEquals(LocalDate.of(2018, 3, 4), entity.getLocalDateProp());
+        assertEquals(LocalDateTime.of(2018, 3, 4, 5, 6, 7), entity.getLocalDateTimeProp());
+        assertEquals(java.sql.Timestamp.valueOf(LocalDateTime.of(2018, 3, 4, 5, 6, 7)).toInstant(), entity.getInstantProp());
+        assertEquals("text", entity.getStringProp());
+    }
+    
+    @Test
+    public void testReadNull() {
+        TypedQuery<ConvertedPropertiesEntity> query = queryManager.createQuery(ConvertedPropertiesEntity.class);
+        ConvertedPropertiesEntity entity = query.load("nullvalues");
+        
+        assertEquals(0, entity.getIntProp());
+        assertNull(entity.getInstantProp());
+        assertNull(entity.getLocalDateProp());
+        assertNull(entity.getLocalDateTimeProp());
+        assertNull(entity.getStringProp());
+    }
+    
+    @Test
+    public void testRoundTrip() {
+        TypedQuery<ConvertedPropertiesEntity> query = queryManager.createQuery(ConvertedPropertiesEntity.class);
+        
+        ConvertedPropertiesEntity entity = new ConvertedPropertiesEntity();
+        entity.setIntProp(7);
+        entity.setInstantProp(Instant.ofEpochMilli(1520139967000L));
+        entity.setLocalDateProp(LocalDate.of(2019, 1, 2));
+        entity.setLocalDateTimeProp(LocalDateTime.of(2019, 1, 2, 3, 4, 5));
+        query.update(entity);
+        
+        ConvertedPropertiesEntity loaded = queryManager.createQuery(ConvertedPropertiesEntity.class).load(entity.getId());
+        assertEquals(7, loaded.getIntProp());
+        assertEquals(Instant.ofEpochMilli(1520139967000L), loaded.getInstantProp());
+        assertEquals(LocalDate.of(2019, 1, 2), loaded.getLocalDateProp());
+        assertEquals(LocalDateTime.of(2019, 1, 2, 3, 4, 5), loaded.getLocalDateTimeProp());
+    }
+    
+    @Test
+    public void testCustomConverter() {
+        ValueConverters.register(String.class, (resultSet, columnIdx) -> resultSet.getString(columnIdx).toUpperCase());
+        
+        TypedQuery<ConvertedPropertiesEntity> query = queryManager.createQuery(ConvertedPropertiesEntity.class);
+        ConvertedPropertiesEntity entity = query.load("idvalue");
+        
+        assertEquals("IDVALUE", entity.getId());
+        assertEquals("TEXT", entity.getStringProp());
+    }
+    
+    @Entity(table = "entity")
+    public static class ConvertedPropertiesEntity {
+        
+        @Id(RandomIdGenerator.class)
+        @Column(columnName = "id", columnLabel = "id")
+        private String id;
+        
+        @Version
+        @Column(columnName = "version", columnLabel = "version")
+        private long version;
+        
+        @Column(columnName = "intprop", columnLabel = "intprop")
+        private int intProp;
+        
+        @Column(columnName = "instantprop", columnLabel = "instantprop")
+        private Instant instantProp;
+        
+        @Column(columnName = "localdateprop", columnLabel = "localdateprop")
+        private LocalDate localDateProp;
+        
+        @Column(columnName = "localdatetimeprop", columnLabel = "localdatetimeprop")
+        private LocalDateTime localDateTimeProp;
+        
+        @Column(columnName = "stringprop", columnLabel = "stringprop")
+        private String stringProp;
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+        
+        public int getIntProp() {
+            return intProp;
+        }
+        
+        public void setIntProp(int intProp) {
+            this.intProp = intProp;
+        }
+        
+        public Instant getInstantProp() {
+            return instantProp;
+        }
+        
+        public void setInstantProp(Instant instantProp) {
+            this.instantProp = instantProp;
+        }
+        
+        public LocalDate getLocalDateProp() {
+            return localDateProp;
+        }
+        
+        public void setLocalDateProp(LocalDate localDateProp) {
+            this.localDateProp = localDateProp;
+        }
+        
+        public LocalDateTime getLocalDateTimeProp() {
+            return localDateTimeProp;
+        }
+        
+        public void setLocalDateTimeProp(LocalDateTime localDateTimeProp) {
+            this.localDateTimeProp = localDateTimeProp;
+        }
+        
+        public String getStringProp() {
+            return stringProp;
+        }
+        
+        public void setStringProp(String stringProp) {
+            this.stringProp = stringProp;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,94 @@
+package org.ormfux.common.db.query.connection.testh2dbconnectionprovider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.query.connection.H2DbConnectionProvider;
+import org.ormfux.common.db.query.connection.IncrementalBackup;
+
+public class BackupDatabaseIncrementalTest extends AbstractH2ConnectionProviderTest {
+    
+    @Before
+    public void beforeTest() {
+        super.beforeTest();
+        setDbFilesDir("build/h2testfiles/backupincrementaldb");
+    }
+    
+    @Override
+    public void afterTest() {
+        deleteRecursively(Paths.get(getDbFilesDir().getPath()));
+    }
+    
+    @Test
+    public void testBackupAndRestore() throws SQLException, IOException, InterruptedException {
+        final String h2Url = "./" + getDbFilesDir().getPath() + "/dbtobackup";
+        H2DbConnectionProvider connectionProvider = new H2DbConnectionProvider("jdbc:h2:file:" + h2Url);
+        
+        Connection connection = connectionProvider.getConnection();
+        Statement statement = connection.createStatement();
+        statement.executeUpdate("create table test (id varchar(255))");
+        statement.executeUpdate("insert into test (id) values ('first')");
+        connection.commit();
+        
+        String firstManifest = connectionProvider.backupDatabaseIncremental("1.0");
+        assertTrue(connection.isClosed());
+        assertTrue(new File(firstManifest).getName().matches("dbtobackup\\.1\\.0\\.\\d{4}-\\d{2}-\\d{2}_\\d{2}-\\d{2}-\\d{2}\\.manifest"));
+        assertEquals(new File(h2Url + ".backups"), new File(firstManifest).getParentFile());
+        
+        connection = connectionProvider.getConnection();
+        statement = connection.createStatement();
+        statement.executeUpdate("insert into test (id) values ('second')");
+        connection.commit();
+        
+        //different timestamp
+        Thread.sleep(1100);
+        String secondManifest = connectionProvider.backupDatabaseIncremental("2.0");
+        assertNotEquals(firstManifest, secondManifest);
+        
+        //restore the first version
+        IncrementalBackup backupStore = new IncrementalBackup(Paths.get(h2Url + ".backups"));
+        Path restoreDir = Paths.get(getDbFilesDir().getPath(), "restored");
+        backupStore.restore(Paths.get(firstManifest), restoreDir);
+        
+        H2DbConnectionProvider restoredProvider = new H2DbConnectionProvider("jdbc:h2:file:./" + restoreDir + "/dbtobackup");
+        Connection restoredConnection = restoredProvider.getConnection();
+        
+        try (Statement restoredStatement = restoredConnection.createStatement(); 
+             ResultSet resultSet = restoredStatement.executeQuery("select count(*) from test")) {
+            resultSet.next();
+            assertEquals(1, resultSet.getInt(1));
+        }
+        
+        restoredProvider.closeAllConnections();
+    }
+    
+    @Test(expected = UnsupportedOperationException.class)
+    public void testBackupNotSupported() {
+        new H2DbConnectionProvider("jdbc:h2:mem:noincrementalbackup").backupDatabaseIncremental("version");
+    }
+    
+    private void deleteRecursively(Path dir) {
+        if (Files.exists(dir)) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot delete test files.", e);
+            }
+        }
+    }
+}
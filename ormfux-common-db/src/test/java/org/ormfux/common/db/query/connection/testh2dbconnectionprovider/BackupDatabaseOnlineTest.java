@@ -0,0 +1,147 @@
+package org.ormfux.common.db.query.connection.testh2dbconnectionprovider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.query.connection.BackupFormat;
+import org.ormfux.common.db.query.connection.H2DbConnectionProvider;
+
+public class BackupDatabaseOnlineTest extends AbstractH2ConnectionProviderTest {
+    
+    @Before
+    public void beforeTest() {
+        super.beforeTest();
+        setDbFilesDir("build/h2testfiles/backuponlinedb");
+    }
+    
+    @Test
+    public void testArchiveBackup() throws SQLException, IOException {
+        final String h2Url = "./" + getDbFilesDir().getPath() + "/dbtobackup";
+        H2DbConnectionProvider connectionProvider = new H2DbConnectionProvider("jdbc:h2:file:" + h2Url);
+        Connection connection = createTestData(connectionProvider);
+        
+        List<Boolean> progress = new ArrayList<>();
+        String backupFile = connectionProvider.backupDatabaseOnline("versionNumber", 
+                                                                    BackupFormat.ARCHIVE, 
+                                                                    (bytesWritten, finished) -> progress.add(finished));
+        
+        //the database stays available
+        assertFalse(connection.isClosed());
+        assertEquals(1, countRows(connection));
+        
+        assertTrue(new File(backupFile).getName().matches("dbtobackup\\.versionNumber\\.\\d{4}-\\d{2}-\\d{2}_\\d{2}-\\d{2}-\\d{2}\\.zip"));
+        assertEquals(1, progress.size());
+        assertTrue(progress.get(0));
+        
+        Set<String> entries = new HashSet<>();
+        
+        try (ZipInputStream zip = new ZipInputStream(new FileInputStream(backupFile))) {
+            ZipEntry entry;
+            
+            while ((entry = zip.getNextEntry()) != null) {
+                entries.add(entry.getName());
+            }
+        }
+        
+        assertTrue(entries.contains("dbtobackup.mv.db"));
+        
+        shutdownDb(connection.createStatement());
+    }
+    
+    @Test
+    public void testScriptBackup() throws SQLException {
+        final String h2Url = "./" + getDbFilesDir().getPath() + "/dbtobackup";
+        H2DbConnectionProvider connectionProvider = new H2DbConnectionProvider("jdbc:h2:file:" + h2Url);
+        Connection connection = createTestData(connectionProvider);
+        
+        Statement statement = connection.createStatement();
+        
+        //enough hardly compressible data for the compressed script to be written in several chunks
+        statement.executeUpdate("insert into test (id) select random_uuid() || random_uuid() from system_range(1, 20000)");
+        
+        connection.commit();
+        
+        List<Long> progress = new ArrayList<>();
+        List<Boolean> finished = new ArrayList<>();
+        String backupFile = connectionProvider.backupDatabaseOnline("versionNumber", 
+                                                                    BackupFormat.SCRIPT, 
+                                                                    (bytesWritten, isFinished) -> {
+                                                                        progress.add(bytesWritten);
+                                                                        finished.add(isFinished);
+                                                                    });
+        
+        assertFalse(connection.isClosed());
+        assertTrue(new File(backupFile).getName().matches("dbtobackup\\.versionNumber\\.\\d{4}-\\d{2}-\\d{2}_\\d{2}-\\d{2}-\\d{2}\\.sql\\.gz"));
+        
+        //intermediate progress and the final report with the file size
+        assertTrue(progress.size() > 1);
+        assertFalse(finished.get(0));
+        assertTrue(finished.get(finished.size() - 1));
+        assertEquals(new File(backupFile).length(), progress.get(progress.size() - 1).longValue());
+        
+        shutdownDb(statement);
+        
+        //restore into a new database
+        H2DbConnectionProvider restoreProvider = new H2DbConnectionProvider("jdbc:h2:mem:restoreonlinebackup");
+        Connection restoreConnection = restoreProvider.getConnection();
+        Statement restoreStatement = restoreConnection.createStatement();
+        restoreStatement.execute("RUNSCRIPT FROM '" + backupFile + "' COMPRESSION GZIP");
+        
+        assertEquals(20001, countRows(restoreConnection));
+        
+        shutdownDb(restoreStatement);
+    }
+    
+    @Test
+    public void testBackupNotSupported() throws SQLException {
+        H2DbConnectionProvider connectionProvider = new H2DbConnectionProvider("jdbc:h2:mem:noonlinebackup");
+        
+        try {
+            connectionProvider.backupDatabaseOnline("version", BackupFormat.ARCHIVE, null);
+            fail("Expecting UnsupportedOperationException.");
+        } catch (UnsupportedOperationException e) {}
+        
+        Connection connection = connectionProvider.getConnection();
+        shutdownDb(connection.createStatement());
+    }
+    
+    private Connection createTestData(H2DbConnectionProvider connectionProvider) throws SQLException {
+        Connection connection = connectionProvider.getConnection();
+        connection.setAutoCommit(false);
+        
+        Statement statement = connection.createStatement();
+        statement.executeUpdate("create table test (id varchar(255))");
+        statement.executeUpdate("insert into test (id) values ('testid')");
+        connection.commit();
+        statement.close();
+        
+        return connection;
+    }
+    
+    private int countRows(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement(); 
+             ResultSet resultSet = statement.executeQuery("select count(*) from test")) {
+            resultSet.next();
+            
+            return resultSet.getInt(1);
+        }
+    }
+}
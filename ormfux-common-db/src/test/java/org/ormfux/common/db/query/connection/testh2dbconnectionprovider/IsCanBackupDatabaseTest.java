@@ -21,4 +21,9 @@ public class IsCanBackupDatabaseTest {
         assertFalse(new H2DbConnectionProvider("jdbc:h2:mem:test").isCanBackupDatabase());
     }
     
+    @Test
+    public void testCanBackupOnline() {
+        assertTrue(new H2DbConnectionProvider("jdbc:h2:file:test").isCanBackupDatabaseOnline());
+        assertFalse(new H2DbConnectionProvider("jdbc:h2:mem:test").isCanBackupDatabaseOnline());
+    }
 }
@@ -0,0 +1,49 @@
+package org.ormfux.common.db.query.connection.testincrementalbackup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+
+public abstract class AbstractIncrementalBackupTest {
+    
+    protected Path testDir = Paths.get("build/incrementalbackuptest");
+    
+    @Before
+    public void beforeTest() throws IOException {
+        deleteTestDir();
+        Files.createDirectories(testDir);
+    }
+    
+    @After
+    public void afterTest() throws IOException {
+        deleteTestDir();
+    }
+    
+    protected long countChunks(Path backupDir) throws IOException {
+        try (Stream<Path> files = Files.walk(backupDir.resolve("chunks"))) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+    
+    protected byte[] createContent(int size, int seed) {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        
+        return content;
+    }
+    
+    private void deleteTestDir() throws IOException {
+        if (Files.exists(testDir)) {
+            try (Stream<Path> files = Files.walk(testDir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.ormfux.common.db.query.connection.testincrementalbackup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.ormfux.common.db.query.connection.IncrementalBackup;
+
+public class BackupTest extends AbstractIncrementalBackupTest {
+    
+    @Test
+    public void testUnchangedChunksAreNotStoredAgain() throws IOException {
+        Path backupDir = testDir.resolve("backups");
+        Path file = testDir.resolve("data.db");
+        IncrementalBackup backup = new IncrementalBackup(backupDir, 1024);
+        
+        byte[] content = createContent(10 * 1024 + 100, 1);
+        Files.write(file, content);
+        
+        Path firstManifest = backup.backup("first", Collections.singletonList(file));
+        assertTrue(Files.isRegularFile(firstManifest));
+        assertEquals("first.manifest", firstManifest.getFileName().toString());
+        assertEquals(11, countChunks(backupDir));
+        
+        //change a single chunk
+        content[5 * 1024 + 10]++;
+        Files.write(file, content);
+        
+        backup.backup("second", Collections.singletonList(file));
+        assertEquals(12, countChunks(backupDir));
+        
+        //no change at all
+        backup.backup("third", Collections.singletonList(file));
+        assertEquals(12, countChunks(backupDir));
+    }
+    
+    @Test
+    public void testIdenticalChunksWithinFile() throws IOException {
+        Path backupDir = testDir.resolve("backups");
+        Path file = testDir.resolve("data.db");
+        
+        byte[] content = new byte[8 * 1024];
+        Arrays.fill(content, (byte) 7);
+        Files.write(file, content);
+        
+        new IncrementalBackup(backupDir, 1024).backup("zeros", Collections.singletonList(file));
+        assertEquals(1, countChunks(backupDir));
+    }
+    
+    @Test
+    public void testMultipleFiles() throws IOException {
+        Path backupDir = testDir.resolve("backups");
+        Path file1 = testDir.resolve("data1.db");
+        Path file2 = testDir.resolve("data2.db");
+        Files.write(file1, createContent(2048, 1));
+        Files.write(file2, createContent(1024, 2));
+        
+        Path manifest = new IncrementalBackup(backupDir, 1024).backup("both", Arrays.asList(file1, file2));
+        
+        assertEquals(3, countChunks(backupDir));
+        assertEquals(Arrays.asList("chunkSize=1024", "file=data1.db", "size=2048"), 
+                     Files.readAllLines(manifest).subList(0, 3));
+        assertEquals(Arrays.asList("file=data2.db", "size=1024"), 
+                     Files.readAllLines(manifest).subList(5, 7));
+    }
+    
+    @Test
+    public void testEmptyFile() throws IOException {
+        Path backupDir = testDir.resolve("backups");
+        Path file = testDir.resolve("empty.db");
+        Files.write(file, new byte[0]);
+        
+        IncrementalBackup backup = new IncrementalBackup(backupDir);
+        Path manifest = backup.backup("empty", Collections.singletonList(file));
+        
+        assertEquals(0, countChunks(backupDir));
+        
+        Path restoreDir = testDir.resolve("restore");
+        backup.restore(manifest, restoreDir);
+        assertArrayEquals(new byte[0], Files.readAllBytes(restoreDir.resolve("empty.db")));
+    }
+    
+    @Test(expected = FileAlreadyExistsException.class)
+    public void testDuplicateBackupName() throws IOException {
+        Path backupDir = testDir.resolve("backups");
+        Path file = testDir.resolve("data.db");
+        Files.write(file, createContent(100, 1));
+        
+        IncrementalBackup backup = new IncrementalBackup(backupDir);
+        backup.backup("name", Collections.singletonList(file));
+        backup.backup("name", Collections.singletonList(file));
+    }
+    
+}
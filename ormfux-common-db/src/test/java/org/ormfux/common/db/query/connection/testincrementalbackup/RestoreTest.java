@@ -0,0 +1,85 @@
+package org.ormfux.common.db.query.connection.testincrementalbackup;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.ormfux.common.db.query.connection.IncrementalBackup;
+
+public class RestoreTest extends AbstractIncrementalBackupTest {
+    
+    @Test
+    public void testRestoreEachVersion() throws IOException {
+        Path backupDir = testDir.resolve("backups");
+        Path file = testDir.resolve("data.db");
+        IncrementalBackup backup = new IncrementalBackup(backupDir, 1024);
+        
+        byte[] firstContent = createContent(5000, 1);
+        Files.write(file, firstContent);
+        Path firstManifest = backup.backup("first", Collections.singletonList(file));
+        
+        //grown and changed
+        byte[] secondContent = Arrays.copyOf(firstContent, 7000);
+        secondContent[1500] = 42;
+        Files.write(file, secondContent);
+        Path secondManifest = backup.backup("second", Collections.singletonList(file));
+        
+        //shrunk
+        byte[] thirdContent = Arrays.copyOf(secondContent, 3000);
+        Files.write(file, thirdContent);
+        Path thirdManifest = backup.backup("third", Collections.singletonList(file));
+        
+        Path restoreDir = testDir.resolve("restore");
+        
+        backup.restore(firstManifest, restoreDir);
+        assertArrayEquals(firstContent, Files.readAllBytes(restoreDir.resolve("data.db")));
+        
+        backup.restore(secondManifest, restoreDir);
+        assertArrayEquals(secondContent, Files.readAllBytes(restoreDir.resolve("data.db")));
+        
+        backup.restore(thirdManifest, restoreDir);
+        assertArrayEquals(thirdContent, Files.readAllBytes(restoreDir.resolve("data.db")));
+    }
+    
+    @Test
+    public void testRestoreMultipleFiles() throws IOException {
+        Path backupDir = testDir.resolve("backups");
+        Path file1 = testDir.resolve("data1.db");
+        Path file2 = testDir.resolve("data2.db");
+        byte[] content1 = createContent(3333, 1);
+        byte[] content2 = createContent(100, 2);
+        Files.write(file1, content1);
+        Files.write(file2, content2);
+        
+        IncrementalBackup backup = new IncrementalBackup(backupDir, 1024);
+        Path manifest = backup.backup("both", Arrays.asList(file1, file2));
+        
+        Path restoreDir = testDir.resolve("restore");
+        backup.restore(manifest, restoreDir);
+        
+        assertArrayEquals(content1, Files.readAllBytes(restoreDir.resolve("data1.db")));
+        assertArrayEquals(content2, Files.readAllBytes(restoreDir.resolve("data2.db")));
+    }
+    
+    @Test(expected = IOException.class)
+    public void testMissingChunk() throws IOException {
+        Path backupDir = testDir.resolve("backups");
+        Path file = testDir.resolve("data.db");
+        Files.write(file, createContent(100, 1));
+        
+        IncrementalBackup backup = new IncrementalBackup(backupDir);
+        Path manifest = backup.backup("backup", Collections.singletonList(file));
+        
+        try (java.util.stream.Stream<Path> chunks = Files.walk(backupDir.resolve("chunks"))) {
+            chunks.filter(Files::isRegularFile).forEach(chunk -> chunk.toFile().delete());
+        }
+        
+        backup.restore(manifest, testDir.resolve("restore"));
+    }
+    
+}
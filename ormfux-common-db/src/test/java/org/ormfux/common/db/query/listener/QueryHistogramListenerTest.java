@@ -0,0 +1,102 @@
+package org.ormfux.common.db.query.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.query.QueryManager;
+import org.ormfux.common.db.query.connection.H2DbConnectionProvider;
+
+public class QueryHistogramListenerTest {
+    
+    private QueryManager queryManager;
+    
+    @Before
+    public void beforeTest() {
+        queryManager = new QueryManager();
+        queryManager.setDatabase(H2DbConnectionProvider.class, 
+                                 "jdbc:h2:mem:histogramdb", 
+                                 "DB_CLOSE_DELAY=-1", 
+                                 "MODE=MYSQL", 
+                                 "DATABASE_TO_UPPER=false", 
+                                 "AUTOCOMMIT=false");
+        
+        queryManager.createQuery("DROP ALL OBJECTS").executeUpdate();
+        queryManager.createQuery("create table mock (id varchar(255) not null)").executeUpdate();
+        queryManager.createQuery("insert into mock (id) values ('id1'); insert into mock (id) values ('id2')").executeUpdate();
+    }
+    
+    @After
+    public void afterTest() {
+        queryManager.setDatabase(H2DbConnectionProvider.class, "jdbc:h2:mem:histogramdb");
+    }
+    
+    @Test
+    public void testAggregatePerTemplate() {
+        QueryHistogramListener listener = new QueryHistogramListener();
+        queryManager.addQueryListener(listener);
+        
+        for (int run = 0; run < 3; run++) {
+            queryManager.createQuery("select id from mock").getResultList();
+        }
+        
+        queryManager.createQuery("update mock set id = 'id3' where id = 'id1'").executeUpdate();
+        
+        assertEquals(2, listener.getStatistics().size());
+        
+        QueryStatistics selectStatistics = listener.getStatistics("select id from mock");
+        assertNotNull(selectStatistics);
+        assertEquals(3, selectStatistics.getExecutionCount());
+        assertEquals(6, selectStatistics.getRowCount());
+        assertEquals(0, selectStatistics.getFailureCount());
+        assertTrue(selectStatistics.getMaxNanos() > 0);
+        assertTrue(selectStatistics.getAverageNanos() <= selectStatistics.getMaxNanos());
+        
+        long bucketSum = 0;
+        
+        for (long bucketCount : selectStatistics.getBuckets()) {
+            bucketSum += bucketCount;
+        }
+        
+        assertEquals(3, bucketSum);
+        assertTrue(selectStatistics.getPercentileNanos(50) <= selectStatistics.getMaxNanos());
+        assertEquals(selectStatistics.getMaxNanos(), selectStatistics.getPercentileNanos(100));
+        
+        assertEquals(1, listener.getStatistics("update mock set id = 'id3' where id = 'id1'").getRowCount());
+        
+        listener.reset();
+        assertTrue(listener.getStatistics().isEmpty());
+    }
+    
+    @Test
+    public void testTemplateLimit() {
+        QueryHistogramListener listener = new QueryHistogramListener(1);
+        queryManager.addQueryListener(listener);
+        
+        queryManager.createQuery("select id from mock").getResultList();
+        queryManager.createQuery("select id from mock where id = 'id1'").getResultList();
+        queryManager.createQuery("select id from mock where id = 'id2'").getResultList();
+        
+        assertEquals(2, listener.getStatistics().size());
+        assertEquals(1, listener.getStatistics("select id from mock").getExecutionCount());
+        assertNull(listener.getStatistics("select id from mock where id = 'id1'"));
+        assertEquals(2, listener.getStatistics(QueryHistogramListener.OTHER_TEMPLATES).getExecutionCount());
+    }
+    
+    @Test
+    public void testBucketBounds() {
+        assertEquals(1000L, QueryStatistics.getBucketUpperBoundNanos(0));
+        assertEquals(2000L, QueryStatistics.getBucketUpperBoundNanos(1));
+        assertEquals(Long.MAX_VALUE, QueryStatistics.getBucketUpperBoundNanos(QueryStatistics.BUCKET_COUNT - 1));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        new QueryStatistics().getPercentileNanos(101);
+    }
+    
+}
@@ -0,0 +1,90 @@
+package org.ormfux.common.db.query.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.query.QueryManager;
+import org.ormfux.common.db.query.connection.H2DbConnectionProvider;
+
+public class SlowQueryLoggerTest {
+    
+    private QueryManager queryManager;
+    
+    private Logger logger;
+    
+    private List<LogRecord> records;
+    
+    @Before
+    public void beforeTest() {
+        queryManager = new QueryManager();
+        queryManager.setDatabase(H2DbConnectionProvider.class, 
+                                 "jdbc:h2:mem:slowquerydb", 
+                                 "DB_CLOSE_DELAY=-1", 
+                                 "MODE=MYSQL", 
+                                 "DATABASE_TO_UPPER=false", 
+                                 "AUTOCOMMIT=false");
+        
+        records = new ArrayList<>();
+        logger = Logger.getLogger(SlowQueryLoggerTest.class.getName());
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+            
+            @Override
+            public void flush() {
+            }
+            
+            @Override
+            public void close() {
+            }
+        });
+    }
+    
+    @After
+    public void afterTest() {
+        for (Handler handler : logger.getHandlers()) {
+            logger.removeHandler(handler);
+        }
+        
+        queryManager.setDatabase(H2DbConnectionProvider.class, "jdbc:h2:mem:slowquerydb");
+    }
+    
+    @Test
+    public void testLogAboveThreshold() {
+        queryManager.addQueryListener(new SlowQueryLogger(0, TimeUnit.MILLISECONDS, logger));
+        queryManager.createQuery("select 1 from dual").getResultList();
+        
+        assertEquals(1, records.size());
+        assertEquals(Level.WARNING, records.get(0).getLevel());
+        assertTrue(records.get(0).getMessage().startsWith("Slow SELECT query: "));
+        assertTrue(records.get(0).getMessage().endsWith(": select 1 from dual"));
+    }
+    
+    @Test
+    public void testNoLogBelowThreshold() {
+        queryManager.addQueryListener(new SlowQueryLogger(1, TimeUnit.HOURS, logger));
+        queryManager.createQuery("select 1 from dual").getResultList();
+        
+        assertTrue(records.isEmpty());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeThreshold() {
+        new SlowQueryLogger(-1, TimeUnit.MILLISECONDS);
+    }
+    
+}
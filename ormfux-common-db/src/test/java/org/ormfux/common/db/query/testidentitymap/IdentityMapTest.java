@@ -0,0 +1,76 @@
+package org.ormfux.common.db.query.testidentitymap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.ormfux.common.db.query.IdentityMap;
+
+public class IdentityMapTest {
+    
+    @Test
+    public void testObjectIds() {
+        IdentityMap identityMap = new IdentityMap();
+        String entity = "entity";
+        
+        assertNull(identityMap.putIfAbsent(String.class, "id", entity));
+        assertSame(entity, identityMap.putIfAbsent(String.class, "id", "other"));
+        assertSame(entity, identityMap.get(String.class, "id"));
+        assertTrue(identityMap.contains(String.class, "id"));
+        
+        //the entities are separated by type.
+        assertFalse(identityMap.contains(Object.class, "id"));
+        assertNull(identityMap.get(String.class, "unknown"));
+        
+        identityMap.remove(String.class, "id");
+        assertFalse(identityMap.contains(String.class, "id"));
+        assertEquals(0, identityMap.size());
+    }
+    
+    @Test
+    public void testLongIds() {
+        IdentityMap identityMap = new IdentityMap();
+        
+        for (long id = 0; id < 10_000; id++) {
+            assertNull(identityMap.putIfAbsent(Long.class, id * 31, id));
+        }
+        
+        assertEquals(10_000, identityMap.size());
+        
+        //integral ids of different types are the same key.
+        assertEquals(Long.valueOf(3), identityMap.get(Long.class, 93));
+        assertEquals(Long.valueOf(3), identityMap.get(Long.class, (short) 93));
+        assertNull(identityMap.get(Long.class, 94L));
+        
+        for (long id = 0; id < 10_000; id += 2) {
+            identityMap.remove(Long.class, id * 31);
+        }
+        
+        assertEquals(5_000, identityMap.size());
+        
+        //the remaining entries are still found after the removals.
+        for (long id = 0; id < 10_000; id++) {
+            if (id % 2 == 0) {
+                assertNull(identityMap.get(Long.class, id * 31));
+            } else {
+                assertEquals(Long.valueOf(id), identityMap.get(Long.class, id * 31));
+            }
+        }
+    }
+    
+    @Test
+    public void testClear() {
+        IdentityMap identityMap = new IdentityMap();
+        identityMap.putIfAbsent(String.class, "id", "entity");
+        identityMap.putIfAbsent(Long.class, 1L, 1L);
+        
+        assertEquals(2, identityMap.size());
+        identityMap.clear();
+        assertEquals(0, identityMap.size());
+        assertNull(identityMap.get(Long.class, 1L));
+    }
+
+}
@@ -0,0 +1,50 @@
+package org.ormfux.common.db.query.testparsedquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.ormfux.common.db.query.ParsedQuery;
+import org.ormfux.common.db.query.SqlStatementSplitter.SqlStatement;
+
+public class SplitStatementsTest {
+    
+    @Test
+    public void testSplitOnce() {
+        ParsedQuery parsedQuery = ParsedQuery.parse("update a set x = :x where id in :ids; delete from b where id = :id");
+        
+        List<SqlStatement> statements = parsedQuery.splitStatements("update a set x = ? where id in (?,?); delete from b where id = ?");
+        
+        assertEquals(2, statements.size());
+        assertEquals("update a set x = ? where id in (?,?)", statements.get(0).getSql());
+        assertEquals(3, statements.get(0).getParameterCount());
+        assertEquals("delete from b where id = ?", statements.get(1).getSql());
+        assertEquals(1, statements.get(1).getParameterCount());
+        
+        assertSame(statements, parsedQuery.splitStatements("update a set x = ? where id in (?,?); delete from b where id = ?"));
+    }
+    
+    @Test
+    public void testPreparedQueryStrings() {
+        ParsedQuery parsedQuery = ParsedQuery.parse("delete from b where id in :ids");
+        
+        List<SqlStatement> twoIds = parsedQuery.splitStatements("delete from b where id in (?,?)");
+        List<SqlStatement> fourIds = parsedQuery.splitStatements("delete from b where id in (?,?,?,?)");
+        
+        assertNotSame(twoIds, fourIds);
+        assertEquals(2, twoIds.get(0).getParameterCount());
+        assertEquals(4, fourIds.get(0).getParameterCount());
+        assertSame(twoIds, parsedQuery.splitStatements("delete from b where id in (?,?)"));
+    }
+    
+    @Test(expected = UnsupportedOperationException.class)
+    public void testUnmodifiable() {
+        ParsedQuery parsedQuery = ParsedQuery.parse("delete from b");
+        
+        parsedQuery.splitStatements("delete from b").clear();
+    }
+    
+}
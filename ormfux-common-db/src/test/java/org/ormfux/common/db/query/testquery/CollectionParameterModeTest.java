@@ -0,0 +1,222 @@
+package org.ormfux.common.db.query.testquery;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.query.CollectionParameterMode;
+import org.ormfux.common.db.query.Query;
+import org.ormfux.common.db.query.QueryEvent;
+import org.ormfux.common.db.query.QueryResult;
+import org.ormfux.common.db.query.QueryResult.QueryResultRow;
+import org.ormfux.common.db.query.connection.H2DbConnectionProvider;
+
+public class CollectionParameterModeTest extends AbstractQueryTest {
+    
+    public CollectionParameterModeTest() {
+        super("collectionparametermodedb");
+    }
+    
+    @Before
+    public void beforeTest() throws SQLException {
+        super.beforeTest();
+        insertIds();
+    }
+    
+    private void insertIds() throws SQLException {
+        Connection connection = getDbConnection();
+        PreparedStatement statement = connection.prepareStatement("insert into mock (id) values (?)");
+        
+        for (int idIdx = 0; idIdx < 3000; idIdx++) {
+            statement.setString(1, "id" + idIdx);
+            statement.addBatch();
+        }
+        
+        statement.executeBatch();
+        connection.commit();
+        statement.close();
+        connection.close();
+    }
+    
+    @Test
+    public void testDefaultMode() {
+        assertEquals(CollectionParameterMode.EXPAND, queryManager.getCollectionParameterMode());
+        assertEquals(CollectionParameterMode.EXPAND, queryManager.createQuery("select id from mock").getCollectionParameterMode());
+        
+        queryManager.setCollectionParameterMode(CollectionParameterMode.ARRAY);
+        assertEquals(CollectionParameterMode.ARRAY, queryManager.createQuery("select id from mock").getCollectionParameterMode());
+    }
+    
+    @Test
+    public void testArrayBinding() throws SQLException {
+        enableQueryStatistics();
+        queryManager.setCollectionParameterMode(CollectionParameterMode.ARRAY);
+        
+        assertEquals(new HashSet<>(Arrays.asList("id1", "id2")), selectIds(Arrays.asList("id1", "id2", "unknown")));
+        assertEquals(new HashSet<>(Arrays.asList("id1", "id2", "id3", "id4", "id5")),
+                     selectIds(Arrays.asList("id1", "id2", "id3", "id4", "id5")));
+        assertEquals(2500, selectIds(createIds(2500)).size());
+        
+        //one SQL text for all collection sizes.
+        assertEquals(1, countStatements("select id from mock where id in %"));
+    }
+    
+    @Test
+    public void testExpandedBinding() throws SQLException {
+        enableQueryStatistics();
+        
+        assertEquals(new HashSet<>(Arrays.asList("id1", "id2")), selectIds(Arrays.asList("id1", "id2", "unknown")));
+        assertEquals(5, selectIds(Arrays.asList("id1", "id2", "id3", "id4", "id5")).size());
+        
+        assertEquals(2, countStatements("select id from mock where id in %"));
+    }
+    
+    @Test
+    public void testPaddedBindingWithoutArraySupport() throws SQLException {
+        useConnectionProviderWithoutArrays();
+        enableQueryStatistics();
+        queryManager.setCollectionParameterMode(CollectionParameterMode.ARRAY);
+        
+        assertEquals(new HashSet<>(Arrays.asList("id1", "id2", "id3")), selectIds(Arrays.asList("id1", "id2", "id3")));
+        assertEquals(new HashSet<>(Arrays.asList("id1", "id2", "id3", "id4")), selectIds(Arrays.asList("id1", "id2", "id3", "id4")));
+        assertEquals(Collections.singleton("id1"), selectIds(Arrays.asList("id1")));
+        
+        //3 and 4 elements are padded to the same size.
+        assertEquals(2, countStatements("select id from mock where id in %"));
+    }
+    
+    @Test
+    public void testLargeCollectionNotChunkedWithoutOptIn() throws SQLException {
+        useConnectionProviderWithoutArrays();
+        queryManager.setCollectionParameterMode(CollectionParameterMode.ARRAY);
+        
+        final List<QueryEvent> events = new ArrayList<>();
+        queryManager.addQueryListener(events::add);
+        
+        //aggregates are only correct, when the query is executed once for all elements.
+        Query query = queryManager.createQuery("select count(*) from mock where id in :ids");
+        query.addParameter("ids", createIds(2500));
+        
+        assertEquals(2500L, ((Number) query.getSingleResult().getValue(0)).longValue());
+        assertEquals(1, events.size());
+    }
+    
+    @Test
+    public void testChunkedSelectWithoutArraySupport() throws SQLException {
+        useConnectionProviderWithoutArrays();
+        queryManager.setCollectionParameterMode(CollectionParameterMode.CHUNKED_IN);
+        
+        final List<QueryEvent> events = new ArrayList<>();
+        queryManager.addQueryListener(events::add);
+        
+        final List<String> ids = createIds(2500);
+        //duplicates must not be returned twice.
+        ids.addAll(createIds(10));
+        
+        Query query = queryManager.createQuery("select id from mock where id in :ids order by id");
+        query.addParameter("ids", ids);
+        QueryResult result = query.getResultList();
+        
+        assertEquals(2500, result.size());
+        assertEquals(2500, new HashSet<>(collectIds(result)).size());
+        
+        assertEquals(1, events.size());
+        assertEquals(2500, events.get(0).getRowCount());
+    }
+    
+    private Set<String> selectIds(List<String> ids) {
+        Query query = queryManager.createQuery("select id from mock where id in :ids");
+        query.addParameter("ids", ids);
+        
+        return new HashSet<>(collectIds(query.getResultList()));
+    }
+    
+    private List<String> collectIds(QueryResult result) {
+        List<String> ids = new ArrayList<>();
+        
+        for (QueryResultRow row : result) {
+            ids.add((String) row.getValue(0));
+        }
+        
+        return ids;
+    }
+    
+    private List<String> createIds(int count) {
+        List<String> ids = new ArrayList<>();
+        
+        for (int idIdx = 0; idIdx < count; idIdx++) {
+            ids.add("id" + idIdx);
+        }
+        
+        return ids;
+    }
+    
+    private void useConnectionProviderWithoutArrays() throws SQLException {
+        queryManager.setDatabase(NoArrayH2DbConnectionProvider.class,
+                                 "jdbc:h2:mem:collectionparametermodedb",
+                                 "DB_CLOSE_DELAY=-1",
+                                 "MODE=MYSQL",
+                                 "DATABASE_TO_UPPER=false",
+                                 "AUTOCOMMIT=false");
+        
+        Connection connection = getDbConnection();
+        Statement statement = connection.createStatement();
+        statement.executeUpdate("create table if not exists mock (id varchar(255) not null)");
+        statement.executeUpdate("delete from mock");
+        connection.commit();
+        statement.close();
+        connection.close();
+        
+        insertIds();
+    }
+    
+    private void enableQueryStatistics() throws SQLException {
+        Connection connection = getDbConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("SET QUERY_STATISTICS FALSE");
+        statement.execute("SET QUERY_STATISTICS TRUE");
+        statement.close();
+        connection.close();
+    }
+    
+    private int countStatements(String sqlPattern) throws SQLException {
+        Connection connection = getDbConnection();
+        PreparedStatement statement = connection.prepareStatement("select count(*) from INFORMATION_SCHEMA.QUERY_STATISTICS where SQL_STATEMENT like ?");
+        statement.setString(1, sqlPattern);
+        ResultSet result = statement.executeQuery();
+        result.next();
+        int count = result.getInt(1);
+        
+        result.close();
+        statement.close();
+        connection.close();
+        
+        return count;
+    }
+    
+    public static class NoArrayH2DbConnectionProvider extends H2DbConnectionProvider {
+        
+        public NoArrayH2DbConnectionProvider(String databaseFile, String... connectionParams) {
+            super(databaseFile, connectionParams);
+        }
+        
+        @Override
+        public String createArrayParameterExpression(Class<?> elementType) {
+            return null;
+        }
+        
+    }
+    
+}
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 
+import java.util.Arrays;
 import java.util.Iterator;
 
 import org.junit.Test;
@@ -80,6 +81,21 @@ public class GetResultListTest extends AbstractQueryTest {
         assertEquals(0, resultList.size());
     }
     
+    @Test
+    public void testCollectionParam() {
+        queryManager.createQuery("insert into mock (id) values ('id2'); insert into mock (id) values ('id3')").executeUpdate();
+        
+        Query query = queryManager.createQuery("select id from mock where id in :ids order by id");
+        query.addParameter("ids", Arrays.asList("id2", "idvalue"));
+        
+        QueryResult resultList = query.getResultList();
+        assertNotNull(resultList);
+        assertEquals(2, resultList.size());
+        Iterator<QueryResultRow> resultIterator = resultList.iterator();
+        assertEquals("id2", resultIterator.next().getValue("id"));
+        assertEquals("idvalue", resultIterator.next().getValue("id"));
+    }
+    
     @Test(expected = SQLException.class)
     public void testParamValueMissing() {
         Query query = queryManager.createQuery("select id from mock where id = :id");
@@ -0,0 +1,210 @@
+package org.ormfux.common.db.query.testquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.query.QueryEvent;
+import org.ormfux.common.db.query.QueryResult.QueryResultRow;
+import org.ormfux.common.db.query.flow.Publisher;
+import org.ormfux.common.db.query.flow.Subscriber;
+import org.ormfux.common.db.query.flow.Subscription;
+
+public class PublishResultsTest extends AbstractQueryTest {
+    
+    private ExecutorService executor;
+    
+    private CountDownLatch eventLatch;
+    
+    private List<QueryEvent> events;
+    
+    public PublishResultsTest() {
+        super("publishresultsdb");
+    }
+    
+    @Before
+    public void beforeTest() throws SQLException {
+        super.beforeTest();
+        
+        Connection connection = getDbConnection();
+        PreparedStatement statement = connection.prepareStatement("insert into mock (id) values (?)");
+        
+        for (int idIdx = 0; idIdx < 100; idIdx++) {
+            statement.setString(1, String.format("id%03d", idIdx));
+            statement.addBatch();
+        }
+        
+        statement.executeBatch();
+        connection.commit();
+        statement.close();
+        connection.close();
+        
+        executor = Executors.newSingleThreadExecutor();
+        eventLatch = new CountDownLatch(1);
+        events = Collections.synchronizedList(new ArrayList<>());
+        queryManager.addQueryListener(event -> {
+            events.add(event);
+            eventLatch.countDown();
+        });
+    }
+    
+    @After
+    public void afterTest() {
+        executor.shutdownNow();
+        super.afterTest();
+    }
+    
+    @Test
+    public void testPublishOnDemand() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        queryManager.createQuery("select id from mock where id like 'id0%' order by id").publishResults(executor).subscribe(subscriber);
+        
+        subscriber.subscription.request(10);
+        subscriber.awaitItems(10);
+        Thread.sleep(100);
+        
+        //no more rows than requested.
+        assertEquals(10, subscriber.items.size());
+        assertEquals(1, subscriber.terminated.getCount());
+        
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+        
+        assertTrue(subscriber.completed);
+        assertNull(subscriber.error);
+        assertEquals(100, subscriber.items.size());
+        
+        for (int idIdx = 0; idIdx < 100; idIdx++) {
+            assertEquals(String.format("id%03d", idIdx), subscriber.items.get(idIdx).getValue("id"));
+        }
+        
+        assertTrue(eventLatch.await(10, TimeUnit.SECONDS));
+        assertEquals(100, events.get(0).getRowCount());
+    }
+    
+    @Test
+    public void testCompleteWithoutDemand() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        queryManager.createQuery("select id from mock where id = 'unknown'").publishResults(executor).subscribe(subscriber);
+        
+        assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+        assertTrue(subscriber.completed);
+        assertTrue(subscriber.items.isEmpty());
+    }
+    
+    @Test
+    public void testCancel() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        queryManager.createQuery("select id from mock").publishResults(executor).subscribe(subscriber);
+        
+        subscriber.subscription.request(5);
+        subscriber.awaitItems(5);
+        subscriber.subscription.cancel();
+        
+        //the query ends and releases the connection.
+        assertTrue(eventLatch.await(10, TimeUnit.SECONDS));
+        assertEquals(5, events.get(0).getRowCount());
+        assertFalse(subscriber.completed);
+        assertNull(subscriber.error);
+        assertEquals(5, subscriber.items.size());
+    }
+    
+    @Test
+    public void testInvalidRequest() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        queryManager.createQuery("select id from mock").publishResults(executor).subscribe(subscriber);
+        
+        subscriber.subscription.request(0);
+        
+        assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+    
+    @Test
+    public void testQueryFailure() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        queryManager.createQuery("select unknown from mock").publishResults(executor).subscribe(subscriber);
+        
+        assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+        assertTrue(subscriber.error instanceof org.ormfux.common.db.exception.SQLException);
+        assertTrue(eventLatch.await(10, TimeUnit.SECONDS));
+        assertTrue(events.get(0).getFailure() instanceof org.ormfux.common.db.exception.SQLException);
+    }
+    
+    @Test
+    public void testResubscribe() throws InterruptedException {
+        RecordingSubscriber firstSubscriber = new RecordingSubscriber();
+        RecordingSubscriber secondSubscriber = new RecordingSubscriber();
+        
+        Publisher<QueryResultRow> publisher = queryManager.createQuery("select id from mock").publishResults(executor);
+        publisher.subscribe(firstSubscriber);
+        firstSubscriber.subscription.request(Long.MAX_VALUE);
+        publisher.subscribe(secondSubscriber);
+        secondSubscriber.subscription.request(Long.MAX_VALUE);
+        
+        assertTrue(firstSubscriber.terminated.await(10, TimeUnit.SECONDS));
+        assertTrue(secondSubscriber.terminated.await(10, TimeUnit.SECONDS));
+        assertEquals(101, firstSubscriber.items.size());
+        assertEquals(101, secondSubscriber.items.size());
+    }
+    
+    private static class RecordingSubscriber implements Subscriber<QueryResultRow> {
+        
+        private final List<QueryResultRow> items = Collections.synchronizedList(new ArrayList<>());
+        
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        
+        private volatile Subscription subscription;
+        
+        private volatile boolean completed;
+        
+        private volatile Throwable error;
+        
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+        
+        @Override
+        public void onNext(QueryResultRow item) {
+            items.add(item);
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            terminated.countDown();
+        }
+        
+        @Override
+        public void onComplete() {
+            completed = true;
+            terminated.countDown();
+        }
+        
+        private void awaitItems(int count) throws InterruptedException {
+            long endTime = System.currentTimeMillis() + 10_000;
+            
+            while (items.size() < count && System.currentTimeMillis() < endTime) {
+                Thread.sleep(10);
+            }
+        }
+        
+    }
+
+}
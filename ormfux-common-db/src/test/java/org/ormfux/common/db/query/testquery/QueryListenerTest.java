@@ -0,0 +1,114 @@
+package org.ormfux.common.db.query.testquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.exception.SQLException;
+import org.ormfux.common.db.query.Query;
+import org.ormfux.common.db.query.QueryEvent;
+import org.ormfux.common.db.query.QueryEvent.QueryType;
+
+public class QueryListenerTest extends AbstractQueryTest {
+    
+    private List<QueryEvent> events;
+    
+    public QueryListenerTest() {
+        super("querylistenerdb");
+    }
+    
+    @Before
+    public void beforeTest() throws java.sql.SQLException {
+        super.beforeTest();
+        
+        events = new ArrayList<>();
+        queryManager.addQueryListener(events::add);
+    }
+    
+    @Test
+    public void testSelectEvent() {
+        Query query = queryManager.createQuery("select id from mock where id = :id");
+        query.addParameter("id", "idvalue");
+        query.getResultList();
+        
+        assertEquals(1, events.size());
+        
+        QueryEvent event = events.get(0);
+        assertEquals("select id from mock where id = :id", event.getSqlTemplate());
+        assertEquals(QueryType.SELECT, event.getQueryType());
+        assertEquals(1, event.getParameterCount());
+        assertEquals(1, event.getRowCount());
+        assertEquals(0, event.getHydrateNanos());
+        assertTrue(event.getExecuteNanos() > 0);
+        assertTrue(event.getTotalNanos() >= event.getExecuteNanos() + event.getConnectionWaitNanos());
+        assertNull(event.getFailure());
+    }
+    
+    @Test
+    public void testUpdateEvent() {
+        Query query = queryManager.createQuery("insert into mock (id) values (:id1); insert into mock (id) values (:id2);");
+        query.addParameter("id1", "id1");
+        query.addParameter("id2", "id2");
+        query.executeUpdate();
+        
+        assertEquals(1, events.size());
+        
+        QueryEvent event = events.get(0);
+        assertEquals(QueryType.UPDATE, event.getQueryType());
+        assertEquals(2, event.getParameterCount());
+        assertEquals(2, event.getRowCount());
+        assertEquals(0, event.getFetchNanos());
+    }
+    
+    @Test
+    public void testFailureEvent() {
+        try {
+            queryManager.createQuery("select nonexisting from mock").getResultList();
+            fail("Expecting SQLException.");
+        } catch (SQLException e) {}
+        
+        assertEquals(1, events.size());
+        assertNotNull(events.get(0).getFailure());
+    }
+    
+    @Test
+    public void testRemoveListener() {
+        queryManager.createQuery("select id from mock").getResultList();
+        assertEquals(1, events.size());
+        
+        List<QueryEvent> otherEvents = new ArrayList<>();
+        queryManager.addQueryListener(otherEvents::add);
+        queryManager.createQuery("select id from mock").getResultList();
+        assertEquals(2, events.size());
+        assertEquals(1, otherEvents.size());
+    }
+    
+    @Test
+    public void testFailingListener() {
+        queryManager.addQueryListener(event -> {
+            throw new IllegalStateException("listener failure");
+        });
+        
+        //the committed update is not reported as failed.
+        Query query = queryManager.createQuery("insert into mock (id) values (:id)");
+        query.addParameter("id", "committed");
+        assertEquals(1, query.executeUpdate());
+        assertEquals(1, queryManager.createQuery("select id from mock where id = 'committed'").getResultList().size());
+        
+        //the original failure is not replaced.
+        try {
+            queryManager.createQuery("select nonexisting from mock").getResultList();
+            fail("Expecting SQLException.");
+        } catch (SQLException e) {}
+        
+        assertEquals(3, events.size());
+    }
+    
+}
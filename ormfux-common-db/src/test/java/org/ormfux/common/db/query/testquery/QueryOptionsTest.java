@@ -0,0 +1,192 @@
+package org.ormfux.common.db.query.testquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.query.CollectionParameterMode;
+import org.ormfux.common.db.query.Query;
+import org.ormfux.common.db.query.QueryOptions;
+import org.ormfux.common.db.query.connection.H2DbConnectionProvider;
+import org.ormfux.common.db.query.testquery.CollectionParameterModeTest.NoArrayH2DbConnectionProvider;
+
+public class QueryOptionsTest extends AbstractQueryTest {
+    
+    private static final List<String> INVOCATIONS = new ArrayList<>();
+    
+    public QueryOptionsTest() {
+        super("queryoptionsdb");
+    }
+    
+    @Before
+    public void beforeTest() throws SQLException {
+        super.beforeTest();
+        insertIds();
+    }
+    
+    private void insertIds() throws SQLException {
+        Connection connection = getDbConnection();
+        Statement createStatement = connection.createStatement();
+        createStatement.executeUpdate("create table if not exists mock (id varchar(255) not null)");
+        createStatement.close();
+        
+        PreparedStatement statement = connection.prepareStatement("insert into mock (id) values (?)");
+        
+        for (int idIdx = 0; idIdx < 3000; idIdx++) {
+            statement.setString(1, "id" + idIdx);
+            statement.addBatch();
+        }
+        
+        statement.executeBatch();
+        connection.commit();
+        statement.close();
+        connection.close();
+    }
+    
+    @Test
+    public void testDefaultOptions() {
+        QueryOptions defaultOptions = queryManager.getDefaultOptions();
+        assertEquals(0, defaultOptions.getFetchSize());
+        assertEquals(0, defaultOptions.getQueryTimeout());
+        assertEquals(0, defaultOptions.getMaxRows());
+        assertFalse(defaultOptions.isReadOnly());
+        
+        defaultOptions.setQueryTimeout(30);
+        Query query = queryManager.createQuery("select id from mock");
+        assertEquals(30, query.getOptions().getQueryTimeout());
+        
+        //the query has its own copy.
+        query.getOptions().setQueryTimeout(5);
+        assertEquals(30, defaultOptions.getQueryTimeout());
+        assertEquals(30, queryManager.createQuery("select id from mock").getOptions().getQueryTimeout());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeMaxRows() {
+        new QueryOptions().setMaxRows(-1);
+    }
+    
+    @Test
+    public void testMaxRows() {
+        Query query = queryManager.createQuery("select id from mock");
+        query.getOptions().setMaxRows(10);
+        
+        assertEquals(10, query.getResultList().size());
+    }
+    
+    @Test
+    public void testMaxRowsOfChunkedSelect() throws SQLException {
+        useConnectionProvider(NoArrayH2DbConnectionProvider.class);
+        queryManager.setCollectionParameterMode(CollectionParameterMode.CHUNKED_IN);
+        
+        List<String> ids = new ArrayList<>();
+        
+        for (int idIdx = 0; idIdx < 3000; idIdx++) {
+            ids.add("id" + idIdx);
+        }
+        
+        Query query = queryManager.createQuery("select id from mock where id in :ids");
+        query.addParameter("ids", ids);
+        query.getOptions().setMaxRows(1500);
+        
+        assertEquals(1500, query.getResultList().size());
+    }
+    
+    @Test
+    public void testQueryTimeout() {
+        Query query = queryManager.createQuery("select count(*) from system_range(1, 100000) a, system_range(1, 100000) b");
+        query.getOptions().setQueryTimeout(1);
+        
+        long startTime = System.nanoTime();
+        
+        try {
+            query.getResultList();
+            fail("The query should time out.");
+        } catch (org.ormfux.common.db.exception.SQLException e) {
+            assertTrue(System.nanoTime() - startTime < 30_000_000_000L);
+        }
+    }
+    
+    @Test
+    public void testAppliedOptions() throws SQLException {
+        useConnectionProvider(RecordingH2DbConnectionProvider.class);
+        
+        Query query = queryManager.createQuery("select id from mock");
+        query.getOptions().setFetchSize(100);
+        query.getOptions().setQueryTimeout(20);
+        query.getOptions().setReadOnly(true);
+        
+        INVOCATIONS.clear();
+        query.getResultList();
+        
+        assertTrue(INVOCATIONS.contains("setFetchSize(100)"));
+        assertTrue(INVOCATIONS.contains("setQueryTimeout(20)"));
+        assertTrue(INVOCATIONS.contains("setReadOnly(true)"));
+        
+        INVOCATIONS.clear();
+        queryManager.createQuery("select id from mock").getResultList();
+        
+        assertFalse(INVOCATIONS.contains("setFetchSize(100)"));
+        assertFalse(INVOCATIONS.contains("setReadOnly(true)"));
+    }
+    
+    private void useConnectionProvider(Class<? extends H2DbConnectionProvider> providerType) throws SQLException {
+        queryManager.setDatabase(providerType,
+                                 "jdbc:h2:mem:queryoptionsdb",
+                                 "DB_CLOSE_DELAY=-1",
+                                 "MODE=MYSQL",
+                                 "DATABASE_TO_UPPER=false",
+                                 "AUTOCOMMIT=false");
+        insertIds();
+    }
+    
+    public static class RecordingH2DbConnectionProvider extends H2DbConnectionProvider {
+        
+        public RecordingH2DbConnectionProvider(String databaseFile, String... connectionParams) {
+            super(databaseFile, connectionParams);
+        }
+        
+        @Override
+        public Connection getConnection() {
+            return record(super.getConnection(), Connection.class);
+        }
+        
+        private static <T> T record(T target, Class<T> type) {
+            InvocationHandler handler = (proxy, method, args) -> {
+                if (method.getName().startsWith("set") && args != null && args.length == 1) {
+                    INVOCATIONS.add(method.getName() + "(" + args[0] + ")");
+                }
+                
+                try {
+                    Object result = method.invoke(target, args);
+                    
+                    if (result instanceof PreparedStatement) {
+                        return record((PreparedStatement) result, PreparedStatement.class);
+                    } else {
+                        return result;
+                    }
+                    
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            };
+            
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+        }
+        
+    }
+    
+}
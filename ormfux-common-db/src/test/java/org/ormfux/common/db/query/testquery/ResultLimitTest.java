@@ -0,0 +1,194 @@
+package org.ormfux.common.db.query.testquery;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.exception.ResultLimitExceededException;
+import org.ormfux.common.db.query.Query;
+import org.ormfux.common.db.query.QueryResult;
+import org.ormfux.common.db.query.QueryResult.QueryResultRow;
+import org.ormfux.common.db.query.ResultLimitAction;
+
+public class ResultLimitTest extends AbstractQueryTest {
+    
+    private static final int ROW_COUNT = 5000;
+    
+    private static final long BASE_TIME = 1_500_000_000_000L;
+    
+    public ResultLimitTest() {
+        super("resultlimitdb");
+    }
+    
+    @Before
+    public void beforeTest() throws SQLException {
+        super.beforeTest();
+        
+        Connection connection = getDbConnection();
+        Statement createStatement = connection.createStatement();
+        createStatement.executeUpdate("create table typed (id int primary key, name varchar(255), amount bigint, ratio double, "
+                                      + "active boolean, created timestamp, price decimal(10, 2), data binary(4))");
+        createStatement.close();
+        
+        PreparedStatement statement = connection.prepareStatement("insert into typed values (?, ?, ?, ?, ?, ?, ?, ?)");
+        
+        for (int rowIdx = 0; rowIdx < ROW_COUNT; rowIdx++) {
+            Timestamp created = new Timestamp(BASE_TIME + rowIdx * 1000L);
+            created.setNanos(123456789);
+            
+            statement.setInt(1, rowIdx);
+            statement.setString(2, rowIdx % 10 == 0 ? null : "name" + rowIdx);
+            statement.setLong(3, rowIdx * 1_000_000_000L);
+            statement.setDouble(4, rowIdx / 4.0);
+            statement.setBoolean(5, rowIdx % 2 == 0);
+            statement.setTimestamp(6, created);
+            statement.setBigDecimal(7, new BigDecimal(rowIdx).movePointLeft(2));
+            statement.setBytes(8, new byte[] { (byte) rowIdx, 1, 2, 3 });
+            statement.addBatch();
+        }
+        
+        statement.executeBatch();
+        connection.commit();
+        statement.close();
+        connection.close();
+    }
+    
+    @Test
+    public void testNoLimits() {
+        QueryResult result = queryManager.createQuery("select * from typed").getResultList();
+        
+        assertEquals(ROW_COUNT, result.size());
+        assertFalse(result.isSpilled());
+    }
+    
+    @Test(expected = ResultLimitExceededException.class)
+    public void testFailOnRowLimit() {
+        Query query = queryManager.createQuery("select * from typed");
+        query.getOptions().setResultRowLimit(1000);
+        query.getResultList();
+    }
+    
+    @Test(expected = ResultLimitExceededException.class)
+    public void testFailOnByteLimit() {
+        Query query = queryManager.createQuery("select * from typed");
+        query.getOptions().setResultByteLimit(100_000);
+        query.getResultList();
+    }
+    
+    @Test
+    public void testWithinLimits() {
+        Query query = queryManager.createQuery("select * from typed");
+        query.getOptions().setResultRowLimit(ROW_COUNT);
+        query.getOptions().setResultByteLimit(100_000_000);
+        
+        assertEquals(ROW_COUNT, query.getResultList().size());
+    }
+    
+    @Test(expected = ResultLimitExceededException.class)
+    public void testGlobalLimit() {
+        queryManager.getDefaultOptions().setResultRowLimit(1000);
+        queryManager.createQuery("select * from typed").getResultList();
+    }
+    
+    @Test
+    public void testSpill() throws Exception {
+        Query query = queryManager.createQuery("select * from typed order by id");
+        query.getOptions().setResultRowLimit(1000);
+        query.getOptions().setResultLimitAction(ResultLimitAction.SPILL);
+        
+        QueryResult result = query.getResultList();
+        Path spillFile = getSpillFile(result);
+        
+        assertTrue(result.isSpilled());
+        assertEquals(ROW_COUNT, result.size());
+        assertTrue(Files.exists(spillFile));
+        
+        //the result can be iterated multiple times.
+        assertRows(result);
+        assertRows(result);
+        
+        result.close();
+        assertFalse(Files.exists(spillFile));
+    }
+    
+    @Test
+    public void testSpillOnByteLimit() throws Exception {
+        Query query = queryManager.createQuery("select * from typed order by id");
+        query.getOptions().setResultByteLimit(100_000);
+        query.getOptions().setResultLimitAction(ResultLimitAction.SPILL);
+        
+        try (QueryResult result = query.getResultList()) {
+            assertTrue(result.isSpilled());
+            assertRows(result);
+        }
+    }
+    
+    @Test
+    public void testCloseDuringIteration() throws Exception {
+        Query query = queryManager.createQuery("select * from typed order by id");
+        query.getOptions().setResultRowLimit(10);
+        query.getOptions().setResultLimitAction(ResultLimitAction.SPILL);
+        
+        QueryResult result = query.getResultList();
+        Path spillFile = getSpillFile(result);
+        Iterator<QueryResultRow> rows = result.iterator();
+        
+        for (int rowIdx = 0; rowIdx < 20; rowIdx++) {
+            rows.next();
+        }
+        
+        result.close();
+        assertFalse(Files.exists(spillFile));
+    }
+    
+    private void assertRows(QueryResult result) {
+        int rowIdx = 0;
+        
+        for (QueryResultRow row : result) {
+            Timestamp created = new Timestamp(BASE_TIME + rowIdx * 1000L);
+            created.setNanos(123456789);
+            
+            assertEquals(rowIdx, row.getValue("id"));
+            
+            if (rowIdx % 10 == 0) {
+                assertNull(row.getValue("name"));
+            } else {
+                assertEquals("name" + rowIdx, row.getValue("name"));
+            }
+            
+            assertEquals(rowIdx * 1_000_000_000L, row.getValue("amount"));
+            assertEquals(rowIdx / 4.0, row.getValue("ratio"));
+            assertEquals(rowIdx % 2 == 0, row.getValue("active"));
+            assertEquals(created, row.getValue("created"));
+            assertEquals(new BigDecimal(rowIdx).movePointLeft(2), row.getValue("price"));
+            assertArrayEquals(new byte[] { (byte) rowIdx, 1, 2, 3 }, (byte[]) row.getValue("data"));
+            
+            rowIdx++;
+        }
+        
+        assertEquals(ROW_COUNT, rowIdx);
+    }
+    
+    private Path getSpillFile(QueryResult result) throws ReflectiveOperationException {
+        Field spillFileField = QueryResult.class.getDeclaredField("spillFile");
+        spillFileField.setAccessible(true);
+        
+        return (Path) spillFileField.get(result);
+    }
+    
+}
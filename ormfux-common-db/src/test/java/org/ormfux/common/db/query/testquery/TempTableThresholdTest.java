@@ -0,0 +1,163 @@
+package org.ormfux.common.db.query.testquery;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.query.CollectionParameterMode;
+import org.ormfux.common.db.query.Query;
+import org.ormfux.common.db.query.QueryResult;
+import org.ormfux.common.db.query.QueryResult.QueryResultRow;
+
+public class TempTableThresholdTest extends AbstractQueryTest {
+    
+    public TempTableThresholdTest() {
+        super("temptablethresholddb");
+    }
+    
+    @Before
+    public void beforeTest() throws SQLException {
+        super.beforeTest();
+        
+        Connection connection = getDbConnection();
+        PreparedStatement statement = connection.prepareStatement("insert into mock (id) values (?)");
+        
+        for (int idIdx = 0; idIdx < 6000; idIdx++) {
+            statement.setString(1, "id" + idIdx);
+            statement.addBatch();
+        }
+        
+        statement.executeBatch();
+        connection.commit();
+        statement.close();
+        connection.close();
+        
+        enableQueryStatistics();
+    }
+    
+    @Test
+    public void testDefaultThreshold() {
+        assertEquals(0, queryManager.getTempTableThreshold());
+        assertEquals(0, queryManager.createQuery("select id from mock").getTempTableThreshold());
+        
+        queryManager.setTempTableThreshold(100);
+        assertEquals(100, queryManager.createQuery("select id from mock").getTempTableThreshold());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeThreshold() {
+        queryManager.setTempTableThreshold(-1);
+    }
+    
+    @Test
+    public void testSelectAboveThreshold() throws SQLException {
+        queryManager.setTempTableThreshold(1000);
+        
+        List<String> ids = createIds(5000);
+        //duplicates and unknown values
+        ids.addAll(createIds(10));
+        ids.add("unknown");
+        ids.add(null);
+        
+        Query query = queryManager.createQuery("select id from mock where id in :ids and id <> :excludedId");
+        query.addParameter("ids", ids);
+        query.addParameter("excludedId", "id0");
+        QueryResult result = query.getResultList();
+        
+        assertEquals(4999, result.size());
+        assertEquals(4999, new HashSet<>(collectIds(result)).size());
+        assertEquals(1, countStatements("%from ormfux_param_0%"));
+    }
+    
+    @Test
+    public void testSelectBelowThreshold() throws SQLException {
+        queryManager.setTempTableThreshold(1000);
+        
+        Query query = queryManager.createQuery("select id from mock where id in :ids");
+        query.addParameter("ids", createIds(1000));
+        
+        assertEquals(1000, query.getResultList().size());
+        assertEquals(0, countStatements("%from ormfux_param_0%"));
+    }
+    
+    @Test
+    public void testSelectMultipleCollections() throws SQLException {
+        queryManager.setTempTableThreshold(1000);
+        queryManager.setCollectionParameterMode(CollectionParameterMode.ARRAY);
+        
+        Query query = queryManager.createQuery("select id from mock where id in :ids and id in :otherIds and id not in :excludedIds");
+        query.addParameter("ids", createIds(3000));
+        query.addParameter("otherIds", createIds(2000));
+        query.addParameter("excludedIds", Arrays.asList("id0", "id1"));
+        
+        assertEquals(1998, query.getResultList().size());
+        assertEquals(1, countStatements("%from ormfux_param_1%"));
+    }
+    
+    @Test
+    public void testUpdateAboveThreshold() throws SQLException {
+        queryManager.setTempTableThreshold(1000);
+        
+        Query deleteQuery = queryManager.createQuery("delete from mock where id in :ids");
+        deleteQuery.addParameter("ids", createIds(5000));
+        
+        assertEquals(5000, deleteQuery.executeUpdate());
+        //the remaining ids and "idvalue"
+        assertEquals(1001, queryManager.createQuery("select id from mock").getResultList().size());
+    }
+    
+    private List<String> collectIds(QueryResult result) {
+        List<String> ids = new ArrayList<>();
+        
+        for (QueryResultRow row : result) {
+            ids.add((String) row.getValue(0));
+        }
+        
+        return ids;
+    }
+    
+    private List<String> createIds(int count) {
+        List<String> ids = new ArrayList<>();
+        
+        for (int idIdx = 0; idIdx < count; idIdx++) {
+            ids.add("id" + idIdx);
+        }
+        
+        return ids;
+    }
+    
+    private void enableQueryStatistics() throws SQLException {
+        Connection connection = getDbConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("SET QUERY_STATISTICS FALSE");
+        statement.execute("SET QUERY_STATISTICS TRUE");
+        statement.close();
+        connection.close();
+    }
+    
+    private int countStatements(String sqlPattern) throws SQLException {
+        Connection connection = getDbConnection();
+        PreparedStatement statement = connection.prepareStatement("select count(*) from INFORMATION_SCHEMA.QUERY_STATISTICS where SQL_STATEMENT like ?");
+        statement.setString(1, sqlPattern);
+        ResultSet result = statement.executeQuery();
+        result.next();
+        int count = result.getInt(1);
+        
+        result.close();
+        statement.close();
+        connection.close();
+        
+        return count;
+    }
+    
+}
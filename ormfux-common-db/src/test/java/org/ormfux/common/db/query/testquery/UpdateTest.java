@@ -1,5 +1,6 @@
 package org.ormfux.common.db.query.testquery;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -7,9 +8,12 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Test;
 import org.ormfux.common.db.query.Query;
+import org.ormfux.common.db.query.QueryEvent;
 
 public class UpdateTest extends AbstractQueryTest {
     
@@ -69,4 +73,69 @@ public class UpdateTest extends AbstractQueryTest {
         connection.close();
     }
     
+    @Test
+    public void testSeparatorsInLiterals() throws SQLException {
+        Query query = queryManager.createQuery("insert into mock (id) values ('a;b?'); -- comment; with ?\n"
+                                               + "insert into mock (id) values (:id); /* ; ? */ "
+                                               + "update mock set id = 'it''s;?' where id = :oldId");
+        query.addParameter("id", "second");
+        query.addParameter("oldId", "idvalue");
+        
+        assertEquals(3, query.executeUpdate());
+        
+        Connection connection = getDbConnection();
+        Statement statement = connection.createStatement();
+        ResultSet updateResult = statement.executeQuery("select id from mock order by id");
+        assertTrue(updateResult.next());
+        assertEquals("a;b?", updateResult.getString(1));
+        assertTrue(updateResult.next());
+        assertEquals("it's;?", updateResult.getString(1));
+        assertTrue(updateResult.next());
+        assertEquals("second", updateResult.getString(1));
+        assertFalse(updateResult.next());
+        
+        updateResult.close();
+        statement.close();
+        connection.close();
+    }
+    
+    @Test
+    public void testIdenticalStatementsBatched() throws SQLException {
+        List<QueryEvent> events = new ArrayList<>();
+        queryManager.addQueryListener(events::add);
+        
+        Query query = queryManager.createQuery("insert into mock (id) values (:id1); "
+                                               + "insert into mock (id) values (:id2);"
+                                               + "insert into mock (id) values (:id3); "
+                                               + "delete from mock where id = :id2");
+        query.addParameter("id1", "first");
+        query.addParameter("id2", "second");
+        query.addParameter("id3", "third");
+        
+        assertEquals(4, query.executeUpdate());
+        
+        //one event per batch, with the SQL of the batch's statement as template.
+        assertEquals(2, events.size());
+        assertEquals("insert into mock (id) values (?)", events.get(0).getSqlTemplate());
+        assertEquals(3, events.get(0).getParameterCount());
+        assertEquals(3, events.get(0).getRowCount());
+        assertEquals("delete from mock where id = ?", events.get(1).getSqlTemplate());
+        assertEquals(1, events.get(1).getRowCount());
+        
+        Connection connection = getDbConnection();
+        Statement statement = connection.createStatement();
+        ResultSet updateResult = statement.executeQuery("select id from mock order by id");
+        assertTrue(updateResult.next());
+        assertEquals("first", updateResult.getString(1));
+        assertTrue(updateResult.next());
+        assertEquals("idvalue", updateResult.getString(1));
+        assertTrue(updateResult.next());
+        assertEquals("third", updateResult.getString(1));
+        assertFalse(updateResult.next());
+        
+        updateResult.close();
+        statement.close();
+        connection.close();
+    }
+    
 }
@@ -1,13 +1,17 @@
 package org.ormfux.common.db.query.testquerymanager;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.sql.Connection;
 
 import org.junit.Test;
 import org.ormfux.common.db.query.QueryManager;
 import org.ormfux.common.db.query.connection.AbstractDbConnectionProvider;
+import org.ormfux.common.db.query.connection.BackupFormat;
+import org.ormfux.common.db.query.connection.BackupProgressListener;
 
 public class BackupDatabaseTest extends AbstractQueryManagerTest {
     
@@ -35,6 +39,30 @@ public class BackupDatabaseTest extends AbstractQueryManagerTest {
         queryManager.backupDatabase("backupText");
     }
     
+    @Test
+    public void testSuccessfulOnlineBackup() {
+        QueryManager queryManager = new QueryManager();
+        queryManager.setDatabase(MockConnectionProvider.class, "dburl");
+        
+        MockConnectionProvider connectionProvider = (MockConnectionProvider) getConnectionProvider(queryManager);
+        
+        assertTrue(queryManager.isCanBackupDatabaseOnline());
+        assertEquals("backupText.SCRIPT", queryManager.backupDatabaseOnline("backupText", BackupFormat.SCRIPT, null));
+        assertEquals("backupText", connectionProvider.backup);
+    }
+    
+    @Test(expected = UnsupportedOperationException.class)
+    public void testOnlineBackupNotPossible() {
+        QueryManager queryManager = new QueryManager();
+        queryManager.setDatabase(MockConnectionProvider.class, "dburl");
+        
+        MockConnectionProvider connectionProvider = (MockConnectionProvider) getConnectionProvider(queryManager);
+        connectionProvider.canbackup = false;
+        
+        assertFalse(queryManager.isCanBackupDatabaseOnline());
+        queryManager.backupDatabaseOnline("backupText", BackupFormat.ARCHIVE, null);
+    }
+    
     public static class MockConnectionProvider extends AbstractDbConnectionProvider {
         
         private boolean canbackup = true;
@@ -54,6 +82,20 @@ public class BackupDatabaseTest extends AbstractQueryManagerTest {
         public boolean isCanBackupDatabase() {
             return canbackup;
         }
+        
+        @Override
+        protected String doBackupDatabaseOnline(CharSequence databaseVersion, 
+                                                BackupFormat format, 
+                                                BackupProgressListener progressListener) {
+            this.backup = databaseVersion.toString();
+            
+            return databaseVersion + "." + format;
+        }
+        
+        @Override
+        public boolean isCanBackupDatabaseOnline() {
+            return canbackup;
+        }
 
         @Override
         public boolean ping() {
@@ -0,0 +1,291 @@
+package org.ormfux.common.db.query.testquerymanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.annotation.CollectionOfEntities;
+import org.ormfux.common.db.annotation.Column;
+import org.ormfux.common.db.annotation.Entity;
+import org.ormfux.common.db.annotation.Id;
+import org.ormfux.common.db.annotation.Version;
+import org.ormfux.common.db.generators.RandomIdGenerator;
+import org.ormfux.common.db.query.IdentityMap;
+import org.ormfux.common.db.query.QueryEvent;
+import org.ormfux.common.db.query.QueryManager;
+import org.ormfux.common.db.query.TypedQuery;
+import org.ormfux.common.db.query.connection.H2DbConnectionProvider;
+
+public class CacheSnapshotTest {
+    
+    private QueryManager queryManager;
+    
+    private Path snapshotFile;
+    
+    private Author author;
+    
+    private Shelf shelf;
+    
+    @Before
+    public void beforeTest() throws Exception {
+        queryManager = createQueryManager();
+        queryManager.createQuery("DROP ALL OBJECTS").executeUpdate();
+        
+        queryManager.createQuery("create table author (id varchar(255) primary key, version bigint, name varchar(255))").executeUpdate();
+        queryManager.createQuery("create table book (id varchar(255) primary key, version bigint, title varchar(255), author_id varchar(255))").executeUpdate();
+        queryManager.createQuery("create table shelf (id varchar(255) primary key, version bigint)").executeUpdate();
+        queryManager.createQuery("create table shelf_book (shelf_id varchar(255), book_id varchar(255))").executeUpdate();
+        
+        author = new Author();
+        author.setName("author");
+        queryManager.createQuery(Author.class).update(author);
+        
+        shelf = new Shelf();
+        
+        for (int bookIdx = 0; bookIdx < 3; bookIdx++) {
+            Book book = new Book();
+            book.setTitle("book" + bookIdx);
+            book.setAuthor(author);
+            queryManager.createQuery(Book.class).update(book);
+            shelf.getBooks().add(book);
+        }
+        
+        queryManager.createQuery(Shelf.class).update(shelf);
+        
+        snapshotFile = Files.createTempFile("cache", ".snapshot");
+        Files.delete(snapshotFile);
+    }
+    
+    @After
+    public void afterTest() throws Exception {
+        queryManager.createQuery("DROP ALL OBJECTS").executeUpdate();
+        Files.deleteIfExists(snapshotFile);
+    }
+    
+    @Test
+    public void testRestoreEntities() {
+        queryManager.writeCacheSnapshot(loadAll(), snapshotFile);
+        
+        //after a restart.
+        QueryManager restartedManager = createQueryManager();
+        IdentityMap restoredEntities = restartedManager.restoreCacheSnapshot(snapshotFile);
+        assertEquals(5, restoredEntities.size());
+        
+        List<QueryEvent> events = new ArrayList<>();
+        restartedManager.addQueryListener(events::add);
+        
+        TypedQuery<Shelf> query = restartedManager.createQuery(Shelf.class);
+        query.setIdentityMap(restoredEntities);
+        Shelf restoredShelf = query.load(shelf.getId());
+        
+        //the restored entities are returned as they are, with their references resolved.
+        assertSame(restoredEntities.get(Shelf.class, shelf.getId()), restoredShelf);
+        assertEquals(3, restoredShelf.getBooks().size());
+        assertSame(restoredEntities.get(Book.class, restoredShelf.getBooks().get(0).getId()), restoredShelf.getBooks().get(0));
+        assertSame(restoredEntities.get(Author.class, author.getId()), restoredShelf.getBooks().get(0).getAuthor());
+        assertEquals("author", restoredShelf.getBooks().get(0).getAuthor().getName());
+        assertEquals(1, events.size());
+    }
+    
+    @Test
+    public void testStaleEntity() {
+        queryManager.writeCacheSnapshot(loadAll(), snapshotFile);
+        
+        author.setName("renamed");
+        queryManager.createQuery(Author.class).update(author);
+        
+        IdentityMap restoredEntities = createQueryManager().restoreCacheSnapshot(snapshotFile);
+        assertEquals(4, restoredEntities.size());
+        assertNull(restoredEntities.get(Author.class, author.getId()));
+        
+        //the books reference a stub of the author instead.
+        Book book = restoredEntities.get(Book.class, shelf.getBooks().get(0).getId());
+        assertEquals(author.getId(), book.getAuthor().getId());
+        assertNull(book.getAuthor().getName());
+    }
+    
+    @Test
+    public void testSchemaChange() {
+        queryManager.writeCacheSnapshot(loadAll(), snapshotFile);
+        queryManager.createQuery("alter table author add column email varchar(255)").executeUpdate();
+        
+        assertEquals(0, createQueryManager().restoreCacheSnapshot(snapshotFile).size());
+    }
+    
+    @Test
+    public void testMissingSnapshot() {
+        assertEquals(0, queryManager.restoreCacheSnapshot(snapshotFile).size());
+    }
+    
+    @Test
+    public void testNamedQueries() {
+        queryManager.registerNamedQuery("Author.byName", Author.class, "where author.name = :name");
+        queryManager.writeCacheSnapshot(new IdentityMap(), snapshotFile);
+        
+        QueryManager restartedManager = createQueryManager();
+        restartedManager.restoreCacheSnapshot(snapshotFile);
+        restartedManager.registerNamedQuery("Author.byName", Author.class, "where author.name = :name");
+        
+        TypedQuery<Author> query = restartedManager.createNamedQuery("Author.byName", Author.class);
+        query.addParameter("name", "author");
+        assertEquals(author.getId(), query.getSingleResult().getId());
+    }
+    
+    private QueryManager createQueryManager() {
+        QueryManager manager = new QueryManager();
+        manager.setDatabase(H2DbConnectionProvider.class,
+                            "jdbc:h2:mem:cachesnapshotdb",
+                            "DB_CLOSE_DELAY=-1",
+                            "MODE=MYSQL",
+                            "DATABASE_TO_UPPER=false",
+                            "AUTOCOMMIT=false");
+        
+        return manager;
+    }
+    
+    private IdentityMap loadAll() {
+        IdentityMap identityMap = new IdentityMap();
+        TypedQuery<Shelf> query = queryManager.createQuery(Shelf.class);
+        query.setIdentityMap(identityMap);
+        query.getResultList();
+        
+        return identityMap;
+    }
+    
+    @Entity(table = "author")
+    public static class Author {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        @Column(columnName = "name", columnLabel = "name")
+        private String name;
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+    
+    @Entity(table = "book")
+    public static class Book {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        @Column(columnName = "title", columnLabel = "title")
+        private String title;
+        
+        @Column(columnName = "author_id", columnLabel = "author_id")
+        private Author author;
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+        
+        public String getTitle() {
+            return title;
+        }
+        
+        public void setTitle(String title) {
+            this.title = title;
+        }
+        
+        public Author getAuthor() {
+            return author;
+        }
+        
+        public void setAuthor(Author author) {
+            this.author = author;
+        }
+    }
+    
+    @Entity(table = "shelf")
+    public static class Shelf {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        @CollectionOfEntities(joinTable = "shelf_book", joinColumn = "shelf_id", inverseJoinColumn = "book_id")
+        private List<Book> books = new ArrayList<>();
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+        
+        public List<Book> getBooks() {
+            return books;
+        }
+        
+        public void setBooks(List<Book> books) {
+            this.books = books;
+        }
+    }
+
+}
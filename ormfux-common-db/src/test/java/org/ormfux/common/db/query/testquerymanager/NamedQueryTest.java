@@ -0,0 +1,178 @@
+package org.ormfux.common.db.query.testquerymanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.annotation.Column;
+import org.ormfux.common.db.annotation.Entity;
+import org.ormfux.common.db.annotation.Id;
+import org.ormfux.common.db.annotation.NamedQuery;
+import org.ormfux.common.db.annotation.Version;
+import org.ormfux.common.db.exception.SQLException;
+import org.ormfux.common.db.generators.RandomIdGenerator;
+import org.ormfux.common.db.query.Query;
+import org.ormfux.common.db.query.QueryManager;
+import org.ormfux.common.db.query.TypedQuery;
+import org.ormfux.common.db.query.connection.H2DbConnectionProvider;
+
+public class NamedQueryTest {
+    
+    private QueryManager queryManager;
+    
+    @Before
+    public void beforeTest() {
+        queryManager = new QueryManager();
+        queryManager.setDatabase(H2DbConnectionProvider.class,
+                                 "jdbc:h2:mem:namedquerydb",
+                                 "DB_CLOSE_DELAY=-1",
+                                 "MODE=MYSQL",
+                                 "DATABASE_TO_UPPER=false",
+                                 "AUTOCOMMIT=false");
+        queryManager.createQuery("DROP ALL OBJECTS").executeUpdate();
+        queryManager.createQuery("create table orders (id varchar(255) primary key, version bigint, customer varchar(255))").executeUpdate();
+        
+        for (int orderIdx = 0; orderIdx < 5; orderIdx++) {
+            queryManager.createQuery(Order.class).update(new Order(orderIdx < 3 ? "alice" : "bob"));
+        }
+    }
+    
+    @After
+    public void afterTest() {
+        queryManager.createQuery("DROP ALL OBJECTS").executeUpdate();
+    }
+    
+    @Test
+    public void testNativeQuery() {
+        queryManager.registerNamedQuery("Order.countByCustomer", "select count(*) as order_count from orders where customer = :customer");
+        
+        for (String customer : new String[] {"alice", "bob"}) {
+            Query query = queryManager.createNamedQuery("Order.countByCustomer");
+            query.addParameter("customer", customer);
+            assertEquals(customer.equals("alice") ? 3L : 2L, ((Number) query.getSingleResult().getValue("order_count")).longValue());
+        }
+        
+        queryManager.registerNamedQuery("Order.rename", "update orders set customer = :newName where customer = :oldName");
+        Query query = queryManager.createNamedQuery("Order.rename");
+        query.addParameter("newName", "carol");
+        query.addParameter("oldName", "bob");
+        assertEquals(2, query.executeUpdate());
+    }
+    
+    @Test
+    public void testTypedQuery() {
+        queryManager.registerNamedQuery("Order.byCustomer", Order.class, "where orders.customer in :customers");
+        
+        TypedQuery<Order> query = queryManager.createNamedQuery("Order.byCustomer", Order.class);
+        query.addParameter("customers", Arrays.asList("bob"));
+        List<Order> orders = query.getResultList();
+        assertEquals(2, orders.size());
+        assertEquals("bob", orders.get(0).getCustomer());
+    }
+    
+    @Test
+    public void testAnnotatedQueries() {
+        queryManager.registerNamedQueries(Order.class);
+        
+        assertEquals(5, queryManager.createNamedQuery("Order.all", Order.class).getResultList().size());
+        
+        TypedQuery<Order> query = queryManager.createNamedQuery("Order.byCustomerAnnotated", Order.class);
+        query.addParameter("customer", "alice");
+        assertEquals(3, query.getResultList().size());
+    }
+    
+    @Test
+    public void testInvalidQuery() {
+        try {
+            queryManager.registerNamedQuery("Order.invalid", "select unknown_column from orders where id = :id");
+            fail("The registration should fail.");
+        } catch (SQLException e) {
+            //the query is not registered.
+        }
+        
+        try {
+            queryManager.registerNamedQuery("Order.invalid", Order.class, "where orders.unknown_column = :value");
+            fail("The registration should fail.");
+        } catch (SQLException e) {
+            //the query is not registered.
+        }
+        
+        try {
+            queryManager.createNamedQuery("Order.invalid");
+            fail("The query should not be registered.");
+        } catch (IllegalArgumentException e) {
+            //expected.
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateName() {
+        queryManager.registerNamedQuery("Order.count", "select count(*) from orders");
+        queryManager.registerNamedQuery("Order.count", "select count(*) from orders");
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownName() {
+        queryManager.createNamedQuery("Order.unknown");
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongEntityType() {
+        queryManager.registerNamedQuery("Order.count", "select count(*) from orders");
+        queryManager.createNamedQuery("Order.count", Order.class);
+    }
+    
+    @Entity(table = "orders")
+    @NamedQuery(name = "Order.all")
+    @NamedQuery(name = "Order.byCustomerAnnotated", suffix = "where orders.customer = :customer")
+    public static class Order {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        @Column(columnName = "customer", columnLabel = "customer")
+        private String customer;
+        
+        public Order() {
+        }
+        
+        public Order(String customer) {
+            this.customer = customer;
+        }
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+        
+        public String getCustomer() {
+            return customer;
+        }
+        
+        public void setCustomer(String customer) {
+            this.customer = customer;
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+package org.ormfux.common.db.query.testresultexporter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.annotation.Column;
+import org.ormfux.common.db.annotation.Entity;
+import org.ormfux.common.db.annotation.Id;
+import org.ormfux.common.db.generators.RandomIdGenerator;
+import org.ormfux.common.db.query.Query;
+import org.ormfux.common.db.query.QueryEvent;
+import org.ormfux.common.db.query.QueryManager;
+import org.ormfux.common.db.query.ResultExporter;
+import org.ormfux.common.db.query.ResultExporter.Format;
+import org.ormfux.common.db.query.TypedQuery;
+import org.ormfux.common.db.query.connection.DbConnectionProvider;
+import org.ormfux.common.db.query.connection.H2DbConnectionProvider;
+
+public class ExportTest {
+    
+    private QueryManager queryManager;
+    
+    @Before
+    public void beforeTest() {
+        queryManager = new QueryManager();
+        queryManager.setDatabase(H2DbConnectionProvider.class, 
+                                 "jdbc:h2:mem:exportdb", 
+                                 "DB_CLOSE_DELAY=-1", 
+                                 "MODE=MYSQL", 
+                                 "DATABASE_TO_UPPER=false", 
+                                 "AUTOCOMMIT=false");
+        
+        queryManager.createQuery("DROP ALL OBJECTS").executeUpdate();
+        queryManager.createQuery("create table mock (id varchar(255) not null, amount bigint, active boolean)").executeUpdate();
+        queryManager.createQuery("insert into mock (id, amount, active) values ('plain', 1, true)").executeUpdate();
+        queryManager.createQuery("insert into mock (id, amount, active) values ('with,\"quote\"', null, null)").executeUpdate();
+        queryManager.createQuery("insert into mock (id, amount, active) values ('\u00e4\u00f6\u00fc\nline', 3, false)").executeUpdate();
+    }
+    
+    @After
+    public void afterTest() {
+        try {
+            Field connectionProviderField = QueryManager.class.getDeclaredField("connectionProvider");
+            connectionProviderField.setAccessible(true);
+            
+            DbConnectionProvider connectionProvider = (DbConnectionProvider) connectionProviderField.get(queryManager);
+            connectionProvider.closeAllConnections();
+            
+        } catch (NoSuchFieldException | SecurityException | IllegalArgumentException | IllegalAccessException e) {
+            throw new RuntimeException("Cannot close database");
+        }
+    }
+    
+    @Test
+    public void testCsv() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long rowCount = new ResultExporter(Format.CSV).export(queryManager.createQuery("select id, amount, active from mock order by amount"), out);
+        
+        assertEquals(3, rowCount);
+        assertEquals("id,amount,active\r\n"
+                     + "\"with,\"\"quote\"\"\",,\r\n"
+                     + "plain,1,TRUE\r\n"
+                     + "\"\u00e4\u00f6\u00fc\nline\",3,FALSE\r\n", 
+                     new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+    
+    @Test
+    public void testCsvWithoutHeader() {
+        Query query = queryManager.createQuery("select id from mock where amount = :amount");
+        query.addParameter("amount", 1);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ResultExporter(Format.CSV, false, 16).export(query, out);
+        
+        assertEquals("plain\r\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+    
+    @Test
+    public void testJsonLines() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long rowCount = new ResultExporter(Format.JSON_LINES).export(queryManager.createQuery("select id, amount, active from mock order by amount"), out);
+        
+        assertEquals(3, rowCount);
+        assertEquals("{\"id\":\"with,\\\"quote\\\"\",\"amount\":null,\"active\":null}\n"
+                     + "{\"id\":\"plain\",\"amount\":1,\"active\":true}\n"
+                     + "{\"id\":\"\u00e4\u00f6\u00fc\\nline\",\"amount\":3,\"active\":false}\n", 
+                     new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+    
+    @Test
+    public void testSmallBuffer() {
+        StringBuilder expected = new StringBuilder();
+        
+        for (int rowIdx = 0; rowIdx < 500; rowIdx++) {
+            Query insert = queryManager.createQuery("insert into mock (id, amount) values (:id, :amount)");
+            insert.addParameter("id", "\u00fcn\u00efc\u00f6d\u00e9-" + rowIdx);
+            insert.addParameter("amount", 1000 + rowIdx);
+            insert.executeUpdate();
+            expected.append("\u00fcn\u00efc\u00f6d\u00e9-").append(rowIdx).append(',').append(1000 + rowIdx).append("\r\n");
+        }
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultExporter exporter = new ResultExporter(Format.CSV, false, 16);
+        
+        //the exporter can be reused.
+        for (int exportIdx = 0; exportIdx < 2; exportIdx++) {
+            out.reset();
+            long rowCount = exporter.export(queryManager.createQuery("select id, amount from mock where amount >= 1000 order by amount"), out);
+            
+            assertEquals(500, rowCount);
+            assertEquals(expected.toString(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+    
+    @Test
+    public void testTypedQuery() {
+        TypedQuery<MockEntity> query = queryManager.createQuery(MockEntity.class, "where mock.amount = :amount");
+        query.addParameter("amount", 1);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long rowCount = new ResultExporter(Format.JSON_LINES).export(query, out);
+        
+        assertEquals(1, rowCount);
+        assertEquals("{\"id\":\"plain\",\"amount\":1}\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+    
+    @Test
+    public void testQueryEvent() {
+        List<QueryEvent> events = new ArrayList<>();
+        queryManager.addQueryListener(events::add);
+        
+        new ResultExporter(Format.CSV).export(queryManager.createQuery("select id from mock"), new ByteArrayOutputStream());
+        
+        assertEquals(1, events.size());
+        assertEquals("select id from mock", events.get(0).getSqlTemplate());
+        assertEquals(3, events.get(0).getRowCount());
+    }
+    
+    @Entity(table = "mock")
+    public static class MockEntity {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "amount", columnLabel = "amount")
+        private Long amount;
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public Long getAmount() {
+            return amount;
+        }
+        
+        public void setAmount(Long amount) {
+            this.amount = amount;
+        }
+    }
+    
+}
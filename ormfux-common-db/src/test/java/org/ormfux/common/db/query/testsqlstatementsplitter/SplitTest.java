@@ -0,0 +1,77 @@
+package org.ormfux.common.db.query.testsqlstatementsplitter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.ormfux.common.db.query.SqlStatementSplitter;
+import org.ormfux.common.db.query.SqlStatementSplitter.SqlStatement;
+
+public class SplitTest {
+    
+    @Test
+    public void testSingleStatement() {
+        List<SqlStatement> statements = SqlStatementSplitter.split("select * from mock where id = ?");
+        
+        assertEquals(1, statements.size());
+        assertStatement("select * from mock where id = ?", 1, statements.get(0));
+    }
+    
+    @Test
+    public void testMultipleStatements() {
+        List<SqlStatement> statements = SqlStatementSplitter.split(" update a set x = ? where id = ?; ; delete from b where id = ?;\n ");
+        
+        assertEquals(2, statements.size());
+        assertStatement("update a set x = ? where id = ?", 2, statements.get(0));
+        assertStatement("delete from b where id = ?", 1, statements.get(1));
+    }
+    
+    @Test
+    public void testLiterals() {
+        List<SqlStatement> statements = SqlStatementSplitter.split("insert into a values ('x;?', 'it''s ; ?', ?);"
+                                                                   + "select \"col;?\", `other;?` from a");
+        
+        assertEquals(2, statements.size());
+        assertStatement("insert into a values ('x;?', 'it''s ; ?', ?)", 1, statements.get(0));
+        assertStatement("select \"col;?\", `other;?` from a", 0, statements.get(1));
+    }
+    
+    @Test
+    public void testComments() {
+        List<SqlStatement> statements = SqlStatementSplitter.split("select ? -- comment; ?\n from a; /* block; ? */ select 1");
+        
+        assertEquals(2, statements.size());
+        assertStatement("select ? -- comment; ?\n from a", 1, statements.get(0));
+        assertStatement("/* block; ? */ select 1", 0, statements.get(1));
+    }
+    
+    @Test
+    public void testDollarQuoted() {
+        List<SqlStatement> statements = SqlStatementSplitter.split("create alias f as $$ String f() { return \"?\"; } $$; select ?");
+        
+        assertEquals(2, statements.size());
+        assertStatement("create alias f as $$ String f() { return \"?\"; } $$", 0, statements.get(0));
+        assertStatement("select ?", 1, statements.get(1));
+    }
+    
+    @Test
+    public void testUnterminatedLiteral() {
+        List<SqlStatement> statements = SqlStatementSplitter.split("select 'abc; ?");
+        
+        assertEquals(1, statements.size());
+        assertStatement("select 'abc; ?", 0, statements.get(0));
+    }
+    
+    @Test
+    public void testBlank() {
+        assertEquals(0, SqlStatementSplitter.split(" ; \n;").size());
+        assertEquals(0, SqlStatementSplitter.split("").size());
+    }
+    
+    private void assertStatement(String expectedSql, int expectedParameterCount, SqlStatement statement) {
+        assertEquals(expectedSql, statement.getSql());
+        assertEquals(expectedParameterCount, statement.getParameterCount());
+    }
+    
+}
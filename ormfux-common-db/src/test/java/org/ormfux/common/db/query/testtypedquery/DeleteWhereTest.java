@@ -0,0 +1,226 @@
+package org.ormfux.common.db.query.testtypedquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.annotation.CollectionOfEntities;
+import org.ormfux.common.db.annotation.Column;
+import org.ormfux.common.db.annotation.Entity;
+import org.ormfux.common.db.annotation.Id;
+import org.ormfux.common.db.annotation.Version;
+import org.ormfux.common.db.generators.RandomIdGenerator;
+import org.ormfux.common.db.query.IdentityMap;
+import org.ormfux.common.db.query.QueryEvent;
+import org.ormfux.common.db.query.QueryEvent.QueryType;
+import org.ormfux.common.db.query.TypedQuery;
+
+public class DeleteWhereTest extends AbstractTypedQueryTest {
+    
+    private List<QueryEvent> events;
+    
+    public DeleteWhereTest() {
+        super("deletewheredb");
+    }
+    
+    @Before
+    public void beforeTest() {
+        super.beforeTest();
+        
+        queryManager.createQuery("create table customer (id varchar(255) primary key, version bigint, created bigint)").executeUpdate();
+        queryManager.createQuery("create table tag (id varchar(255) primary key, version bigint)").executeUpdate();
+        queryManager.createQuery("create table customer_tag (customer_id varchar(255), tag_id varchar(255))").executeUpdate();
+        queryManager.createQuery("create table orders (id varchar(255) primary key, version bigint, customer_id varchar(255))").executeUpdate();
+        
+        queryManager.createQuery("insert into customer (id, version, created) values ('c1', 0, 10), ('c2', 0, 20), ('c3', 0, 30)").executeUpdate();
+        queryManager.createQuery("insert into tag (id, version) values ('t1', 0), ('t2', 0)").executeUpdate();
+        queryManager.createQuery("insert into customer_tag (customer_id, tag_id) values ('c1', 't1'), ('c2', 't1'), ('c3', 't2')").executeUpdate();
+        queryManager.createQuery("insert into orders (id, version, customer_id) values ('o1', 0, 'c1'), ('o2', 0, 'c3')").executeUpdate();
+        
+        events = new ArrayList<>();
+        queryManager.addQueryListener(events::add);
+    }
+    
+    @Test
+    public void testDeleteWhere() {
+        int deletedCount = queryManager.createQuery(Customer.class).deleteWhere("where customer.created < :cutoff",
+                                                                                  Collections.singletonMap("cutoff", 25));
+        assertEquals(2, deletedCount);
+        
+        //one execution without loading the entities: one event per statement (collecting the ids in a temporary 
+        //table, clearing the two collections, deleting the entities and dropping the table).
+        assertEquals(6, events.size());
+        assertTrue(events.stream().allMatch(event -> event.getQueryType() == QueryType.UPDATE));
+        
+        assertEquals(1, queryManager.createQuery(Customer.class).getResultList().size());
+        assertEquals(1, queryManager.createQuery("select * from customer_tag").getResultList().size());
+        assertNull(queryManager.createQuery("select customer_id from orders where id = 'o1'").getSingleResult().getValue(0));
+        assertEquals("c3", queryManager.createQuery("select customer_id from orders where id = 'o2'").getSingleResult().getValue(0));
+    }
+    
+    @Test
+    public void testDeleteByCollection() {
+        //the join table rows are removed before the customers, but the customers are selected before.
+        int deletedCount = queryManager.createQuery(Customer.class).deleteWhere("join customer_tag ct on ct.customer_id = customer.id "
+                                                                                  + "where ct.tag_id = :tag",
+                                                                                  Collections.singletonMap("tag", "t1"));
+        assertEquals(2, deletedCount);
+        
+        List<Customer> customers = queryManager.createQuery(Customer.class).getResultList();
+        assertEquals(1, customers.size());
+        assertEquals("c3", customers.get(0).getId());
+    }
+    
+    @Test
+    public void testDeleteAll() {
+        assertEquals(3, queryManager.createQuery(Customer.class).deleteWhere(null, null));
+        assertEquals(0, queryManager.createQuery("select * from customer_tag").getResultList().size());
+    }
+    
+    @Test
+    public void testIdentityMap() {
+        IdentityMap identityMap = new IdentityMap();
+        
+        TypedQuery<Customer> query = queryManager.createQuery(Customer.class);
+        query.setIdentityMap(identityMap);
+        Customer customer = query.load("c3");
+        
+        query = queryManager.createQuery(Customer.class);
+        query.setIdentityMap(identityMap);
+        query.deleteWhere("where customer.id = :id", Collections.singletonMap("id", "c1"));
+        
+        //the entities of the type are loaded again.
+        query = queryManager.createQuery(Customer.class);
+        query.setIdentityMap(identityMap);
+        Customer reloadedCustomer = query.load("c3");
+        assertEquals("c3", reloadedCustomer.getId());
+        assertNotSame(customer, reloadedCustomer);
+        assertSame(reloadedCustomer, identityMap.get(Customer.class, "c3"));
+    }
+    
+    @Entity(table = "customer")
+    public static class Customer {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        @Column(columnName = "created", columnLabel = "created")
+        private long created;
+        
+        @CollectionOfEntities(joinTable = "customer_tag", joinColumn = "customer_id", inverseJoinColumn = "tag_id")
+        private List<Tag> tags;
+        
+        @CollectionOfEntities(joinColumn = "customer_id")
+        private List<Order> orders;
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+        
+        public long getCreated() {
+            return created;
+        }
+        
+        public void setCreated(long created) {
+            this.created = created;
+        }
+        
+        public List<Tag> getTags() {
+            return tags;
+        }
+        
+        public void setTags(List<Tag> tags) {
+            this.tags = tags;
+        }
+        
+        public List<Order> getOrders() {
+            return orders;
+        }
+        
+        public void setOrders(List<Order> orders) {
+            this.orders = orders;
+        }
+    }
+    
+    @Entity(table = "tag")
+    public static class Tag {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+    }
+    
+    @Entity(table = "orders")
+    public static class Order {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+    }
+
+}
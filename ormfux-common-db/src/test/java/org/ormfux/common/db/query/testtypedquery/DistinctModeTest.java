@@ -0,0 +1,92 @@
+package org.ormfux.common.db.query.testtypedquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.query.DistinctMode;
+import org.ormfux.common.db.query.QueryEvent;
+import org.ormfux.common.db.query.TypedQuery;
+
+public class DistinctModeTest extends AbstractTypedQueryTest {
+    
+    private List<QueryEvent> events;
+    
+    public DistinctModeTest() {
+        super("distinctmodedb");
+    }
+    
+    @Before
+    public void beforeTest() {
+        super.beforeTest();
+        
+        queryManager.createQuery("create table other (mock_id varchar(255) not null)").executeUpdate();
+        queryManager.createQuery("insert into other (mock_id) values ('id'), ('id'), ('id')").executeUpdate();
+        
+        events = new ArrayList<>();
+        queryManager.addQueryListener(events::add);
+    }
+    
+    @Test
+    public void testDefaultMode() {
+        assertEquals(DistinctMode.AUTO, queryManager.createQuery(MockEntity.class).getDistinctMode());
+    }
+    
+    @Test
+    public void testAutoWithoutJoin() {
+        List<MockEntity> result = queryManager.createQuery(MockEntity.class, "where mock.id = 'id'").getResultList();
+        
+        assertEquals(1, result.size());
+        assertTrue(getExecutedSql().startsWith("select mock.id"));
+    }
+    
+    @Test
+    public void testAutoWithJoin() {
+        List<MockEntity> result = queryManager.createQuery(MockEntity.class, "join other o on o.mock_id = mock.id").getResultList();
+        
+        assertEquals(1, result.size());
+        assertTrue(getExecutedSql().startsWith("select distinct "));
+    }
+    
+    @Test
+    public void testAutoWithTableList() {
+        List<MockEntity> result = queryManager.createQuery(MockEntity.class, ", other o where o.mock_id = mock.id").getResultList();
+        
+        assertEquals(1, result.size());
+        assertTrue(getExecutedSql().startsWith("select distinct "));
+    }
+    
+    @Test
+    public void testAlways() {
+        TypedQuery<MockEntity> query = queryManager.createQuery(MockEntity.class);
+        query.setDistinctMode(DistinctMode.ALWAYS);
+        
+        assertEquals(1, query.getResultList().size());
+        assertTrue(getExecutedSql().startsWith("select distinct "));
+    }
+    
+    @Test
+    public void testNeverWithJoin() {
+        queryManager.createQuery("insert into mock (id) values ('id2')").executeUpdate();
+        queryManager.createQuery("insert into other (mock_id) values ('id2'), ('id2')").executeUpdate();
+        
+        TypedQuery<MockEntity> query = queryManager.createQuery(MockEntity.class, "join other o on o.mock_id = mock.id order by mock.id");
+        query.setDistinctMode(DistinctMode.NEVER);
+        List<MockEntity> result = query.getResultList();
+        
+        //the duplicates are removed in memory.
+        assertEquals(2, result.size());
+        assertEquals("id", result.get(0).getId());
+        assertEquals("id2", result.get(1).getId());
+        assertTrue(getExecutedSql().startsWith("select mock.id"));
+    }
+    
+    private String getExecutedSql() {
+        return events.get(events.size() - 1).getSqlTemplate();
+    }
+    
+}
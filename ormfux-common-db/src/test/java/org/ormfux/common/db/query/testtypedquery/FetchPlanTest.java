@@ -0,0 +1,338 @@
+package org.ormfux.common.db.query.testtypedquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.annotation.CollectionOfEntities;
+import org.ormfux.common.db.annotation.Column;
+import org.ormfux.common.db.annotation.Entity;
+import org.ormfux.common.db.annotation.Id;
+import org.ormfux.common.db.annotation.Version;
+import org.ormfux.common.db.generators.RandomIdGenerator;
+import org.ormfux.common.db.query.IdentityMap;
+import org.ormfux.common.db.query.QueryEvent;
+import org.ormfux.common.db.query.TypedQuery;
+
+public class FetchPlanTest extends AbstractTypedQueryTest {
+    
+    private List<QueryEvent> events;
+    
+    public FetchPlanTest() {
+        super("fetchplandb");
+    }
+    
+    @Before
+    public void beforeTest() {
+        super.beforeTest();
+        
+        queryManager.createQuery("create table customer (id varchar(255) primary key, version bigint, name varchar(255))").executeUpdate();
+        queryManager.createQuery("create table product (id varchar(255) primary key, version bigint, name varchar(255))").executeUpdate();
+        queryManager.createQuery("create table orders (id varchar(255) primary key, version bigint, customer_id varchar(255))").executeUpdate();
+        queryManager.createQuery("create table order_line (id varchar(255) primary key, version bigint, order_id varchar(255), "
+                                 + "product_id varchar(255))").executeUpdate();
+        
+        queryManager.createQuery("insert into customer (id, version, name) values ('c1', 0, 'first'), ('c2', 0, 'second')").executeUpdate();
+        queryManager.createQuery("insert into product (id, version, name) values ('p1', 0, 'apple'), ('p2', 0, 'pear')").executeUpdate();
+        queryManager.createQuery("insert into orders (id, version, customer_id) values ('o1', 0, 'c1'), ('o2', 0, 'c1'), ('o3', 0, 'c2')")
+                    .executeUpdate();
+        queryManager.createQuery("insert into order_line (id, version, order_id, product_id) values "
+                                 + "('l1', 0, 'o1', 'p1'), ('l2', 0, 'o1', 'p2'), ('l3', 0, 'o2', 'p1')").executeUpdate();
+        
+        events = new ArrayList<>();
+        queryManager.addQueryListener(events::add);
+    }
+    
+    @Test
+    public void testLoadAllWithoutPlan() {
+        Order order = queryManager.createQuery(Order.class).load("o1");
+        
+        assertEquals("first", order.getCustomer().getName());
+        assertEquals(2, order.getLines().size());
+        assertEquals("apple", findLine(order, "l1").getProduct().getName());
+    }
+    
+    @Test
+    public void testFetchReference() {
+        TypedQuery<Order> query = queryManager.createQuery(Order.class, "order by orders.id");
+        query.fetch("customer");
+        List<Order> orders = query.getResultList();
+        
+        assertEquals(3, orders.size());
+        assertEquals("first", orders.get(0).getCustomer().getName());
+        assertEquals("second", orders.get(2).getCustomer().getName());
+        
+        //the customers are shared, and the lines are not loaded.
+        assertSame(orders.get(0).getCustomer(), orders.get(1).getCustomer());
+        assertNull(orders.get(0).getLines());
+        
+        //one query for the orders and one for the customers.
+        assertEquals(2, events.size());
+    }
+    
+    @Test
+    public void testFetchCollectionPath() {
+        TypedQuery<Order> query = queryManager.createQuery(Order.class, "order by orders.id");
+        query.fetch("lines.product");
+        List<Order> orders = query.getResultList();
+        
+        assertEquals(2, orders.get(0).getLines().size());
+        assertEquals(1, orders.get(1).getLines().size());
+        assertEquals(0, orders.get(2).getLines().size());
+        assertEquals("pear", findLine(orders.get(0), "l2").getProduct().getName());
+        assertSame(findLine(orders.get(0), "l1").getProduct(), findLine(orders.get(1), "l3").getProduct());
+        
+        //the customer is a stub with the id.
+        assertEquals("c1", orders.get(0).getCustomer().getId());
+        assertNull(orders.get(0).getCustomer().getName());
+        
+        //one query for the orders, the lines and the products each.
+        assertEquals(3, events.size());
+    }
+    
+    @Test
+    public void testFetchOnLoad() {
+        TypedQuery<Order> query = queryManager.createQuery(Order.class);
+        query.fetch("customer", "lines");
+        Order order = query.load("o2");
+        
+        assertEquals("first", order.getCustomer().getName());
+        assertEquals(1, order.getLines().size());
+        assertNull(order.getLines().get(0).getProduct().getName());
+    }
+    
+    @Test
+    public void testUpdateKeepsUnloadedCollection() {
+        TypedQuery<Order> query = queryManager.createQuery(Order.class);
+        query.fetch("customer");
+        Order order = query.load("o1");
+        query.update(order);
+        
+        assertEquals(2, queryManager.createQuery(Order.class).load("o1").getLines().size());
+    }
+    
+    @Test
+    public void testUpdateClearsNullCollection() {
+        //without fetch plan, a null collection is still cleared.
+        TypedQuery<Order> query = queryManager.createQuery(Order.class);
+        Order order = query.load("o1");
+        order.setLines(null);
+        query.update(order);
+        
+        assertEquals(0, queryManager.createQuery(Order.class).load("o1").getLines().size());
+    }
+    
+    @Test
+    public void testSharedIdentityMap() {
+        IdentityMap identityMap = new IdentityMap();
+        
+        TypedQuery<Customer> customerQuery = queryManager.createQuery(Customer.class);
+        customerQuery.setIdentityMap(identityMap);
+        Customer customer = customerQuery.load("c1");
+        
+        TypedQuery<Order> query = queryManager.createQuery(Order.class);
+        query.setIdentityMap(identityMap);
+        query.fetch("customer");
+        Order order = query.load("o1");
+        
+        //the complete entities of the map are used, but the incomplete ones are not added.
+        assertSame(customer, order.getCustomer());
+        assertNull(identityMap.get(Order.class, "o1"));
+        assertNull(identityMap.get(OrderLine.class, "l1"));
+        
+        query = queryManager.createQuery(Order.class);
+        query.setIdentityMap(identityMap);
+        Order completeOrder = query.load("o1");
+        
+        assertEquals(2, completeOrder.getLines().size());
+        assertSame(completeOrder, identityMap.get(Order.class, "o1"));
+    }
+    
+    @Test
+    public void testInvalidPath() {
+        try {
+            queryManager.createQuery(Order.class).fetch("lines.unknown");
+            fail("The path is invalid.");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+    
+    private OrderLine findLine(Order order, String lineId) {
+        return order.getLines().stream().filter(line -> line.getId().equals(lineId)).findFirst().get();
+    }
+    
+    @Entity(table = "customer")
+    public static class Customer {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        @Column(columnName = "name", columnLabel = "name")
+        private String name;
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+    
+    @Entity(table = "product")
+    public static class Product {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        @Column(columnName = "name", columnLabel = "name")
+        private String name;
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+    
+    @Entity(table = "orders")
+    public static class Order {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        @Column(columnName = "customer_id", columnLabel = "customer_id")
+        private Customer customer;
+        
+        @CollectionOfEntities(joinColumn = "order_id")
+        private List<OrderLine> lines = new ArrayList<>();
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+        
+        public Customer getCustomer() {
+            return customer;
+        }
+        
+        public void setCustomer(Customer customer) {
+            this.customer = customer;
+        }
+        
+        public List<OrderLine> getLines() {
+            return lines;
+        }
+        
+        public void setLines(List<OrderLine> lines) {
+            this.lines = lines;
+        }
+    }
+    
+    @Entity(table = "order_line")
+    public static class OrderLine {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        @Column(columnName = "product_id", columnLabel = "product_id")
+        private Product product;
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+        
+        public Product getProduct() {
+            return product;
+        }
+        
+        public void setProduct(Product product) {
+            this.product = product;
+        }
+    }
+
+}
@@ -8,7 +8,9 @@ import java.util.List;
 
 import org.junit.Test;
 import org.ormfux.common.db.exception.NonMatchedParamException;
+import org.ormfux.common.db.exception.ResultLimitExceededException;
 import org.ormfux.common.db.exception.SQLException;
+import org.ormfux.common.db.query.ResultLimitAction;
 import org.ormfux.common.db.query.TypedQuery;
 import org.ormfux.common.utils.ListUtils;
 
@@ -77,4 +79,16 @@ public class GetResultListTest extends AbstractTypedQueryTest {
         typedQuery.getResultList();
     }
     
+    @Test(expected = ResultLimitExceededException.class)
+    public void testResultLimitExceeded() {
+        queryManager.createQuery("insert into mock (id) values ('id2')").executeUpdate();
+        
+        TypedQuery<MockEntity> typedQuery = queryManager.createQuery(MockEntity.class);
+        typedQuery.getOptions().setResultRowLimit(1);
+        //entities cannot be spilled
+        typedQuery.getOptions().setResultLimitAction(ResultLimitAction.SPILL);
+        
+        typedQuery.getResultList();
+    }
+    
 }
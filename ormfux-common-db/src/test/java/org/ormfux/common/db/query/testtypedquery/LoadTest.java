@@ -2,9 +2,12 @@ package org.ormfux.common.db.query.testtypedquery;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import org.junit.Test;
+import org.ormfux.common.db.query.IdentityMap;
 import org.ormfux.common.db.query.TypedQuery;
 
 public class LoadTest extends AbstractTypedQueryTest {
@@ -34,4 +37,21 @@ public class LoadTest extends AbstractTypedQueryTest {
         assertNull(typedQuery.load(null));
     }
     
+    @Test
+    public void testSharedIdentityMap() {
+        IdentityMap identityMap = new IdentityMap();
+        TypedQuery<MockEntity> firstQuery = queryManager.createQuery(MockEntity.class);
+        firstQuery.setIdentityMap(identityMap);
+        TypedQuery<MockEntity> secondQuery = queryManager.createQuery(MockEntity.class);
+        secondQuery.setIdentityMap(identityMap);
+        
+        MockEntity mock = firstQuery.load("id");
+        assertSame(mock, secondQuery.load("id"));
+        assertSame(mock, secondQuery.getSingleResult());
+        assertSame(mock, identityMap.get(MockEntity.class, "id"));
+        
+        //without a shared map, each execution creates new instances.
+        assertNotSame(mock, queryManager.createQuery(MockEntity.class).load("id"));
+    }
+    
 }
@@ -0,0 +1,219 @@
+package org.ormfux.common.db.query.testtypedquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.annotation.Column;
+import org.ormfux.common.db.annotation.Entity;
+import org.ormfux.common.db.annotation.Id;
+import org.ormfux.common.db.annotation.Version;
+import org.ormfux.common.db.exception.SQLException;
+import org.ormfux.common.db.generators.RandomIdGenerator;
+import org.ormfux.common.db.query.DistinctMode;
+import org.ormfux.common.db.query.IdentityMap;
+import org.ormfux.common.db.query.TypedQuery;
+
+public class ParallelHydrationTest extends AbstractTypedQueryTest {
+    
+    private ForkJoinPool pool;
+    
+    public ParallelHydrationTest() {
+        super("parallelhydrationdb");
+    }
+    
+    @Before
+    public void beforeTest() {
+        super.beforeTest();
+        
+        queryManager.createQuery("create table owner (id varchar(255) primary key, version bigint)").executeUpdate();
+        queryManager.createQuery("create table item (id varchar(255) primary key, version bigint, owner_id varchar(255))").executeUpdate();
+        queryManager.createQuery("insert into owner (id, version) values ('owner0', 0), ('owner1', 0), ('owner2', 0)").executeUpdate();
+        
+        StringBuilder insertQuery = new StringBuilder("insert into item (id, version, owner_id) values ");
+        
+        for (int itemIdx = 0; itemIdx < 1000; itemIdx++) {
+            insertQuery.append(itemIdx == 0 ? "" : ", ")
+                       .append(String.format("('item%04d', 0, 'owner%d')", itemIdx, itemIdx % 3));
+        }
+        
+        queryManager.createQuery(insertQuery.toString()).executeUpdate();
+        
+        pool = new ForkJoinPool(4);
+    }
+    
+    @After
+    public void afterTest() {
+        pool.shutdownNow();
+        super.afterTest();
+    }
+    
+    @Test
+    public void testKeepOrder() {
+        TypedQuery<Item> query = queryManager.createQuery(Item.class, "order by item.id");
+        query.setHydrationPool(pool);
+        query.setHydrationChunkSize(50);
+        List<Item> items = query.getResultList();
+        
+        assertEquals(1000, items.size());
+        
+        for (int itemIdx = 0; itemIdx < 1000; itemIdx++) {
+            assertEquals(String.format("item%04d", itemIdx), items.get(itemIdx).getId());
+        }
+    }
+    
+    @Test
+    public void testKeepOrderOfRemainingRows() {
+        //the rows after the last full chunk are hydrated on the calling thread.
+        TypedQuery<Item> query = queryManager.createQuery(Item.class, "order by item.id");
+        query.setHydrationPool(pool);
+        query.setHydrationChunkSize(300);
+        List<Item> items = query.getResultList();
+        
+        assertEquals(1000, items.size());
+        
+        for (int itemIdx = 0; itemIdx < 1000; itemIdx++) {
+            assertEquals(String.format("item%04d", itemIdx), items.get(itemIdx).getId());
+        }
+    }
+    
+    @Test
+    public void testSharedReferences() {
+        TypedQuery<Item> query = queryManager.createQuery(Item.class, "order by item.id");
+        query.setHydrationPool(pool);
+        query.setHydrationChunkSize(10);
+        List<Item> items = query.getResultList();
+        
+        //the owners of all chunks are the same instances.
+        for (int itemIdx = 3; itemIdx < 1000; itemIdx++) {
+            assertEquals("owner" + itemIdx % 3, items.get(itemIdx).getOwner().getId());
+            assertSame(items.get(itemIdx % 3).getOwner(), items.get(itemIdx).getOwner());
+        }
+    }
+    
+    @Test
+    public void testWithoutDistinct() {
+        TypedQuery<Owner> query = queryManager.createQuery(Owner.class, "join item i on i.owner_id = owner.id order by owner.id");
+        query.setDistinctMode(DistinctMode.NEVER);
+        query.setHydrationPool(pool);
+        query.setHydrationChunkSize(7);
+        List<Owner> owners = query.getResultList();
+        
+        //each owner is returned once, although the rows of an owner are hydrated in different chunks.
+        assertEquals(3, owners.size());
+        assertEquals("owner0", owners.get(0).getId());
+        assertEquals("owner1", owners.get(1).getId());
+        assertEquals("owner2", owners.get(2).getId());
+    }
+    
+    @Test
+    public void testFailedHydration() {
+        queryManager.createQuery("insert into item (id, version, owner_id) values ('broken', 0, 'missing')").executeUpdate();
+        
+        IdentityMap identityMap = new IdentityMap();
+        TypedQuery<Item> query = queryManager.createQuery(Item.class);
+        query.setIdentityMap(identityMap);
+        query.setHydrationPool(pool);
+        query.setHydrationChunkSize(10);
+        
+        try {
+            query.getResultList();
+            fail("The owner of the item does not exist.");
+        } catch (SQLException e) {
+            //expected
+        }
+        
+        //the incomplete item is not returned by later loads.
+        assertNull(identityMap.get(Item.class, "broken"));
+        
+        queryManager.createQuery("update item set owner_id = 'owner0' where id = 'broken'").executeUpdate();
+        query = queryManager.createQuery(Item.class);
+        query.setIdentityMap(identityMap);
+        assertEquals("owner0", query.load("broken").getOwner().getId());
+    }
+    
+    @Test
+    public void testInvalidChunkSize() {
+        try {
+            queryManager.createQuery(Item.class).setHydrationChunkSize(0);
+            fail("The chunk size must be positive.");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+    
+    @Entity(table = "owner")
+    public static class Owner {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+    }
+    
+    @Entity(table = "item")
+    public static class Item {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        @Column(columnName = "owner_id", columnLabel = "owner_id")
+        private Owner owner;
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+        
+        public Owner getOwner() {
+            return owner;
+        }
+        
+        public void setOwner(Owner owner) {
+            this.owner = owner;
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package org.ormfux.common.db.query.testtypedquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.query.DistinctMode;
+import org.ormfux.common.db.query.TypedQuery;
+import org.ormfux.common.db.query.flow.Subscriber;
+import org.ormfux.common.db.query.flow.Subscription;
+
+public class PublishResultsTest extends AbstractTypedQueryTest {
+    
+    private ExecutorService executor;
+    
+    public PublishResultsTest() {
+        super("typedpublishresultsdb");
+    }
+    
+    @Before
+    public void beforeTest() {
+        super.beforeTest();
+        
+        queryManager.createQuery("insert into mock (id) values ('id2'), ('id3')").executeUpdate();
+        queryManager.createQuery("create table other (mock_id varchar(255) not null)").executeUpdate();
+        queryManager.createQuery("insert into other (mock_id) values ('id'), ('id'), ('id3')").executeUpdate();
+        
+        executor = Executors.newSingleThreadExecutor();
+    }
+    
+    @After
+    public void afterTest() {
+        executor.shutdownNow();
+        super.afterTest();
+    }
+    
+    @Test
+    public void testPublishEntities() throws InterruptedException {
+        List<MockEntity> entities = publish(queryManager.createQuery(MockEntity.class, "order by mock.id"));
+        
+        assertEquals(3, entities.size());
+        assertEquals("id", entities.get(0).getId());
+        assertEquals("id2", entities.get(1).getId());
+        assertEquals("id3", entities.get(2).getId());
+    }
+    
+    @Test
+    public void testPublishWithoutDistinct() throws InterruptedException {
+        TypedQuery<MockEntity> query = queryManager.createQuery(MockEntity.class, "join other o on o.mock_id = mock.id order by mock.id");
+        query.setDistinctMode(DistinctMode.NEVER);
+        List<MockEntity> entities = publish(query);
+        
+        //the duplicates are not published.
+        assertEquals(2, entities.size());
+        assertEquals("id", entities.get(0).getId());
+        assertEquals("id3", entities.get(1).getId());
+    }
+    
+    private List<MockEntity> publish(TypedQuery<MockEntity> query) throws InterruptedException {
+        List<MockEntity> entities = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch completed = new CountDownLatch(1);
+        
+        query.publishResults(executor).subscribe(new Subscriber<MockEntity>() {
+            
+            private Subscription subscription;
+            
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+            
+            @Override
+            public void onNext(MockEntity item) {
+                entities.add(item);
+                subscription.request(1);
+            }
+            
+            @Override
+            public void onError(Throwable throwable) {
+            }
+            
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+            
+        });
+        
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        
+        return entities;
+    }
+
+}
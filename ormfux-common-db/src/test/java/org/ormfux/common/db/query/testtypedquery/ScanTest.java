@@ -0,0 +1,124 @@
+package org.ormfux.common.db.query.testtypedquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.query.QueryEvent;
+import org.ormfux.common.db.query.TypedQuery;
+
+public class ScanTest extends AbstractTypedQueryTest {
+    
+    private ExecutorService executor;
+    
+    private List<QueryEvent> events;
+    
+    public ScanTest() {
+        super("scandb");
+    }
+    
+    @Before
+    public void beforeTest() {
+        super.beforeTest();
+        
+        StringBuilder insertQuery = new StringBuilder("insert into mock (id) values ");
+        
+        for (int idIdx = 0; idIdx < 999; idIdx++) {
+            insertQuery.append(idIdx == 0 ? "" : ", ")
+                       .append(String.format("('id%03d')", idIdx));
+        }
+        
+        queryManager.createQuery(insertQuery.toString()).executeUpdate();
+        
+        executor = Executors.newFixedThreadPool(4);
+        events = Collections.synchronizedList(new ArrayList<>());
+        queryManager.addQueryListener(events::add);
+    }
+    
+    @After
+    public void afterTest() {
+        executor.shutdownNow();
+        super.afterTest();
+    }
+    
+    @Test
+    public void testScanPartitions() {
+        Set<String> ids = Collections.synchronizedSet(new HashSet<>());
+        long rowCount = queryManager.createQuery(MockEntity.class).scan(4, 10, executor, entity -> {
+            assertTrue(ids.add(entity.getId()));
+        });
+        
+        assertEquals(1000, rowCount);
+        assertEquals(1000, ids.size());
+        
+        //each partition is read by its own query.
+        long partitionCount = events.stream().filter(event -> event.getSqlTemplate().contains("scan_partition")).count();
+        assertEquals(4, partitionCount);
+    }
+    
+    @Test
+    public void testScanWithCondition() {
+        Set<String> ids = Collections.synchronizedSet(new HashSet<>());
+        TypedQuery<MockEntity> query = queryManager.createQuery(MockEntity.class, "where mock.id like :prefix");
+        query.addParameter("prefix", "id1%");
+        long rowCount = query.scan(3, 5, executor, entity -> ids.add(entity.getId()));
+        
+        assertEquals(100, rowCount);
+        assertEquals(100, ids.size());
+        assertTrue(ids.contains("id199"));
+        
+        //the ranges split the matching rows evenly, and are determined with two queries.
+        events.stream()
+              .filter(event -> event.getSqlTemplate().contains("scan_partition"))
+              .forEach(event -> assertTrue(event.getRowCount() >= 32 && event.getRowCount() <= 34));
+        assertEquals(2, events.stream().filter(event -> event.getSqlTemplate().contains("scan_ids")).count());
+    }
+    
+    @Test
+    public void testScanEmptyTable() {
+        queryManager.createQuery("delete from mock").executeUpdate();
+        
+        assertEquals(0, queryManager.createQuery(MockEntity.class).scan(4, 10, executor, entity -> fail("The table is empty.")));
+    }
+    
+    @Test
+    public void testConsumerFailure() {
+        try {
+            queryManager.createQuery(MockEntity.class).scan(4, 10, executor, entity -> {
+                throw new IllegalStateException("failed");
+            });
+            fail("The scan should fail.");
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+    }
+    
+    @Test
+    public void testInvalidArguments() {
+        try {
+            queryManager.createQuery(MockEntity.class).scan(0, 10, executor, entity -> { });
+            fail("The partition count must be positive.");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        
+        try {
+            queryManager.createQuery(MockEntity.class).scan(4, 0, executor, entity -> { });
+            fail("The rows in flight must be positive.");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package org.ormfux.common.db.query.testtypedquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.annotation.Column;
+import org.ormfux.common.db.annotation.Entity;
+import org.ormfux.common.db.annotation.Id;
+import org.ormfux.common.db.annotation.Version;
+import org.ormfux.common.db.exception.StaleEntityException;
+import org.ormfux.common.db.generators.RandomIdGenerator;
+
+public class UpdateWhereTest extends AbstractTypedQueryTest {
+    
+    public UpdateWhereTest() {
+        super("updatewheredb");
+    }
+    
+    @Before
+    public void beforeTest() {
+        super.beforeTest();
+        
+        queryManager.createQuery("create table account (id varchar(255) primary key, version bigint, status varchar(255), "
+                                 + "manager_id varchar(255), last_login bigint)").executeUpdate();
+        queryManager.createQuery("insert into account (id, version, status, last_login) values "
+                                 + "('a1', 0, 'ACTIVE', 10), ('a2', 4, 'ACTIVE', 20), ('a3', 0, 'ACTIVE', 30)").executeUpdate();
+    }
+    
+    @Test
+    public void testUpdateWhere() {
+        Account manager = new Account();
+        manager.setId("a3");
+        
+        Map<String, Object> assignments = new HashMap<>();
+        assignments.put("status", Status.DORMANT);
+        assignments.put("manager", manager);
+        
+        int updatedCount = queryManager.createQuery(Account.class).updateWhere(assignments,
+                                                                                 "where account.last_login < :cutoff",
+                                                                                 Collections.singletonMap("cutoff", 25));
+        assertEquals(2, updatedCount);
+        
+        Account account = queryManager.createQuery(Account.class).load("a2");
+        assertEquals(Status.DORMANT, account.getStatus());
+        assertEquals("a3", account.getManager().getId());
+        assertEquals(5, account.getVersion());
+        assertEquals(Status.ACTIVE, queryManager.createQuery(Account.class).load("a3").getStatus());
+    }
+    
+    @Test(expected = StaleEntityException.class)
+    public void testLoadedEntityBecomesStale() {
+        Account account = queryManager.createQuery(Account.class).load("a1");
+        
+        queryManager.createQuery(Account.class).updateWhere(Collections.singletonMap("status", Status.DORMANT), null, null);
+        
+        account.setLastLogin(40);
+        queryManager.createQuery(Account.class).update(account);
+    }
+    
+    @Test
+    public void testInvalidAssignments() {
+        for (String fieldName : new String[] {"id", "version", "unknown"}) {
+            try {
+                queryManager.createQuery(Account.class).updateWhere(Collections.singletonMap(fieldName, null), null, null);
+                fail("The assignment should be rejected: " + fieldName);
+            } catch (IllegalArgumentException e) {
+                //expected.
+            }
+        }
+    }
+    
+    public enum Status {
+        ACTIVE, DORMANT
+    }
+    
+    @Entity(table = "account")
+    public static class Account {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        @Column(columnName = "status", columnLabel = "status")
+        private Status status;
+        
+        @Column(columnName = "manager_id", columnLabel = "manager_id")
+        private Account manager;
+        
+        @Column(columnName = "last_login", columnLabel = "last_login")
+        private long lastLogin;
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+        
+        public Status getStatus() {
+            return status;
+        }
+        
+        public void setStatus(Status status) {
+            this.status = status;
+        }
+        
+        public Account getManager() {
+            return manager;
+        }
+        
+        public void setManager(Account manager) {
+            this.manager = manager;
+        }
+        
+        public long getLastLogin() {
+            return lastLogin;
+        }
+        
+        public void setLastLogin(long lastLogin) {
+            this.lastLogin = lastLogin;
+        }
+    }
+
+}
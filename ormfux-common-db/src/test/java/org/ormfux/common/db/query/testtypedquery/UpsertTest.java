@@ -0,0 +1,270 @@
+package org.ormfux.common.db.query.testtypedquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.annotation.CollectionOfEntities;
+import org.ormfux.common.db.annotation.Column;
+import org.ormfux.common.db.annotation.Entity;
+import org.ormfux.common.db.annotation.Id;
+import org.ormfux.common.db.annotation.Version;
+import org.ormfux.common.db.exception.StaleEntityException;
+import org.ormfux.common.db.generators.RandomIdGenerator;
+import org.ormfux.common.db.query.QueryEvent;
+import org.ormfux.common.db.query.QueryEvent.QueryType;
+import org.ormfux.common.db.query.TypedQuery;
+import org.ormfux.common.db.query.connection.H2DbConnectionProvider;
+
+public class UpsertTest extends AbstractTypedQueryTest {
+    
+    private List<QueryEvent> events;
+    
+    public UpsertTest() {
+        super("upsertdb");
+    }
+    
+    @Before
+    public void beforeTest() {
+        super.beforeTest();
+        createTables();
+        
+        events = new ArrayList<>();
+        queryManager.addQueryListener(events::add);
+    }
+    
+    private void createTables() {
+        queryManager.createQuery("create table article (id varchar(255) primary key, version bigint, name varchar(255))").executeUpdate();
+        queryManager.createQuery("create table tag (id varchar(255) primary key, version bigint)").executeUpdate();
+        queryManager.createQuery("create table article_tag (article_id varchar(255), tag_id varchar(255))").executeUpdate();
+        
+        queryManager.createQuery("insert into article (id, version, name) values ('a1', 3, 'existing')").executeUpdate();
+        queryManager.createQuery("insert into tag (id, version) values ('t1', 0), ('t2', 0)").executeUpdate();
+        queryManager.createQuery("insert into article_tag (article_id, tag_id) values ('a1', 't1')").executeUpdate();
+    }
+    
+    @Test
+    public void testInsert() {
+        Article article = new Article("a2", 0, "new");
+        article.setTags(Arrays.asList(new Tag("t1"), new Tag("t2")));
+        
+        assertEquals("a2", queryManager.createQuery(Article.class).upsert(article));
+        assertEquals(1, article.getVersion());
+        
+        //one execution without reading the entity first.
+        assertTrue(events.stream().allMatch(event -> event.getQueryType() == QueryType.UPDATE));
+        
+        Article loadedArticle = queryManager.createQuery(Article.class).load("a2");
+        assertEquals("new", loadedArticle.getName());
+        assertEquals(1, loadedArticle.getVersion());
+        assertEquals(2, loadedArticle.getTags().size());
+    }
+    
+    @Test
+    public void testUpdate() {
+        Article article = new Article("a1", 3, "updated");
+        article.setTags(Arrays.asList(new Tag("t2")));
+        
+        queryManager.createQuery(Article.class).upsert(article);
+        assertEquals(4, article.getVersion());
+        assertTrue(events.stream().allMatch(event -> event.getQueryType() == QueryType.UPDATE));
+        
+        Article loadedArticle = queryManager.createQuery(Article.class).load("a1");
+        assertEquals("updated", loadedArticle.getName());
+        assertEquals(4, loadedArticle.getVersion());
+        assertEquals(1, loadedArticle.getTags().size());
+        assertEquals("t2", loadedArticle.getTags().get(0).getId());
+    }
+    
+    @Test
+    public void testGeneratedId() {
+        Article article = new Article(null, 0, "generated");
+        queryManager.createQuery(Article.class).upsert(article);
+        
+        assertNotNull(article.getId());
+        assertEquals("generated", queryManager.createQuery(Article.class).load(article.getId()).getName());
+    }
+    
+    @Test
+    public void testStaleEntity() {
+        Article newArticle = new Article("a2", 0, "new");
+        Article staleArticle = new Article("a1", 2, "stale");
+        
+        try {
+            queryManager.createQuery(Article.class).upsertAll(Arrays.asList(newArticle, staleArticle));
+            fail("The stale entity should not be written.");
+        } catch (StaleEntityException e) {
+            //expected.
+        }
+        
+        //nothing is written.
+        assertEquals(0, newArticle.getVersion());
+        assertEquals(2, staleArticle.getVersion());
+        assertNull(queryManager.createQuery(Article.class).load("a2"));
+        assertEquals("existing", queryManager.createQuery(Article.class).load("a1").getName());
+    }
+    
+    @Test
+    public void testBatch() {
+        List<Article> articles = new ArrayList<>();
+        articles.add(new Article("a1", 3, "updated"));
+        
+        for (int articleIdx = 2; articleIdx <= 50; articleIdx++) {
+            articles.add(new Article("a" + articleIdx, 0, "new" + articleIdx));
+        }
+        
+        queryManager.createQuery(Article.class).upsertAll(articles);
+        
+        //one batch of upserts, one batch clearing the collections.
+        assertEquals(2, events.size());
+        assertTrue(events.stream().allMatch(event -> event.getQueryType() == QueryType.UPDATE));
+        
+        //upserting the same entities again is idempotent.
+        queryManager.createQuery(Article.class).upsertAll(articles);
+        
+        TypedQuery<Article> query = queryManager.createQuery(Article.class);
+        assertEquals(50, query.getResultList().size());
+        assertEquals("updated", queryManager.createQuery(Article.class).load("a1").getName());
+        assertEquals(2, queryManager.createQuery(Article.class).load("a50").getVersion());
+    }
+    
+    @Test
+    public void testWithoutUpsertStatement() {
+        queryManager.setDatabase(NoUpsertDbConnectionProvider.class,
+                                 "jdbc:h2:mem:upsertdb",
+                                 "DB_CLOSE_DELAY=-1",
+                                 "MODE=MYSQL",
+                                 "DATABASE_TO_UPPER=false",
+                                 "AUTOCOMMIT=false");
+        //switching the provider closes the database.
+        createTables();
+        
+        queryManager.createQuery(Article.class).upsertAll(Arrays.asList(new Article("a1", 3, "updated"), new Article("a2", 0, "new")));
+        assertEquals("updated", queryManager.createQuery(Article.class).load("a1").getName());
+        assertEquals("new", queryManager.createQuery(Article.class).load("a2").getName());
+        
+        try {
+            queryManager.createQuery(Article.class).upsert(new Article("a1", 0, "stale"));
+            fail("The stale entity should not be written.");
+        } catch (StaleEntityException e) {
+            //expected.
+        }
+        
+        assertEquals("updated", queryManager.createQuery(Article.class).load("a1").getName());
+    }
+    
+    public static class NoUpsertDbConnectionProvider extends H2DbConnectionProvider {
+        
+        public NoUpsertDbConnectionProvider(String databaseFile, String... connectionParams) {
+            super(databaseFile, connectionParams);
+        }
+        
+        @Override
+        public String createUpsertStatement(String tableName, String idColumn, String versionColumn, List<String> columnNames) {
+            return null;
+        }
+    }
+    
+    @Entity(table = "article")
+    public static class Article {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        @Column(columnName = "name", columnLabel = "name")
+        private String name;
+        
+        @CollectionOfEntities(joinTable = "article_tag", joinColumn = "article_id", inverseJoinColumn = "tag_id")
+        private List<Tag> tags;
+        
+        public Article() {
+        }
+        
+        public Article(String id, long version, String name) {
+            this.id = id;
+            this.version = version;
+            this.name = name;
+        }
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public void setName(String name) {
+            this.name = name;
+        }
+        
+        public List<Tag> getTags() {
+            return tags;
+        }
+        
+        public void setTags(List<Tag> tags) {
+            this.tags = tags;
+        }
+    }
+    
+    @Entity(table = "tag")
+    public static class Tag {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        public Tag() {
+        }
+        
+        public Tag(String id) {
+            this.id = id;
+        }
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+    }
+
+}
@@ -0,0 +1,411 @@
+package org.ormfux.common.db.query.testunitofwork;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.annotation.CollectionOfEntities;
+import org.ormfux.common.db.annotation.Column;
+import org.ormfux.common.db.annotation.Entity;
+import org.ormfux.common.db.annotation.Id;
+import org.ormfux.common.db.annotation.Version;
+import org.ormfux.common.db.exception.StaleEntityException;
+import org.ormfux.common.db.generators.RandomIdGenerator;
+import org.ormfux.common.db.query.QueryEvent;
+import org.ormfux.common.db.query.QueryManager;
+import org.ormfux.common.db.query.TypedQuery;
+import org.ormfux.common.db.query.UnitOfWork;
+import org.ormfux.common.db.query.connection.H2DbConnectionProvider;
+
+public class FlushTest {
+    
+    private QueryManager queryManager;
+    
+    private List<QueryEvent> events;
+    
+    @Before
+    public void beforeTest() {
+        queryManager = new QueryManager();
+        queryManager.setDatabase(H2DbConnectionProvider.class,
+                                 "jdbc:h2:mem:unitofworkdb",
+                                 "DB_CLOSE_DELAY=-1",
+                                 "MODE=MYSQL",
+                                 "DATABASE_TO_UPPER=false",
+                                 "AUTOCOMMIT=false");
+        queryManager.createQuery("DROP ALL OBJECTS").executeUpdate();
+        
+        queryManager.createQuery("create table author (id varchar(255) primary key, version bigint, name varchar(255))").executeUpdate();
+        queryManager.createQuery("create table book (id varchar(255) primary key, version bigint, title varchar(255), "
+                                 + "author_id varchar(255), foreign key (author_id) references author(id))").executeUpdate();
+        queryManager.createQuery("create table shelf (id varchar(255) primary key, version bigint)").executeUpdate();
+        queryManager.createQuery("create table shelf_book (shelf_id varchar(255), book_id varchar(255), "
+                                 + "foreign key (shelf_id) references shelf(id), foreign key (book_id) references book(id))").executeUpdate();
+        
+        events = new ArrayList<>();
+        queryManager.addQueryListener(events::add);
+    }
+    
+    @After
+    public void afterTest() {
+        queryManager.createQuery("DROP ALL OBJECTS").executeUpdate();
+    }
+    
+    @Test
+    public void testInsertInDependencyOrder() {
+        UnitOfWork unitOfWork = queryManager.createUnitOfWork();
+        TypedQuery<Book> bookQuery = unitOfWork.createQuery(Book.class);
+        TypedQuery<Author> authorQuery = unitOfWork.createQuery(Author.class);
+        
+        //the books are saved before their authors, which violates the foreign key in call order.
+        for (int authorIdx = 0; authorIdx < 20; authorIdx++) {
+            Author author = new Author("author" + authorIdx);
+            
+            for (int bookIdx = 0; bookIdx < 5; bookIdx++) {
+                assertNotNull(bookQuery.update(new Book("book" + authorIdx + '_' + bookIdx, author)));
+            }
+            
+            authorQuery.update(author);
+        }
+        
+        assertEquals(120, unitOfWork.getPendingCount());
+        events.clear();
+        
+        assertEquals(120, unitOfWork.flush());
+        assertEquals(0, unitOfWork.getPendingCount());
+        
+        //all inserts are executed with one query: one batch per table, referenced table first.
+        assertEquals(2, events.size());
+        assertTrue(events.get(0).getSqlTemplate().startsWith("insert into author"));
+        assertEquals(20, events.get(0).getRowCount());
+        assertTrue(events.get(1).getSqlTemplate().startsWith("insert into book"));
+        assertEquals(100, events.get(1).getRowCount());
+        
+        assertEquals(20, queryManager.createQuery(Author.class).getResultList().size());
+        
+        Book book = queryManager.createQuery(Book.class, "where book.title = 'book3_4'").getSingleResult();
+        assertEquals("author3", book.getAuthor().getName());
+    }
+    
+    @Test
+    public void testStableTemplates() {
+        UnitOfWork unitOfWork = queryManager.createUnitOfWork();
+        unitOfWork.createQuery(Author.class).update(new Author("first"));
+        events.clear();
+        unitOfWork.flush();
+        String template = events.get(0).getSqlTemplate();
+        
+        //the parameters are renamed per statement, but the template of the statement is the same.
+        unitOfWork.createQuery(Author.class).update(new Author("second"));
+        unitOfWork.createQuery(Author.class).update(new Author("third"));
+        events.clear();
+        unitOfWork.flush();
+        
+        assertEquals(1, events.size());
+        assertEquals(template, events.get(0).getSqlTemplate());
+        assertEquals(2, events.get(0).getRowCount());
+    }
+    
+    @Test
+    public void testNoImmediateWrite() {
+        UnitOfWork unitOfWork = queryManager.createUnitOfWork();
+        Author author = new Author("author");
+        Object authorId = unitOfWork.createQuery(Author.class).update(author);
+        
+        //the id is assigned right away, but nothing is written.
+        assertEquals(authorId, author.getId());
+        assertNull(queryManager.createQuery(Author.class).load(authorId));
+        
+        unitOfWork.flush();
+        assertNotNull(queryManager.createQuery(Author.class).load(authorId));
+    }
+    
+    @Test
+    public void testUpdateAndDelete() {
+        Author author = new Author("author");
+        Book book = new Book("book", author);
+        queryManager.createQuery(Author.class).update(author);
+        queryManager.createQuery(Book.class).update(book);
+        
+        UnitOfWork unitOfWork = queryManager.createUnitOfWork();
+        
+        //the author is deleted before its book in call order.
+        author.setName("renamed");
+        unitOfWork.createQuery(Author.class).update(author);
+        unitOfWork.createQuery(Author.class).update(author);
+        unitOfWork.createQuery(Author.class).delete(author);
+        unitOfWork.createQuery(Book.class).delete(book);
+        unitOfWork.flush();
+        
+        assertNull(queryManager.createQuery(Author.class).load(author.getId()));
+        assertNull(queryManager.createQuery(Book.class).load(book.getId()));
+    }
+    
+    @Test
+    public void testUpdateOnce() {
+        Author author = new Author("author");
+        queryManager.createQuery(Author.class).update(author);
+        
+        UnitOfWork unitOfWork = queryManager.createUnitOfWork();
+        author.setName("first");
+        unitOfWork.createQuery(Author.class).update(author);
+        author.setName("second");
+        unitOfWork.createQuery(Author.class).update(author);
+        unitOfWork.flush();
+        
+        Author loadedAuthor = queryManager.createQuery(Author.class).load(author.getId());
+        assertEquals("second", loadedAuthor.getName());
+        assertEquals(1L, loadedAuthor.getVersion());
+        assertEquals(1L, author.getVersion());
+    }
+    
+    @Test
+    public void testDeletePendingInsert() {
+        UnitOfWork unitOfWork = queryManager.createUnitOfWork();
+        Author author = new Author("author");
+        unitOfWork.createQuery(Author.class).update(author);
+        unitOfWork.createQuery(Author.class).delete(author);
+        
+        assertEquals(0, unitOfWork.getPendingCount());
+        assertEquals(0, unitOfWork.flush());
+    }
+    
+    @Test
+    public void testStaleEntity() {
+        Author author = new Author("author");
+        Author staleAuthor = new Author("stale");
+        queryManager.createQuery(Author.class).update(author);
+        queryManager.createQuery(Author.class).update(staleAuthor);
+        
+        UnitOfWork unitOfWork = queryManager.createUnitOfWork();
+        author.setName("renamed");
+        unitOfWork.createQuery(Author.class).update(author);
+        staleAuthor.setVersion(5);
+        unitOfWork.createQuery(Author.class).update(staleAuthor);
+        
+        try {
+            unitOfWork.flush();
+            fail("The flush should fail.");
+        } catch (StaleEntityException e) {
+            //nothing is written.
+            assertEquals("author", queryManager.createQuery(Author.class).load(author.getId()).getName());
+            assertEquals(0, unitOfWork.getPendingCount());
+        }
+        
+        //the versions are restored, so that the entities can be written again.
+        assertEquals(0L, author.getVersion());
+        assertEquals(5L, staleAuthor.getVersion());
+        
+        unitOfWork.createQuery(Author.class).update(author);
+        unitOfWork.flush();
+        assertEquals("renamed", queryManager.createQuery(Author.class).load(author.getId()).getName());
+    }
+    
+    @Test
+    public void testConcurrentUpdate() {
+        Author author = new Author("author");
+        queryManager.createQuery(Author.class).update(author);
+        
+        UnitOfWork unitOfWork = queryManager.createUnitOfWork();
+        author.setName("renamed");
+        unitOfWork.createQuery(Author.class).update(author);
+        
+        //written by someone else after the entity was registered.
+        queryManager.createQuery("update author set name = 'concurrent', version = 1").executeUpdate();
+        events.clear();
+        
+        try {
+            unitOfWork.flush();
+            fail("The concurrent update should not be overwritten.");
+        } catch (StaleEntityException e) {
+            //expected.
+        }
+        
+        //the version is checked by the update itself.
+        assertEquals(1, events.size());
+        assertEquals("concurrent", queryManager.createQuery(Author.class).load(author.getId()).getName());
+        assertEquals(0L, author.getVersion());
+    }
+    
+    @Test
+    public void testJoinTableCollection() {
+        UnitOfWork unitOfWork = queryManager.createUnitOfWork();
+        Author author = new Author("author");
+        Shelf shelf = new Shelf();
+        
+        //the shelf is saved before its books, but its collection is written after them.
+        unitOfWork.createQuery(Shelf.class).update(shelf);
+        
+        for (int bookIdx = 0; bookIdx < 3; bookIdx++) {
+            Book book = new Book("book" + bookIdx, author);
+            shelf.getBooks().add(book);
+            unitOfWork.createQuery(Book.class).update(book);
+        }
+        
+        unitOfWork.createQuery(Author.class).update(author);
+        unitOfWork.flush();
+        
+        Shelf loadedShelf = queryManager.createQuery(Shelf.class).load(shelf.getId());
+        assertEquals(3, loadedShelf.getBooks().size());
+        
+        //clearing the collection and deleting the books.
+        shelf.getBooks().clear();
+        unitOfWork.createQuery(Book.class).delete(loadedShelf.getBooks().get(0));
+        unitOfWork.createQuery(Shelf.class).update(shelf);
+        unitOfWork.flush();
+        
+        assertEquals(0, queryManager.createQuery(Shelf.class).load(shelf.getId()).getBooks().size());
+        assertEquals(2, queryManager.createQuery(Book.class).getResultList().size());
+    }
+    
+    @Entity(table = "author")
+    public static class Author {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        @Column(columnName = "name", columnLabel = "name")
+        private String name;
+        
+        public Author() {
+        }
+        
+        public Author(String name) {
+            this.name = name;
+        }
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+    
+    @Entity(table = "book")
+    public static class Book {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        @Column(columnName = "title", columnLabel = "title")
+        private String title;
+        
+        @Column(columnName = "author_id", columnLabel = "author_id")
+        private Author author;
+        
+        public Book() {
+        }
+        
+        public Book(String title, Author author) {
+            this.title = title;
+            this.author = author;
+        }
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+        
+        public String getTitle() {
+            return title;
+        }
+        
+        public void setTitle(String title) {
+            this.title = title;
+        }
+        
+        public Author getAuthor() {
+            return author;
+        }
+        
+        public void setAuthor(Author author) {
+            this.author = author;
+        }
+    }
+    
+    @Entity(table = "shelf")
+    public static class Shelf {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        @CollectionOfEntities(joinTable = "shelf_book", joinColumn = "shelf_id", inverseJoinColumn = "book_id")
+        private List<Book> books = new ArrayList<>();
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+        
+        public List<Book> getBooks() {
+            return books;
+        }
+        
+        public void setBooks(List<Book> books) {
+            this.books = books;
+        }
+    }
+
+}
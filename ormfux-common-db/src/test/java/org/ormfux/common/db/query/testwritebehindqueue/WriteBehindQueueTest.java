@@ -0,0 +1,287 @@
+package org.ormfux.common.db.query.testwritebehindqueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ormfux.common.db.annotation.Column;
+import org.ormfux.common.db.annotation.Entity;
+import org.ormfux.common.db.annotation.Id;
+import org.ormfux.common.db.annotation.Version;
+import org.ormfux.common.db.exception.StaleEntityException;
+import org.ormfux.common.db.generators.RandomIdGenerator;
+import org.ormfux.common.db.query.QueryEvent;
+import org.ormfux.common.db.query.QueryManager;
+import org.ormfux.common.db.query.TypedQuery;
+import org.ormfux.common.db.query.WriteBehindQueue;
+import org.ormfux.common.db.query.connection.H2DbConnectionProvider;
+
+public class WriteBehindQueueTest {
+    
+    private QueryManager queryManager;
+    
+    private List<QueryEvent> events;
+    
+    private Path journalFile;
+    
+    @Before
+    public void beforeTest() throws Exception {
+        queryManager = new QueryManager();
+        queryManager.setDatabase(H2DbConnectionProvider.class,
+                                 "jdbc:h2:mem:writebehinddb",
+                                 "DB_CLOSE_DELAY=-1",
+                                 "MODE=MYSQL",
+                                 "DATABASE_TO_UPPER=false",
+                                 "AUTOCOMMIT=false");
+        queryManager.createQuery("DROP ALL OBJECTS").executeUpdate();
+        queryManager.createQuery("create table user_session (id varchar(255) primary key, version bigint, hits bigint)").executeUpdate();
+        
+        events = Collections.synchronizedList(new ArrayList<>());
+        queryManager.addQueryListener(events::add);
+        
+        journalFile = Files.createTempFile("write-behind", ".journal");
+    }
+    
+    @After
+    public void afterTest() throws Exception {
+        queryManager.createQuery("DROP ALL OBJECTS").executeUpdate();
+        Files.deleteIfExists(journalFile);
+    }
+    
+    @Test
+    public void testCoalescedUpdates() {
+        WriteBehindQueue queue = queryManager.createWriteBehindQueue(100, null);
+        queue.setFlushInterval(60_000);
+        TypedQuery<UserSession> query = queue.createQuery(UserSession.class);
+        
+        UserSession session = new UserSession();
+        
+        for (int hit = 1; hit <= 100; hit++) {
+            session.setHits(hit);
+            query.update(session);
+        }
+        
+        assertEquals(1, queue.getPendingCount());
+        events.clear();
+        
+        queue.close();
+        assertEquals(0, queue.getPendingCount());
+        
+        //the creation is written once with the last state.
+        assertEquals(1, events.size());
+        assertEquals(100, queryManager.createQuery(UserSession.class).load(session.getId()).getHits());
+    }
+    
+    @Test
+    public void testBackgroundWriter() throws Exception {
+        WriteBehindQueue queue = queryManager.createWriteBehindQueue(1, null);
+        queue.setBatchSize(1);
+        queue.setFlushInterval(60_000);
+        TypedQuery<UserSession> query = queue.createQuery(UserSession.class);
+        
+        //the second session waits until the writer has taken the first one.
+        UserSession firstSession = new UserSession();
+        UserSession secondSession = new UserSession();
+        query.update(firstSession);
+        query.update(secondSession);
+        
+        for (int attempt = 0; attempt < 100 && queryManager.createQuery(UserSession.class).load(secondSession.getId()) == null; attempt++) {
+            Thread.sleep(50);
+        }
+        
+        assertEquals(2, queryManager.createQuery(UserSession.class).getResultList().size());
+        queue.close();
+    }
+    
+    @Test
+    public void testStaleEntity() {
+        UserSession session = new UserSession();
+        UserSession staleSession = new UserSession();
+        queryManager.createQuery(UserSession.class).update(session);
+        queryManager.createQuery(UserSession.class).update(staleSession);
+        queryManager.createQuery("update user_session set version = 5 where id = '" + staleSession.getId() + "'").executeUpdate();
+        
+        List<RuntimeException> errors = new ArrayList<>();
+        WriteBehindQueue queue = queryManager.createWriteBehindQueue(100, null);
+        queue.setFlushInterval(60_000);
+        queue.setErrorHandler(errors::add);
+        
+        session.setHits(1);
+        staleSession.setHits(1);
+        queue.createQuery(UserSession.class).update(session);
+        queue.createQuery(UserSession.class).update(staleSession);
+        queue.flush();
+        
+        //the stale session is discarded, the other one is written.
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof StaleEntityException);
+        assertEquals(1, queryManager.createQuery(UserSession.class).load(session.getId()).getHits());
+        assertEquals(0, queryManager.createQuery(UserSession.class).load(staleSession.getId()).getHits());
+        assertEquals(0, queue.getPendingCount());
+        queue.close();
+    }
+    
+    @Test
+    public void testFailingUpdate() throws Exception {
+        queryManager.createQuery("alter table user_session add constraint hits_limit check (hits < 1000)").executeUpdate();
+        
+        List<RuntimeException> errors = new ArrayList<>();
+        WriteBehindQueue queue = queryManager.createWriteBehindQueue(100, journalFile);
+        queue.setFlushInterval(60_000);
+        queue.setMaxAttempts(2);
+        queue.setErrorHandler(errors::add);
+        
+        List<UserSession> sessions = new ArrayList<>();
+        
+        for (int sessionIdx = 0; sessionIdx < 5; sessionIdx++) {
+            UserSession session = new UserSession();
+            session.setHits(sessionIdx == 2 ? 5000 : sessionIdx);
+            queue.createQuery(UserSession.class).update(session);
+            sessions.add(session);
+        }
+        
+        //the other updates are written, the failing one is retried.
+        try {
+            queue.flush();
+            fail("The failing update should be reported.");
+        } catch (org.ormfux.common.db.exception.SQLException e) {
+            //expected.
+        }
+        
+        assertEquals(4, queryManager.createQuery(UserSession.class).getResultList().size());
+        assertEquals(1, queue.getPendingCount());
+        assertTrue(errors.isEmpty());
+        
+        //after the last attempt, the update is discarded.
+        queue.flush();
+        assertEquals(0, queue.getPendingCount());
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).getMessage().contains(sessions.get(2).getId()));
+        assertEquals(0, Files.size(journalFile));
+        queue.close();
+    }
+    
+    @Test
+    public void testFailingUpdateOfExistingEntities() throws Exception {
+        queryManager.createQuery("alter table user_session add constraint hits_limit check (hits < 1000)").executeUpdate();
+        
+        List<UserSession> sessions = new ArrayList<>();
+        
+        for (int sessionIdx = 0; sessionIdx < 5; sessionIdx++) {
+            UserSession session = new UserSession();
+            queryManager.createQuery(UserSession.class).update(session);
+            sessions.add(session);
+        }
+        
+        List<RuntimeException> errors = new ArrayList<>();
+        WriteBehindQueue queue = queryManager.createWriteBehindQueue(100, journalFile);
+        queue.setFlushInterval(60_000);
+        queue.setMaxAttempts(2);
+        queue.setErrorHandler(errors::add);
+        
+        for (int sessionIdx = 0; sessionIdx < 5; sessionIdx++) {
+            sessions.get(sessionIdx).setHits(sessionIdx == 2 ? 5000 : 10 + sessionIdx);
+            queue.createQuery(UserSession.class).update(sessions.get(sessionIdx));
+        }
+        
+        //the failed batch does not leave the other entities stale.
+        try {
+            queue.flush();
+            fail("The failing update should be reported.");
+        } catch (org.ormfux.common.db.exception.SQLException e) {
+            //expected.
+        }
+        
+        assertTrue(errors.isEmpty());
+        assertEquals(1, queue.getPendingCount());
+        
+        for (int sessionIdx = 0; sessionIdx < 5; sessionIdx++) {
+            UserSession loadedSession = queryManager.createQuery(UserSession.class).load(sessions.get(sessionIdx).getId());
+            assertEquals(sessionIdx == 2 ? 0 : 10 + sessionIdx, loadedSession.getHits());
+            assertEquals(loadedSession.getVersion(), sessions.get(sessionIdx).getVersion());
+        }
+        
+        queue.flush();
+        assertEquals(0, queue.getPendingCount());
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).getMessage().contains(sessions.get(2).getId()));
+        queue.close();
+    }
+    
+    @Test
+    public void testJournalRecovery() throws Exception {
+        UserSession existingSession = new UserSession();
+        queryManager.createQuery(UserSession.class).update(existingSession);
+        
+        //the first queue never writes its updates, as if the application crashed.
+        WriteBehindQueue crashedQueue = queryManager.createWriteBehindQueue(100, journalFile);
+        crashedQueue.setFlushInterval(60_000);
+        UserSession newSession = new UserSession();
+        UserSession deletedSession = new UserSession();
+        newSession.setHits(3);
+        existingSession.setHits(7);
+        crashedQueue.createQuery(UserSession.class).update(newSession);
+        crashedQueue.createQuery(UserSession.class).update(existingSession);
+        crashedQueue.createQuery(UserSession.class).update(deletedSession);
+        crashedQueue.createQuery(UserSession.class).delete(deletedSession);
+        assertEquals(2, crashedQueue.getPendingCount());
+        
+        WriteBehindQueue queue = queryManager.createWriteBehindQueue(100, journalFile);
+        assertEquals(2, queue.getPendingCount());
+        queue.close();
+        
+        assertEquals(3, queryManager.createQuery(UserSession.class).load(newSession.getId()).getHits());
+        assertEquals(7, queryManager.createQuery(UserSession.class).load(existingSession.getId()).getHits());
+        assertEquals(2, queryManager.createQuery(UserSession.class).getResultList().size());
+        assertEquals(0, Files.size(journalFile));
+    }
+    
+    @Entity(table = "user_session")
+    public static class UserSession {
+        
+        @Column(columnName = "id", columnLabel = "id")
+        @Id(RandomIdGenerator.class)
+        private String id;
+        
+        @Column(columnName = "version", columnLabel = "version")
+        @Version
+        private long version;
+        
+        @Column(columnName = "hits", columnLabel = "hits")
+        private long hits;
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public void setVersion(long version) {
+            this.version = version;
+        }
+        
+        public long getHits() {
+            return hits;
+        }
+        
+        public void setHits(long hits) {
+            this.hits = hits;
+        }
+    }
+
+}